@@ -0,0 +1,58 @@
+package lee.terence.alarmclockapp;
+
+import android.app.Application;
+
+import lee.terence.alarmclockapp.actors.AlarmClockActor;
+import lee.terence.alarmclockapp.helpers.AlarmClockMainThreadIoHelper;
+import lee.terence.alarmclockapp.helpers.AlarmClockNotificationHelper;
+import lee.terence.alarmclockapp.helpers.AlarmClockStartupHelper;
+import lee.terence.alarmclockapp.helpers.AlarmClockWidgetHelper;
+
+
+/**
+ * The alarm clock app's Application, created before any of its activities and broadcast
+ * receivers whenever the app's process starts
+ *
+ * Starts warming up the app's startup dependencies in parallel on background threads (see
+ * AlarmClockStartupHelper), so that they are usually ready by the time an activity or
+ * broadcast receiver first needs them on the main thread
+ *
+ * In debug builds, also starts detecting disk reads and writes on the main thread (see
+ * AlarmClockMainThreadIoHelper), before anything else runs on it
+ *
+ * Also subscribes the next alarm widgets and the alarm clock notifications to the changes of
+ * the alarm state (see AlarmClockActor.Observer)
+ *
+ * @author Terence Lee
+ * @see AlarmClockStartupHelper
+ * */
+public class AlarmClockApplication extends Application {
+
+    @Override
+    public void onCreate(){
+        super.onCreate();
+
+        AlarmClockMainThreadIoHelper.startDetectingIfDebug(this);
+
+        AlarmClockStartupHelper.startWarmingUp(this);
+
+        observeAlarmClockState();
+    }
+
+
+    /**
+     * Keep the next alarm widgets and the alarm clock notifications in step with the alarm
+     * state, from whichever activity, broadcast or content provider call it is changed
+     * */
+    private void observeAlarmClockState(){
+
+        AlarmClockActor alarmClockActor = AlarmClockActor.getInstance(this);
+
+        alarmClockActor.addObserver((stateEvents, nextAlarm) ->
+                AlarmClockWidgetHelper.updateWidgetsIfNextAlarmChanged(this, nextAlarm));
+
+        alarmClockActor.addObserver((stateEvents, nextAlarm) ->
+                AlarmClockNotificationHelper.deleteAlarmNotificationsOfAlarmsTurnedOff(this,
+                                                                            stateEvents));
+    }
+}
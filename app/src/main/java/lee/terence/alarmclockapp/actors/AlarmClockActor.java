@@ -0,0 +1,547 @@
+package lee.terence.alarmclockapp.actors;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.Supplier;
+
+import lee.terence.alarmclockapp.helpers.AlarmClockEventLogHelper;
+import lee.terence.alarmclockapp.mediaplayers.AlarmSoundMediaPlayer;
+import lee.terence.alarmclockapp.models.Alarm;
+
+
+/**
+ * A Singleton actor that owns the app's alarm state: the alarms stored in the app's
+ * shared preferences storage, and the alarms set with the Android system AlarmManager
+ *
+ * All reads and changes of the alarm state are submitted to the actor as commands, which are
+ * run one after another on the actor's own background thread. This way, the shared
+ * preferences and AlarmManager calls made on behalf of different callers (the activities and
+ * the broadcast receiver) can never interleave, and none of them run on the main thread
+ *
+ * Commands that are submitted before the actor's thread gets round to them are run together
+ * as one batch, after which the changes of the whole batch are stored and set with the
+ * AlarmManager once. The callbacks of the batch are then called on the main thread
+ *
+ * Observers (e.g. the activities, the next alarm widgets and the notifications) are told on
+ * the main thread of every alarm added, updated, removed or gone off, and of the alarm that
+ * goes off next whenever it changes, so that they only update what has changed rather than
+ * reading the alarm state again. They are told before the callbacks of the batch are called.
+ * If the main thread falls behind, the changes of the batches committed in the meantime are
+ * coalesced into a single delivery (see AlarmClockStateEventBuffer), so that observers are
+ * never handed more than one delivery at a time, nor more than one change per alarm
+ *
+ * A command that throws does not stop the actor: the failure is handed to the caller of that
+ * command alone (rethrown by submitAndWait, or passed to Callback.onCommandFailed), and the
+ * rest of the batch is still committed. The changes the failed command made before throwing
+ * are rolled back if it had set a savepoint, and committed with the batch otherwise
+ *
+ * A caller on another thread that needs the result straight away (e.g. a binder thread of
+ * AlarmClockContentProvider) can instead submit a command and wait until its batch has been
+ * committed, with submitAndWait
+ *
+ * <b>Example Usage:</b>
+ * <pre>
+ *     AlarmClockActor alarmClockActor = AlarmClockActor.getInstance(getApplicationContext());
+ *
+ *     //add an alarm for 5:25pm, and display the alarm time once it has been set
+ *     alarmClockActor.submit(alarmClockState -> alarmClockState.addAlarm(
+ *                  new Alarm.Builder().setHourOfDay(17).setMinute(25)),
+ *                            alarm -> displayAlarmTime(alarm));
+ *
+ *     //delete the alarm of id 3, without waiting for the result
+ *     alarmClockActor.submit(alarmClockState -> {
+ *         alarmClockState.deleteAlarm(3);
+ *         return null;
+ *     });
+ *
+ *     //display the next alarm whenever it changes
+ *     alarmClockActor.addObserver((stateEvents, nextAlarm) -> displayNextAlarm(nextAlarm));
+ *
+ *     //read the checkpoint of upcoming occurrences, without loading the alarm state
+ *     alarmClockActor.submitWithoutAlarmState(
+ *              () -> AlarmClockSharedPreferencesHelper.getUpcomingOccurrences(context),
+ *              upcomingOccurrences -> displayUpcomingOccurrences(upcomingOccurrences));
+ * </pre>
+ *
+ * @author Terence Lee
+ * */
+public class AlarmClockActor {
+
+    /**
+     * A callback to receive the result of a command, called on the main thread once the
+     * batch of commands that the command belongs to has been committed
+     *
+     * @param <T> type of the result of the command
+     * */
+    public interface Callback<T> {
+
+        void onCommandCompleted(T result);
+
+
+        /**
+         * Called on the main thread, instead of onCommandCompleted, if the command threw. The
+         * failure is only logged unless this is overridden
+         *
+         * @param failure the exception that the command threw
+         * */
+        default void onCommandFailed(RuntimeException failure){
+            Log.e(LOG_TAG, "A command submitted to the AlarmClockActor failed", failure);
+        }
+    }
+
+
+    /**
+     * An observer of the alarm state, told on the main thread of the changes of every batch of
+     * commands once they have been committed
+     * */
+    public interface Observer {
+
+        /**
+         * @param stateEvents the alarms added, updated, removed or gone off since the last
+         *                    delivery, coalesced per alarm. May be empty if only the next
+         *                    alarm has changed (e.g. an alarm group has been disabled)
+         * @param nextAlarm the alarm that goes off next, or null if there is none
+         * */
+        void onAlarmClockStateChanged(List<AlarmClockStateEvent> stateEvents, Alarm nextAlarm);
+    }
+
+
+    private static final String LOG_TAG = "AlarmClockActor";
+
+    private static AlarmClockActor instance;
+
+    private final Context applicationContext;
+
+    private final Handler actorThreadHandler;
+
+    private final Handler mainThreadHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Commands that have been submitted but not yet run. Guarded by pendingCommandsLock
+     * */
+    private ArrayList<PendingCommand<?>> pendingCommands = new ArrayList<>();
+
+    /**
+     * Whether a batch has been posted to the actor's thread but not yet started running.
+     * Guarded by pendingCommandsLock
+     * */
+    private boolean isBatchScheduled = false;
+
+    private final Object pendingCommandsLock = new Object();
+
+    /**
+     * The alarm state, loaded on the actor's thread when the first batch is run. Only
+     * accessed from the actor's thread
+     * */
+    private AlarmClockState alarmClockState;
+
+    /**
+     * The observers of the alarm state. Added and removed on any thread, and told on the main
+     * thread
+     * */
+    private final List<Observer> observers = new CopyOnWriteArrayList<>();
+
+    /**
+     * The changes committed but not yet delivered to the observers, and the alarm that goes
+     * off next as of the latest of them. Guarded by pendingStateChangesLock
+     * */
+    private final AlarmClockStateEventBuffer pendingStateEvents = new AlarmClockStateEventBuffer();
+
+    private Alarm pendingNextAlarm;
+
+    /**
+     * Whether a delivery of the pending changes has been posted to the main thread but not yet
+     * run. Guarded by pendingStateChangesLock
+     * */
+    private boolean isStateDeliveryScheduled = false;
+
+    private final Object pendingStateChangesLock = new Object();
+
+    /**
+     * The alarm that goes off next as last handed over for delivery, and whether any has been
+     * handed over yet. Only accessed from the actor's thread
+     * */
+    private Alarm lastPublishedNextAlarm;
+
+    private boolean hasPublishedNextAlarm = false;
+
+
+    /**
+     * Returns the single instance of the actor, starting its thread if it has not yet
+     * been started
+     *
+     * @param context The context to use. Usually your Application or Activity object
+     * */
+    public static synchronized AlarmClockActor getInstance(Context context){
+
+        if (instance == null){
+            instance = new AlarmClockActor(context.getApplicationContext());
+        }
+
+        return instance;
+    }
+
+
+    private AlarmClockActor(Context applicationContext){
+
+        this.applicationContext = applicationContext;
+
+        HandlerThread actorThread = new HandlerThread("AlarmClockActor");
+        actorThread.start();
+
+        this.actorThreadHandler = new Handler(actorThread.getLooper());
+    }
+
+
+    /**
+     * Submit a command to be run on the actor's thread, without a callback
+     *
+     * @param command the command to run
+     * */
+    public void submit(AlarmClockCommand<?> command){
+
+        submit(command, null);
+    }
+
+
+    /**
+     * Submit a command to be run on the actor's thread. The command will be run together
+     * with all the other commands submitted before the actor's thread gets round to it
+     *
+     * @param command the command to run
+     * @param callback the callback to receive the result of the command on the main thread,
+     *                 once the changes of the command have been committed. May be null
+     * */
+    public <T> void submit(AlarmClockCommand<T> command, Callback<T> callback){
+
+        enqueue(new PendingCommand<>(command, callback, null));
+    }
+
+
+    /**
+     * Submit a command to be run on the actor's thread, and wait until the batch of commands
+     * that it belongs to has been committed. The command is run together with all the other
+     * commands submitted before the actor's thread gets round to it, like any other command
+     *
+     * Blocks the calling thread, so is meant for threads that have nothing else to do until
+     * the command has completed, e.g. the binder threads of AlarmClockContentProvider. Must
+     * not be called on the actor's thread, which would wait for itself forever
+     *
+     * @param command the command to run
+     *
+     * @return the result of the command
+     *
+     * @throws RuntimeException the exception that the command threw, if it did. The rest of
+     * the batch of commands is committed all the same
+     * */
+    public <T> T submitAndWait(AlarmClockCommand<T> command){
+
+        if (Looper.myLooper() == actorThreadHandler.getLooper()){
+            throw new IllegalStateException("Cannot wait for a command on the actor's thread");
+        }
+
+        CountDownLatch commitLatch = new CountDownLatch(1);
+
+        PendingCommand<T> pendingCommand = new PendingCommand<>(command, null, commitLatch);
+
+        enqueue(pendingCommand);
+
+        boolean isInterrupted = false;
+
+        while (true){
+
+            try {
+                commitLatch.await();
+                break;
+            }
+            catch (InterruptedException interruptedException){
+                isInterrupted = true;
+            }
+        }
+
+        if (isInterrupted){
+            Thread.currentThread().interrupt();
+        }
+
+        if (pendingCommand.failure != null){
+            throw pendingCommand.failure;
+        }
+
+        return pendingCommand.result;
+    }
+
+
+    /**
+     * Add a command to the pending commands, and schedule a batch to run them if none has
+     * been scheduled yet
+     *
+     * @param pendingCommand the command to add
+     * */
+    private void enqueue(PendingCommand<?> pendingCommand){
+
+        synchronized (pendingCommandsLock){
+
+            pendingCommands.add(pendingCommand);
+
+            if (!isBatchScheduled){
+                isBatchScheduled = true;
+                actorThreadHandler.post(this::runBatchOfPendingCommands);
+            }
+        }
+    }
+
+
+    /**
+     * Start telling an observer of the changes to the alarm state, from the next batch of
+     * commands committed on. The observer is not told of the current alarm state, which may
+     * be read with a command if needed
+     *
+     * @param observer the observer, told on the main thread
+     * */
+    public void addObserver(Observer observer){
+
+        observers.add(observer);
+    }
+
+
+    /**
+     * Stop telling an observer of the changes to the alarm state. The observer is not told of
+     * any change once this has been called on the main thread
+     *
+     * @param observer the observer
+     * */
+    public void removeObserver(Observer observer){
+
+        observers.remove(observer);
+    }
+
+
+    /**
+     * Submit a task that does not need the alarm state to be run on the actor's thread, e.g.
+     * reading the checkpoint of upcoming occurrences. The task is run on its own, rather than
+     * as part of a batch, so it does not wait for the alarm state to be loaded if it is
+     * submitted before the first batch
+     *
+     * Since it runs on the actor's thread, never at the same time as a batch, the task may
+     * change what the actor owns besides the alarm state: the alarms set with the
+     * AlarmManager, the cache of their pending intents and their fire tokens (e.g. restoring
+     * the alarms from the checkpoint after boot). It must leave them as the alarm state
+     * would set them, since the alarm state is loaded without knowing of the task
+     *
+     * If the task throws, the failure is handed to the callback's onCommandFailed (or logged,
+     * if there is no callback), and the actor keeps running
+     *
+     * @param task the task to run
+     * @param callback the callback to receive the result of the task on the main thread. May
+     *                 be null
+     * */
+    public <T> void submitWithoutAlarmState(Supplier<T> task, Callback<T> callback){
+
+        actorThreadHandler.post(() -> {
+
+            T result;
+
+            try {
+                result = task.get();
+            }
+            catch (RuntimeException failure){
+
+                AlarmClockEventLogHelper.recordEvent("Task failed with " + failure);
+
+                if (callback != null){
+                    mainThreadHandler.post(() -> callback.onCommandFailed(failure));
+                }
+                else{
+                    Log.e(LOG_TAG, "A task submitted to the AlarmClockActor failed", failure);
+                }
+
+                return;
+            }
+
+            if (callback != null){
+                mainThreadHandler.post(() -> callback.onCommandCompleted(result));
+            }
+        });
+    }
+
+
+    /**
+     * Run all the pending commands as one batch, commit their changes once, and then tell the
+     * observers of the changes and call the callbacks of the batch on the main thread. Runs on
+     * the actor's thread
+     * */
+    private void runBatchOfPendingCommands(){
+
+        ArrayList<PendingCommand<?>> batch;
+
+        synchronized (pendingCommandsLock){
+            batch = pendingCommands;
+            pendingCommands = new ArrayList<>();
+            isBatchScheduled = false;
+        }
+
+        if (alarmClockState == null){
+            alarmClockState = new AlarmClockState(applicationContext);
+        }
+
+        for (PendingCommand<?> pendingCommand : batch){
+
+            pendingCommand.execute(alarmClockState);
+
+            if (pendingCommand.failure != null){
+
+                AlarmClockEventLogHelper.recordEvent("Command failed with " +
+                                                        pendingCommand.failure);
+
+                //does nothing unless the failed command had set a savepoint
+                alarmClockState.rollbackToSavepoint();
+            }
+        }
+
+        alarmClockState.commitChanges();
+
+        for (PendingCommand<?> pendingCommand : batch){
+            pendingCommand.releaseWaitingThread();
+        }
+
+        publishStateChanges(alarmClockState.takeStateEvents(), alarmClockState.getNextAlarm());
+
+        List<Integer> deletedWarmUpAlarmIds = alarmClockState.takeDeletedWarmUpAlarmIds();
+
+        mainThreadHandler.post(() -> {
+
+            //the alarm sound is only ever played and released on the main thread
+            for (int alarmId : deletedWarmUpAlarmIds){
+                AlarmSoundMediaPlayer.releasePreparedAlarmRingingSound(alarmId);
+            }
+
+            for (PendingCommand<?> pendingCommand : batch){
+                pendingCommand.deliverResult();
+            }
+        });
+    }
+
+
+    /**
+     * Hand the committed changes of a batch over to be delivered to the observers on the main
+     * thread, if any alarm has changed or the next alarm is another one. If a delivery is
+     * already waiting to be run on the main thread, the changes are merged into it rather
+     * than posting another. Runs on the actor's thread
+     *
+     * @param stateEvents the alarms added, updated, removed or gone off in the batch
+     * @param nextAlarm the alarm that goes off next, after the batch
+     * */
+    private void publishStateChanges(List<AlarmClockStateEvent> stateEvents, Alarm nextAlarm){
+
+        if (stateEvents.isEmpty() && hasPublishedNextAlarm &&
+                Alarm.isSameOccurrence(nextAlarm, lastPublishedNextAlarm)){
+            return;
+        }
+
+        lastPublishedNextAlarm = nextAlarm;
+        hasPublishedNextAlarm = true;
+
+        synchronized (pendingStateChangesLock){
+
+            pendingStateEvents.addAll(stateEvents);
+            pendingNextAlarm = nextAlarm;
+
+            if (isStateDeliveryScheduled){
+                return;
+            }
+
+            isStateDeliveryScheduled = true;
+        }
+
+        mainThreadHandler.post(this::deliverPendingStateChanges);
+    }
+
+
+    /**
+     * Tell every observer of all the changes handed over since the last delivery. Runs on the
+     * main thread
+     * */
+    private void deliverPendingStateChanges(){
+
+        List<AlarmClockStateEvent> stateEvents;
+        Alarm nextAlarm;
+
+        synchronized (pendingStateChangesLock){
+            stateEvents = Collections.unmodifiableList(pendingStateEvents.takeEvents());
+            nextAlarm = pendingNextAlarm;
+            isStateDeliveryScheduled = false;
+        }
+
+        for (Observer observer : observers){
+            observer.onAlarmClockStateChanged(stateEvents, nextAlarm);
+        }
+    }
+
+
+    /**
+     * A submitted command, together with its callback, the latch its submitter waits on (if
+     * submitted with submitAndWait) and (once run) its result, or the exception it threw
+     *
+     * @param <T> type of the result of the command
+     * */
+    private static class PendingCommand<T> {
+
+        private final AlarmClockCommand<T> command;
+
+        private final Callback<T> callback;
+
+        private final CountDownLatch commitLatch;
+
+        private T result;
+
+        private RuntimeException failure;
+
+
+        PendingCommand(AlarmClockCommand<T> command, Callback<T> callback,
+                       CountDownLatch commitLatch){
+            this.command = command;
+            this.callback = callback;
+            this.commitLatch = commitLatch;
+        }
+
+        void execute(AlarmClockState alarmClockState){
+
+            try {
+                result = command.execute(alarmClockState);
+            }
+            catch (RuntimeException exception){
+                failure = exception;
+            }
+        }
+
+        void releaseWaitingThread(){
+            if (commitLatch != null){
+                commitLatch.countDown();
+            }
+        }
+
+        void deliverResult(){
+
+            if (callback == null){
+                if (failure != null && commitLatch == null){
+                    Log.e(LOG_TAG, "A command submitted to the AlarmClockActor failed", failure);
+                }
+            }
+            else if (failure != null){
+                callback.onCommandFailed(failure);
+            }
+            else{
+                callback.onCommandCompleted(result);
+            }
+        }
+    }
+}
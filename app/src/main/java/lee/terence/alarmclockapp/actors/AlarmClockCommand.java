@@ -0,0 +1,40 @@
+package lee.terence.alarmclockapp.actors;
+
+
+/**
+ * A command that reads or changes the app's alarm state. Commands are submitted to the
+ * AlarmClockActor, which runs them one after another on its own thread
+ *
+ * <b>Example Usage:</b>
+ * <pre>
+ *     //a command that deletes alarm 3, and returns whether there was an alarm to delete
+ *     AlarmClockCommand&lt;Boolean&gt; deleteAlarmCommand = alarmClockState -> {
+ *
+ *         boolean hadAlarm = alarmClockState.hasAlarm(3);
+ *
+ *         alarmClockState.deleteAlarm(3);
+ *
+ *         return hadAlarm;
+ *     };
+ * </pre>
+ *
+ * @param <T> type of the result of the command
+ *
+ * @see AlarmClockActor#submit(AlarmClockCommand, AlarmClockActor.Callback)
+ *
+ * @author Terence Lee
+ * */
+public interface AlarmClockCommand<T> {
+
+    /**
+     * Run the command. Called on the thread of the AlarmClockActor
+     *
+     * Changes made to the alarm state are not stored or set with the AlarmManager straight
+     * away, but once the whole batch of commands that this command belongs to has been run
+     *
+     * @param alarmClockState the app's alarm state, owned by the AlarmClockActor
+     *
+     * @return the result of the command, to be passed to the callback of the command (if any)
+     * */
+    T execute(AlarmClockState alarmClockState);
+}
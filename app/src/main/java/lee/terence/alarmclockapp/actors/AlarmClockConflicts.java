@@ -0,0 +1,62 @@
+package lee.terence.alarmclockapp.actors;
+
+import java.util.Collections;
+import java.util.List;
+
+import lee.terence.alarmclockapp.models.Alarm;
+
+
+/**
+ * The conflicts of an alarm about to be saved with the alarms already in the alarm state:
+ * the alarm it would duplicate exactly (same recurrence and time), if any, and the alarms it
+ * would collide with (ring within a few minutes of, on the same day)
+ *
+ * An exact duplicate is rejected by the alarm state, while collisions are only reported, for
+ * the user to decide whether to save the alarm anyway
+ *
+ * <b>Example Usage:</b>
+ * <pre>
+ *     AlarmClockActor.getInstance(getApplicationContext()).submit(
+ *              alarmClockState -> alarmClockState.getAlarmConflicts(alarmId, alarmBuilder),
+ *              alarmClockConflicts -> {
+ *
+ *         if (alarmClockConflicts.getDuplicateAlarm() != null){
+ *             //tell the user that the alarm already exists
+ *         }
+ *         else if (!alarmClockConflicts.getCollidingAlarms().isEmpty()){
+ *             //ask the user whether to save the alarm anyway
+ *         }
+ *     });
+ * </pre>
+ *
+ * @author Terence Lee
+ * @see AlarmClockState#getAlarmConflicts(int, Alarm.Builder)
+ * */
+public class AlarmClockConflicts {
+
+    private final Alarm duplicateAlarm;
+
+    private final List<Alarm> collidingAlarms;
+
+
+    AlarmClockConflicts(Alarm duplicateAlarm, List<Alarm> collidingAlarms){
+        this.duplicateAlarm = duplicateAlarm;
+        this.collidingAlarms = Collections.unmodifiableList(collidingAlarms);
+    }
+
+
+    /**
+     * Returns the existing alarm with the same recurrence and time, or null if there is none
+     * */
+    public Alarm getDuplicateAlarm(){
+        return duplicateAlarm;
+    }
+
+    /**
+     * Returns the enabled alarms that collide with the alarm, in order of their time of day.
+     * Empty if there are none
+     * */
+    public List<Alarm> getCollidingAlarms(){
+        return collidingAlarms;
+    }
+}
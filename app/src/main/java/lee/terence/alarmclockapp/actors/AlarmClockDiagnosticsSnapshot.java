@@ -0,0 +1,107 @@
+package lee.terence.alarmclockapp.actors;
+
+import org.json.JSONArray;
+
+import java.util.Collections;
+import java.util.List;
+
+import lee.terence.alarmclockapp.models.Alarm;
+
+
+/**
+ * A snapshot of the alarm state owned by the AlarmClockActor, taken for the diagnostics dump
+ *
+ * The snapshot is taken on the thread of the AlarmClockActor, by copying references only,
+ * and is then read (and turned into JSON) on another thread, so that the AlarmClockActor is
+ * not held up by the dump
+ *
+ * <b>Example Usage:</b>
+ * <pre>
+ *     AlarmClockActor.getInstance(getApplicationContext()).submit(
+ *              AlarmClockState::getDiagnosticsSnapshot,
+ *              alarmClockDiagnosticsSnapshot -> AlarmClockDiagnosticsHelper.dumpDiagnostics(
+ *                      getApplicationContext(), alarmClockDiagnosticsSnapshot, null));
+ * </pre>
+ *
+ * @author Terence Lee
+ * */
+public class AlarmClockDiagnosticsSnapshot {
+
+    private final int numberOfAlarms;
+
+    private final List<Alarm> scheduledAlarms;
+
+    private final List<Alarm> armedAlarms;
+
+    private final long enabledAlarmGroups;
+
+    private final JSONArray cachedPendingIntents;
+
+    private final long snapshotDurationInNanoseconds;
+
+
+    AlarmClockDiagnosticsSnapshot(int numberOfAlarms, List<Alarm> scheduledAlarms,
+                                  List<Alarm> armedAlarms, long enabledAlarmGroups,
+                                  JSONArray cachedPendingIntents,
+                                  long snapshotDurationInNanoseconds){
+        this.numberOfAlarms = numberOfAlarms;
+        this.scheduledAlarms = Collections.unmodifiableList(scheduledAlarms);
+        this.armedAlarms = Collections.unmodifiableList(armedAlarms);
+        this.enabledAlarmGroups = enabledAlarmGroups;
+        this.cachedPendingIntents = cachedPendingIntents;
+        this.snapshotDurationInNanoseconds = snapshotDurationInNanoseconds;
+    }
+
+
+    /**
+     * Returns the number of alarms, enabled or not
+     * */
+    public int getNumberOfAlarms(){
+        return numberOfAlarms;
+    }
+
+
+    /**
+     * Returns the scheduled alarms (the enabled alarms that have an alarm time), ordered by
+     * alarm group, then by precision tier, then by alarm time, as they are kept by the
+     * scheduler
+     * */
+    public List<Alarm> getScheduledAlarms(){
+        return scheduledAlarms;
+    }
+
+
+    /**
+     * Returns the alarms set with the AlarmManager, as they were when they were set
+     * */
+    public List<Alarm> getArmedAlarms(){
+        return armedAlarms;
+    }
+
+
+    /**
+     * Returns the bitmask of the enabled alarm groups. Bit n is set if the alarm group of id n
+     * is enabled
+     * */
+    public long getEnabledAlarmGroups(){
+        return enabledAlarmGroups;
+    }
+
+
+    /**
+     * Returns the cached pending intents of the set alarms and pre-fire warm-up alarms
+     *
+     * @see lee.terence.alarmclockapp.helpers.AlarmClockHelper#getCachedPendingIntentsAsJsonArray()
+     * */
+    public JSONArray getCachedPendingIntents(){
+        return cachedPendingIntents;
+    }
+
+
+    /**
+     * Returns the time the AlarmClockActor took to take the snapshot
+     * */
+    public long getSnapshotDurationInNanoseconds(){
+        return snapshotDurationInNanoseconds;
+    }
+}
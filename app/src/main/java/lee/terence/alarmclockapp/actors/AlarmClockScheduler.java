@@ -0,0 +1,563 @@
+package lee.terence.alarmclockapp.actors;
+
+import android.content.Context;
+import android.util.SparseArray;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import lee.terence.alarmclockapp.helpers.AlarmClockEventLogHelper;
+import lee.terence.alarmclockapp.helpers.AlarmClockHelper;
+import lee.terence.alarmclockapp.models.Alarm;
+import lee.terence.alarmclockapp.models.AlarmPrecisionTier;
+
+
+/**
+ * Decides which alarms are set with the Android system AlarmManager. Owned by the
+ * AlarmClockState, and only ever accessed from the thread of the AlarmClockActor
+ *
+ * Rather than setting every alarm with the AlarmManager, only the earliest upcoming alarms of
+ * each precision tier are set (armed): the earliest alarm, and every other alarm of the tier
+ * that goes off at the same time, so that each alarm goes off with its own broadcast. When
+ * the armed alarms go off, the next earliest alarms of their tier are armed in turn. So
+ * however many alarms are changed at once, re-arming only sets the alarms that go off next
+ *
+ * The earliest alarm of each tier is kept at hand by keeping the scheduled alarms of each
+ * alarm group and tier sorted by alarm time. Only the alarms of enabled alarm groups (and the
+ * alarms that belong to no group) are armed, so switching a whole alarm group on or off is a
+ * single bit flip in the bitmask of enabled alarm groups, followed by a re-arm
+ *
+ * @author Terence Lee
+ * */
+class AlarmClockScheduler {
+
+    /**
+     * Orders alarms by alarm time, and alarms of the same alarm time by id
+     * */
+    private static final Comparator<Alarm> ALARM_TIME_COMPARATOR = (alarm, otherAlarm) -> {
+
+        int alarmTimeComparison = Long.compare(alarm.getAlarmTimeInMillisecondsSinceEpoch(),
+                                                otherAlarm.getAlarmTimeInMillisecondsSinceEpoch());
+
+        if (alarmTimeComparison != 0){
+            return alarmTimeComparison;
+        }
+
+        return Integer.compare(alarm.getId(), otherAlarm.getId());
+    };
+
+    /**
+     * The enabled alarms that have an alarm time, sorted by alarm time, by precision tier, by
+     * alarm group id (Alarm.NO_GROUP for the alarms that belong to no group)
+     * */
+    private final SparseArray<Map<AlarmPrecisionTier, TreeSet<Alarm>>> scheduledAlarmsByGroup =
+                                                                        new SparseArray<>();
+
+    /**
+     * Bitmask of the enabled alarm groups. Bit n is set if the alarm group of id n is enabled
+     * */
+    private long enabledAlarmGroups;
+
+    /**
+     * The alarms currently set with the AlarmManager, by id, as they were when they were set
+     * */
+    private final SparseArray<Alarm> armedAlarms = new SparseArray<>();
+
+
+    /**
+     * @param armedAlarms the alarms that were set with the AlarmManager when the app last
+     *                    re-armed its alarms
+     * @param enabledAlarmGroups bitmask of the enabled alarm groups
+     * */
+    AlarmClockScheduler(Collection<Alarm> armedAlarms, long enabledAlarmGroups){
+
+        this.enabledAlarmGroups = enabledAlarmGroups;
+
+        for (Alarm armedAlarm : armedAlarms){
+            this.armedAlarms.put(armedAlarm.getId(), armedAlarm);
+        }
+    }
+
+
+    /**
+     * Schedule an alarm, if it is enabled and has an alarm time. The alarm must not already
+     * be scheduled; unschedule the old version of a changed alarm first
+     *
+     * @param alarm the alarm to schedule
+     * */
+    void schedule(Alarm alarm){
+
+        if (alarm.isEnabled() &&
+                alarm.getAlarmTimeInMillisecondsSinceEpoch() != Alarm.NO_ALARM_TIME){
+            getScheduledAlarms(alarm.getGroupId(), alarm.getPrecisionTier()).add(alarm);
+        }
+    }
+
+
+    /**
+     * Unschedule an alarm, if it is scheduled
+     *
+     * @param alarm the alarm to unschedule, as it was when it was scheduled
+     * */
+    void unschedule(Alarm alarm){
+        getScheduledAlarms(alarm.getGroupId(), alarm.getPrecisionTier()).remove(alarm);
+    }
+
+
+    /**
+     * Set the bitmask of the enabled alarm groups
+     *
+     * @param enabledAlarmGroups bitmask of the enabled alarm groups. Bit n is set if the
+     *                           alarm group of id n is enabled
+     * */
+    void setEnabledAlarmGroups(long enabledAlarmGroups){
+        this.enabledAlarmGroups = enabledAlarmGroups;
+    }
+
+
+    /**
+     * Returns true if the alarms of the given alarm group are to be armed, and false if
+     * otherwise. The alarms that belong to no group are always to be armed
+     *
+     * @param groupId id of the alarm group, or Alarm.NO_GROUP
+     * */
+    boolean isAlarmGroupEnabled(int groupId){
+        return groupId == Alarm.NO_GROUP || (enabledAlarmGroups & (1L << groupId)) != 0;
+    }
+
+
+    /**
+     * Returns the earliest scheduled alarm that goes off after the given time, or null if there
+     * is no such alarm
+     *
+     * @param afterTimeInMillisecondsSinceEpoch the time after which the alarm goes off
+     * */
+    Alarm getNextScheduledAlarm(long afterTimeInMillisecondsSinceEpoch){
+
+        Alarm nextScheduledAlarm = null;
+
+        for (AlarmPrecisionTier precisionTier : AlarmPrecisionTier.values()){
+
+            Alarm alarm = getNextScheduledAlarm(precisionTier, afterTimeInMillisecondsSinceEpoch);
+
+            if (alarm != null && (nextScheduledAlarm == null ||
+                    ALARM_TIME_COMPARATOR.compare(alarm, nextScheduledAlarm) < 0)){
+                nextScheduledAlarm = alarm;
+            }
+        }
+
+        return nextScheduledAlarm;
+    }
+
+
+    /**
+     * Returns all the scheduled alarms of the enabled alarm groups that go off at or before
+     * the given time
+     *
+     * @param timeInMillisecondsSinceEpoch the time
+     * */
+    List<Alarm> getScheduledAlarmsDueBy(long timeInMillisecondsSinceEpoch){
+
+        List<Alarm> dueAlarms = new ArrayList<>();
+
+        for (int i = 0; i < scheduledAlarmsByGroup.size(); i++){
+
+            if (!isAlarmGroupEnabled(scheduledAlarmsByGroup.keyAt(i))){
+                continue;
+            }
+
+            for (TreeSet<Alarm> scheduledAlarms : scheduledAlarmsByGroup.valueAt(i).values()){
+
+                for (Alarm alarm : scheduledAlarms){
+
+                    if (alarm.getAlarmTimeInMillisecondsSinceEpoch() >
+                                                        timeInMillisecondsSinceEpoch){
+                        break;
+                    }
+
+                    dueAlarms.add(alarm);
+                }
+            }
+        }
+
+        return dueAlarms;
+    }
+
+
+    /**
+     * Returns all the scheduled alarms of the given alarm group that go off at or before the
+     * given time, whether the alarm group is enabled or not
+     *
+     * @param groupId id of the alarm group
+     * @param timeInMillisecondsSinceEpoch the time
+     * */
+    List<Alarm> getScheduledAlarmsDueBy(int groupId, long timeInMillisecondsSinceEpoch){
+
+        List<Alarm> dueAlarms = new ArrayList<>();
+
+        for (AlarmPrecisionTier precisionTier : AlarmPrecisionTier.values()){
+
+            for (Alarm alarm : getScheduledAlarms(groupId, precisionTier)){
+
+                if (alarm.getAlarmTimeInMillisecondsSinceEpoch() > timeInMillisecondsSinceEpoch){
+                    break;
+                }
+
+                dueAlarms.add(alarm);
+            }
+        }
+
+        return dueAlarms;
+    }
+
+
+    /**
+     * Returns up to the given number of the earliest scheduled alarms, among the enabled alarm
+     * groups, that go off after the given time, in order of alarm time
+     *
+     * Takes at most the given number of alarms from the sorted alarms of each enabled alarm
+     * group and precision tier, so it stays cheap however many alarms there are
+     *
+     * @param maximumNumberOfAlarms the maximum number of alarms to return
+     * @param afterTimeInMillisecondsSinceEpoch the time after which the alarms go off
+     * */
+    List<Alarm> getUpcomingScheduledAlarms(int maximumNumberOfAlarms,
+                                           long afterTimeInMillisecondsSinceEpoch){
+
+        //sorts after every alarm going off at the given time
+        Alarm probeAlarm = new Alarm.Builder()
+                .setId(Integer.MAX_VALUE)
+                .setAlarmTime(afterTimeInMillisecondsSinceEpoch)
+                .build();
+
+        List<Alarm> upcomingAlarms = new ArrayList<>();
+
+        for (int i = 0; i < scheduledAlarmsByGroup.size(); i++){
+
+            if (!isAlarmGroupEnabled(scheduledAlarmsByGroup.keyAt(i))){
+                continue;
+            }
+
+            for (TreeSet<Alarm> scheduledAlarms : scheduledAlarmsByGroup.valueAt(i).values()){
+
+                int numberOfAlarmsTaken = 0;
+
+                for (Alarm alarm : scheduledAlarms.tailSet(probeAlarm, false)){
+
+                    if (numberOfAlarmsTaken == maximumNumberOfAlarms){
+                        break;
+                    }
+
+                    upcomingAlarms.add(alarm);
+                    numberOfAlarmsTaken++;
+                }
+            }
+        }
+
+        Collections.sort(upcomingAlarms, ALARM_TIME_COMPARATOR);
+
+        if (upcomingAlarms.size() > maximumNumberOfAlarms){
+            return new ArrayList<>(upcomingAlarms.subList(0, maximumNumberOfAlarms));
+        }
+
+        return upcomingAlarms;
+    }
+
+
+    /**
+     * Returns the alarms that are to be armed after the given time: the earliest scheduled
+     * alarm of each precision tier that goes off after the given time, together with every
+     * other scheduled alarm of the tier, among the enabled alarm groups, that goes off at the
+     * same time. Alarms that go off at the same time are each armed, rather than only one of
+     * them, so that each goes off with its own broadcast
+     *
+     * @param afterTimeInMillisecondsSinceEpoch the time after which the alarms go off
+     * */
+    List<Alarm> getAlarmsToArm(long afterTimeInMillisecondsSinceEpoch){
+
+        List<Alarm> alarmsToArm = new ArrayList<>(AlarmPrecisionTier.values().length);
+
+        for (AlarmPrecisionTier precisionTier : AlarmPrecisionTier.values()){
+
+            Alarm alarm = getNextScheduledAlarm(precisionTier, afterTimeInMillisecondsSinceEpoch);
+
+            if (alarm != null){
+                addScheduledAlarmsGoingOffAt(alarmsToArm, precisionTier,
+                                                alarm.getAlarmTimeInMillisecondsSinceEpoch());
+            }
+        }
+
+        return alarmsToArm;
+    }
+
+
+    /**
+     * Add all the scheduled alarms of the given precision tier, among the enabled alarm groups,
+     * that go off at exactly the given time to the given list
+     *
+     * @param alarms the list to add the alarms to. Will be modified
+     * @param precisionTier the precision tier
+     * @param alarmTimeInMillisecondsSinceEpoch the time the alarms go off
+     * */
+    private void addScheduledAlarmsGoingOffAt(List<Alarm> alarms,
+                                              AlarmPrecisionTier precisionTier,
+                                              long alarmTimeInMillisecondsSinceEpoch){
+
+        //sorts before every alarm going off at the given time
+        Alarm probeAlarm = new Alarm.Builder()
+                .setId(Integer.MIN_VALUE)
+                .setAlarmTime(alarmTimeInMillisecondsSinceEpoch)
+                .build();
+
+        for (int i = 0; i < scheduledAlarmsByGroup.size(); i++){
+
+            if (!isAlarmGroupEnabled(scheduledAlarmsByGroup.keyAt(i))){
+                continue;
+            }
+
+            for (Alarm alarm : scheduledAlarmsByGroup.valueAt(i).get(precisionTier)
+                                                            .tailSet(probeAlarm, false)){
+
+                if (alarm.getAlarmTimeInMillisecondsSinceEpoch() !=
+                                                        alarmTimeInMillisecondsSinceEpoch){
+                    break;
+                }
+
+                alarms.add(alarm);
+            }
+        }
+    }
+
+
+    /**
+     * Forget which alarms are set with the AlarmManager, so that the next re-arm sets all the
+     * alarms to arm again (e.g. once the permission to schedule exact alarms has changed)
+     * */
+    void forgetArmedAlarms(){
+        armedAlarms.clear();
+    }
+
+
+    /**
+     * Returns true if the alarm of the given id is set with the AlarmManager, and false if
+     * otherwise
+     *
+     * @param alarmId id of the alarm
+     * */
+    boolean isArmed(int alarmId){
+        return armedAlarms.get(alarmId) != null;
+    }
+
+
+    /**
+     * Returns the number of alarms set with the AlarmManager
+     * */
+    int getNumberOfArmedAlarms(){
+        return armedAlarms.size();
+    }
+
+
+    /**
+     * Returns the alarms set with the AlarmManager, as they were when they were set
+     * */
+    List<Alarm> getArmedAlarms(){
+
+        List<Alarm> alarms = new ArrayList<>(armedAlarms.size());
+
+        for (int i = 0; i < armedAlarms.size(); i++){
+            alarms.add(armedAlarms.valueAt(i));
+        }
+
+        return alarms;
+    }
+
+
+    /**
+     * Returns all the scheduled alarms, including those of disabled alarm groups, ordered by
+     * alarm group, then by precision tier, then by alarm time
+     *
+     * Only copies the references of the (immutable) alarms, so it stays cheap even with a
+     * large number of alarms
+     * */
+    List<Alarm> getAllScheduledAlarms(){
+
+        List<Alarm> alarms = new ArrayList<>();
+
+        for (int i = 0; i < scheduledAlarmsByGroup.size(); i++){
+
+            for (TreeSet<Alarm> scheduledAlarms : scheduledAlarmsByGroup.valueAt(i).values()){
+                alarms.addAll(scheduledAlarms);
+            }
+        }
+
+        return alarms;
+    }
+
+
+    /**
+     * Returns the bitmask of the enabled alarm groups
+     * */
+    long getEnabledAlarmGroups(){
+        return enabledAlarmGroups;
+    }
+
+
+    /**
+     * Set the given alarms with the AlarmManager, and delete the armed alarms that are not
+     * among them. Alarms that are already armed as they are are left alone
+     *
+     * An armed alarm whose alarm time has already passed is left to go off (it may be a
+     * windowed alarm that has not gone off yet, or an alarm whose broadcast is on its way),
+     * unless it has been changed or deleted since it was armed
+     *
+     * @param context the context to use. May not be null
+     * @param alarmsToArm the alarms to arm, as returned by getAlarmsToArm
+     * @param currentTimeInMillisecondsSinceEpoch the current time
+     * */
+    void rearm(Context context, List<Alarm> alarmsToArm,
+               long currentTimeInMillisecondsSinceEpoch){
+
+        SparseArray<Alarm> newArmedAlarms = new SparseArray<>(alarmsToArm.size());
+
+        for (Alarm alarm : alarmsToArm){
+            newArmedAlarms.put(alarm.getId(), alarm);
+        }
+
+        for (int i = 0; i < armedAlarms.size(); i++){
+
+            Alarm armedAlarm = armedAlarms.valueAt(i);
+
+            if (newArmedAlarms.get(armedAlarm.getId()) != null){
+                continue;
+            }
+
+            boolean isLeftToGoOff = armedAlarm.getAlarmTimeInMillisecondsSinceEpoch() <=
+                    currentTimeInMillisecondsSinceEpoch && isScheduledAs(armedAlarm);
+
+            if (!isLeftToGoOff){
+                AlarmClockHelper.deleteAlarmClockIfAny(context, armedAlarm.getId());
+
+                AlarmClockEventLogHelper.recordEvent("Disarmed alarm " + armedAlarm.getId());
+            }
+        }
+
+        for (Alarm alarm : alarmsToArm){
+
+            if (!isArmedAs(alarm)){
+                AlarmPrecisionTier effectivePrecisionTier =
+                                                AlarmClockHelper.setAlarmClock(context, alarm);
+
+                AlarmClockEventLogHelper.recordEvent("Armed alarm " + alarm.getId() + " for " +
+                        alarm.getAlarmTimeInMillisecondsSinceEpoch() + " as " +
+                        effectivePrecisionTier);
+            }
+        }
+
+        armedAlarms.clear();
+
+        for (Alarm alarm : alarmsToArm){
+            armedAlarms.put(alarm.getId(), alarm);
+        }
+    }
+
+
+    /**
+     * Returns true if the given alarm is scheduled, unchanged, in an enabled alarm group, and
+     * false if otherwise
+     *
+     * @param alarm the alarm
+     * */
+    private boolean isScheduledAs(Alarm alarm){
+        return isAlarmGroupEnabled(alarm.getGroupId()) &&
+                getScheduledAlarms(alarm.getGroupId(), alarm.getPrecisionTier()).contains(alarm);
+    }
+
+
+    /**
+     * Returns true if the given alarm is already set with the AlarmManager to go off at its
+     * alarm time with its precision tier, and false if otherwise
+     *
+     * @param alarm the alarm
+     * */
+    private boolean isArmedAs(Alarm alarm){
+
+        Alarm armedAlarm = armedAlarms.get(alarm.getId());
+
+        return armedAlarm != null &&
+                armedAlarm.getAlarmTimeInMillisecondsSinceEpoch() ==
+                        alarm.getAlarmTimeInMillisecondsSinceEpoch() &&
+                armedAlarm.getPrecisionTier() == alarm.getPrecisionTier() &&
+                armedAlarm.getWindowToleranceInMilliseconds() ==
+                        alarm.getWindowToleranceInMilliseconds();
+    }
+
+
+    /**
+     * Returns the earliest scheduled alarm of the given precision tier, among the enabled alarm
+     * groups, that goes off after the given time, or null if there is no such alarm
+     *
+     * Takes one lookup in the sorted alarms of each enabled alarm group
+     *
+     * @param precisionTier the precision tier
+     * @param afterTimeInMillisecondsSinceEpoch the time after which the alarm goes off
+     * */
+    private Alarm getNextScheduledAlarm(AlarmPrecisionTier precisionTier,
+                                        long afterTimeInMillisecondsSinceEpoch){
+
+        //sorts after every alarm going off at the given time
+        Alarm probeAlarm = new Alarm.Builder()
+                .setId(Integer.MAX_VALUE)
+                .setAlarmTime(afterTimeInMillisecondsSinceEpoch)
+                .build();
+
+        Alarm nextScheduledAlarm = null;
+
+        for (int i = 0; i < scheduledAlarmsByGroup.size(); i++){
+
+            if (!isAlarmGroupEnabled(scheduledAlarmsByGroup.keyAt(i))){
+                continue;
+            }
+
+            Alarm alarm = scheduledAlarmsByGroup.valueAt(i).get(precisionTier).higher(probeAlarm);
+
+            if (alarm != null && (nextScheduledAlarm == null ||
+                    ALARM_TIME_COMPARATOR.compare(alarm, nextScheduledAlarm) < 0)){
+                nextScheduledAlarm = alarm;
+            }
+        }
+
+        return nextScheduledAlarm;
+    }
+
+
+    /**
+     * Returns the sorted scheduled alarms of the given alarm group and precision tier
+     *
+     * @param groupId id of the alarm group, or Alarm.NO_GROUP
+     * @param precisionTier the precision tier
+     * */
+    private TreeSet<Alarm> getScheduledAlarms(int groupId, AlarmPrecisionTier precisionTier){
+
+        Map<AlarmPrecisionTier, TreeSet<Alarm>> scheduledAlarmsByPrecisionTier =
+                                                        scheduledAlarmsByGroup.get(groupId);
+
+        if (scheduledAlarmsByPrecisionTier == null){
+
+            scheduledAlarmsByPrecisionTier = new EnumMap<>(AlarmPrecisionTier.class);
+
+            for (AlarmPrecisionTier tier : AlarmPrecisionTier.values()){
+                scheduledAlarmsByPrecisionTier.put(tier, new TreeSet<>(ALARM_TIME_COMPARATOR));
+            }
+
+            scheduledAlarmsByGroup.put(groupId, scheduledAlarmsByPrecisionTier);
+        }
+
+        return scheduledAlarmsByPrecisionTier.get(precisionTier);
+    }
+}
@@ -0,0 +1,1358 @@
+package lee.terence.alarmclockapp.actors;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.SparseArray;
+
+import org.json.JSONArray;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import lee.terence.alarmclockapp.helpers.AlarmClockCollisionHelper;
+import lee.terence.alarmclockapp.helpers.AlarmClockEventLogHelper;
+import lee.terence.alarmclockapp.helpers.AlarmClockHelper;
+import lee.terence.alarmclockapp.helpers.AlarmClockSharedPreferencesHelper;
+import lee.terence.alarmclockapp.models.Alarm;
+import lee.terence.alarmclockapp.models.AlarmGroup;
+import lee.terence.alarmclockapp.models.AlarmOccurrence;
+import lee.terence.alarmclockapp.models.ExclusionCalendar;
+import lee.terence.alarmclockapp.models.MissedAlarmPolicy;
+import lee.terence.alarmclockapp.providers.AlarmClockContentProvider;
+
+
+/**
+ * The app's alarm state, owned by the AlarmClockActor and only ever accessed from the thread
+ * of the AlarmClockActor (i.e. from within AlarmClockCommands)
+ *
+ * Holds all the alarms by id. New alarms are allocated the lowest id that is not in use, so
+ * the ids (and with them the request codes of the alarms' pending intents) of deleted alarms
+ * are reused
+ *
+ * Also holds the exclusion calendars by name, shared by all the alarms that refer to them,
+ * and the alarm groups together with the bitmask of the enabled alarm groups
+ *
+ * The alarms are also indexed by their canonical hash (see Alarm.getCanonicalHash), so that
+ * adding or changing an alarm into an exact duplicate of another (same recurrence and time),
+ * e.g. when many alarms are imported, is rejected in O(1)
+ *
+ * Changes to the alarm state are kept in memory, and only stored in the app's shared
+ * preferences storage (with a single commit) and re-armed with the Android system
+ * AlarmManager (once) when the AlarmClockActor commits them, once per batch of commands.
+ * Only the earliest alarms of each precision tier are set with the AlarmManager (see
+ * AlarmClockScheduler), so a batch changing many alarms still only makes a few
+ * AlarmManager calls
+ *
+ * Every commit also stores a checkpoint of the next NUMBER_OF_UPCOMING_OCCURRENCES alarm
+ * occurrences (see AlarmClockSharedPreferencesHelper#getUpcomingOccurrences), so that the
+ * next alarms can be displayed, and set again after a reboot, without loading the alarm state
+ *
+ * Every alarm added, updated, removed or gone off is also recorded as an AlarmClockStateEvent,
+ * which the AlarmClockActor delivers to its observers once the changes have been committed
+ *
+ * @author Terence Lee
+ * */
+public class AlarmClockState {
+
+    /**
+     * Number of upcoming alarm occurrences kept in the checkpoint stored at every commit
+     * */
+    static final int NUMBER_OF_UPCOMING_OCCURRENCES = 16;
+
+    /**
+     * Time after a catch-up at which a missed alarm of the RING_LATE policy is set to go off,
+     * through the usual alarm broadcast
+     * */
+    private static final long RING_LATE_DELAY_IN_MILLISECONDS = 5 * 1000;
+
+    /**
+     * Time after which a snoozed alarm goes off again
+     * */
+    public static final long SNOOZE_DURATION_IN_MILLISECONDS = 10 * 60 * 1000;
+
+    private final Context applicationContext;
+
+    /**
+     * All the alarms, by id
+     * */
+    private final SparseArray<Alarm> alarms = new SparseArray<>();
+
+    /**
+     * The ids of all the alarms
+     * */
+    private final BitSet allocatedAlarmIds = new BitSet();
+
+    /**
+     * Ids of all the alarms, by canonical hash. Alarms with the same canonical hash share
+     * an entry; there is usually only one per entry, as exact duplicates are rejected
+     * */
+    private final Map<Long, List<Integer>> alarmIdsByCanonicalHash = new HashMap<>();
+
+    /**
+     * Alarms added or changed since the last commit, by id
+     * */
+    private final SparseArray<Alarm> changedAlarms = new SparseArray<>();
+
+    /**
+     * Ids of the alarms deleted since the last commit
+     * */
+    private final Set<Integer> deletedAlarmIds = new HashSet<>();
+
+    /**
+     * The alarms as they were when the savepoint was set, by id, for those changed or deleted
+     * since (null for an alarm that did not exist then). Null if no savepoint is set
+     * */
+    private Map<Integer, Alarm> alarmsAtSavepoint;
+
+    /**
+     * Alarms added, updated, removed or gone off since the last commit, for the observers of
+     * the AlarmClockActor
+     * */
+    private final AlarmClockStateEventBuffer stateEvents = new AlarmClockStateEventBuffer();
+
+    /**
+     * Ids of the alarms whose pre-fire warm-up alarms are to be deleted at the next commit
+     * */
+    private final Set<Integer> warmUpAlarmIdsToDelete = new HashSet<>();
+
+    /**
+     * Ids of the alarms whose pre-fire warm-up alarms have been deleted since they were last
+     * taken, so that the alarm sounds prepared ahead of them can be released
+     * */
+    private final List<Integer> deletedWarmUpAlarmIds = new ArrayList<>();
+
+    /**
+     * All the exclusion calendars, by name
+     * */
+    private final Map<String, ExclusionCalendar> exclusionCalendars = new HashMap<>();
+
+    /**
+     * Exclusion calendars added or changed since the last commit, by name
+     * */
+    private final Map<String, ExclusionCalendar> changedExclusionCalendars = new HashMap<>();
+
+    /**
+     * All the alarm groups, by id
+     * */
+    private final SparseArray<AlarmGroup> alarmGroups = new SparseArray<>();
+
+    /**
+     * Bitmask of the enabled alarm groups. Bit n is set if the alarm group of id n is enabled
+     * */
+    private long enabledAlarmGroups;
+
+    /**
+     * Alarm groups added since the last commit, by id
+     * */
+    private final SparseArray<AlarmGroup> changedAlarmGroups = new SparseArray<>();
+
+    /**
+     * Ids of the alarm groups deleted since the last commit
+     * */
+    private final Set<Integer> deletedAlarmGroupIds = new HashSet<>();
+
+    /**
+     * Whether the bitmask of the enabled alarm groups has changed since the last commit
+     * */
+    private boolean isEnabledAlarmGroupsChanged = false;
+
+    /**
+     * Time up to which every alarm occurrence has been handled, by going off or by being
+     * caught up on as missed
+     * */
+    private long caughtUpTime;
+
+    /**
+     * Whether the caught up time has changed since the last commit
+     * */
+    private boolean isCaughtUpTimeChanged = false;
+
+    /**
+     * Decides which alarms are set with the AlarmManager
+     * */
+    private final AlarmClockScheduler alarmClockScheduler;
+
+    /**
+     * Whether the alarms set with the AlarmManager are to be re-armed at the next commit
+     * */
+    private boolean isRearmNeeded = false;
+
+
+    /**
+     * Load the alarm state from the app's shared preferences storage. Called on the thread
+     * of the AlarmClockActor
+     *
+     * @param applicationContext the application context
+     * */
+    AlarmClockState(Context applicationContext){
+
+        this.applicationContext = applicationContext;
+
+        for (Alarm alarm : AlarmClockSharedPreferencesHelper.getAllAlarms(applicationContext)){
+            alarms.put(alarm.getId(), alarm);
+            allocatedAlarmIds.set(alarm.getId());
+            indexAlarm(alarm);
+        }
+
+        for (ExclusionCalendar exclusionCalendar :
+                AlarmClockSharedPreferencesHelper.getAllExclusionCalendars(applicationContext)){
+            exclusionCalendars.put(exclusionCalendar.getName(), exclusionCalendar);
+        }
+
+        for (AlarmGroup alarmGroup :
+                AlarmClockSharedPreferencesHelper.getAllAlarmGroups(applicationContext)){
+            alarmGroups.put(alarmGroup.getId(), alarmGroup);
+        }
+
+        enabledAlarmGroups =
+                AlarmClockSharedPreferencesHelper.getEnabledAlarmGroups(applicationContext);
+
+        caughtUpTime = AlarmClockSharedPreferencesHelper.getCaughtUpTime(applicationContext);
+
+        alarmClockScheduler = new AlarmClockScheduler(loadArmedAlarms(), enabledAlarmGroups);
+
+        for (int i = 0; i < alarms.size(); i++){
+            alarmClockScheduler.schedule(alarms.valueAt(i));
+        }
+    }
+
+
+    /**
+     * Returns the alarms that were set with the AlarmManager when the app last re-armed
+     * its alarms. If the app has not yet stored them, every alarm is taken to be set, as
+     * older versions of the app set every alarm with the AlarmManager
+     * */
+    private List<Alarm> loadArmedAlarms(){
+
+        List<Integer> armedAlarmIds =
+                        AlarmClockSharedPreferencesHelper.getArmedAlarmIds(applicationContext);
+
+        if (armedAlarmIds == null){
+            isRearmNeeded = true;
+            return getAllAlarms();
+        }
+
+        List<Alarm> armedAlarms = new ArrayList<>(armedAlarmIds.size());
+
+        for (int armedAlarmId : armedAlarmIds){
+
+            Alarm armedAlarm = alarms.get(armedAlarmId);
+
+            if (armedAlarm != null){
+                armedAlarms.add(armedAlarm);
+            }
+        }
+
+        return armedAlarms;
+    }
+
+
+    /**
+     * Returns the alarm of the given id, or null if there is no such alarm
+     *
+     * @param alarmId id of the alarm
+     * */
+    public Alarm getAlarm(int alarmId){
+        return alarms.get(alarmId);
+    }
+
+
+    /**
+     * Returns true if there is an alarm of the given id, and false if otherwise
+     *
+     * @param alarmId id of the alarm
+     * */
+    public boolean hasAlarm(int alarmId){
+        return alarms.get(alarmId) != null;
+    }
+
+
+    /**
+     * Returns all the alarms, in order of id
+     * */
+    public List<Alarm> getAllAlarms(){
+
+        List<Alarm> allAlarms = new ArrayList<>(alarms.size());
+
+        for (int i = 0; i < alarms.size(); i++){
+            allAlarms.add(alarms.valueAt(i));
+        }
+
+        return allAlarms;
+    }
+
+
+    /**
+     * Returns the enabled alarm that goes off next, or null if there is no enabled alarm that
+     * is still to go off
+     * */
+    public Alarm getNextAlarm(){
+        return alarmClockScheduler.getNextScheduledAlarm(System.currentTimeMillis());
+    }
+
+
+    /**
+     * Returns the number of alarms set with the AlarmManager (at most one per precision tier)
+     * */
+    public int getNumberOfArmedAlarms(){
+        return alarmClockScheduler.getNumberOfArmedAlarms();
+    }
+
+
+    /**
+     * Returns the ringtone uris of all the alarms that ring with a ringtone picked by the user
+     * (enabled or not), e.g. so that their cached copies are evicted last
+     * */
+    public Set<String> getAllRingtoneUris(){
+
+        Set<String> ringtoneUris = new HashSet<>();
+
+        for (int i = 0; i < alarms.size(); i++){
+
+            Alarm alarm = alarms.valueAt(i);
+
+            if (alarm.hasCustomRingtone()){
+                ringtoneUris.add(alarm.getRingtoneUri());
+            }
+        }
+
+        return ringtoneUris;
+    }
+
+
+    /**
+     * Returns a snapshot of the alarm state for the diagnostics dump: the scheduled alarms,
+     * the armed alarms and the cached pending intents
+     *
+     * Only references are copied (the alarms are immutable), so that taking the snapshot holds
+     * up the AlarmClockActor as little as possible, however many alarms there are. The
+     * snapshot is then turned into JSON on another thread. Only the cached pending intents,
+     * of which there are a handful (one per armed alarm and warm-up alarm), are turned into
+     * JSON here, since their cache may only be accessed from this thread
+     * */
+    public AlarmClockDiagnosticsSnapshot getDiagnosticsSnapshot(){
+
+        long startTime = SystemClock.elapsedRealtimeNanos();
+
+        List<Alarm> scheduledAlarms = alarmClockScheduler.getAllScheduledAlarms();
+        List<Alarm> armedAlarms = alarmClockScheduler.getArmedAlarms();
+        JSONArray cachedPendingIntents = AlarmClockHelper.getCachedPendingIntentsAsJsonArray();
+
+        return new AlarmClockDiagnosticsSnapshot(alarms.size(), scheduledAlarms, armedAlarms,
+                alarmClockScheduler.getEnabledAlarmGroups(), cachedPendingIntents,
+                SystemClock.elapsedRealtimeNanos() - startTime);
+    }
+
+
+    /**
+     * Add a new alarm, built from the given builder, to go off at the next occurrence of the
+     * builder's hour of day and minute. The id and alarm time of the builder are ignored,
+     * and set by the alarm state
+     *
+     * If an alarm with the same recurrence and time already exists, no alarm is added
+     *
+     * @param alarmBuilder builder of the alarm, with at least the hour of day and minute set
+     *
+     * @return the new alarm, or null if it would have been a duplicate of an existing alarm
+     * */
+    public Alarm addAlarm(Alarm.Builder alarmBuilder){
+
+        if (findDuplicateAlarm(Alarm.NO_ALARM_ID, alarmBuilder) != null){
+            return null;
+        }
+
+        int alarmId = allocatedAlarmIds.nextClearBit(0);
+
+        allocatedAlarmIds.set(alarmId);
+
+        return putAlarm(createAlarm(alarmId, alarmBuilder));
+    }
+
+
+    /**
+     * Change an existing alarm to the alarm built from the given builder, to go off at the
+     * next occurrence of the builder's hour of day and minute. If there is no alarm of the
+     * given id (e.g. it has been deleted in the meantime), a new alarm is added instead
+     *
+     * If the changed alarm would have the same recurrence and time as another alarm, the
+     * alarm is left unchanged
+     *
+     * @param alarmId id of the alarm to change
+     * @param alarmBuilder builder of the changed alarm, with at least the hour of day and
+     *                     minute set
+     *
+     * @return the changed (or new) alarm, or null if it would have been a duplicate of
+     * another alarm
+     * */
+    public Alarm updateAlarm(int alarmId, Alarm.Builder alarmBuilder){
+
+        if (!hasAlarm(alarmId)){
+            return addAlarm(alarmBuilder);
+        }
+
+        if (findDuplicateAlarm(alarmId, alarmBuilder) != null){
+            return null;
+        }
+
+        return putAlarm(createAlarm(alarmId, alarmBuilder));
+    }
+
+
+    /**
+     * Returns the conflicts that the alarm built from the given builder would have with the
+     * other alarms if it were saved: the alarm it would duplicate exactly, and the enabled
+     * alarms it would collide with (see AlarmClockCollisionHelper)
+     *
+     * The duplicate is looked up in the canonical hash index in O(1). The collisions are
+     * found with a sorted sweep of the enabled alarms, in O(n log n)
+     *
+     * @param alarmId id of the alarm about to be changed, or Alarm.NO_ALARM_ID for a new alarm
+     * @param alarmBuilder builder of the alarm about to be saved
+     * */
+    public AlarmClockConflicts getAlarmConflicts(int alarmId, Alarm.Builder alarmBuilder){
+
+        Alarm duplicateAlarm = findDuplicateAlarm(alarmId, alarmBuilder);
+
+        Alarm alarmToSave = alarmBuilder.setId(alarmId).build();
+
+        List<Alarm> alarmsToSweep = new ArrayList<>(alarms.size() + 1);
+
+        alarmsToSweep.add(alarmToSave);
+
+        for (int i = 0; i < alarms.size(); i++){
+
+            Alarm alarm = alarms.valueAt(i);
+
+            if (alarm.getId() != alarmId && alarm.isEnabled()){
+                alarmsToSweep.add(alarm);
+            }
+        }
+
+        List<Alarm> collidingAlarms = new ArrayList<>();
+
+        for (Alarm[] collidingAlarmPair :
+                AlarmClockCollisionHelper.findCollidingAlarmPairs(alarmsToSweep)){
+
+            if (collidingAlarmPair[0] == alarmToSave){
+                collidingAlarms.add(collidingAlarmPair[1]);
+            }
+            else if (collidingAlarmPair[1] == alarmToSave){
+                collidingAlarms.add(collidingAlarmPair[0]);
+            }
+        }
+
+        Collections.sort(collidingAlarms, (alarm, otherAlarm) -> Integer.compare(
+                alarm.getHourOfDay() * 60 + alarm.getMinute(),
+                otherAlarm.getHourOfDay() * 60 + otherAlarm.getMinute()));
+
+        return new AlarmClockConflicts(duplicateAlarm, collidingAlarms);
+    }
+
+
+    /**
+     * Set all the alarms with the AlarmManager again at the next commit, without changing
+     * them, e.g. once the permission to schedule exact alarms has been granted or revoked
+     * */
+    public void rearmAllAlarms(){
+
+        alarmClockScheduler.forgetArmedAlarms();
+
+        isRearmNeeded = true;
+    }
+
+
+    /**
+     * Enable or disable an alarm, if there is any alarm of the given id. An enabled alarm is
+     * set to go off at its next occurrence from now on
+     *
+     * @param alarmId id of the alarm
+     * @param isEnabled true to enable the alarm, and false to disable it
+     * */
+    public void setAlarmEnabled(int alarmId, boolean isEnabled){
+
+        Alarm alarm = getAlarm(alarmId);
+
+        if (alarm == null || alarm.isEnabled() == isEnabled){
+            return;
+        }
+
+        if (isEnabled){
+            putAlarm(createAlarm(alarmId, alarm.toBuilder().setEnabled(true)));
+        }
+        else{
+            putAlarm(alarm.toBuilder().setEnabled(false).build());
+        }
+    }
+
+
+    /**
+     * Delete an alarm if there is any alarm of the given id. Its id becomes free to be
+     * allocated to a new alarm
+     *
+     * @param alarmId id of the alarm to delete
+     * */
+    public void deleteAlarm(int alarmId){
+
+        if (!hasAlarm(alarmId)){
+            return;
+        }
+
+        recordAlarmAtSavepoint(alarmId);
+
+        stateEvents.add(new AlarmClockStateEvent(AlarmClockStateEvent.Type.REMOVED,
+                                                    alarms.get(alarmId)));
+
+        deleteWarmUpAlarm(alarmId);
+
+        alarmClockScheduler.unschedule(alarms.get(alarmId));
+
+        unindexAlarm(alarms.get(alarmId));
+
+        alarms.remove(alarmId);
+        allocatedAlarmIds.clear(alarmId);
+
+        changedAlarms.remove(alarmId);
+        deletedAlarmIds.add(alarmId);
+
+        isRearmNeeded = true;
+    }
+
+
+    /**
+     * Dismiss an alarm that has gone off: a recurring alarm is set to go off at its next
+     * occurrence, and any other alarm is deleted
+     *
+     * @param alarmId id of the alarm to dismiss
+     * */
+    public void dismissAlarm(int alarmId){
+
+        Alarm alarm = getAlarm(alarmId);
+
+        if (alarm == null){
+            return;
+        }
+
+        AlarmClockEventLogHelper.recordEvent("Dismissed alarm " + alarmId);
+
+        if (alarm.isRecurring()){
+            rescheduleAlarmIfRecurring(alarmId);
+        }
+        else{
+            deleteAlarm(alarmId);
+        }
+    }
+
+
+    /**
+     * Dismiss all the enabled alarms that were to go off at or before the given time, e.g.
+     * once the user has stopped the alarm that went off
+     *
+     * @param timeInMillisecondsSinceEpoch the time
+     *
+     * @return true if any alarm was dismissed, and false if otherwise
+     * */
+    public boolean dismissAlarmsDueBy(long timeInMillisecondsSinceEpoch){
+
+        List<Alarm> dueAlarms =
+                alarmClockScheduler.getScheduledAlarmsDueBy(timeInMillisecondsSinceEpoch);
+
+        for (Alarm dueAlarm : dueAlarms){
+            dismissAlarm(dueAlarm.getId());
+        }
+
+        return !dueAlarms.isEmpty();
+    }
+
+
+    /**
+     * Dismiss the enabled alarms that have gone off (or have been caught up on) but are still
+     * due, e.g. a non-recurring alarm that went off and was never stopped. Alarms that are
+     * due but have not gone off yet (e.g. a WINDOWED alarm within its window) are left alone
+     *
+     * @return true if any alarm was dismissed, and false if otherwise
+     * */
+    public boolean dismissAlarmsGoneOff(){
+        return dismissAlarmsDueBy(caughtUpTime);
+    }
+
+
+    /**
+     * Returns the enabled alarm with the latest alarm time of those that have gone off (or
+     * have been caught up on) but are still due, e.g. a non-recurring alarm that went off and
+     * has not been stopped yet, or null if there is none. A recurring alarm is set to go off
+     * at its next occurrence as soon as it has gone off, so it is never returned
+     * */
+    public Alarm getLatestAlarmGoneOff(){
+
+        Alarm latestAlarmGoneOff = null;
+
+        for (Alarm dueAlarm : alarmClockScheduler.getScheduledAlarmsDueBy(caughtUpTime)){
+
+            if (latestAlarmGoneOff == null ||
+                    dueAlarm.getAlarmTimeInMillisecondsSinceEpoch() >
+                    latestAlarmGoneOff.getAlarmTimeInMillisecondsSinceEpoch()){
+                latestAlarmGoneOff = dueAlarm;
+            }
+        }
+
+        return latestAlarmGoneOff;
+    }
+
+
+    /**
+     * Snooze alarms that have gone off: each is set to go off once more, after
+     * SNOOZE_DURATION_IN_MILLISECONDS from the given time, through the usual alarm broadcast.
+     * A recurring alarm goes back to its usual recurrence once the snoozed alarm has gone off.
+     * Alarms that have been deleted or disabled in the meantime are left alone
+     *
+     * @param alarmIds ids of the alarms to snooze
+     * @param currentTimeInMillisecondsSinceEpoch the current time
+     * */
+    public void snoozeAlarms(int[] alarmIds, long currentTimeInMillisecondsSinceEpoch){
+
+        long snoozedAlarmTime = currentTimeInMillisecondsSinceEpoch +
+                                    SNOOZE_DURATION_IN_MILLISECONDS;
+
+        for (int alarmId : alarmIds){
+
+            Alarm alarm = getAlarm(alarmId);
+
+            if (alarm == null || !alarm.isEnabled()){
+                continue;
+            }
+
+            AlarmClockEventLogHelper.recordEvent("Snoozed alarm " + alarmId + " until " +
+                                                    snoozedAlarmTime);
+
+            putAlarm(alarm.toBuilder()
+                    .setAlarmTime(snoozedAlarmTime)
+                    .build());
+        }
+    }
+
+
+    /**
+     * Catch up on the alarm occurrences that were missed since the last time every occurrence
+     * was handled, e.g. while the device was off or the app was force-stopped
+     *
+     * All the missed occurrences, across all the due alarms of the enabled alarm groups, are
+     * found in one sweep (see AlarmClockHelper#getMissedOccurrences) and recorded. Then each
+     * alarm with missed occurrences is handled according to its missed alarm policy:
+     *      (a) RING_LATE: set to go off once, shortly, through the usual alarm broadcast
+     *      (b) NOTIFY: dismissed, and its missed occurrences returned to be notified of
+     *      (c) SKIP: dismissed
+     *
+     * The alarms are re-armed once, at the next commit, like any other change
+     *
+     * @param currentTimeInMillisecondsSinceEpoch the current time
+     *
+     * @return the missed occurrences of the alarms of the NOTIFY policy, in order of alarm
+     * time, to be notified of
+     * */
+    public List<AlarmOccurrence> catchUpMissedAlarms(long currentTimeInMillisecondsSinceEpoch){
+
+        List<Alarm> dueAlarms =
+                alarmClockScheduler.getScheduledAlarmsDueBy(currentTimeInMillisecondsSinceEpoch);
+
+        List<List<ExclusionCalendar>> exclusionCalendarsOfDueAlarms =
+                                                        new ArrayList<>(dueAlarms.size());
+
+        //occurrences still within their grace period are not caught up on yet
+        long newCaughtUpTime = currentTimeInMillisecondsSinceEpoch;
+
+        for (Alarm dueAlarm : dueAlarms){
+
+            exclusionCalendarsOfDueAlarms.add(getExclusionCalendarsOf(dueAlarm));
+
+            long alarmTime = dueAlarm.getAlarmTimeInMillisecondsSinceEpoch();
+
+            if (alarmTime > caughtUpTime && alarmTime +
+                    AlarmClockHelper.getMissedAlarmGracePeriodInMilliseconds(dueAlarm) >
+                    currentTimeInMillisecondsSinceEpoch){
+                newCaughtUpTime = Math.min(newCaughtUpTime, alarmTime - 1);
+            }
+        }
+
+        List<AlarmOccurrence> missedOccurrences = AlarmClockHelper.getMissedOccurrences(
+                dueAlarms, exclusionCalendarsOfDueAlarms, caughtUpTime,
+                currentTimeInMillisecondsSinceEpoch);
+
+        List<AlarmOccurrence> missedOccurrencesToNotify = new ArrayList<>();
+
+        Set<Integer> handledAlarmIds = new HashSet<>();
+
+        //in reverse, so that each alarm is handled at its latest missed occurrence
+        for (int i = missedOccurrences.size() - 1; i >= 0; i--){
+
+            AlarmOccurrence missedOccurrence = missedOccurrences.get(i);
+
+            int alarmId = missedOccurrence.getAlarmId();
+
+            Alarm alarm = getAlarm(alarmId);
+
+            AlarmClockEventLogHelper.recordEvent("Missed alarm " + alarmId + " at " +
+                    missedOccurrence.getAlarmTimeInMillisecondsSinceEpoch() + ", " +
+                    alarm.getMissedAlarmPolicy());
+
+            if (alarm.getMissedAlarmPolicy() == MissedAlarmPolicy.NOTIFY){
+                missedOccurrencesToNotify.add(0, missedOccurrence);
+            }
+
+            if (!handledAlarmIds.add(alarmId)){
+                continue;
+            }
+
+            if (alarm.getMissedAlarmPolicy() == MissedAlarmPolicy.RING_LATE){
+                putAlarm(alarm.toBuilder()
+                        .setAlarmTime(currentTimeInMillisecondsSinceEpoch +
+                                        RING_LATE_DELAY_IN_MILLISECONDS)
+                        .build());
+            }
+            else{
+                dismissAlarm(alarmId);
+            }
+        }
+
+        if (newCaughtUpTime > caughtUpTime){
+            caughtUpTime = newCaughtUpTime;
+            isCaughtUpTimeChanged = true;
+        }
+
+        return missedOccurrencesToNotify;
+    }
+
+
+    /**
+     * Handle an alarm having gone off: delete its pre-fire warm-up alarm, set every recurring
+     * alarm that was due by then to go off at its next occurrence, and arm the next alarms.
+     * Other due alarms that are still armed (e.g. those going off at the same time) are left
+     * alone, since each goes off with its own broadcast, and is handled once it has.
+     * Every occurrence up to its alarm time is then taken to have been handled, so it is not
+     * caught up on as missed
+     *
+     * @param alarmId id of the alarm that has gone off
+     * @param alarmTimeInMillisecondsSinceEpoch the time the alarm was set to go off
+     * */
+    public void handleAlarmGoneOff(int alarmId, long alarmTimeInMillisecondsSinceEpoch){
+
+        if (hasAlarm(alarmId)){
+            stateEvents.add(new AlarmClockStateEvent(AlarmClockStateEvent.Type.FIRED,
+                                                        getAlarm(alarmId)));
+        }
+
+        deleteWarmUpAlarm(alarmId);
+
+        if (alarmTimeInMillisecondsSinceEpoch > caughtUpTime){
+            caughtUpTime = alarmTimeInMillisecondsSinceEpoch;
+            isCaughtUpTimeChanged = true;
+        }
+
+        rescheduleAlarmIfRecurring(alarmId);
+
+        for (Alarm dueAlarm :
+                alarmClockScheduler.getScheduledAlarmsDueBy(alarmTimeInMillisecondsSinceEpoch)){
+
+            if (!alarmClockScheduler.isArmed(dueAlarm.getId())){
+                rescheduleAlarmIfRecurring(dueAlarm.getId());
+            }
+        }
+
+        isRearmNeeded = true;
+    }
+
+
+    /**
+     * Set a recurring alarm to go off at its next occurrence from now on, e.g. as soon as it
+     * has gone off. Does nothing if the alarm does not recur
+     *
+     * @param alarmId id of the alarm
+     * */
+    public void rescheduleAlarmIfRecurring(int alarmId){
+
+        Alarm alarm = getAlarm(alarmId);
+
+        if (alarm != null && alarm.isRecurring()){
+            putAlarm(createAlarm(alarmId, alarm.toBuilder()));
+        }
+    }
+
+
+    /**
+     * Returns the names of all the exclusion calendars, in alphabetical order
+     * */
+    public List<String> getAllExclusionCalendarNames(){
+
+        List<String> exclusionCalendarNames = new ArrayList<>(exclusionCalendars.keySet());
+
+        Collections.sort(exclusionCalendarNames);
+
+        return exclusionCalendarNames;
+    }
+
+
+    /**
+     * Add an exclusion calendar, replacing any exclusion calendar of the same name. The
+     * alarms that refer to it are set to go off at their next occurrence that it does not
+     * exclude
+     *
+     * @param exclusionCalendar the exclusion calendar
+     * */
+    public void putExclusionCalendar(ExclusionCalendar exclusionCalendar){
+
+        exclusionCalendars.put(exclusionCalendar.getName(), exclusionCalendar);
+        changedExclusionCalendars.put(exclusionCalendar.getName(), exclusionCalendar);
+
+        for (int i = 0; i < alarms.size(); i++){
+
+            Alarm alarm = alarms.valueAt(i);
+
+            if (alarm.getExclusionCalendarNames().contains(exclusionCalendar.getName())){
+                putAlarm(createAlarm(alarm.getId(), alarm.toBuilder()));
+            }
+        }
+    }
+
+
+    /**
+     * Returns all the alarm groups, in order of id
+     * */
+    public List<AlarmGroup> getAllAlarmGroups(){
+
+        List<AlarmGroup> allAlarmGroups = new ArrayList<>(alarmGroups.size());
+
+        for (int i = 0; i < alarmGroups.size(); i++){
+            allAlarmGroups.add(alarmGroups.valueAt(i));
+        }
+
+        return allAlarmGroups;
+    }
+
+
+    /**
+     * Returns true if there is an alarm group of the given id, and false if otherwise
+     *
+     * @param alarmGroupId id of the alarm group
+     * */
+    public boolean hasAlarmGroup(int alarmGroupId){
+        return alarmGroups.get(alarmGroupId) != null;
+    }
+
+
+    /**
+     * Returns true if the alarm group of the given id is enabled, and false if otherwise
+     *
+     * @param alarmGroupId id of the alarm group
+     * */
+    public boolean isAlarmGroupEnabled(int alarmGroupId){
+        return (enabledAlarmGroups & (1L << alarmGroupId)) != 0;
+    }
+
+
+    /**
+     * Add a new, enabled, alarm group. It is allocated the lowest id that is not in use
+     *
+     * @param name user visible name of the alarm group
+     *
+     * @return the new alarm group, or null if there are already
+     * AlarmGroup.MAXIMUM_NUMBER_OF_ALARM_GROUPS alarm groups
+     * */
+    public AlarmGroup addAlarmGroup(String name){
+
+        for (int alarmGroupId = 0; alarmGroupId < AlarmGroup.MAXIMUM_NUMBER_OF_ALARM_GROUPS;
+                                                                            alarmGroupId++){
+
+            if (alarmGroups.get(alarmGroupId) == null){
+
+                AlarmGroup alarmGroup = new AlarmGroup(alarmGroupId, name);
+
+                alarmGroups.put(alarmGroupId, alarmGroup);
+                changedAlarmGroups.put(alarmGroupId, alarmGroup);
+                deletedAlarmGroupIds.remove(alarmGroupId);
+
+                setAlarmGroupEnabled(alarmGroupId, true);
+
+                return alarmGroup;
+            }
+        }
+
+        return null;
+    }
+
+
+    /**
+     * Delete an alarm group, if there is any alarm group of the given id. Its alarms are kept,
+     * and no longer belong to any alarm group
+     *
+     * @param alarmGroupId id of the alarm group to delete
+     * */
+    public void deleteAlarmGroup(int alarmGroupId){
+
+        if (alarmGroups.get(alarmGroupId) == null){
+            return;
+        }
+
+        for (Alarm alarm : getAllAlarms()){
+
+            if (alarm.getGroupId() == alarmGroupId){
+                putAlarm(createAlarm(alarm.getId(), alarm.toBuilder().setGroupId(Alarm.NO_GROUP)));
+            }
+        }
+
+        setAlarmGroupEnabled(alarmGroupId, false);
+
+        alarmGroups.remove(alarmGroupId);
+        changedAlarmGroups.remove(alarmGroupId);
+        deletedAlarmGroupIds.add(alarmGroupId);
+    }
+
+
+    /**
+     * Enable or disable an alarm group: a single bit flip in the bitmask of the enabled alarm
+     * groups, after which the alarms are re-armed at the next commit. None of the alarms of
+     * the alarm group are changed, apart from those that were to go off while the alarm group
+     * was disabled, which are set to go off at their next occurrence once it is enabled again
+     *
+     * @param alarmGroupId id of the alarm group
+     * @param isEnabled true to enable the alarm group, and false to disable it
+     * */
+    public void setAlarmGroupEnabled(int alarmGroupId, boolean isEnabled){
+
+        if (alarmGroups.get(alarmGroupId) == null ||
+                isAlarmGroupEnabled(alarmGroupId) == isEnabled){
+            return;
+        }
+
+        enabledAlarmGroups ^= 1L << alarmGroupId;
+
+        alarmClockScheduler.setEnabledAlarmGroups(enabledAlarmGroups);
+
+        if (isEnabled){
+
+            for (Alarm lapsedAlarm : alarmClockScheduler.getScheduledAlarmsDueBy(alarmGroupId,
+                                                                System.currentTimeMillis())){
+                putAlarm(createAlarm(lapsedAlarm.getId(), lapsedAlarm.toBuilder()));
+            }
+        }
+
+        isEnabledAlarmGroupsChanged = true;
+        isRearmNeeded = true;
+    }
+
+
+    /**
+     * Delete the pre-fire warm-up alarm of an alarm, e.g. once the actual alarm has gone off
+     *
+     * @param alarmId id of the actual alarm
+     * */
+    public void deleteWarmUpAlarm(int alarmId){
+        warmUpAlarmIdsToDelete.add(alarmId);
+    }
+
+
+    /**
+     * Set a savepoint, to which the alarms can be rolled back with rollbackToSavepoint if a
+     * series of changes fails half way through (e.g. a batch of AlarmClockContentProvider
+     * operations), so that the series is committed either in full or not at all. Only the
+     * alarms are rolled back, and savepoints do not nest
+     *
+     * @see AlarmClockState#releaseSavepoint()
+     * */
+    public void setSavepoint(){
+        alarmsAtSavepoint = new HashMap<>();
+    }
+
+
+    /**
+     * Put back every alarm changed, added or deleted since the savepoint as it was when the
+     * savepoint was set, and release the savepoint
+     * */
+    public void rollbackToSavepoint(){
+
+        Map<Integer, Alarm> alarmsToRestore = alarmsAtSavepoint;
+
+        alarmsAtSavepoint = null;
+
+        if (alarmsToRestore == null){
+            return;
+        }
+
+        for (Map.Entry<Integer, Alarm> alarmToRestore : alarmsToRestore.entrySet()){
+
+            if (alarmToRestore.getValue() == null){
+                deleteAlarm(alarmToRestore.getKey());
+            }
+            else{
+                putAlarm(alarmToRestore.getValue());
+            }
+        }
+    }
+
+
+    /**
+     * Returns true if a savepoint is set, and false if otherwise
+     * */
+    public boolean hasSavepoint(){
+        return alarmsAtSavepoint != null;
+    }
+
+
+    /**
+     * Release the savepoint, keeping the changes made since it was set
+     * */
+    public void releaseSavepoint(){
+        alarmsAtSavepoint = null;
+    }
+
+
+    /**
+     * Record an alarm as it is before its first change since the savepoint, if a savepoint
+     * is set
+     *
+     * @param alarmId id of the alarm about to be changed, added or deleted
+     * */
+    private void recordAlarmAtSavepoint(int alarmId){
+
+        if (alarmsAtSavepoint != null && !alarmsAtSavepoint.containsKey(alarmId)){
+            alarmsAtSavepoint.put(alarmId, alarms.get(alarmId));
+        }
+    }
+
+
+    /**
+     * Store the changes made since the last commit in the app's shared preferences storage
+     * with a single commit, and re-arm the alarms set with the AlarmManager once
+     *
+     * Observers of AlarmClockContentProvider are then notified of each alarm changed, added
+     * or deleted, by the alarm's own uri, so that they only reload the alarms that changed
+     * */
+    void commitChanges(){
+
+        if (changedAlarms.size() == 0 && deletedAlarmIds.isEmpty()
+                && warmUpAlarmIdsToDelete.isEmpty() && changedExclusionCalendars.isEmpty()
+                && changedAlarmGroups.size() == 0 && deletedAlarmGroupIds.isEmpty()
+                && !isEnabledAlarmGroupsChanged && !isCaughtUpTimeChanged && !isRearmNeeded){
+            return;
+        }
+
+        long currentTime = System.currentTimeMillis();
+
+        AlarmClockSharedPreferencesHelper.AlarmChangesEditor alarmChangesEditor =
+                AlarmClockSharedPreferencesHelper.editAlarmChanges(applicationContext);
+
+        for (int i = 0; i < changedAlarms.size(); i++){
+            alarmChangesEditor.putAlarm(changedAlarms.valueAt(i));
+        }
+
+        for (int alarmId : deletedAlarmIds){
+            alarmChangesEditor.removeAlarm(alarmId);
+        }
+
+        for (ExclusionCalendar exclusionCalendar : changedExclusionCalendars.values()){
+            alarmChangesEditor.putExclusionCalendar(exclusionCalendar);
+        }
+
+        for (int i = 0; i < changedAlarmGroups.size(); i++){
+            alarmChangesEditor.putAlarmGroup(changedAlarmGroups.valueAt(i));
+        }
+
+        for (int alarmGroupId : deletedAlarmGroupIds){
+            alarmChangesEditor.removeAlarmGroup(alarmGroupId);
+        }
+
+        if (isEnabledAlarmGroupsChanged){
+            alarmChangesEditor.setEnabledAlarmGroups(enabledAlarmGroups);
+        }
+
+        if (isCaughtUpTimeChanged){
+            alarmChangesEditor.setCaughtUpTime(caughtUpTime);
+        }
+
+        List<Alarm> alarmsToArm = isRearmNeeded ?
+                alarmClockScheduler.getAlarmsToArm(currentTime) : null;
+
+        if (alarmsToArm != null){
+
+            List<Integer> armedAlarmIds = new ArrayList<>(alarmsToArm.size());
+
+            for (Alarm alarm : alarmsToArm){
+                armedAlarmIds.add(alarm.getId());
+            }
+
+            alarmChangesEditor.setArmedAlarmIds(armedAlarmIds);
+        }
+
+        alarmChangesEditor.setUpcomingOccurrences(getUpcomingOccurrences(currentTime));
+
+        alarmChangesEditor.apply();
+
+        if (alarmsToArm != null){
+            alarmClockScheduler.rearm(applicationContext, alarmsToArm, currentTime);
+        }
+
+        for (int alarmId : warmUpAlarmIdsToDelete){
+
+            if (!alarmClockScheduler.isArmed(alarmId)){
+                AlarmClockHelper.deleteWarmUpAlarmIfAny(applicationContext, alarmId);
+                deletedWarmUpAlarmIds.add(alarmId);
+            }
+        }
+
+        if (changedAlarms.size() > 0 || !deletedAlarmIds.isEmpty()){
+
+            List<Integer> changedAlarmIds =
+                    new ArrayList<>(changedAlarms.size() + deletedAlarmIds.size());
+
+            for (int i = 0; i < changedAlarms.size(); i++){
+                changedAlarmIds.add(changedAlarms.keyAt(i));
+            }
+
+            changedAlarmIds.addAll(deletedAlarmIds);
+
+            AlarmClockContentProvider.notifyAlarmsChanged(applicationContext, changedAlarmIds);
+        }
+
+        changedAlarms.clear();
+        deletedAlarmIds.clear();
+        warmUpAlarmIdsToDelete.clear();
+        changedExclusionCalendars.clear();
+        changedAlarmGroups.clear();
+        deletedAlarmGroupIds.clear();
+        isEnabledAlarmGroupsChanged = false;
+        isCaughtUpTimeChanged = false;
+        isRearmNeeded = false;
+    }
+
+
+    /**
+     * Returns the alarms added, updated, removed or gone off since the last time they were
+     * taken, coalesced per alarm (see AlarmClockStateEventBuffer). Called by the
+     * AlarmClockActor once it has committed the changes, to deliver them to its observers
+     * */
+    List<AlarmClockStateEvent> takeStateEvents(){
+        return stateEvents.takeEvents();
+    }
+
+
+    /**
+     * Returns the ids of the alarms whose pre-fire warm-up alarms have been deleted since the
+     * last time they were taken. Called by the AlarmClockActor once it has committed the
+     * changes, to release the alarm sounds prepared ahead of them on the main thread
+     * */
+    List<Integer> takeDeletedWarmUpAlarmIds(){
+
+        List<Integer> alarmIds = new ArrayList<>(deletedWarmUpAlarmIds);
+
+        deletedWarmUpAlarmIds.clear();
+
+        return alarmIds;
+    }
+
+
+    /**
+     * Returns the next NUMBER_OF_UPCOMING_OCCURRENCES occurrences, after the given time, of
+     * the scheduled alarms of the enabled alarm groups, in order of alarm time
+     *
+     * A recurring alarm may make up several of the occurrences (e.g. an alarm every weekday
+     * that is the only alarm), so the occurrences are merged from a priority queue: each time
+     * an occurrence of a recurring alarm is taken, the alarm's following occurrence is put in
+     *
+     * @param afterTimeInMillisecondsSinceEpoch the time after which the occurrences are
+     * */
+    private List<AlarmOccurrence> getUpcomingOccurrences(long afterTimeInMillisecondsSinceEpoch){
+
+        PriorityQueue<AlarmOccurrence> alarmOccurrenceQueue =
+                    new PriorityQueue<>(NUMBER_OF_UPCOMING_OCCURRENCES,
+                                        AlarmOccurrence.ALARM_TIME_COMPARATOR);
+
+        for (Alarm alarm : alarmClockScheduler.getUpcomingScheduledAlarms(
+                        NUMBER_OF_UPCOMING_OCCURRENCES, afterTimeInMillisecondsSinceEpoch)){
+
+            alarmOccurrenceQueue.add(AlarmOccurrence.fromAlarm(alarm,
+                                            alarm.getAlarmTimeInMillisecondsSinceEpoch()));
+        }
+
+        List<AlarmOccurrence> upcomingOccurrences =
+                                        new ArrayList<>(NUMBER_OF_UPCOMING_OCCURRENCES);
+
+        while (upcomingOccurrences.size() < NUMBER_OF_UPCOMING_OCCURRENCES &&
+                !alarmOccurrenceQueue.isEmpty()){
+
+            AlarmOccurrence alarmOccurrence = alarmOccurrenceQueue.poll();
+
+            upcomingOccurrences.add(alarmOccurrence);
+
+            Alarm alarm = alarms.get(alarmOccurrence.getAlarmId());
+
+            if (!alarm.isRecurring()){
+                continue;
+            }
+
+            long followingAlarmTime = AlarmClockHelper.getNextAlarmTime(alarm,
+                    getExclusionCalendarsOf(alarm),
+                    alarmOccurrence.getAlarmTimeInMillisecondsSinceEpoch());
+
+            if (followingAlarmTime != Alarm.NO_ALARM_TIME){
+                alarmOccurrenceQueue.add(AlarmOccurrence.fromAlarm(alarm, followingAlarmTime));
+            }
+        }
+
+        return upcomingOccurrences;
+    }
+
+
+    /**
+     * Put a new or changed alarm into the alarm state, to be stored and set at the next commit
+     *
+     * @param alarm the new or changed alarm
+     *
+     * @return the given alarm
+     * */
+    private Alarm putAlarm(Alarm alarm){
+
+        recordAlarmAtSavepoint(alarm.getId());
+
+        Alarm oldAlarm = alarms.get(alarm.getId());
+
+        if (oldAlarm != null){
+            alarmClockScheduler.unschedule(oldAlarm);
+            unindexAlarm(oldAlarm);
+        }
+
+        alarms.put(alarm.getId(), alarm);
+        indexAlarm(alarm);
+
+        //the id may have been freed by deleting the alarm, e.g. one restored by a rollback
+        allocatedAlarmIds.set(alarm.getId());
+
+        alarmClockScheduler.schedule(alarm);
+
+        stateEvents.add(new AlarmClockStateEvent(oldAlarm == null ?
+                AlarmClockStateEvent.Type.ADDED : AlarmClockStateEvent.Type.UPDATED, alarm));
+
+        changedAlarms.put(alarm.getId(), alarm);
+        deletedAlarmIds.remove(alarm.getId());
+
+        isRearmNeeded = true;
+
+        return alarm;
+    }
+
+
+    /**
+     * Returns the alarm, other than the alarm of the given id, that has the same recurrence
+     * and time as the alarm built from the given builder, or null if there is none. Looked
+     * up in the canonical hash index, in O(1)
+     *
+     * @param alarmId id of the alarm about to be changed (which is not its own duplicate), or
+     *                Alarm.NO_ALARM_ID for a new alarm
+     * @param alarmBuilder builder of the alarm about to be saved
+     * */
+    private Alarm findDuplicateAlarm(int alarmId, Alarm.Builder alarmBuilder){
+
+        Alarm alarmToSave = alarmBuilder.setId(alarmId).build();
+
+        List<Integer> alarmIds = alarmIdsByCanonicalHash.get(alarmToSave.getCanonicalHash());
+
+        if (alarmIds == null){
+            return null;
+        }
+
+        for (int otherAlarmId : alarmIds){
+
+            Alarm otherAlarm = alarms.get(otherAlarmId);
+
+            if (otherAlarmId != alarmId && otherAlarm.hasSameRecurrenceAndTime(alarmToSave)){
+                return otherAlarm;
+            }
+        }
+
+        return null;
+    }
+
+
+    /**
+     * Add an alarm to the canonical hash index
+     *
+     * @param alarm the alarm
+     * */
+    private void indexAlarm(Alarm alarm){
+
+        alarmIdsByCanonicalHash.computeIfAbsent(alarm.getCanonicalHash(),
+                canonicalHash -> new ArrayList<>(1)).add(alarm.getId());
+    }
+
+
+    /**
+     * Remove an alarm from the canonical hash index
+     *
+     * @param alarm the alarm, as it was indexed
+     * */
+    private void unindexAlarm(Alarm alarm){
+
+        long canonicalHash = alarm.getCanonicalHash();
+
+        List<Integer> alarmIds = alarmIdsByCanonicalHash.get(canonicalHash);
+
+        if (alarmIds == null){
+            return;
+        }
+
+        alarmIds.remove(Integer.valueOf(alarm.getId()));
+
+        if (alarmIds.isEmpty()){
+            alarmIdsByCanonicalHash.remove(canonicalHash);
+        }
+    }
+
+
+    /**
+     * Create an alarm from the given builder, to go off at the next occurrence (from now on)
+     * of the builder's hour of day and minute, on the builder's repeat days if any, that is
+     * not excluded by its exclusion calendars
+     *
+     * @param alarmId id of the alarm
+     * @param alarmBuilder builder of the alarm
+     * */
+    private Alarm createAlarm(int alarmId, Alarm.Builder alarmBuilder){
+
+        Alarm alarm = alarmBuilder.setId(alarmId).build();
+
+        long nextAlarmTime = AlarmClockHelper.getNextAlarmTime(alarm,
+                                getExclusionCalendarsOf(alarm), System.currentTimeMillis());
+
+        return alarm.toBuilder()
+                .setAlarmTime(nextAlarmTime)
+                .build();
+    }
+
+
+    /**
+     * Returns the exclusion calendars that an alarm refers to. Names of exclusion calendars
+     * that do not exist are ignored
+     *
+     * @param alarm the alarm
+     * */
+    private List<ExclusionCalendar> getExclusionCalendarsOf(Alarm alarm){
+
+        List<ExclusionCalendar> exclusionCalendarsOfAlarm =
+                                    new ArrayList<>(alarm.getExclusionCalendarNames().size());
+
+        for (String exclusionCalendarName : alarm.getExclusionCalendarNames()){
+
+            ExclusionCalendar exclusionCalendar = exclusionCalendars.get(exclusionCalendarName);
+
+            if (exclusionCalendar != null){
+                exclusionCalendarsOfAlarm.add(exclusionCalendar);
+            }
+        }
+
+        return exclusionCalendarsOfAlarm;
+    }
+}
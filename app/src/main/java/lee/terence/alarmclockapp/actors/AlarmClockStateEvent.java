@@ -0,0 +1,70 @@
+package lee.terence.alarmclockapp.actors;
+
+import lee.terence.alarmclockapp.models.Alarm;
+
+
+/**
+ * A change of the alarm state, as delivered to the observers of the AlarmClockActor: an
+ * alarm that has been added, updated (changed, enabled, disabled or set to go off at its
+ * next occurrence), removed, or that has gone off
+ *
+ * Events are coalesced per alarm before they are delivered (see AlarmClockStateEventBuffer),
+ * so an observer gets at most one change event and one fired event per alarm per delivery,
+ * describing the alarm as it is by then
+ *
+ * <b>Example Usage:</b>
+ * <pre>
+ *     AlarmClockActor.getInstance(getApplicationContext()).addObserver(
+ *                                                      (stateEvents, nextAlarm) -> {
+ *
+ *         for (AlarmClockStateEvent stateEvent : stateEvents){
+ *
+ *             if (stateEvent.getType() == AlarmClockStateEvent.Type.REMOVED){
+ *                 removeAlarmRow(stateEvent.getAlarmId());
+ *             }
+ *         }
+ *     });
+ * </pre>
+ *
+ * @author Terence Lee
+ * @see AlarmClockActor#addObserver(AlarmClockActor.Observer)
+ * */
+public class AlarmClockStateEvent {
+
+    public enum Type {
+        ADDED,
+        UPDATED,
+        REMOVED,
+        FIRED
+    }
+
+
+    private final Type type;
+
+    private final Alarm alarm;
+
+
+    AlarmClockStateEvent(Type type, Alarm alarm){
+        this.type = type;
+        this.alarm = alarm;
+    }
+
+
+    public Type getType(){
+        return type;
+    }
+
+
+    public int getAlarmId(){
+        return alarm.getId();
+    }
+
+
+    /**
+     * Returns the alarm as it is after the change, or, for a REMOVED event, as it was before
+     * it was removed, or, for a FIRED event, as it was when it went off
+     * */
+    public Alarm getAlarm(){
+        return alarm;
+    }
+}
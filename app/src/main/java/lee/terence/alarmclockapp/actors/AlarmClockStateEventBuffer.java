@@ -0,0 +1,128 @@
+package lee.terence.alarmclockapp.actors;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * A buffer of alarm state events that coalesces them per alarm as they are added, so that
+ * it never holds more than one change event (ADDED, UPDATED or REMOVED) and one FIRED event
+ * per alarm, however many events are added to it. A later change of an alarm is merged into
+ * its earlier one:
+ *      (a) ADDED then UPDATED becomes ADDED, of the updated alarm
+ *      (b) ADDED then REMOVED cancels out, as if the alarm had never been added
+ *      (c) UPDATED then UPDATED or REMOVED becomes the later event
+ *      (d) REMOVED then ADDED (the id reused by a new alarm) becomes UPDATED, of the new alarm
+ *
+ * A later FIRED event of an alarm replaces its earlier one. FIRED events are taken before the
+ * change events, since an alarm goes off before it is set to go off at its next occurrence
+ *
+ * Used both by the alarm state, to collect the events of a batch of commands, and by the
+ * AlarmClockActor, to merge the events of every batch committed before the main thread gets
+ * round to delivering them. Not thread safe
+ *
+ * @author Terence Lee
+ * */
+class AlarmClockStateEventBuffer {
+
+    /**
+     * The change events, by alarm id, in the order the alarms were last changed
+     * */
+    private final Map<Integer, AlarmClockStateEvent> changeEvents = new LinkedHashMap<>();
+
+    /**
+     * The FIRED events, by alarm id, in the order the alarms last went off
+     * */
+    private final Map<Integer, AlarmClockStateEvent> firedEvents = new LinkedHashMap<>();
+
+
+    /**
+     * Add an event, merging it into the earlier event of its alarm, if any
+     *
+     * @param stateEvent the event to add
+     * */
+    void add(AlarmClockStateEvent stateEvent){
+
+        int alarmId = stateEvent.getAlarmId();
+
+        if (stateEvent.getType() == AlarmClockStateEvent.Type.FIRED){
+            firedEvents.remove(alarmId);
+            firedEvents.put(alarmId, stateEvent);
+            return;
+        }
+
+        AlarmClockStateEvent earlierChangeEvent = changeEvents.remove(alarmId);
+
+        AlarmClockStateEvent mergedChangeEvent = earlierChangeEvent == null ? stateEvent :
+                                                merge(earlierChangeEvent, stateEvent);
+
+        if (mergedChangeEvent != null){
+            changeEvents.put(alarmId, mergedChangeEvent);
+        }
+    }
+
+
+    /**
+     * Add events, in order, merging each into the earlier event of its alarm, if any
+     *
+     * @param stateEvents the events to add
+     * */
+    void addAll(List<AlarmClockStateEvent> stateEvents){
+
+        for (AlarmClockStateEvent stateEvent : stateEvents){
+            add(stateEvent);
+        }
+    }
+
+
+    /**
+     * Returns all the events held, the FIRED events first, and empties the buffer
+     * */
+    List<AlarmClockStateEvent> takeEvents(){
+
+        List<AlarmClockStateEvent> stateEvents =
+                        new ArrayList<>(firedEvents.size() + changeEvents.size());
+
+        stateEvents.addAll(firedEvents.values());
+        stateEvents.addAll(changeEvents.values());
+
+        firedEvents.clear();
+        changeEvents.clear();
+
+        return stateEvents;
+    }
+
+
+    /**
+     * Returns the single change event equivalent to two changes of the same alarm, one after
+     * the other, or null if the two cancel out
+     *
+     * @param earlierChangeEvent the earlier change
+     * @param laterChangeEvent the later change
+     * */
+    private static AlarmClockStateEvent merge(AlarmClockStateEvent earlierChangeEvent,
+                                              AlarmClockStateEvent laterChangeEvent){
+
+        AlarmClockStateEvent.Type earlierType = earlierChangeEvent.getType();
+
+        switch (laterChangeEvent.getType()){
+
+            case ADDED:
+                return earlierType == AlarmClockStateEvent.Type.REMOVED ?
+                        new AlarmClockStateEvent(AlarmClockStateEvent.Type.UPDATED,
+                                                    laterChangeEvent.getAlarm()) :
+                        laterChangeEvent;
+
+            case UPDATED:
+                return earlierType == AlarmClockStateEvent.Type.ADDED ?
+                        new AlarmClockStateEvent(AlarmClockStateEvent.Type.ADDED,
+                                                    laterChangeEvent.getAlarm()) :
+                        laterChangeEvent;
+
+            default:
+                return earlierType == AlarmClockStateEvent.Type.ADDED ? null : laterChangeEvent;
+        }
+    }
+}
@@ -0,0 +1,278 @@
+package lee.terence.alarmclockapp.actors;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import lee.terence.alarmclockapp.models.Alarm;
+
+
+/**
+ * A command that creates, updates, enables, disables and deletes any number of alarms (and
+ * enables or disables alarm groups) in one transaction
+ *
+ * The operations are run one after another on the thread of the AlarmClockActor, as a single
+ * command, so no other command sees the alarm state half way through the transaction. Their
+ * changes are then stored in the app's shared preferences storage with a single commit, and
+ * the alarms are re-armed with the AlarmManager once, however many alarms are changed
+ *
+ * The alarms are committed all or nothing: the transaction sets a savepoint before its first
+ * operation, so if an operation throws, the AlarmClockActor rolls the alarms back to how they
+ * were before the transaction (see AlarmClockState#setSavepoint). Alarm groups enabled or
+ * disabled by earlier operations are not rolled back
+ *
+ * The result of the transaction is the list of the alarms it created or updated, in the order
+ * of the operations. Alarms that were rejected as exact duplicates of other alarms (see
+ * AlarmClockState#addAlarm) are left out of it, so importing many alarms skips duplicates
+ *
+ * <b>Example Usage:</b>
+ * <pre>
+ *     AlarmClockTransaction alarmClockTransaction = new AlarmClockTransaction()
+ *                      .addAlarm(new Alarm.Builder().setHourOfDay(7).setMinute(0))
+ *                      .updateAlarm(2, new Alarm.Builder().setHourOfDay(7).setMinute(30))
+ *                      .enableAlarms(workdayAlarmIds)
+ *                      .disableAlarm(5)
+ *                      .deleteAlarm(3);
+ *
+ *     AlarmClockActor.getInstance(getApplicationContext()).submit(alarmClockTransaction,
+ *                      changedAlarms -> displayAlarms(changedAlarms));
+ * </pre>
+ *
+ * @author Terence Lee
+ * */
+public class AlarmClockTransaction implements AlarmClockCommand<List<Alarm>> {
+
+    /**
+     * An operation of the transaction, run against the alarm state
+     * */
+    private interface Operation {
+
+        /**
+         * Run the operation
+         *
+         * @param alarmClockState the app's alarm state
+         * @param changedAlarms the alarms created or updated by the transaction so far, to
+         *                      which the operation adds the alarm it creates or updates
+         * */
+        void run(AlarmClockState alarmClockState, List<Alarm> changedAlarms);
+    }
+
+
+    private final List<Operation> operations = new ArrayList<>();
+
+
+    /**
+     * Add a new alarm, built from the given builder
+     *
+     * @param alarmBuilder builder of the alarm, with at least the hour of day and minute set
+     *
+     * @see AlarmClockState#addAlarm(Alarm.Builder)
+     * */
+    public AlarmClockTransaction addAlarm(Alarm.Builder alarmBuilder){
+
+        operations.add((alarmClockState, changedAlarms) ->
+                addIfNotNull(changedAlarms, alarmClockState.addAlarm(alarmBuilder)));
+
+        return this;
+    }
+
+
+    /**
+     * Change an existing alarm to the alarm built from the given builder
+     *
+     * @param alarmId id of the alarm to change
+     * @param alarmBuilder builder of the changed alarm, with at least the hour of day and
+     *                     minute set
+     *
+     * @see AlarmClockState#updateAlarm(int, Alarm.Builder)
+     * */
+    public AlarmClockTransaction updateAlarm(int alarmId, Alarm.Builder alarmBuilder){
+
+        operations.add((alarmClockState, changedAlarms) ->
+                addIfNotNull(changedAlarms, alarmClockState.updateAlarm(alarmId, alarmBuilder)));
+
+        return this;
+    }
+
+
+    /**
+     * Enable an alarm, if there is any alarm of the given id
+     *
+     * @param alarmId id of the alarm to enable
+     * */
+    public AlarmClockTransaction enableAlarm(int alarmId){
+        return setAlarmEnabled(alarmId, true);
+    }
+
+
+    /**
+     * Disable an alarm, if there is any alarm of the given id
+     *
+     * @param alarmId id of the alarm to disable
+     * */
+    public AlarmClockTransaction disableAlarm(int alarmId){
+        return setAlarmEnabled(alarmId, false);
+    }
+
+
+    /**
+     * Enable all the alarms of the given ids, if there are any
+     *
+     * @param alarmIds ids of the alarms to enable
+     * */
+    public AlarmClockTransaction enableAlarms(Iterable<Integer> alarmIds){
+
+        for (int alarmId : alarmIds){
+            enableAlarm(alarmId);
+        }
+
+        return this;
+    }
+
+
+    /**
+     * Disable all the alarms of the given ids, if there are any
+     *
+     * @param alarmIds ids of the alarms to disable
+     * */
+    public AlarmClockTransaction disableAlarms(Iterable<Integer> alarmIds){
+
+        for (int alarmId : alarmIds){
+            disableAlarm(alarmId);
+        }
+
+        return this;
+    }
+
+
+    /**
+     * Delete an alarm, if there is any alarm of the given id
+     *
+     * @param alarmId id of the alarm to delete
+     * */
+    public AlarmClockTransaction deleteAlarm(int alarmId){
+
+        operations.add((alarmClockState, changedAlarms) -> alarmClockState.deleteAlarm(alarmId));
+
+        return this;
+    }
+
+
+    /**
+     * Delete all the alarms of the given ids, if there are any
+     *
+     * @param alarmIds ids of the alarms to delete
+     * */
+    public AlarmClockTransaction deleteAlarms(Iterable<Integer> alarmIds){
+
+        for (int alarmId : alarmIds){
+            deleteAlarm(alarmId);
+        }
+
+        return this;
+    }
+
+
+    /**
+     * Enable an alarm group, if there is any alarm group of the given id
+     *
+     * @param alarmGroupId id of the alarm group to enable
+     *
+     * @see AlarmClockState#setAlarmGroupEnabled(int, boolean)
+     * */
+    public AlarmClockTransaction enableAlarmGroup(int alarmGroupId){
+
+        operations.add((alarmClockState, changedAlarms) ->
+                alarmClockState.setAlarmGroupEnabled(alarmGroupId, true));
+
+        return this;
+    }
+
+
+    /**
+     * Disable an alarm group, if there is any alarm group of the given id
+     *
+     * @param alarmGroupId id of the alarm group to disable
+     *
+     * @see AlarmClockState#setAlarmGroupEnabled(int, boolean)
+     * */
+    public AlarmClockTransaction disableAlarmGroup(int alarmGroupId){
+
+        operations.add((alarmClockState, changedAlarms) ->
+                alarmClockState.setAlarmGroupEnabled(alarmGroupId, false));
+
+        return this;
+    }
+
+
+    /**
+     * Returns the number of operations in the transaction
+     * */
+    public int getNumberOfOperations(){
+        return operations.size();
+    }
+
+
+    /**
+     * Run all the operations of the transaction. Called on the thread of the AlarmClockActor
+     *
+     * If a savepoint is already set (e.g. the transaction is part of a batch of
+     * AlarmClockContentProvider operations), it is left to whoever set it, since savepoints
+     * do not nest
+     *
+     * @param alarmClockState the app's alarm state, owned by the AlarmClockActor
+     *
+     * @return the alarms created or updated by the transaction, in the order of the operations
+     * */
+    @Override
+    public List<Alarm> execute(AlarmClockState alarmClockState){
+
+        boolean isSettingSavepoint = !alarmClockState.hasSavepoint();
+
+        if (isSettingSavepoint){
+            alarmClockState.setSavepoint();
+        }
+
+        List<Alarm> changedAlarms = new ArrayList<>();
+
+        //if an operation throws, the AlarmClockActor rolls back to the savepoint
+        for (Operation operation : operations){
+            operation.run(alarmClockState, changedAlarms);
+        }
+
+        if (isSettingSavepoint){
+            alarmClockState.releaseSavepoint();
+        }
+
+        return changedAlarms;
+    }
+
+
+    /**
+     * Enable or disable an alarm, if there is any alarm of the given id
+     *
+     * @param alarmId id of the alarm
+     * @param isEnabled true to enable the alarm, and false to disable it
+     * */
+    private AlarmClockTransaction setAlarmEnabled(int alarmId, boolean isEnabled){
+
+        operations.add((alarmClockState, changedAlarms) ->
+                alarmClockState.setAlarmEnabled(alarmId, isEnabled));
+
+        return this;
+    }
+
+
+    /**
+     * Add an alarm created or updated by an operation to the result, unless it was rejected
+     * (null)
+     *
+     * @param changedAlarms the alarms created or updated by the transaction so far
+     * @param changedAlarm the alarm created or updated, or null if it was rejected
+     * */
+    private static void addIfNotNull(List<Alarm> changedAlarms, Alarm changedAlarm){
+
+        if (changedAlarm != null){
+            changedAlarms.add(changedAlarm);
+        }
+    }
+}
@@ -1,20 +1,53 @@
 package lee.terence.alarmclockapp.broadcastreceivers;
 
+import android.app.AlarmManager;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.os.SystemClock;
+import android.view.ContextThemeWrapper;
+import android.view.LayoutInflater;
 
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
+import lee.terence.alarmclockapp.R;
+import lee.terence.alarmclockapp.actors.AlarmClockActor;
 import lee.terence.alarmclockapp.controllers.AlarmClockAlertActivity;
+import lee.terence.alarmclockapp.helpers.AlarmClockEventLogHelper;
+import lee.terence.alarmclockapp.helpers.AlarmClockFireTokenHelper;
+import lee.terence.alarmclockapp.helpers.AlarmClockHelper;
 import lee.terence.alarmclockapp.helpers.AlarmClockNotificationHelper;
 import lee.terence.alarmclockapp.helpers.AlarmClockSharedPreferencesHelper;
+import lee.terence.alarmclockapp.helpers.AlarmClockTimingsHelper;
 import lee.terence.alarmclockapp.mediaplayers.AlarmSoundMediaPlayer;
+import lee.terence.alarmclockapp.models.AlarmAlertPayload;
+import lee.terence.alarmclockapp.models.AlarmOccurrence;
+import lee.terence.alarmclockapp.models.AlarmPrecisionTier;
 
 
 /**
  * A broadcast receiver that handles the broadcasts from alarms that
  * are set by this app
  *
+ * Also handles the broadcasts of the pre-fire warm-up alarms, which go off shortly before
+ * the actual alarms, so that when the actual alarm goes off, the alarm sound only has to
+ * start playing
+ *
+ * Also sets all the alarms again when the app's permission to schedule exact alarms is
+ * granted or revoked, so that the alarms are set with the precision they can have
+ *
+ * Also handles the "stop all" and "snooze all" actions of the alarm clock notifications, which
+ * stop or snooze every alarm that has gone off and is still notified of
+ *
+ * Also sets the alarms again once the device has booted, since the AlarmManager forgets
+ * them on reboot. They are set from the checkpoint of upcoming occurrences when it is valid,
+ * without loading the alarm state
+ *
  * @author Terence Lee
  * */
 public class AlarmClockBroadcastReceiver extends BroadcastReceiver {
@@ -29,6 +62,37 @@ public class AlarmClockBroadcastReceiver extends BroadcastReceiver {
      **/
     private static final String AlARM_NOTIFICATION_CHANNEL_NAME = "ALARM NOTIFICATION CHANNEL";
 
+    /**
+     * Intent action of the broadcasts of the pre-fire warm-up alarms
+     * */
+    private static final String ACTION_WARM_UP = "lee.terence.alarmclockapp.action.WARM_UP";
+
+    /**
+     * Intent actions of the "stop all" and "snooze all" actions of the alarm clock
+     * notifications
+     * */
+    private static final String ACTION_STOP_ALL = "lee.terence.alarmclockapp.action.STOP_ALL";
+    private static final String ACTION_SNOOZE_ALL =
+                                        "lee.terence.alarmclockapp.action.SNOOZE_ALL";
+
+    /**
+     * Intent extras of the alarm broadcasts, carrying the alarm that has gone off so that
+     * the fire path does not have to read it from the app's shared preferences storage
+     * */
+    private static final String EXTRA_ALARM_ID = "lee.terence.alarmclockapp.extra.ALARM_ID";
+    private static final String EXTRA_ALARM_TIME = "lee.terence.alarmclockapp.extra.ALARM_TIME";
+    private static final String EXTRA_ALARM_PRECISION_TIER =
+                                        "lee.terence.alarmclockapp.extra.ALARM_PRECISION_TIER";
+    private static final String EXTRA_FIRE_TOKEN = "lee.terence.alarmclockapp.extra.FIRE_TOKEN";
+    private static final String EXTRA_RINGTONE_URI =
+                                        "lee.terence.alarmclockapp.extra.RINGTONE_URI";
+
+    /**
+     * Intent extra of the "stop all" and "snooze all" broadcasts, carrying the ids of the
+     * alarms to stop or snooze
+     * */
+    private static final String EXTRA_ALARM_IDS = "lee.terence.alarmclockapp.extra.ALARM_IDS";
+
 
     /**
      * Create an intent to start AlarmClockBroadcastReceiver
@@ -42,21 +106,528 @@ public class AlarmClockBroadcastReceiver extends BroadcastReceiver {
    }
 
 
+    /**
+     * Create an intent to start AlarmClockBroadcastReceiver when the given alarm goes off
+     *
+     * The alarm is carried as primitive extras (rather than as a parcelable) since the
+     * intent is handed over to the system AlarmManager
+     *
+     * @param context The context to use
+     * @param alarmId id of the alarm
+     * @param alarmTimeInMillisecondsSinceEpoch the time the alarm is set to go off
+     * @param precisionTier the precision tier that the alarm is set with
+     * @param fireToken fire token issued to this occurrence of the alarm, by which duplicate
+     *                  deliveries of the broadcast are dropped
+     * @param ringtoneUri the ringtone of the alarm, or Alarm.DEFAULT_RINGTONE_URI
+     * */
+    public static Intent createIntent(Context context, int alarmId,
+                                      long alarmTimeInMillisecondsSinceEpoch,
+                                      AlarmPrecisionTier precisionTier, long fireToken,
+                                      String ringtoneUri){
+
+        Intent intent = createIntent(context);
+        intent.putExtra(EXTRA_ALARM_ID, alarmId);
+        intent.putExtra(EXTRA_ALARM_TIME, alarmTimeInMillisecondsSinceEpoch);
+        intent.putExtra(EXTRA_ALARM_PRECISION_TIER, precisionTier.name());
+        intent.putExtra(EXTRA_FIRE_TOKEN, fireToken);
+        intent.putExtra(EXTRA_RINGTONE_URI, ringtoneUri);
+
+        return intent;
+    }
+
+
+    /**
+     * Create an intent to start AlarmClockBroadcastReceiver to warm up the app ahead of
+     * an alarm
+     *
+     * @param context The context to use
+     * @param alarmId id of the alarm to warm up for
+     * */
+    public static Intent createWarmUpIntent(Context context, int alarmId){
+
+        Intent intent = new Intent(context, AlarmClockBroadcastReceiver.class);
+        intent.setAction(ACTION_WARM_UP);
+        intent.putExtra(EXTRA_ALARM_ID, alarmId);
+
+        return intent;
+    }
+
+
+    /**
+     * Create an intent to start AlarmClockBroadcastReceiver to stop all the given alarms that
+     * have gone off, e.g. from the "stop all" action of the alarm clock notifications
+     *
+     * @param context The context to use
+     * @param alarmIds ids of the alarms that have gone off
+     * @param latestAlarmTimeInMillisecondsSinceEpoch the latest time that any of the alarms
+     *                                                was set to go off. Every alarm due by
+     *                                                then is dismissed
+     * */
+    public static Intent createStopAllIntent(Context context, int[] alarmIds,
+                                             long latestAlarmTimeInMillisecondsSinceEpoch){
+
+        Intent intent = new Intent(context, AlarmClockBroadcastReceiver.class);
+        intent.setAction(ACTION_STOP_ALL);
+        intent.putExtra(EXTRA_ALARM_IDS, alarmIds);
+        intent.putExtra(EXTRA_ALARM_TIME, latestAlarmTimeInMillisecondsSinceEpoch);
+
+        return intent;
+    }
+
+
+    /**
+     * Create an intent to start AlarmClockBroadcastReceiver to snooze all the given alarms
+     * that have gone off, e.g. from the "snooze all" action of the alarm clock notifications
+     *
+     * @param context The context to use
+     * @param alarmIds ids of the alarms that have gone off
+     * */
+    public static Intent createSnoozeAllIntent(Context context, int[] alarmIds){
+
+        Intent intent = new Intent(context, AlarmClockBroadcastReceiver.class);
+        intent.setAction(ACTION_SNOOZE_ALL);
+        intent.putExtra(EXTRA_ALARM_IDS, alarmIds);
+
+        return intent;
+    }
+
+
    /**
     * The method that is called when the broadcast receiver receives an intent
     * */
     @Override
     public void onReceive(Context context, Intent intent) {
 
-        startAlarmClockAlertActivity(context);
+        if (ACTION_WARM_UP.equals(intent.getAction())){
+            warmUpForUpcomingAlarm(context, intent.getIntExtra(EXTRA_ALARM_ID, -1));
+        }
+        else if (AlarmManager.ACTION_SCHEDULE_EXACT_ALARM_PERMISSION_STATE_CHANGED.equals(
+                                                                        intent.getAction())){
+            rearmAllAlarms(context);
+        }
+        else if (Intent.ACTION_BOOT_COMPLETED.equals(intent.getAction())){
+            restoreAlarmsAfterBoot(context);
+        }
+        else if (ACTION_STOP_ALL.equals(intent.getAction())){
+            stopAllAlarms(context, intent);
+        }
+        else if (ACTION_SNOOZE_ALL.equals(intent.getAction())){
+            snoozeAllAlarms(context, intent);
+        }
+        else{
+            fireAlarm(context, intent);
+        }
+    }
+
+
+    /**
+     * Fire the alarm: play the alarm sound, then display the alarm clock alert activity and
+     * post the alarm clock notification. Recurring alarms are then set to go off at their next
+     * occurrence, and the next alarms are armed
+     *
+     * Records the latency between the alarm time and the alarm sound starting to play, as
+     * either a warm or a cold fire latency depending on whether the app has been warmed up.
+     * Also records the drift between the alarm time and the time the alarm broadcast is
+     * received, for the precision tier the alarm was set with
+     *
+     * A duplicate delivery of the broadcast of an alarm occurrence (one whose fire token has
+     * already been delivered) is dropped straight away, before any I/O or audio work
+     *
+     * The alarm rings with the cached copy of its ringtone, if it has one, and otherwise with
+     * the alarm sound bundled with the app. Its ringtone's content provider is never read
+     *
+     * The alarm clock notification is batched with those of any other alarms going off within
+     * a short window (see AlarmClockNotificationHelper), so the broadcast is kept alive with
+     * goAsync until it has been posted
+     *
+     * @param context The context to use
+     * @param intent the intent of the alarm broadcast, carrying the alarm that has gone off
+     * */
+    private void fireAlarm(Context context, Intent intent){
+
+        int alarmId = intent.getIntExtra(EXTRA_ALARM_ID, 0);
+
+        long fireToken = intent.getLongExtra(EXTRA_FIRE_TOKEN,
+                                                AlarmClockFireTokenHelper.NO_FIRE_TOKEN);
+
+        if (!AlarmClockFireTokenHelper.recordDeliveryIfNotDuplicate(context, alarmId,
+                                                                        fireToken)){
+
+            AlarmClockEventLogHelper.recordEvent("Dropped duplicate delivery of alarm " +
+                    alarmId + " with fire token " + fireToken);
+            return;
+        }
+
+        AlarmAlertPayload alarmAlertPayload = createAlarmAlertPayload(context, intent);
 
         long alarmTimeInMillisecondsSinceEpoch =
-                        AlarmClockSharedPreferencesHelper.getNextAlarmTime(context);
+                        alarmAlertPayload.getScheduledTimeInMillisecondsSinceEpoch();
+
+        long fireDriftInMilliseconds =
+                        System.currentTimeMillis() - alarmTimeInMillisecondsSinceEpoch;
+
+        boolean wasWarmedUp = AlarmSoundMediaPlayer.playAlarmRingingSound(context,
+                                            intent.getStringExtra(EXTRA_RINGTONE_URI));
+
+        long fireLatencyInMilliseconds =
+                        System.currentTimeMillis() - alarmTimeInMillisecondsSinceEpoch;
+
+        AlarmClockEventLogHelper.recordEvent("Alarm " + alarmAlertPayload.getAlarmId() +
+                " went off " + fireDriftInMilliseconds + " ms after its alarm time " +
+                alarmTimeInMillisecondsSinceEpoch + (wasWarmedUp ? " (warm)" : " (cold)"));
+
+        startAlarmClockAlertActivity(context, alarmAlertPayload);
+
+        PendingResult pendingResult = goAsync();
 
-        AlarmClockNotificationHelper.postAlarmClockNotification(context,
+        AlarmClockNotificationHelper.postAlarmClockNotification(context, alarmAlertPayload,
+                                                                pendingResult::finish);
+
+        AlarmClockActor.getInstance(context).submit(alarmClockState -> {
+            alarmClockState.handleAlarmGoneOff(alarmAlertPayload.getAlarmId(),
                                                 alarmTimeInMillisecondsSinceEpoch);
+            return null;
+        });
+
+        AlarmClockTimingsHelper.recordTiming(context, wasWarmedUp ?
+                        AlarmClockTimingsHelper.WARM_FIRE_LATENCY :
+                        AlarmClockTimingsHelper.COLD_FIRE_LATENCY, fireLatencyInMilliseconds);
+
+        AlarmClockTimingsHelper.recordTiming(context,
+                        AlarmClockTimingsHelper.getFireDriftTimingName(getPrecisionTier(intent)),
+                        fireDriftInMilliseconds);
+    }
+
+
+    /**
+     * Stop all the alarms that have gone off, as the stop alarm button of the alarm clock
+     * alert activity does for its alarm: stop the alarm sound, have the AlarmClockActor
+     * dismiss every alarm due by the latest of their alarm times, delete the alarm clock
+     * notifications and close the alarm clock alert activity, if it is displayed
+     *
+     * @param context The context to use
+     * @param intent the intent of the "stop all" broadcast
+     * */
+    private void stopAllAlarms(Context context, Intent intent){
+
+        long latestAlarmTimeInMillisecondsSinceEpoch = intent.getLongExtra(EXTRA_ALARM_TIME,
+                                                                System.currentTimeMillis());
+
+        AlarmClockEventLogHelper.recordEvent("Stopped all alarms due by " +
+                                                latestAlarmTimeInMillisecondsSinceEpoch);
+
+        AlarmSoundMediaPlayer.stopAlarmRingingSoundIfPlaying();
+
+        AlarmClockActor.getInstance(context).submit(alarmClockState -> {
+            alarmClockState.dismissAlarmsDueBy(latestAlarmTimeInMillisecondsSinceEpoch);
+            return null;
+        });
+
+        AlarmClockNotificationHelper.deleteAllAlarmNotifications(context);
+
+        AlarmClockAlertActivity.finishIfDisplayed(context);
+    }
+
+
+    /**
+     * Snooze all the alarms that have gone off: stop the alarm sound, have the
+     * AlarmClockActor set each alarm to go off again once snoozed (see
+     * AlarmClockState#snoozeAlarms), delete the alarm clock notifications and close the alarm
+     * clock alert activity, if it is displayed
+     *
+     * @param context The context to use
+     * @param intent the intent of the "snooze all" broadcast
+     * */
+    private void snoozeAllAlarms(Context context, Intent intent){
+
+        int[] alarmIds = intent.getIntArrayExtra(EXTRA_ALARM_IDS);
+
+        if (alarmIds == null){
+            alarmIds = new int[0];
+        }
+
+        int[] alarmIdsToSnooze = alarmIds;
+
+        AlarmSoundMediaPlayer.stopAlarmRingingSoundIfPlaying();
+
+        AlarmClockActor.getInstance(context).submit(alarmClockState -> {
+            alarmClockState.snoozeAlarms(alarmIdsToSnooze, System.currentTimeMillis());
+            return null;
+        });
+
+        AlarmClockNotificationHelper.deleteAllAlarmNotifications(context);
+
+        AlarmClockAlertActivity.finishIfDisplayed(context);
+    }
+
+
+    /**
+     * Set all the alarms again with the AlarmManager, e.g. as exact alarms once the app has
+     * been granted the permission to schedule exact alarms
+     *
+     * The broadcast is kept alive with goAsync until the AlarmClockActor has set the alarms,
+     * or has failed to
+     *
+     * @param context The context to use
+     * */
+    private void rearmAllAlarms(Context context){
+
+        AlarmClockEventLogHelper.recordEvent("Permission to schedule exact alarms changed to " +
+                AlarmClockHelper.canScheduleExactAlarms(context));
+
+        PendingResult pendingResult = goAsync();
+
+        AlarmClockActor.getInstance(context).submit(alarmClockState -> {
+            alarmClockState.rearmAllAlarms();
+            return null;
+        }, new PendingResultCallback<>(pendingResult, result -> pendingResult.finish()));
+    }
+
+
+    /**
+     * Set the alarms again with the AlarmManager once the device has booted
+     *
+     * If the checkpoint of upcoming occurrences is valid, none of its occurrences went off
+     * while the device was off, and its earliest occurrences of each precision tier are
+     * exactly the alarms that the stored armed alarm ids refer to, those occurrences are set
+     * straight from the checkpoint, on the thread of the AlarmClockActor, without loading the
+     * alarm state. The alarm state then agrees with them once it is loaded. Otherwise, the
+     * alarms missed while the device was off are caught up on (and notified of, if their
+     * policy says so), and all the alarms are set again from the alarm state
+     *
+     * The broadcast is kept alive with goAsync until the alarms have been set, or until
+     * setting them has failed
+     *
+     * @param context The context to use
+     * */
+    private void restoreAlarmsAfterBoot(Context context){
+
+        Context applicationContext = context.getApplicationContext();
+
+        PendingResult pendingResult = goAsync();
+
+        AlarmClockActor alarmClockActor = AlarmClockActor.getInstance(applicationContext);
+
+        alarmClockActor.submitWithoutAlarmState(
+                () -> restoreAlarmsFromUpcomingOccurrences(applicationContext),
+                new PendingResultCallback<>(pendingResult, isRestored -> {
+
+            AlarmClockEventLogHelper.recordEvent("Device booted, alarms restored " +
+                    (isRestored ? "from the checkpoint" : "from the alarm state"));
+
+            if (isRestored){
+                pendingResult.finish();
+                return;
+            }
+
+            alarmClockActor.submit(alarmClockState -> {
+                alarmClockState.rearmAllAlarms();
+                return alarmClockState.catchUpMissedAlarms(System.currentTimeMillis());
+            }, new PendingResultCallback<>(pendingResult, missedOccurrences -> {
+
+                AlarmClockNotificationHelper.postMissedAlarmsNotification(applicationContext,
+                                                                        missedOccurrences);
+
+                pendingResult.finish();
+            }));
+        }));
+    }
+
+
+    /**
+     * Set the earliest occurrences of each precision tier in the checkpoint of upcoming
+     * occurrences (the earliest occurrence, and every other occurrence of the tier at the same
+     * time) with the AlarmManager. Called on the thread of the AlarmClockActor
+     *
+     * The checkpoint only holds the next few occurrences, so a tier whose armed alarm comes
+     * after all of them (e.g. a WINDOWED alarm behind many EXACT_ALARM_CLOCK occurrences) is
+     * missing from it. Nothing is set from the checkpoint unless the occurrences to set are
+     * exactly the alarms that the stored armed alarm ids refer to, since an armed alarm left
+     * out would otherwise be taken to be armed, and never set again
+     *
+     * @param context The context to use
+     *
+     * @return true if the alarms have been set, and false if the checkpoint is not valid, has
+     * an occurrence that has already lapsed, or does not hold every armed alarm, in which case
+     * nothing has been set
+     * */
+    private static boolean restoreAlarmsFromUpcomingOccurrences(Context context){
+
+        List<AlarmOccurrence> upcomingOccurrences =
+                AlarmClockSharedPreferencesHelper.getUpcomingOccurrences(context);
+
+        List<Integer> armedAlarmIds = AlarmClockSharedPreferencesHelper.getArmedAlarmIds(context);
+
+        if (upcomingOccurrences == null || armedAlarmIds == null){
+            return false;
+        }
+
+        long currentTime = System.currentTimeMillis();
+
+        for (AlarmOccurrence alarmOccurrence : upcomingOccurrences){
+
+            if (alarmOccurrence.getAlarmTimeInMillisecondsSinceEpoch() <= currentTime){
+                return false;
+            }
+        }
+
+        Map<AlarmPrecisionTier, Long> earliestAlarmTimes = new EnumMap<>(AlarmPrecisionTier.class);
+
+        List<AlarmOccurrence> occurrencesToRestore = new ArrayList<>();
+
+        //the occurrences are in order of alarm time, so the first of each tier is the earliest
+        for (AlarmOccurrence alarmOccurrence : upcomingOccurrences){
+
+            long alarmTime = alarmOccurrence.getAlarmTimeInMillisecondsSinceEpoch();
+
+            Long earliestAlarmTime = earliestAlarmTimes.get(alarmOccurrence.getPrecisionTier());
+
+            if (earliestAlarmTime == null){
+                earliestAlarmTimes.put(alarmOccurrence.getPrecisionTier(), alarmTime);
+            }
+            else if (earliestAlarmTime != alarmTime){
+                continue;
+            }
+
+            occurrencesToRestore.add(alarmOccurrence);
+        }
+
+        Set<Integer> alarmIdsToRestore = new HashSet<>();
+
+        for (AlarmOccurrence alarmOccurrence : occurrencesToRestore){
+            alarmIdsToRestore.add(alarmOccurrence.getAlarmId());
+        }
+
+        if (!alarmIdsToRestore.equals(new HashSet<>(armedAlarmIds))){
+            return false;
+        }
+
+        for (AlarmOccurrence alarmOccurrence : occurrencesToRestore){
+            AlarmClockHelper.setAlarmClock(context, alarmOccurrence.toAlarm());
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Warm up the app ahead of an upcoming alarm, so that firing the alarm only has to start
+     * playing the alarm sound:
+     *      (a) Load the app's shared preferences storage
+     *      (b) Create the alarm notification channel
+     *      (c) Decode and prepare the alarm sound (the alarm's ringtone, if it has one)
+     *      (d) Preload the layout of the alarm clock alert activity
+     *
+     * The app's alarm state is loaded by the AlarmClockActor on its own thread, and the
+     * rest of the warm-up happens once it has been loaded. The broadcast is kept alive
+     * until then with goAsync
+     *
+     * Does nothing if the alarm has been deleted in the meantime. Records the time taken
+     * to warm up
+     *
+     * @param context The context to use
+     * @param alarmId id of the alarm to warm up for
+     * */
+    private void warmUpForUpcomingAlarm(Context context, int alarmId){
+
+        long warmUpStartTime = SystemClock.elapsedRealtime();
+
+        AlarmClockEventLogHelper.recordEvent("Warming up for alarm " + alarmId);
+
+        PendingResult pendingResult = goAsync();
+
+        AlarmClockActor.getInstance(context).submit(
+                alarmClockState -> alarmClockState.getAlarm(alarmId),
+                new PendingResultCallback<>(pendingResult, alarm -> {
+
+            if (alarm != null){
+
+                AlarmClockNotificationHelper.createAlarmClockNotificationChannelIfNotCreated(
+                                                                                    context);
+
+                AlarmSoundMediaPlayer.prepareAlarmRingingSound(context, alarmId,
+                                                                alarm.getRingtoneUri());
+
+                preloadAlarmClockAlertLayout(context);
+
+                AlarmClockTimingsHelper.recordTiming(context,
+                                    AlarmClockTimingsHelper.WARM_UP_COST,
+                                    SystemClock.elapsedRealtime() - warmUpStartTime);
+            }
+
+            pendingResult.finish();
+        }));
+    }
+
+
+    /**
+     * Inflate (and discard) the layout of the alarm clock alert activity, so that the layout
+     * resources and view classes are already loaded when the activity is displayed
+     *
+     * @param context The context to use
+     * */
+    private void preloadAlarmClockAlertLayout(Context context){
+
+        Context themedContext = new ContextThemeWrapper(context, R.style.Theme_AlarmClockApp);
+
+        LayoutInflater.from(themedContext).inflate(R.layout.activity_alarm_clock_alert, null);
+    }
+
+
+    /**
+     * Create the payload describing the alarm that has gone off, from the extras of the
+     * alarm broadcast
+     *
+     * If the broadcast carries no alarm (an alarm set by an older version of the app), the
+     * alarm is taken to be the head of the checkpoint of upcoming occurrences, which is read
+     * without loading the alarm state. If there is no valid checkpoint either, the alarm is
+     * taken to be alarm 0 (the single alarm of the oldest versions of the app), going off now
+     *
+     * @param context The context to use
+     * @param intent the intent of the alarm broadcast
+     * */
+    private AlarmAlertPayload createAlarmAlertPayload(Context context, Intent intent){
+
+        if (!intent.hasExtra(EXTRA_ALARM_ID)){
+
+            List<AlarmOccurrence> upcomingOccurrences =
+                    AlarmClockSharedPreferencesHelper.getUpcomingOccurrences(context);
+
+            if (upcomingOccurrences != null && !upcomingOccurrences.isEmpty()){
+
+                AlarmOccurrence headAlarmOccurrence = upcomingOccurrences.get(0);
+
+                return AlarmAlertPayload.create(context, headAlarmOccurrence.getAlarmId(),
+                        headAlarmOccurrence.getAlarmTimeInMillisecondsSinceEpoch());
+            }
+        }
+
+        int alarmId = intent.getIntExtra(EXTRA_ALARM_ID, 0);
+
+        long alarmTimeInMillisecondsSinceEpoch = intent.getLongExtra(EXTRA_ALARM_TIME,
+                                                                System.currentTimeMillis());
+
+        return AlarmAlertPayload.create(context, alarmId, alarmTimeInMillisecondsSinceEpoch);
+    }
+
+
+    /**
+     * Returns the precision tier that the alarm of the alarm broadcast was set with
+     *
+     * If the broadcast carries no precision tier (an alarm set by an older version of the
+     * app), the alarm is taken to be an EXACT_WHILE_IDLE alarm
+     *
+     * @param intent the intent of the alarm broadcast
+     * */
+    private AlarmPrecisionTier getPrecisionTier(Intent intent){
+
+        String precisionTierName = intent.getStringExtra(EXTRA_ALARM_PRECISION_TIER);
+
+        if (precisionTierName == null){
+            return AlarmPrecisionTier.EXACT_WHILE_IDLE;
+        }
 
-        AlarmSoundMediaPlayer.playAlarmRingingSound(context);
+        return AlarmPrecisionTier.valueOf(precisionTierName);
     }
 
 
@@ -65,10 +636,13 @@ public class AlarmClockBroadcastReceiver extends BroadcastReceiver {
      * if the user has the app opened in foreground)
      *
      * @param context The context to use
+     * @param alarmAlertPayload the alarm that has gone off
      * */
-    private void startAlarmClockAlertActivity(Context context){
+    private void startAlarmClockAlertActivity(Context context,
+                                              AlarmAlertPayload alarmAlertPayload){
 
-        Intent alarmClockAlertIntent = AlarmClockAlertActivity.createIntent(context);
+        Intent alarmClockAlertIntent =
+                AlarmClockAlertActivity.createIntent(context, alarmAlertPayload);
 
         context.startActivity(alarmClockAlertIntent);
     }
@@ -0,0 +1,63 @@
+package lee.terence.alarmclockapp.broadcastreceivers;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+
+import lee.terence.alarmclockapp.BuildConfig;
+import lee.terence.alarmclockapp.actors.AlarmClockActor;
+import lee.terence.alarmclockapp.actors.AlarmClockState;
+import lee.terence.alarmclockapp.helpers.AlarmClockDiagnosticsHelper;
+
+
+/**
+ * A broadcast receiver that writes a diagnostics dump of the app's alarm state to the app's
+ * internal storage, e.g. after a device has missed an alarm
+ *
+ * Only declared (as an exported receiver) in the manifest of debug builds, so that a dump can
+ * be requested from a computer. Also does nothing in release builds, in case it is ever
+ * declared there
+ *
+ * <b>Example Usage:</b>
+ * <pre>
+ *     adb shell am broadcast -a lee.terence.alarmclockapp.action.DUMP_DIAGNOSTICS \
+ *         -n lee.terence.alarm_clock_app/lee.terence.alarmclockapp.broadcastreceivers.AlarmClockDiagnosticsBroadcastReceiver
+ *
+ *     adb shell run-as lee.terence.alarm_clock_app cat files/alarm_clock_diagnostics.json
+ * </pre>
+ *
+ * @author Terence Lee
+ * @see AlarmClockDiagnosticsHelper
+ * */
+public class AlarmClockDiagnosticsBroadcastReceiver extends BroadcastReceiver {
+
+    /**
+     * Intent action of the broadcasts that request a diagnostics dump
+     * */
+    public static final String ACTION_DUMP_DIAGNOSTICS =
+                                        "lee.terence.alarmclockapp.action.DUMP_DIAGNOSTICS";
+
+
+    /**
+     * Have the AlarmClockActor snapshot the alarm state, and write the diagnostics dump on a
+     * background thread. The broadcast is kept alive with goAsync until the dump is written,
+     * or until the snapshot has failed
+     * */
+    @Override
+    public void onReceive(Context context, Intent intent) {
+
+        if (!BuildConfig.DEBUG || !ACTION_DUMP_DIAGNOSTICS.equals(intent.getAction())){
+            return;
+        }
+
+        PendingResult pendingResult = goAsync();
+
+        Context applicationContext = context.getApplicationContext();
+
+        AlarmClockActor.getInstance(applicationContext).submit(
+                AlarmClockState::getDiagnosticsSnapshot,
+                new PendingResultCallback<>(pendingResult, alarmClockDiagnosticsSnapshot ->
+                        AlarmClockDiagnosticsHelper.dumpDiagnostics(applicationContext,
+                                alarmClockDiagnosticsSnapshot, pendingResult::finish)));
+    }
+}
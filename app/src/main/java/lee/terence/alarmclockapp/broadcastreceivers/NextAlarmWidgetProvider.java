@@ -0,0 +1,46 @@
+package lee.terence.alarmclockapp.broadcastreceivers;
+
+import android.appwidget.AppWidgetManager;
+import android.appwidget.AppWidgetProvider;
+import android.content.Context;
+
+import lee.terence.alarmclockapp.actors.AlarmClockActor;
+import lee.terence.alarmclockapp.actors.AlarmClockState;
+import lee.terence.alarmclockapp.helpers.AlarmClockWidgetHelper;
+
+
+/**
+ * The provider of the next alarm widget, which shows the alarm time of the next alarm and a
+ * countdown to it on the home screen
+ *
+ * The widget has no update period, so the home screen only asks for it to be drawn in full
+ * when it is added, or when the home screen itself is restarted. After that, the widget is
+ * kept up to date by the AlarmClockActor, which pushes an update whenever the next alarm
+ * changes (see AlarmClockWidgetHelper)
+ *
+ * @author Terence Lee
+ * @see AlarmClockWidgetHelper
+ * */
+public class NextAlarmWidgetProvider extends AppWidgetProvider {
+
+    /**
+     * Draw the given widgets in full, once the AlarmClockActor has read the next alarm. The
+     * broadcast is kept alive with goAsync until then, or until the read has failed
+     * */
+    @Override
+    public void onUpdate(Context context, AppWidgetManager appWidgetManager, int[] appWidgetIds){
+
+        Context applicationContext = context.getApplicationContext();
+
+        PendingResult pendingResult = goAsync();
+
+        AlarmClockActor.getInstance(applicationContext).submit(
+                AlarmClockState::getNextAlarm,
+                new PendingResultCallback<>(pendingResult, nextAlarm -> {
+
+            AlarmClockWidgetHelper.updateWidgets(applicationContext, appWidgetIds, nextAlarm);
+
+            pendingResult.finish();
+        }));
+    }
+}
@@ -0,0 +1,67 @@
+package lee.terence.alarmclockapp.broadcastreceivers;
+
+import android.content.BroadcastReceiver.PendingResult;
+
+import lee.terence.alarmclockapp.actors.AlarmClockActor;
+
+
+/**
+ * A callback of a command submitted to the AlarmClockActor by a broadcast receiver that is
+ * kept alive with goAsync until the command has completed
+ *
+ * The result of the command is handed over to the wrapped callback, which finishes the
+ * broadcast once it is done with it (straight away, or later, e.g. once a file has been
+ * written). If the command fails, the failure is logged and the broadcast is finished here,
+ * rather than being left open until the system times it out
+ *
+ * <b>Example Usage:</b>
+ * <pre>
+ *     PendingResult pendingResult = goAsync();
+ *
+ *     AlarmClockActor.getInstance(context).submit(AlarmClockState::getNextAlarm,
+ *             new PendingResultCallback&lt;&gt;(pendingResult, nextAlarm -> {
+ *
+ *         displayNextAlarm(nextAlarm);
+ *
+ *         pendingResult.finish();
+ *     }));
+ * </pre>
+ *
+ * @param <T> type of the result of the command
+ *
+ * @author Terence Lee
+ * */
+class PendingResultCallback<T> implements AlarmClockActor.Callback<T> {
+
+    private final PendingResult pendingResult;
+
+    private final AlarmClockActor.Callback<T> onCommandCompletedCallback;
+
+
+    /**
+     * @param pendingResult the pending result of the broadcast, returned by goAsync
+     * @param onCommandCompletedCallback the callback to receive the result of the command.
+     *                                   Must finish the pending result once done with it
+     * */
+    PendingResultCallback(PendingResult pendingResult,
+                          AlarmClockActor.Callback<T> onCommandCompletedCallback){
+
+        this.pendingResult = pendingResult;
+        this.onCommandCompletedCallback = onCommandCompletedCallback;
+    }
+
+
+    @Override
+    public void onCommandCompleted(T result){
+        onCommandCompletedCallback.onCommandCompleted(result);
+    }
+
+
+    @Override
+    public void onCommandFailed(RuntimeException failure){
+
+        AlarmClockActor.Callback.super.onCommandFailed(failure);
+
+        pendingResult.finish();
+    }
+}
@@ -2,21 +2,26 @@ package lee.terence.alarmclockapp.controllers;
 
 import androidx.appcompat.app.AppCompatActivity;
 
+import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.os.Bundle;
+import android.os.SystemClock;
+import android.view.View;
+import android.view.ViewTreeObserver;
 import android.widget.Button;
 import android.widget.TextView;
 
-import java.util.Calendar;
-import java.util.Locale;
 
-
-import lee.terence.alarmclockapp.helpers.AlarmClockHelper;
+import lee.terence.alarmclockapp.actors.AlarmClockActor;
+import lee.terence.alarmclockapp.actors.AlarmClockState;
 import lee.terence.alarmclockapp.helpers.AlarmClockNotificationHelper;
-import lee.terence.alarmclockapp.helpers.AlarmClockSharedPreferencesHelper;
+import lee.terence.alarmclockapp.helpers.AlarmClockResourceTrackingHelper;
 import lee.terence.alarmclockapp.R;
+import lee.terence.alarmclockapp.helpers.AlarmClockTimingsHelper;
 import lee.terence.alarmclockapp.mediaplayers.AlarmSoundMediaPlayer;
+import lee.terence.alarmclockapp.models.AlarmAlertPayload;
 
 
 /**
@@ -26,40 +31,152 @@ import lee.terence.alarmclockapp.mediaplayers.AlarmSoundMediaPlayer;
  * This class is declared as a "singleTask" activity in the Manifest, so there can be
  * no two instances of this activity running at the same time
  *
+ * The alarm to display is carried by an AlarmAlertPayload in the intent extras, so the
+ * activity can render its first frame without reading the app's shared preferences storage
+ *
+ * The activity closes itself once the alarms have been stopped or snoozed from elsewhere,
+ * e.g. from the actions of the alarm clock notifications (see finishIfDisplayed)
+ *
  * @author Terence Lee
  * */
 public class AlarmClockAlertActivity extends AppCompatActivity {
 
+    /**
+     * Intent action of the broadcast that closes this activity, sent within the app only
+     * */
+    private static final String ACTION_FINISH_ALARM_CLOCK_ALERT =
+                                    "lee.terence.alarmclockapp.action.FINISH_ALARM_CLOCK_ALERT";
+
+    /**
+     * Permission that the sender of the broadcast that closes this activity must hold. It is a
+     * signature permission of this app, so no other app can close this activity
+     * */
+    private static final String ACCESS_ALARMS_PERMISSION =
+                                    "lee.terence.alarmclockapp.permission.ACCESS_ALARMS";
+
+
+    /**
+     * Receiver of the broadcast that closes this activity, registered for as long as the
+     * activity exists
+     * */
+    private final BroadcastReceiver finishReceiver = new BroadcastReceiver() {
+
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            finish();
+        }
+    };
+
+
     /**
      * Create an intent to start a alarm alert activity
      *
      * @param context The context to use. Usually your Application or Activity object
+     * @param alarmAlertPayload the alarm that has gone off, to be displayed by the activity
      * */
-    public static Intent createIntent(Context context){
+    public static Intent createIntent(Context context, AlarmAlertPayload alarmAlertPayload){
         Intent intent = new Intent(context, AlarmClockAlertActivity.class);
         intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
 
+        alarmAlertPayload.putInto(intent);
+
         return intent;
     }
 
+
+    /**
+     * Close the alarm clock alert activity if it is displayed, e.g. once the alarms have been
+     * stopped or snoozed from the actions of the alarm clock notifications. Does nothing if
+     * it is not
+     *
+     * @param context The context to use. Usually your Application or Activity object
+     * */
+    public static void finishIfDisplayed(Context context){
+
+        Intent intent = new Intent(ACTION_FINISH_ALARM_CLOCK_ALERT);
+        intent.setPackage(context.getPackageName());
+
+        context.sendBroadcast(intent);
+    }
+
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        long createStartTime = SystemClock.uptimeMillis();
+
         super.onCreate(savedInstanceState);
+
+        AlarmClockResourceTrackingHelper.onActivityCreated(this);
+
         setContentView(R.layout.activity_alarm_clock_alert);
 
+        registerReceiver(finishReceiver, new IntentFilter(ACTION_FINISH_ALARM_CLOCK_ALERT),
+                            ACCESS_ALARMS_PERMISSION, null);
+
         initializeStopAlarmButton();
         initializeAlarmTimeTextView();
+
+        recordTimeToFirstFrame(createStartTime);
+    }
+
+
+    /**
+     * The alarm has completed once this activity is destroyed (the alarm sound has been stopped
+     * and the alarm notifications deleted), so have the resources checked for imbalances,
+     * once the AlarmClockActor has dismissed the alarm
+     * */
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+
+        unregisterReceiver(finishReceiver);
+
+        AlarmClockResourceTrackingHelper.onActivityDestroyed(this);
+
+        Context applicationContext = getApplicationContext();
+
+        AlarmClockActor.getInstance(applicationContext).submit(
+                AlarmClockState::getNumberOfArmedAlarms,
+                numberOfArmedAlarms -> AlarmClockResourceTrackingHelper.reportImbalancesIfDebug(
+                                                    applicationContext, numberOfArmedAlarms));
+    }
+
+
+    /**
+     * As this is a "singleTask" activity, an alarm that goes off while the activity is
+     * already displayed is delivered here instead of to onCreate
+     * */
+    @Override
+    protected void onNewIntent(Intent intent) {
+        super.onNewIntent(intent);
+
+        setIntent(intent);
+
+        initializeAlarmTimeTextView();
     }
 
 
+    /**
+     * Initialize the stop alarm button to stop the alarm sound, have the AlarmClockActor
+     * dismiss the alarm, and any other alarm due by then (delete them, unless they recur),
+     * delete the alarm notifications and close this activity
+     * */
     private void initializeStopAlarmButton(){
 
         Button stopAlarmButton = findViewById(R.id.stop_alarm_button);
 
         stopAlarmButton.setOnClickListener(view -> {
             AlarmSoundMediaPlayer.stopAlarmRingingSoundIfPlaying();
-            AlarmClockHelper.deleteExistingAlarmIfAny(getApplicationContext());
-            AlarmClockSharedPreferencesHelper.deleteNextAlarmTimeIfAny(getApplicationContext());
+
+            AlarmAlertPayload alarmAlertPayload = AlarmAlertPayload.fromIntent(getIntent());
+
+            if (alarmAlertPayload != null){
+                AlarmClockActor.getInstance(getApplicationContext()).submit(alarmClockState -> {
+                    alarmClockState.dismissAlarmsDueBy(
+                            alarmAlertPayload.getScheduledTimeInMillisecondsSinceEpoch());
+                    return null;
+                });
+            }
 
             AlarmClockNotificationHelper.deleteAllAlarmNotifications(getApplicationContext());
             AlarmClockAlertActivity.this.finish();
@@ -68,37 +185,68 @@ public class AlarmClockAlertActivity extends AppCompatActivity {
 
     /**
      * Initialize the alarm time textview to display the alarm time
+     *
+     * The alarm time is taken from the payload in the intent extras, without reading the
+     * app's shared preferences storage. Only if the intent carries no payload is the alarm
+     * read from the AlarmClockActor instead: the latest alarm that has gone off and has not
+     * been stopped yet is put into the intent as its payload, so that the stop alarm button
+     * dismisses it too. The alarm time is left blank until then, or if there is no such alarm
      * */
     private void initializeAlarmTimeTextView(){
 
         TextView alarmTimeTextView = findViewById(R.id.alarm_time_text_view);
 
-        long alarmTimeInMillisecondsSinceEpoch =
-                AlarmClockSharedPreferencesHelper.getNextAlarmTime(getApplicationContext());
+        AlarmAlertPayload alarmAlertPayload = AlarmAlertPayload.fromIntent(getIntent());
 
-        Calendar alarmTimeCalendar = Calendar.getInstance();
-        alarmTimeCalendar.setTimeInMillis(alarmTimeInMillisecondsSinceEpoch);
+        if (alarmAlertPayload != null){
+            alarmTimeTextView.setText(alarmAlertPayload.getLabel());
+            return;
+        }
 
-        int hour = alarmTimeCalendar.get(Calendar.HOUR);
-        int minute = alarmTimeCalendar.get(Calendar.MINUTE);
-        int timeOfDay = alarmTimeCalendar.get(Calendar.AM_PM);
+        AlarmClockActor.getInstance(getApplicationContext()).submit(
+                AlarmClockState::getLatestAlarmGoneOff,
+                latestAlarmGoneOff -> {
 
-        String timeOfDayString;
+            //an intent with a payload may have been delivered in the meantime
+            if (latestAlarmGoneOff == null || isFinishing() ||
+                    AlarmAlertPayload.fromIntent(getIntent()) != null){
+                return;
+            }
 
-        if (hour == 0){
-            hour = 12;
-        }
+            AlarmAlertPayload fallbackAlarmAlertPayload = AlarmAlertPayload.create(
+                    getApplicationContext(), latestAlarmGoneOff.getId(),
+                    latestAlarmGoneOff.getAlarmTimeInMillisecondsSinceEpoch());
 
-        if (timeOfDay == Calendar.AM){
-            timeOfDayString = "a.m.";
-        }
-        else{
-            timeOfDayString = "p.m.";
-        }
+            fallbackAlarmAlertPayload.putInto(getIntent());
+
+            alarmTimeTextView.setText(fallbackAlarmAlertPayload.getLabel());
+        });
+    }
 
-        String timeToDisplay = String.format(Locale.ENGLISH,
-                "%02d:%02d %s", hour, minute, timeOfDayString);
 
-        alarmTimeTextView.setText(timeToDisplay);
+    /**
+     * Record the time between the start of onCreate and the first frame of this activity
+     * being drawn
+     *
+     * @param createStartTime the uptime at the start of onCreate
+     * */
+    private void recordTimeToFirstFrame(long createStartTime){
+
+        View decorView = getWindow().getDecorView();
+
+        decorView.getViewTreeObserver().addOnPreDrawListener(
+                new ViewTreeObserver.OnPreDrawListener() {
+
+            @Override
+            public boolean onPreDraw() {
+                decorView.getViewTreeObserver().removeOnPreDrawListener(this);
+
+                AlarmClockTimingsHelper.recordTiming(getApplicationContext(),
+                        AlarmClockTimingsHelper.ALERT_TIME_TO_FIRST_FRAME,
+                        SystemClock.uptimeMillis() - createStartTime);
+
+                return true;
+            }
+        });
     }
 }
\ No newline at end of file
@@ -3,12 +3,21 @@ package lee.terence.alarmclockapp.controllers;
 
 
 import android.Manifest;
+import android.app.AlertDialog;
+import android.content.Context;
 import android.content.Intent;
 import android.content.pm.PackageManager;
+import android.net.Uri;
+import android.os.Build;
 import android.os.Bundle;
+import android.provider.Settings;
 import android.util.Log;
+import android.util.Pair;
 import android.view.View;
 import android.widget.Button;
+import android.widget.EditText;
+import android.widget.LinearLayout;
+import android.widget.Switch;
 import android.widget.TextView;
 import android.widget.Toast;
 
@@ -17,14 +26,22 @@ import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.app.ActivityCompat;
 
-import java.util.Calendar;
-import java.util.Locale;
+import java.util.ArrayList;
+import java.util.List;
 
+import lee.terence.alarmclockapp.actors.AlarmClockActor;
+import lee.terence.alarmclockapp.actors.AlarmClockState;
+import lee.terence.alarmclockapp.helpers.AlarmClockCountdownHelper;
+import lee.terence.alarmclockapp.helpers.AlarmClockFormattingHelper;
 import lee.terence.alarmclockapp.helpers.AlarmClockHelper;
 import lee.terence.alarmclockapp.helpers.AlarmClockNotificationHelper;
+import lee.terence.alarmclockapp.helpers.AlarmClockResourceTrackingHelper;
 import lee.terence.alarmclockapp.helpers.AlarmClockSharedPreferencesHelper;
 import lee.terence.alarmclockapp.R;
 import lee.terence.alarmclockapp.mediaplayers.AlarmSoundMediaPlayer;
+import lee.terence.alarmclockapp.models.Alarm;
+import lee.terence.alarmclockapp.models.AlarmGroup;
+import lee.terence.alarmclockapp.models.AlarmOccurrence;
 
 
 
@@ -37,56 +54,154 @@ import lee.terence.alarmclockapp.mediaplayers.AlarmSoundMediaPlayer;
  *
  * Allows user to delete an existing alarm
  *
+ * Allows user to add alarm groups (e.g. "Workdays", "Travel"), and to switch all the alarms
+ * of a group on or off at once
+ *
  * @author Terence Lee
  * */
 public class MainActivity extends AppCompatActivity {
 
-    private static final int SCHEDULE_EXACT_ALARM_PERMISSION_REQUEST_CODE = 0;
     private static final int POST_NOTIFICATIONS_PERMISSION_REQUEST_CODE = 1;
 
+    /**
+     * Whether the user has already been asked for the permission to schedule exact alarms,
+     * since this activity was created
+     * */
+    private boolean hasRequestedScheduleExactAlarmPermission = false;
+
+    /**
+     * Whether this activity is visible (between onStart and onStop), so that the countdown to
+     * the next alarm is only started while it can be seen
+     * */
+    private boolean isVisible = false;
 
     /**
-     * Initialize all the views of the activity
+     * The alarm that goes off next as displayed by the views, or null if there is none, so
+     * that the views are only updated when the next alarm changes, and the buttons act on
+     * the alarm that is displayed
+     * */
+    private Alarm displayedNextAlarm;
+
+    /**
+     * Whether the views display the next alarm (or that there is none) yet, since this
+     * activity was last started
+     * */
+    private boolean isNextAlarmDisplayed = false;
+
+    /**
+     * Updates the views whenever the next alarm changes, while this activity is visible
+     * */
+    private final AlarmClockActor.Observer alarmClockStateObserver =
+            (stateEvents, nextAlarm) -> displayNextAlarmIfChanged(nextAlarm);
+
+
+    /**
+     * Create an intent to start a MainActivity
+     *
+     * @param context The context to use. Usually your Application or Activity object
+     * */
+    public static Intent createIntent(Context context){
+
+        return new Intent(context, MainActivity.class);
+
+    }
+
+
+    /**
+     * Initialize all the views of the activity, first from the checkpoint of upcoming
+     * occurrences (so that the next alarm is displayed without waiting for the alarm state
+     * to be loaded), and then from the alarm state once this activity is started
      *
-     * Also delete and stop a lapsed old alarm if there is any
+     * The click listeners of the buttons are attached once here, and act on whichever alarm
+     * is displayed when they are clicked
+     *
+     * Also catch up on missed alarms, and stop alarms that have gone off, if there are any
      * */
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+
+        AlarmClockResourceTrackingHelper.onActivityCreated(this);
+
         setContentView(R.layout.activity_main);
 
-        initializeOrUpdateAllViews();
+        initializeButtons();
+
+        initializeAllViewsFromUpcomingOccurrences();
+
+        catchUpMissedAlarmsAndStopAlarmsGoneOff();
 
-        deleteAndStopAlarmIfAlarmHasAlreadyLapsed();
+        initializeAlarmGroupViews();
 
 
     }
 
 
     /**
-     * Have the app check for various necessary permissions and request these
+     * Start observing the alarm state, so that the views are updated whenever the next alarm
+     * changes, and display the next alarm as it is now, since it may have changed while this
+     * activity could not be seen
+     *
+     * Also have the app check for various necessary permissions and request these
      * permissions from the user as the app UI become visible
      * */
     @Override
     protected void onStart() {
         super.onStart();
+
+        isVisible = true;
+
+        //the countdown has been stopped, so the next alarm is displayed again even if unchanged
+        isNextAlarmDisplayed = false;
+
+        AlarmClockActor alarmClockActor = AlarmClockActor.getInstance(getApplicationContext());
+
+        alarmClockActor.addObserver(alarmClockStateObserver);
+
+        alarmClockActor.submit(AlarmClockState::getNextAlarm, this::displayNextAlarmIfChanged);
+
         checkAndRequestForVariousPermissions();
     }
 
+
+    /**
+     * Stop observing the alarm state, and stop the countdown to the next alarm, once this
+     * activity can no longer be seen. Both are started again once it is started again
+     * */
+    @Override
+    protected void onStop() {
+        super.onStop();
+
+        isVisible = false;
+
+        AlarmClockActor.getInstance(getApplicationContext())
+                        .removeObserver(alarmClockStateObserver);
+
+        AlarmClockCountdownHelper.stopCountdown(
+                                    findViewById(R.id.existing_alarm_countdown_text_view));
+    }
+
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+
+        AlarmClockResourceTrackingHelper.onActivityDestroyed(this);
+    }
+
     /**
-     * Upon the resumption of this activity (sometimes after the dismissal of the alarm that has
-     * went off, update the views of the activity to reflect that there is no more alarm
+     * Upon the resumption of this activity, catch up on missed alarms, and stop alarms that
+     * have gone off, if the app happened to be paused by the user, and resumed after the
+     * alarms' alarm times
      *
-     * Also delete and stop a lapsed alarm if the app happened to be paused by the user, and
-     * resumed after the alarm has lapsed
+     * The views are not read again here: any change this makes to the next alarm (e.g. the
+     * dismissal of the alarm that has gone off) reaches them through the alarm state observer
      * */
     @Override
     protected void onResume() {
         super.onResume();
 
-        initializeOrUpdateAllViews();
-
-        deleteAndStopAlarmIfAlarmHasAlreadyLapsed();
+        catchUpMissedAlarmsAndStopAlarmsGoneOff();
 
         checkAndRequestForVariousPermissions();
     }
@@ -94,37 +209,258 @@ public class MainActivity extends AppCompatActivity {
 
 
     /**
-     * Initialize or update all the views in the activity
+     * Attach the click listeners of the buttons, once. They act on the alarm displayed when
+     * they are clicked:
+     *      (a) The setOrEditAlarmButton sets a new alarm if there is no existing alarm, and
+     *          edits the existing alarm otherwise
+     *      (b) The delete alarm button deletes the existing alarm
+     *      (c) The add alarm group button asks for the name of a new alarm group
+     * */
+    private void initializeButtons(){
+
+        Button setOrEditAlarmButton = findViewById(R.id.set_or_edit_alarm_button);
+
+        setOrEditAlarmButton.setOnClickListener(view -> {
+            Intent intent = (displayedNextAlarm == null) ?
+                    SetAlarmClockActivity.createIntent(getApplicationContext()) :
+                    SetAlarmClockActivity.createIntent(getApplicationContext(),
+                                                        displayedNextAlarm.getId());
+
+            startActivity(intent);
+
+        });
+
+        Button deleteAlarmButton = findViewById(R.id.delete_alarm_button);
+
+        deleteAlarmButton.setOnClickListener(view -> {
+
+            if (displayedNextAlarm != null){
+                deleteAlarm(displayedNextAlarm.getId());
+            }
+        });
+
+        Button addAlarmGroupButton = findViewById(R.id.add_alarm_group_button);
+
+        addAlarmGroupButton.setOnClickListener(view -> showAddAlarmGroupDialog());
+    }
+
+
+    /**
+     * Initialize the views in the activity from the checkpoint of upcoming occurrences, if it
+     * is valid and has an occurrence that is still to go off. The checkpoint is read on the
+     * thread of the AlarmClockActor before the alarm state is loaded, so this first display
+     * is then updated from the alarm state once this activity is started
+     * */
+    private void initializeAllViewsFromUpcomingOccurrences(){
+
+        Context applicationContext = getApplicationContext();
+
+        AlarmClockActor.getInstance(applicationContext).submitWithoutAlarmState(
+                () -> AlarmClockSharedPreferencesHelper.getUpcomingOccurrences(applicationContext),
+                upcomingOccurrences -> {
+
+            if (upcomingOccurrences == null){
+                return;
+            }
+
+            long currentTime = System.currentTimeMillis();
+
+            for (AlarmOccurrence alarmOccurrence : upcomingOccurrences){
+
+                if (alarmOccurrence.getAlarmTimeInMillisecondsSinceEpoch() > currentTime){
+                    displayNextAlarmIfChanged(alarmOccurrence.toAlarm());
+                    return;
+                }
+            }
+        });
+    }
+
+
+    /**
+     * Initialize the alarm group views, with one switch per alarm group. The alarm groups are
+     * read by the AlarmClockActor on its own thread
      * */
-    private void initializeOrUpdateAllViews(){
+    private void initializeAlarmGroupViews(){
 
-        initializeOrUpdateSetOrEditAlarmButton();
-        initializeOrUpdateExistingAlarmTextView();
-        initializeOrUpdateDeleteAlarmButton();
+        AlarmClockActor.getInstance(getApplicationContext()).submit(
+                MainActivity::getAllAlarmGroupsAndWhetherEnabled,
+                alarmGroupsAndWhetherEnabled -> {
 
+            if (isDestroyed()){
+                return;
+            }
 
+            for (Pair<AlarmGroup, Boolean> alarmGroupAndWhetherEnabled :
+                                                        alarmGroupsAndWhetherEnabled){
+                addAlarmGroupSwitch(alarmGroupAndWhetherEnabled);
+            }
+        });
     }
 
 
     /**
-     * Initialize the setOrEditAlarmButton to allow user to set/edit an alarm
+     * Returns all the alarm groups, each paired with whether it is enabled. Called on the
+     * thread of the AlarmClockActor
      *
-     * If there is no existing alarm, then display the button text as "Set Alarm"
+     * @param alarmClockState the app's alarm state, owned by the AlarmClockActor
+     * */
+    private static List<Pair<AlarmGroup, Boolean>> getAllAlarmGroupsAndWhetherEnabled(
+                                                            AlarmClockState alarmClockState){
+
+        List<Pair<AlarmGroup, Boolean>> alarmGroupsAndWhetherEnabled = new ArrayList<>();
+
+        for (AlarmGroup alarmGroup : alarmClockState.getAllAlarmGroups()){
+            alarmGroupsAndWhetherEnabled.add(new Pair<>(alarmGroup,
+                    alarmClockState.isAlarmGroupEnabled(alarmGroup.getId())));
+        }
+
+        return alarmGroupsAndWhetherEnabled;
+    }
+
+
+    /**
+     * Add the switch of an alarm group to the alarm group views, which enables or disables all
+     * the alarms of the group
      *
-     * If there is an existing alarm, then display the button text as "Edit Alarm"
+     * @param alarmGroupAndWhetherEnabled the alarm group, paired with whether it is enabled
      * */
-    private void initializeOrUpdateSetOrEditAlarmButton(){
+    private void addAlarmGroupSwitch(Pair<AlarmGroup, Boolean> alarmGroupAndWhetherEnabled){
 
-        Button setOrEditAlarmButton = findViewById(R.id.set_or_edit_alarm_button);
+        LinearLayout alarmGroupsLayout = findViewById(R.id.alarm_groups_layout);
 
-        setOrEditAlarmButton.setOnClickListener(view -> {
-            Intent intent = SetAlarmClockActivity.createIntent(getApplicationContext());
+        AlarmGroup alarmGroup = alarmGroupAndWhetherEnabled.first;
 
-            startActivity(intent);
+        Switch alarmGroupSwitch = new Switch(this);
+
+        alarmGroupSwitch.setText(alarmGroup.getName());
+        alarmGroupSwitch.setTextSize(20);
+        alarmGroupSwitch.setChecked(alarmGroupAndWhetherEnabled.second);
+
+        alarmGroupSwitch.setOnCheckedChangeListener((buttonView, isChecked) ->
+                setAlarmGroupEnabled(alarmGroup.getId(), isChecked));
+
+        alarmGroupsLayout.addView(alarmGroupSwitch);
+    }
 
+
+    /**
+     * Have the AlarmClockActor enable or disable all the alarms of an alarm group. The views
+     * are updated through the alarm state observer if this changes the next alarm
+     *
+     * @param alarmGroupId id of the alarm group
+     * @param isEnabled true to enable the alarm group, and false to disable it
+     * */
+    private void setAlarmGroupEnabled(int alarmGroupId, boolean isEnabled){
+
+        AlarmClockActor.getInstance(getApplicationContext()).submit(alarmClockState -> {
+            alarmClockState.setAlarmGroupEnabled(alarmGroupId, isEnabled);
+            return null;
         });
+    }
+
 
-        if (!AlarmClockSharedPreferencesHelper.hasNextAlarmTime(getApplicationContext())){
+    /**
+     * Display a dialog that asks the user for the name of a new alarm group, and add the
+     * alarm group
+     * */
+    private void showAddAlarmGroupDialog(){
+
+        EditText alarmGroupNameEditText = new EditText(this);
+
+        alarmGroupNameEditText.setHint(R.string.activity_main_alarm_group_name_hint_text);
+
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.activity_main_add_alarm_group_text)
+                .setView(alarmGroupNameEditText)
+                .setNegativeButton(android.R.string.cancel, null)
+                .setPositiveButton(android.R.string.ok, (dialog, which) -> {
+
+                    String name = alarmGroupNameEditText.getText().toString().trim();
+
+                    if (name.isEmpty()){
+                        return;
+                    }
+
+                    addAlarmGroup(name);
+                })
+                .show();
+    }
+
+
+    /**
+     * Have the AlarmClockActor add an alarm group, then add its switch to the alarm group
+     * views
+     *
+     * If the maximum number of alarm groups has been reached, display an error message instead
+     *
+     * @param name name of the alarm group
+     * */
+    private void addAlarmGroup(String name){
+
+        AlarmClockActor.getInstance(getApplicationContext()).submit(alarmClockState -> {
+
+            AlarmGroup alarmGroup = alarmClockState.addAlarmGroup(name);
+
+            return alarmGroup == null ? null : new Pair<>(alarmGroup,
+                    alarmClockState.isAlarmGroupEnabled(alarmGroup.getId()));
+
+        }, alarmGroupAndWhetherEnabled -> {
+
+            if (alarmGroupAndWhetherEnabled == null){
+                Toast.makeText(getApplicationContext(),
+                        getString(R.string.activity_main_too_many_alarm_groups_text,
+                                    AlarmGroup.MAXIMUM_NUMBER_OF_ALARM_GROUPS),
+                        Toast.LENGTH_LONG).show();
+            }
+            else if (!isDestroyed()){
+                addAlarmGroupSwitch(alarmGroupAndWhetherEnabled);
+            }
+        });
+    }
+
+
+    /**
+     * Update the views in the activity to display the given alarm, unless they already
+     * display it (the same alarm, going off at the same time)
+     *
+     * @param nextAlarm the alarm that goes off next, or null if there is no existing alarm
+     * */
+    private void displayNextAlarmIfChanged(Alarm nextAlarm){
+
+        if (isDestroyed()){
+            return;
+        }
+
+        if (isNextAlarmDisplayed && Alarm.isSameOccurrence(displayedNextAlarm, nextAlarm)){
+            return;
+        }
+
+        displayedNextAlarm = nextAlarm;
+        isNextAlarmDisplayed = true;
+
+        updateSetOrEditAlarmButton(nextAlarm);
+        updateExistingAlarmTextView(nextAlarm);
+        updateExistingAlarmCountdownTextView(nextAlarm);
+        updateDeleteAlarmButton(nextAlarm);
+
+
+    }
+
+
+    /**
+     * Update the text of the setOrEditAlarmButton
+     *
+     * If there is no existing alarm, then display the button text as "Set Alarm"
+     *
+     * If there is an existing alarm, then display the button text as "Edit Alarm"
+     *
+     * @param nextAlarm the alarm that goes off next, or null if there is no existing alarm
+     * */
+    private void updateSetOrEditAlarmButton(Alarm nextAlarm){
+
+        Button setOrEditAlarmButton = findViewById(R.id.set_or_edit_alarm_button);
+
+        if (nextAlarm == null){
             setOrEditAlarmButton.setText(R.string.activity_main_set_alarm_text);
         }
         else{
@@ -135,73 +471,73 @@ public class MainActivity extends AppCompatActivity {
 
 
     /**
-     * Initialize the delete alarm button to delete the alarm
+     * Update the delete alarm button
      *
      * If there is no existing alarm to delete, hide this button
+     *
+     * @param nextAlarm the alarm that goes off next, or null if there is no existing alarm
      * */
-    private void initializeOrUpdateDeleteAlarmButton(){
+    private void updateDeleteAlarmButton(Alarm nextAlarm){
 
         Button deleteAlarmButton = findViewById(R.id.delete_alarm_button);
 
-        deleteAlarmButton.setOnClickListener(view -> deleteAlarm());
-
-
-        if (AlarmClockSharedPreferencesHelper.getNextAlarmTime(getApplicationContext()) == -1){
-            deleteAlarmButton.setVisibility(View.INVISIBLE);
-        }
-        else{
-            deleteAlarmButton.setVisibility(View.VISIBLE);
-        }
-
+        deleteAlarmButton.setVisibility(nextAlarm == null ? View.INVISIBLE : View.VISIBLE);
     }
 
 
     /**
-     * Initialize the textview that displays the existing alarm, if any
+     * Update the textview that displays the existing alarm, if any
      *
      * If there is no existing alarm, will display a text stating "No alarm has been set"
      *
      * If there is an existing alarm, will display a text stating the existing alarm time
+     *
+     * @param nextAlarm the alarm that goes off next, or null if there is no existing alarm
      * */
-    private void initializeOrUpdateExistingAlarmTextView(){
+    private void updateExistingAlarmTextView(Alarm nextAlarm){
 
         TextView existingAlarmTextView = findViewById(R.id.existing_alarm_text_view);
 
         //if there is no existing alarm
-        if (!AlarmClockSharedPreferencesHelper.hasNextAlarmTime(getApplicationContext())){
+        if (nextAlarm == null){
 
             existingAlarmTextView.setText(R.string.activity_main_no_alarm_has_been_set_text);
         }
         else{
             //there is an existing alarm
 
-            long nextAlarmTime =
-                    AlarmClockSharedPreferencesHelper.getNextAlarmTime(getApplicationContext());
+            existingAlarmTextView.setText(AlarmClockFormattingHelper.formatAlarmTime(
+                    getApplicationContext(), nextAlarm.getAlarmTimeInMillisecondsSinceEpoch()));
+        }
+    }
 
-            Calendar calendar = Calendar.getInstance();
-            calendar.setTimeInMillis(nextAlarmTime);
 
-            int hour = calendar.get(Calendar.HOUR);
-            int minute = calendar.get(Calendar.MINUTE);
-            int timeOfDay = calendar.get(Calendar.AM_PM);
+    /**
+     * Update the textview that counts down to the existing alarm, if any, e.g.
+     * "Rings in 6 hours, 45 minutes, 10 seconds"
+     *
+     * The countdown is ticked by AlarmClockCountdownHelper, along with any other countdown,
+     * and only while this activity is visible
+     *
+     * @param nextAlarm the alarm that goes off next, or null if there is no existing alarm
+     * */
+    private void updateExistingAlarmCountdownTextView(Alarm nextAlarm){
 
-            String timeOfDayString;
+        TextView existingAlarmCountdownTextView =
+                                    findViewById(R.id.existing_alarm_countdown_text_view);
 
-            if (hour == 0){
-                hour = 12;
-            }
+        if (nextAlarm == null || !isVisible){
 
-            if (timeOfDay == Calendar.AM){
-                timeOfDayString = "a.m.";
-            }
-            else{
-                timeOfDayString = "p.m.";
-            }
+            AlarmClockCountdownHelper.stopCountdown(existingAlarmCountdownTextView);
 
-            String timeToDisplay = String.format(Locale.ENGLISH,
-                    "%02d:%02d %s", hour, minute, timeOfDayString);
+            existingAlarmCountdownTextView.setVisibility(View.INVISIBLE);
+        }
+        else{
+            AlarmClockCountdownHelper.startCountdown(existingAlarmCountdownTextView,
+                    nextAlarm.getAlarmTimeInMillisecondsSinceEpoch(),
+                    R.string.activity_main_rings_in_text);
 
-            existingAlarmTextView.setText(timeToDisplay);
+            existingAlarmCountdownTextView.setVisibility(View.VISIBLE);
         }
     }
 
@@ -210,57 +546,58 @@ public class MainActivity extends AppCompatActivity {
      * Delete alarm
      *
      * Does the following things:
-     *  (a) Delete the alarm from the alarm manager
-     *  (b) Delete the stored alarm time from the app's shared preferences storage
-     *  (c) Update the existing alarm textview to state the there is no existing alarm
-     *  (d) Hide the delete alarm button
-     *  (e) Update the text of the setOrUpdateAlarm button text from "Update Alarm" to "Set Alarm"
+     *  (a) Have the AlarmClockActor delete the alarm from the alarm manager and the app's
+     *      shared preferences storage
+     *  (b) Have it release the alarm sound, if it has been prepared ahead of this alarm by
+     *      its pre-fire warm-up. An alarm sound that is ringing is left alone
+     *
+     * The views are then updated through the alarm state observer, to display the alarm that
+     * goes off next instead (or that there is no existing alarm)
      *
+     * @param alarmId id of the alarm to delete
      * */
-    private void deleteAlarm(){
-
-        AlarmClockHelper.deleteExistingAlarmIfAny(getApplicationContext());
+    private void deleteAlarm(int alarmId){
 
-        AlarmClockSharedPreferencesHelper.deleteNextAlarmTimeIfAny(getApplicationContext());
-
-        initializeOrUpdateAllViews();
+        AlarmClockActor.getInstance(getApplicationContext()).submit(alarmClockState -> {
+            alarmClockState.deleteAlarm(alarmId);
+            return null;
+        });
     }
 
 
 
     /**
-     * Check if there is an old alarm which has already lapsed but not been fired yet
+     * Have the AlarmClockActor catch up on the alarms that were missed (e.g. while the device
+     * was off or the app was force-stopped), ringing, notifying or skipping them according to
+     * their missed alarm policies, and post a notification of the missed alarms to notify of
      *
-     * If there is such an old alarm, do the following things:
-     *      (a) Delete the old alarm through the alarm manager
-     *      (b) Delete the old stored alarm time from the app's shared preferences storage
-     *      (c) Stop the alarm ring sound from playing (if it is playing)
-     *      (d) Update all the views in this activity to reflect the deleted old alarm
+     * Also check if there are alarms that have gone off but have not been stopped. If there
+     * are, do the following things:
+     *      (a) Have the AlarmClockActor dismiss them: delete them through the alarm manager
+     *          and from the app's shared preferences storage, or set them to go off at their
+     *          next occurrence if they recur
+     *      (b) Stop the alarm ring sound from playing (if it is playing)
+     *
+     * The views of this activity should be updated after calling this method, since the
+     * AlarmClockActor runs commands in the order they are submitted
      * */
-    private void deleteAndStopAlarmIfAlarmHasAlreadyLapsed(){
-
-        if (AlarmClockSharedPreferencesHelper.hasNextAlarmTime(getApplicationContext())){
+    private void catchUpMissedAlarmsAndStopAlarmsGoneOff(){
 
-            long alarmTimeMillisecondsSinceEpoch =
-                    AlarmClockSharedPreferencesHelper.getNextAlarmTime(getApplicationContext());
+        AlarmClockActor.getInstance(getApplicationContext()).submit(
+                alarmClockState -> new Pair<>(
+                        alarmClockState.catchUpMissedAlarms(System.currentTimeMillis()),
+                        alarmClockState.dismissAlarmsGoneOff()),
+                missedOccurrencesAndHasDismissedAlarm -> {
 
-            Calendar alarmTimeCalendar = Calendar.getInstance();
-            alarmTimeCalendar.setTimeInMillis(alarmTimeMillisecondsSinceEpoch);
+            AlarmClockNotificationHelper.postMissedAlarmsNotification(getApplicationContext(),
+                    missedOccurrencesAndHasDismissedAlarm.first);
 
-            Calendar currentTimeCalendar = Calendar.getInstance();
-
-            if (alarmTimeCalendar.before(currentTimeCalendar)){
-
-                AlarmClockHelper.deleteExistingAlarmIfAny(getApplicationContext());
-                AlarmClockSharedPreferencesHelper.deleteNextAlarmTimeIfAny(getApplicationContext());
+            if (missedOccurrencesAndHasDismissedAlarm.second){
                 AlarmSoundMediaPlayer.stopAlarmRingingSoundIfPlaying();
 
                 AlarmClockNotificationHelper.deleteAllAlarmNotifications(getApplicationContext());
-
-                initializeOrUpdateAllViews();
-
             }
-        }
+        });
     }
 
 
@@ -271,7 +608,7 @@ public class MainActivity extends AppCompatActivity {
     private void checkAndRequestForVariousPermissions(){
 
         if (!hasScheduleExactAlarmPermission()){
-            requestForScheduleExactAlarmPermission();
+            handleMissingScheduleExactAlarmPermission();
         }
 
         if (!hasPostNotificationsPermission()){
@@ -288,8 +625,7 @@ public class MainActivity extends AppCompatActivity {
      * */
     private boolean hasScheduleExactAlarmPermission()
     {
-        return (ActivityCompat.checkSelfPermission(this,
-                Manifest.permission.SCHEDULE_EXACT_ALARM) == PackageManager.PERMISSION_GRANTED);
+        return AlarmClockHelper.canScheduleExactAlarms(getApplicationContext());
     }
 
     /**
@@ -306,17 +642,37 @@ public class MainActivity extends AppCompatActivity {
 
 
     /**
-     * Request the app to have the permission to schedule exact alarm
+     * Handle the app not having the permission to schedule exact alarm
+     *
+     * The first time, send the user to the system settings page where the permission can be
+     * granted (it is not a runtime permission that can be requested with a dialog). If the
+     * user comes back without granting it, display a message that the alarms will go off
+     * within a window of their alarm times instead of exactly at their alarm times. The
+     * message does not give the size of the window, since each alarm has its own window
+     * tolerance
+     *
+     * The app keeps working either way, since alarms fall back to windowed alarms without
+     * the permission
      * */
-    private void requestForScheduleExactAlarmPermission()
+    private void handleMissingScheduleExactAlarmPermission()
     {
-        String [] permissions = new String[]{
-                Manifest.permission.SCHEDULE_EXACT_ALARM
-        };
+        if (hasRequestedScheduleExactAlarmPermission){
+            return;
+        }
 
+        hasRequestedScheduleExactAlarmPermission = true;
 
-        ActivityCompat.requestPermissions(this, permissions,
-                SCHEDULE_EXACT_ALARM_PERMISSION_REQUEST_CODE);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S){
+
+            Intent intent = new Intent(Settings.ACTION_REQUEST_SCHEDULE_EXACT_ALARM,
+                                        Uri.parse("package:" + getPackageName()));
+
+            startActivity(intent);
+        }
+
+        Toast.makeText(getApplicationContext(),
+                R.string.activity_main_no_schedule_exact_alarm_permission_text,
+                Toast.LENGTH_LONG).show();
     }
 
 
@@ -337,9 +693,7 @@ public class MainActivity extends AppCompatActivity {
 
 
     /**
-     * Handle the permission request results for request of
-     *      (a) SCHEDULE_EXACT_ALARM permission
-     *      (b) POST_NOTIFICATIONS permission
+     * Handle the permission request results for request of POST_NOTIFICATIONS permission
      * */
     @Override
     public void onRequestPermissionsResult(int requestCode, @NonNull String[] permissions,
@@ -347,38 +701,12 @@ public class MainActivity extends AppCompatActivity {
 
         super.onRequestPermissionsResult(requestCode, permissions, grantResults);
 
-        if (requestCode == SCHEDULE_EXACT_ALARM_PERMISSION_REQUEST_CODE){
-            handleRequestForScheduleAlarmPermissionResult(grantResults);
-        }
-        else{
+        if (requestCode == POST_NOTIFICATIONS_PERMISSION_REQUEST_CODE){
             handleRequestForPostNotificationsPermissionResult(grantResults);
         }
     }
 
 
-    /**
-     * Handles the results of permission requests for accessing schedule exact alarm
-     * permission
-     *
-     * If permission is granted, then will allow user to continue. Otherwise will
-     * display an error message and close the app
-     *
-     * @param grantResults results of permissions granted
-     *
-     * */
-    private void handleRequestForScheduleAlarmPermissionResult(int[] grantResults)
-    {
-        if (!(grantResults.length == 1 &&
-             grantResults[0] == PackageManager.PERMISSION_GRANTED)) {
-
-            Toast.makeText(getApplicationContext(), "App cannot work without " +
-                    "permission to schedule alarm.", Toast.LENGTH_LONG).show();
-
-            finish();
-        }
-    }
-
-
     /**
      * Handles the results of permission requests for posting notifications
      *
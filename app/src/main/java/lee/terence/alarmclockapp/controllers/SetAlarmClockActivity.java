@@ -1,33 +1,115 @@
 package lee.terence.alarmclockapp.controllers;
 
+import androidx.activity.result.ActivityResultLauncher;
+import androidx.activity.result.contract.ActivityResultContracts;
 import androidx.appcompat.app.AppCompatActivity;
 
+import android.app.AlertDialog;
 import android.content.Context;
 import android.content.Intent;
+import android.net.Uri;
 import android.os.Bundle;
 
+import android.view.ViewGroup;
+import android.widget.ArrayAdapter;
 import android.widget.Button;
+import android.widget.CheckBox;
+import android.widget.RadioGroup;
+import android.widget.Spinner;
 import android.widget.TimePicker;
 import android.widget.Toast;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.List;
 import java.util.Locale;
 
-import lee.terence.alarmclockapp.helpers.AlarmClockHelper;
-import lee.terence.alarmclockapp.helpers.AlarmClockSharedPreferencesHelper;
 import lee.terence.alarmclockapp.R;
+import lee.terence.alarmclockapp.actors.AlarmClockActor;
+import lee.terence.alarmclockapp.actors.AlarmClockState;
+import lee.terence.alarmclockapp.helpers.AlarmClockCollisionHelper;
+import lee.terence.alarmclockapp.helpers.AlarmClockFormattingHelper;
+import lee.terence.alarmclockapp.helpers.AlarmClockHelper;
+import lee.terence.alarmclockapp.helpers.AlarmClockResourceTrackingHelper;
+import lee.terence.alarmclockapp.helpers.AlarmClockRingtoneCacheHelper;
+import lee.terence.alarmclockapp.helpers.ExclusionCalendarIcsHelper;
+import lee.terence.alarmclockapp.models.Alarm;
+import lee.terence.alarmclockapp.models.AlarmGroup;
+import lee.terence.alarmclockapp.models.AlarmPrecisionTier;
+import lee.terence.alarmclockapp.models.MissedAlarmPolicy;
 
 
 /**
  * An activity that allows users to set a new alarm/ overwrite an existing alarm if
  * there is an existing alarm
  *
+ * The alarm may recur on the selected days of the week, skipping the dates of the selected
+ * exclusion calendars. Exclusion calendars are imported from ICS files picked by the user
+ *
+ * The alarm may also be put in an alarm group, so that it is switched on or off together with
+ * the other alarms of the group
+ *
+ * The alarm rings with the alarm sound bundled with the app, unless the user picks an audio
+ * file for it to ring with instead. The picked audio file is copied into the ringtone cache
+ * once the alarm is saved (see AlarmClockRingtoneCacheHelper)
+ *
  * @author Terence Lee
  * */
 public class SetAlarmClockActivity extends AppCompatActivity {
 
     /**
-     * Create an intent to start a SetAlarmClockActivity
+     * Intent extra of the id of the existing alarm to overwrite, if any
+     * */
+    private static final String EXTRA_ALARM_ID = "lee.terence.alarmclockapp.extra.ALARM_ID";
+
+    /**
+     * Launcher of the document picker for the ICS file to import as an exclusion calendar
+     * */
+    private final ActivityResultLauncher<String[]> pickIcsFileLauncher =
+            registerForActivityResult(new ActivityResultContracts.OpenDocument(),
+                                        this::onIcsFilePicked);
+
+    /**
+     * Launcher of the document picker for the audio file to ring the alarm with
+     * */
+    private final ActivityResultLauncher<String[]> pickRingtoneLauncher =
+            registerForActivityResult(new ActivityResultContracts.OpenDocument(),
+                                        this::onRingtonePicked);
+
+    /**
+     * Key of the selected ringtone uri in the saved instance state
+     * */
+    private static final String SELECTED_RINGTONE_URI_KEY = "SELECTED_RINGTONE_URI";
+
+    /**
+     * Ids of the repeat day checkboxes, by day of the week (index 0 is Calendar.SUNDAY)
+     * */
+    private static final int[] REPEAT_DAY_CHECK_BOX_IDS = new int[]{
+            R.id.repeat_on_sunday_check_box,
+            R.id.repeat_on_monday_check_box,
+            R.id.repeat_on_tuesday_check_box,
+            R.id.repeat_on_wednesday_check_box,
+            R.id.repeat_on_thursday_check_box,
+            R.id.repeat_on_friday_check_box,
+            R.id.repeat_on_saturday_check_box
+    };
+
+
+    /**
+     * The alarm groups listed by the alarm group spinner, after its first item ("No group")
+     * */
+    private final List<AlarmGroup> alarmGroups = new ArrayList<>();
+
+    /**
+     * The ringtone that the user has picked, or Alarm.DEFAULT_RINGTONE_URI if none
+     * */
+    private String selectedRingtoneUri = Alarm.DEFAULT_RINGTONE_URI;
+
+
+    /**
+     * Create an intent to start a SetAlarmClockActivity to set a new alarm
      *
      * @param context The context to use. Usually your Application or Activity object
      * */
@@ -38,20 +120,345 @@ public class SetAlarmClockActivity extends AppCompatActivity {
     }
 
 
+    /**
+     * Create an intent to start a SetAlarmClockActivity to overwrite an existing alarm
+     *
+     * @param context The context to use. Usually your Application or Activity object
+     * @param alarmId id of the existing alarm to overwrite
+     * */
+    public static Intent createIntent(Context context, int alarmId){
+
+        Intent intent = createIntent(context);
+        intent.putExtra(EXTRA_ALARM_ID, alarmId);
+
+        return intent;
+    }
+
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+
+        AlarmClockResourceTrackingHelper.onActivityCreated(this);
+
+        if (savedInstanceState != null){
+            selectedRingtoneUri = savedInstanceState.getString(SELECTED_RINGTONE_URI_KEY,
+                                                                Alarm.DEFAULT_RINGTONE_URI);
+        }
+
         setContentView(R.layout.activity_set_alarm_clock);
         initializeAllViews();
     }
 
 
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+
+        outState.putString(SELECTED_RINGTONE_URI_KEY, selectedRingtoneUri);
+    }
+
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+
+        AlarmClockResourceTrackingHelper.onActivityDestroyed(this);
+    }
+
+
     /**
      * Initialize all the views in this activity
      * */
     private void initializeAllViews(){
         initializeCancelButton();
         initializeSetAlarmButton();
+        initializeImportExclusionCalendarButton();
+        initializeOrUpdateExclusionCalendarCheckBoxes();
+        initializeAlarmGroupSpinner();
+        initializeRingtoneButtons();
+    }
+
+
+    /**
+     * Initialize the ringtone button to let the user pick an audio file for the alarm to ring
+     * with, and the default ringtone button to go back to the alarm sound bundled with the app
+     * */
+    private void initializeRingtoneButtons(){
+
+        Button ringtoneButton = findViewById(R.id.ringtone_button);
+
+        ringtoneButton.setOnClickListener(
+                view -> pickRingtoneLauncher.launch(new String[]{"audio/*"}));
+
+        Button defaultRingtoneButton = findViewById(R.id.default_ringtone_button);
+
+        defaultRingtoneButton.setOnClickListener(view -> {
+            selectedRingtoneUri = Alarm.DEFAULT_RINGTONE_URI;
+            updateRingtoneButton();
+        });
+
+        updateRingtoneButton();
+    }
+
+
+    /**
+     * Update the text of the ringtone button to the name of the selected ringtone
+     * */
+    private void updateRingtoneButton(){
+
+        Button ringtoneButton = findViewById(R.id.ringtone_button);
+
+        if (selectedRingtoneUri == null){
+            ringtoneButton.setText(R.string.activity_set_alarm_clock_default_ringtone_text);
+        }
+        else{
+            ringtoneButton.setText(getRingtoneName(Uri.parse(selectedRingtoneUri)));
+        }
+    }
+
+
+    /**
+     * Select the audio file picked by the user as the ringtone of the alarm. The app's access
+     * to the file is kept across restarts, so that the file can be copied into the ringtone
+     * cache again whenever the alarm is saved
+     *
+     * @param ringtoneUri uri of the audio file
+     * */
+    private void selectRingtone(Uri ringtoneUri){
+
+        try {
+            getContentResolver().takePersistableUriPermission(ringtoneUri,
+                                            Intent.FLAG_GRANT_READ_URI_PERMISSION);
+        }
+        catch (SecurityException securityException){
+            //the file can still be read (and cached) while this activity is open
+        }
+
+        selectedRingtoneUri = ringtoneUri.toString();
+
+        updateRingtoneButton();
+    }
+
+
+    /**
+     * Returns the name of a ringtone to display: the last segment of its uri
+     *
+     * @param ringtoneUri uri of the ringtone
+     * */
+    private String getRingtoneName(Uri ringtoneUri){
+
+        String ringtoneName = ringtoneUri.getLastPathSegment();
+
+        if (ringtoneName == null){
+            return ringtoneUri.toString();
+        }
+
+        return ringtoneName.substring(ringtoneName.lastIndexOf('/') + 1);
+    }
+
+
+    /**
+     * Initialize the alarm group spinner with "No group" followed by all the alarm groups,
+     * once the AlarmClockActor has read them
+     * */
+    private void initializeAlarmGroupSpinner(){
+
+        AlarmClockActor.getInstance(getApplicationContext()).submit(
+                AlarmClockState::getAllAlarmGroups,
+                this::initializeAlarmGroupSpinner);
+    }
+
+
+    /**
+     * Initialize the alarm group spinner with "No group" followed by the given alarm groups
+     *
+     * @param allAlarmGroups all the alarm groups
+     * */
+    private void initializeAlarmGroupSpinner(List<AlarmGroup> allAlarmGroups){
+
+        if (isDestroyed()){
+            return;
+        }
+
+        alarmGroups.clear();
+        alarmGroups.addAll(allAlarmGroups);
+
+        List<String> alarmGroupNames = new ArrayList<>();
+
+        alarmGroupNames.add(getString(R.string.activity_set_alarm_clock_no_alarm_group_text));
+
+        for (AlarmGroup alarmGroup : alarmGroups){
+            alarmGroupNames.add(alarmGroup.getName());
+        }
+
+        ArrayAdapter<String> alarmGroupNamesAdapter = new ArrayAdapter<>(this,
+                android.R.layout.simple_spinner_item, alarmGroupNames);
+
+        alarmGroupNamesAdapter.setDropDownViewResource(
+                android.R.layout.simple_spinner_dropdown_item);
+
+        Spinner alarmGroupSpinner = findViewById(R.id.alarm_group_spinner);
+
+        alarmGroupSpinner.setAdapter(alarmGroupNamesAdapter);
+    }
+
+
+    /**
+     * Initialize the import exclusion calendar button to let the user pick an ICS file to
+     * import as an exclusion calendar
+     * */
+    private void initializeImportExclusionCalendarButton(){
+
+        Button importExclusionCalendarButton =
+                                    findViewById(R.id.import_exclusion_calendar_button);
+
+        importExclusionCalendarButton.setOnClickListener(
+                view -> pickIcsFileLauncher.launch(new String[]{"text/calendar"}));
+    }
+
+
+    /**
+     * Initialize or update the checkboxes of the exclusion calendars, one per exclusion
+     * calendar, once the AlarmClockActor has read their names. Calendars that were
+     * checked stay checked
+     * */
+    private void initializeOrUpdateExclusionCalendarCheckBoxes(){
+
+        AlarmClockActor.getInstance(getApplicationContext()).submit(
+                AlarmClockState::getAllExclusionCalendarNames,
+                this::initializeOrUpdateExclusionCalendarCheckBoxes);
+    }
+
+
+    /**
+     * Initialize or update the checkboxes of the given exclusion calendars
+     *
+     * @param exclusionCalendarNames names of all the exclusion calendars
+     * */
+    private void initializeOrUpdateExclusionCalendarCheckBoxes(
+                                                        List<String> exclusionCalendarNames){
+
+        if (isDestroyed()){
+            return;
+        }
+
+        List<String> selectedExclusionCalendarNames = getSelectedExclusionCalendarNames();
+
+        ViewGroup exclusionCalendarsLayout = findViewById(R.id.exclusion_calendars_layout);
+
+        exclusionCalendarsLayout.removeAllViews();
+
+        for (String exclusionCalendarName : exclusionCalendarNames){
+
+            CheckBox exclusionCalendarCheckBox = new CheckBox(this);
+
+            exclusionCalendarCheckBox.setText(exclusionCalendarName);
+            exclusionCalendarCheckBox.setChecked(
+                    selectedExclusionCalendarNames.contains(exclusionCalendarName));
+
+            exclusionCalendarsLayout.addView(exclusionCalendarCheckBox);
+        }
+    }
+
+
+    /**
+     * Handle the ICS file picked by the user, by having the AlarmClockActor compile it into
+     * an exclusion calendar (on its own thread), named after the file
+     *
+     * @param icsFileUri uri of the ICS file, or null if the user picked none
+     * */
+    private void onIcsFilePicked(Uri icsFileUri){
+
+        if (icsFileUri != null){
+            importExclusionCalendar(icsFileUri);
+        }
+    }
+
+
+    /**
+     * Handle the audio file picked by the user, by selecting it as the ringtone
+     *
+     * @param ringtoneUri uri of the audio file, or null if the user picked none
+     * */
+    private void onRingtonePicked(Uri ringtoneUri){
+
+        if (ringtoneUri != null){
+            selectRingtone(ringtoneUri);
+        }
+    }
+
+
+    /**
+     * Import an ICS file as an exclusion calendar, named after the file. An existing
+     * exclusion calendar of the same name is replaced
+     *
+     * Will display a toast if the file cannot be read
+     *
+     * @param icsFileUri uri of the ICS file
+     * */
+    private void importExclusionCalendar(Uri icsFileUri){
+
+        Context applicationContext = getApplicationContext();
+
+        String exclusionCalendarName = getExclusionCalendarName(icsFileUri);
+
+        AlarmClockActor.getInstance(applicationContext).submit(alarmClockState -> {
+
+            try (InputStream inputStream =
+                         applicationContext.getContentResolver().openInputStream(icsFileUri)){
+
+                if (inputStream == null){
+                    return null;
+                }
+
+                alarmClockState.putExclusionCalendar(ExclusionCalendarIcsHelper.compileIcsFile(
+                                                        exclusionCalendarName, inputStream));
+
+                return alarmClockState.getAllExclusionCalendarNames();
+            }
+            catch (IOException | SecurityException exception){
+                return null;
+            }
+
+        }, exclusionCalendarNames -> {
+
+            if (exclusionCalendarNames == null){
+                Toast.makeText(applicationContext,
+                        R.string.activity_set_alarm_clock_unable_to_read_calendar_file_text,
+                        Toast.LENGTH_LONG).show();
+            }
+            else{
+                initializeOrUpdateExclusionCalendarCheckBoxes(exclusionCalendarNames);
+            }
+        });
+    }
+
+
+    /**
+     * Returns the name of the exclusion calendar to import from an ICS file: the last
+     * segment of its uri, without the ".ics" extension, or a default name if the uri has no
+     * path
+     *
+     * @param icsFileUri uri of the ICS file
+     * */
+    private String getExclusionCalendarName(Uri icsFileUri){
+
+        String exclusionCalendarName = icsFileUri.getLastPathSegment();
+
+        if (exclusionCalendarName == null){
+            return getString(R.string.activity_set_alarm_clock_default_calendar_name_text);
+        }
+
+        exclusionCalendarName = exclusionCalendarName.substring(
+                                            exclusionCalendarName.lastIndexOf('/') + 1);
+
+        if (exclusionCalendarName.toLowerCase(Locale.ENGLISH).endsWith(".ics")){
+            exclusionCalendarName = exclusionCalendarName.substring(0,
+                                            exclusionCalendarName.length() - 4);
+        }
+
+        return exclusionCalendarName;
     }
 
 
@@ -78,64 +485,288 @@ public class SetAlarmClockActivity extends AppCompatActivity {
 
 
     /**
-     * Set the alarm time according to the alarm time that the user has selected
+     * Set the alarm time (and precision tier, repeat days, exclusion calendars, alarm group,
+     * missed alarm policy and ringtone) according to
+     * what the user has selected, either as
+     * a new alarm or by overwriting the existing alarm that this activity was started for
      *
-     * Also stores the set alarm time in the app's shared preferences storage
+     * Before the alarm is set, the AlarmClockActor checks it against the other alarms. If an
+     * identical alarm (same time, repeat days, exclusion calendars and alarm group) already
+     * exists, the alarm is not set, and the activity stays open for the user to change it. If
+     * the alarm would ring within a few minutes of other alarms on the same day, the user is
+     * asked whether to set it anyway
      *
-     * Will also display a toast of the amount of time left before the alarm rings
-     *
-     * Will close (finish) this activity once the alarm time is set
+     * @see SetAlarmClockActivity#saveAlarm(int, Alarm.Builder)
      * */
     private void setAlarm(){
 
         TimePicker timePicker = findViewById(R.id.alarm_time_picker);
 
-        int hourOfDay = timePicker.getHour();
-        int minute = timePicker.getMinute();
+        Alarm.Builder alarmBuilder = new Alarm.Builder()
+                .setHourOfDay(timePicker.getHour())
+                .setMinute(timePicker.getMinute())
+                .setPrecisionTier(getSelectedPrecisionTier())
+                .setRepeatDays(getSelectedRepeatDays())
+                .setExclusionCalendarNames(getSelectedExclusionCalendarNames())
+                .setGroupId(getSelectedAlarmGroupId())
+                .setMissedAlarmPolicy(getSelectedMissedAlarmPolicy())
+                .setRingtoneUri(selectedRingtoneUri);
+
+        int alarmId = getIntent().getIntExtra(EXTRA_ALARM_ID, Alarm.NO_ALARM_ID);
+
+        AlarmClockActor.getInstance(getApplicationContext()).submit(
+                alarmClockState -> alarmClockState.getAlarmConflicts(alarmId, alarmBuilder),
+                alarmClockConflicts -> {
+
+            if (isFinishing() || isDestroyed()){
+                return;
+            }
+
+            if (alarmClockConflicts.getDuplicateAlarm() != null){
+
+                Toast.makeText(getApplicationContext(),
+                        R.string.activity_set_alarm_clock_duplicate_alarm_text,
+                        Toast.LENGTH_LONG).show();
+            }
+            else if (!alarmClockConflicts.getCollidingAlarms().isEmpty()){
+                showCollidingAlarmsDialog(alarmId, alarmBuilder,
+                                            alarmClockConflicts.getCollidingAlarms());
+            }
+            else{
+                saveAlarm(alarmId, alarmBuilder);
+            }
+        });
+    }
+
+
+    /**
+     * Display a dialog listing the alarms that the alarm would collide with, and asking the
+     * user whether to set the alarm anyway
+     *
+     * @param alarmId id of the existing alarm to overwrite, or Alarm.NO_ALARM_ID
+     * @param alarmBuilder builder of the alarm
+     * @param collidingAlarms the alarms that the alarm would collide with
+     * */
+    private void showCollidingAlarmsDialog(int alarmId, Alarm.Builder alarmBuilder,
+                                           List<Alarm> collidingAlarms){
+
+        List<String> collidingAlarmTimes = new ArrayList<>(collidingAlarms.size());
+
+        for (Alarm collidingAlarm : collidingAlarms){
+
+            collidingAlarmTimes.add(AlarmClockFormattingHelper.formatAlarmTime(
+                    getApplicationContext(), AlarmClockHelper.getNextAlarmTime(
+                            collidingAlarm.getHourOfDay(), collidingAlarm.getMinute())));
+        }
+
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.activity_set_alarm_clock_colliding_alarms_title_text)
+                .setMessage(getString(R.string.activity_set_alarm_clock_colliding_alarms_text,
+                        AlarmClockCollisionHelper.COLLISION_WINDOW_IN_MINUTES,
+                        String.join(", ", collidingAlarmTimes)))
+                .setNegativeButton(android.R.string.cancel, null)
+                .setPositiveButton(R.string.activity_set_alarm_clock_set_anyway_text,
+                        (dialog, which) -> saveAlarm(alarmId, alarmBuilder))
+                .show();
+    }
+
+
+    /**
+     * Have the AlarmClockActor set the alarm (and store it in the app's shared preferences
+     * storage) on its own thread, either as a new alarm or by overwriting the existing alarm
+     *
+     * Will also display a toast of the amount of time left before the alarm rings, once
+     * the alarm has been set, and copy its ringtone (if any) into the ringtone cache in the
+     * background
+     *
+     * Will close (finish) this activity without waiting for the alarm to be set
+     *
+     * @param alarmId id of the existing alarm to overwrite, or Alarm.NO_ALARM_ID
+     * @param alarmBuilder builder of the alarm
+     * */
+    private void saveAlarm(int alarmId, Alarm.Builder alarmBuilder){
+
+        Context applicationContext = getApplicationContext();
+
+        AlarmClockActor.getInstance(applicationContext).submit(alarmClockState -> {
+
+            if (alarmId == Alarm.NO_ALARM_ID){
+                return alarmClockState.addAlarm(alarmBuilder);
+            }
 
-        long nextAlarmTimeMillisecondsSinceEpoch =
-                    AlarmClockHelper.setAlarmClock(getApplicationContext(), hourOfDay, minute);
+            return alarmClockState.updateAlarm(alarmId, alarmBuilder);
 
-        AlarmClockSharedPreferencesHelper.setNextAlarmTime(getApplicationContext(),
-                                                            nextAlarmTimeMillisecondsSinceEpoch);
+        }, alarm -> {
 
-        displayToastOfTimeLeftBeforeAlarmRings(nextAlarmTimeMillisecondsSinceEpoch);
+            //an identical alarm may have been set in the meantime
+            if (alarm == null){
+                Toast.makeText(applicationContext,
+                        R.string.activity_set_alarm_clock_duplicate_alarm_text,
+                        Toast.LENGTH_LONG).show();
+                return;
+            }
+
+            displayToastOfTimeLeftBeforeAlarmRings(alarm.getAlarmTimeInMillisecondsSinceEpoch());
+
+            if (alarm.hasCustomRingtone()){
+                refillRingtoneCache(alarm.getRingtoneUri());
+            }
+        });
 
         finish();
     }
 
 
 
+    /**
+     * Copy a ringtone into the ringtone cache in the background, once the AlarmClockActor has
+     * read the ringtones of all the alarms, whose cached copies are evicted last
+     *
+     * @param ringtoneUri the ringtone of the alarm that has been saved
+     * */
+    private void refillRingtoneCache(String ringtoneUri){
+
+        Context applicationContext = getApplicationContext();
+
+        AlarmClockActor.getInstance(applicationContext).submit(
+                AlarmClockState::getAllRingtoneUris,
+                ringtoneUrisInUse -> AlarmClockRingtoneCacheHelper.refillRingtoneCacheInBackground(
+                                            applicationContext, ringtoneUri, ringtoneUrisInUse));
+    }
+
+
+    /**
+     * Returns the repeat days that the user has selected (see Alarm.getRepeatDayBit), or
+     * Alarm.NO_REPEAT_DAYS if none
+     * */
+    private int getSelectedRepeatDays(){
+
+        int repeatDays = Alarm.NO_REPEAT_DAYS;
+
+        for (int i = 0; i < REPEAT_DAY_CHECK_BOX_IDS.length; i++){
+
+            CheckBox repeatDayCheckBox = findViewById(REPEAT_DAY_CHECK_BOX_IDS[i]);
+
+            if (repeatDayCheckBox.isChecked()){
+                repeatDays |= Alarm.getRepeatDayBit(Calendar.SUNDAY + i);
+            }
+        }
+
+        return repeatDays;
+    }
+
+
+    /**
+     * Returns the names of the exclusion calendars that the user has selected
+     * */
+    private List<String> getSelectedExclusionCalendarNames(){
+
+        ViewGroup exclusionCalendarsLayout = findViewById(R.id.exclusion_calendars_layout);
+
+        List<String> selectedExclusionCalendarNames = new ArrayList<>();
+
+        for (int i = 0; i < exclusionCalendarsLayout.getChildCount(); i++){
+
+            CheckBox exclusionCalendarCheckBox = (CheckBox) exclusionCalendarsLayout.getChildAt(i);
+
+            if (exclusionCalendarCheckBox.isChecked()){
+                selectedExclusionCalendarNames.add(
+                                    exclusionCalendarCheckBox.getText().toString());
+            }
+        }
+
+        return selectedExclusionCalendarNames;
+    }
+
+
+    /**
+     * Returns the id of the alarm group that the user has selected, or Alarm.NO_GROUP if none
+     * */
+    private int getSelectedAlarmGroupId(){
+
+        Spinner alarmGroupSpinner = findViewById(R.id.alarm_group_spinner);
+
+        int selectedItemPosition = alarmGroupSpinner.getSelectedItemPosition();
+
+        //the first item is "No group"
+        if (selectedItemPosition < 1 || selectedItemPosition > alarmGroups.size()){
+            return Alarm.NO_GROUP;
+        }
+
+        return alarmGroups.get(selectedItemPosition - 1).getId();
+    }
+
+
+    /**
+     * Returns the precision tier that the user has selected
+     * */
+    private AlarmPrecisionTier getSelectedPrecisionTier(){
+
+        RadioGroup precisionTierRadioGroup = findViewById(R.id.alarm_precision_tier_radio_group);
+
+        int checkedRadioButtonId = precisionTierRadioGroup.getCheckedRadioButtonId();
+
+        if (checkedRadioButtonId == R.id.exact_alarm_clock_radio_button){
+            return AlarmPrecisionTier.EXACT_ALARM_CLOCK;
+        }
+
+        if (checkedRadioButtonId == R.id.windowed_radio_button){
+            return AlarmPrecisionTier.WINDOWED;
+        }
+
+        return AlarmPrecisionTier.EXACT_WHILE_IDLE;
+    }
+
+
+    /**
+     * Returns the missed alarm policy that the user has selected
+     * */
+    private MissedAlarmPolicy getSelectedMissedAlarmPolicy(){
+
+        RadioGroup missedAlarmPolicyRadioGroup =
+                                        findViewById(R.id.missed_alarm_policy_radio_group);
+
+        int checkedRadioButtonId = missedAlarmPolicyRadioGroup.getCheckedRadioButtonId();
+
+        if (checkedRadioButtonId == R.id.ring_late_if_missed_radio_button){
+            return MissedAlarmPolicy.RING_LATE;
+        }
+
+        if (checkedRadioButtonId == R.id.skip_if_missed_radio_button){
+            return MissedAlarmPolicy.SKIP;
+        }
+
+        return MissedAlarmPolicy.NOTIFY;
+    }
+
+
+
     /**
      * Displays a toast of the amount of time remaining before the alarm rings in
      * hours, minutes and seconds
      *
-     * E.g of output: "Alarm will ring in 0 hours, 6 minutes and 45 seconds"
+     * E.g of output: "Alarm will ring in 6 minutes, 45 seconds", in the user's locale
      *
      * @param alarmTimeInMillisecondsSinceEpoch the alarm time in milliseconds since epoch, where
      *                                          the epoch refers to 1 Jan 1980, 12:00:00 am
      * */
     private void displayToastOfTimeLeftBeforeAlarmRings(long alarmTimeInMillisecondsSinceEpoch){
 
-        long currentTimeInMillisecondsSinceEpoch = Calendar.getInstance().getTimeInMillis();
-
-        long timeDifference = alarmTimeInMillisecondsSinceEpoch - currentTimeInMillisecondsSinceEpoch;
+        if (alarmTimeInMillisecondsSinceEpoch == Alarm.NO_ALARM_TIME){
 
-        long ONE_HOUR_IN_MILLISECONDS = 3600000;
-        long ONE_MINUTE_IN_MILLISECONDS = 60000;
-        long ONE_SECOND_IN_MILLISECONDS = 1000;
+            Toast.makeText(getApplicationContext(),
+                    R.string.activity_set_alarm_clock_all_days_skipped_text,
+                    Toast.LENGTH_LONG).show();
 
-        long numberOfHours = timeDifference/ONE_HOUR_IN_MILLISECONDS;
+            return;
+        }
 
-        long remainingTimeInMilliseconds = timeDifference%ONE_HOUR_IN_MILLISECONDS;
-        long numberOfMinutes = remainingTimeInMilliseconds/ONE_MINUTE_IN_MILLISECONDS;
+        long currentTimeInMillisecondsSinceEpoch = System.currentTimeMillis();
 
-        remainingTimeInMilliseconds = remainingTimeInMilliseconds%ONE_MINUTE_IN_MILLISECONDS;
-        long numberOfSeconds = remainingTimeInMilliseconds/ONE_SECOND_IN_MILLISECONDS;
+        long timeDifference = alarmTimeInMillisecondsSinceEpoch - currentTimeInMillisecondsSinceEpoch;
 
-        String toastTextToDisplay = String.format(Locale.ENGLISH,
-               "Alarm will ring in %d hours, %d minutes and %d seconds",
-               numberOfHours, numberOfMinutes, numberOfSeconds);
+        String toastTextToDisplay = getString(R.string.activity_set_alarm_clock_alarm_will_ring_in_text,
+                AlarmClockFormattingHelper.formatDuration(getApplicationContext(), timeDifference));
 
         Toast.makeText(getApplicationContext(), toastTextToDisplay, Toast.LENGTH_LONG).show();
 
@@ -0,0 +1,188 @@
+package lee.terence.alarmclockapp.helpers;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import lee.terence.alarmclockapp.models.Alarm;
+import lee.terence.alarmclockapp.models.AlarmPrecisionTier;
+
+
+/**
+ * A Singleton helper class that finds alarms that collide, i.e. that ring within
+ * COLLISION_WINDOW_IN_MINUTES of each other on a day they both go off (e.g. 7:00 and 7:03
+ * every weekday), so that they would ring over each other
+ *
+ * A WINDOWED alarm may go off up to its window tolerance after its time, so its window is
+ * widened by its tolerance. Alarms 23:58 on Monday and 0:01 on Tuesday collide too, across
+ * midnight. An alarm that does not recur may go off on any day, so it is taken to collide
+ * with any alarm near its time. Exclusion calendars are not taken into account, so the
+ * collisions found are the ones that are possible
+ *
+ * Collisions are found with a sorted sweep, rather than by comparing every pair of alarms:
+ * the alarms are sorted by their minute of day (once, in O(n log n)), and each alarm is only
+ * compared with the alarms after it that are within the window. Alarms that are spread
+ * through the day are therefore compared with a handful of others each, however many there
+ * are
+ *
+ * <b>Example Usage:</b>
+ * <pre>
+ *     List<Alarm[]> collidingAlarmPairs =
+ *                  AlarmClockCollisionHelper.findCollidingAlarmPairs(allEnabledAlarms);
+ *
+ *     for (Alarm[] collidingAlarmPair : collidingAlarmPairs){
+ *         //collidingAlarmPair[0] rings at or before collidingAlarmPair[1], on the same day
+ *     }
+ * </pre>
+ *
+ * @author Terence Lee
+ * */
+public class AlarmClockCollisionHelper {
+
+    /**
+     * Number of minutes within which two exact alarms ringing on the same day collide
+     * */
+    public static final int COLLISION_WINDOW_IN_MINUTES = 5;
+
+    private static final int MINUTES_PER_DAY = 24 * 60;
+
+    private static final long MILLISECONDS_PER_MINUTE = 60 * 1000;
+
+    /**
+     * Repeat days bitmask of every day of the week (see Alarm.getRepeatDayBit)
+     * */
+    private static final int EVERY_DAY = (1 << 7) - 1;
+
+    private static final Comparator<SweepEntry> MINUTE_OF_DAY_COMPARATOR =
+            (sweepEntry, otherSweepEntry) ->
+                    Integer.compare(sweepEntry.minuteOfDay, otherSweepEntry.minuteOfDay);
+
+
+    /**
+     * All methods in this class are static, so there is no need for a constructor for this class
+     * */
+    private AlarmClockCollisionHelper(){
+
+    }
+
+
+    /**
+     * Returns every pair of the given alarms that collide. In each pair, the first alarm
+     * rings at or before the second (the second may ring on the next day, across midnight)
+     *
+     * @param alarms the alarms, e.g. all the enabled alarms
+     * */
+    public static List<Alarm[]> findCollidingAlarmPairs(List<Alarm> alarms){
+
+        List<SweepEntry> sweepEntries = new ArrayList<>(alarms.size() * 2);
+
+        int maximumWindowInMinutes = COLLISION_WINDOW_IN_MINUTES;
+
+        for (Alarm alarm : alarms){
+
+            int minuteOfDay = alarm.getHourOfDay() * 60 + alarm.getMinute();
+            int days = alarm.isRecurring() ? alarm.getRepeatDays() : EVERY_DAY;
+
+            sweepEntries.add(new SweepEntry(alarm, minuteOfDay, days));
+
+            maximumWindowInMinutes = Math.max(maximumWindowInMinutes, getWindowInMinutes(alarm));
+        }
+
+        sweepEntries.sort(MINUTE_OF_DAY_COMPARATOR);
+
+        int numberOfAlarms = sweepEntries.size();
+
+        //the alarms near the start of the day are added again as if on the day before, a
+        //day's minutes later, so that collisions across midnight are swept like the others
+        for (int i = 0; i < numberOfAlarms; i++){
+
+            SweepEntry sweepEntry = sweepEntries.get(i);
+
+            if (sweepEntry.minuteOfDay > maximumWindowInMinutes){
+                break;
+            }
+
+            sweepEntries.add(new SweepEntry(sweepEntry.alarm,
+                    sweepEntry.minuteOfDay + MINUTES_PER_DAY,
+                    getDaysBefore(sweepEntry.days)));
+        }
+
+        List<Alarm[]> collidingAlarmPairs = new ArrayList<>();
+
+        for (int i = 0; i < numberOfAlarms; i++){
+
+            SweepEntry earlierSweepEntry = sweepEntries.get(i);
+
+            int windowInMinutes = getWindowInMinutes(earlierSweepEntry.alarm);
+
+            for (int j = i + 1; j < sweepEntries.size(); j++){
+
+                SweepEntry laterSweepEntry = sweepEntries.get(j);
+
+                int minutesApart = laterSweepEntry.minuteOfDay - earlierSweepEntry.minuteOfDay;
+
+                //the entries added for midnight are after every alarm, so all are still sorted
+                if (minutesApart > windowInMinutes){
+                    break;
+                }
+
+                if (laterSweepEntry.alarm != earlierSweepEntry.alarm &&
+                        (laterSweepEntry.days & earlierSweepEntry.days) != 0){
+
+                    collidingAlarmPairs.add(new Alarm[]{earlierSweepEntry.alarm,
+                                                        laterSweepEntry.alarm});
+                }
+            }
+        }
+
+        return collidingAlarmPairs;
+    }
+
+
+    /**
+     * Returns the number of minutes after an alarm's time within which another alarm
+     * collides with it
+     *
+     * @param alarm the alarm
+     * */
+    private static int getWindowInMinutes(Alarm alarm){
+
+        if (alarm.getPrecisionTier() != AlarmPrecisionTier.WINDOWED){
+            return COLLISION_WINDOW_IN_MINUTES;
+        }
+
+        return COLLISION_WINDOW_IN_MINUTES + (int) ((alarm.getWindowToleranceInMilliseconds() +
+                                MILLISECONDS_PER_MINUTE - 1) / MILLISECONDS_PER_MINUTE);
+    }
+
+
+    /**
+     * Returns the repeat days bitmask of the days before the given days, e.g. Sunday and
+     * Monday for Monday and Tuesday
+     *
+     * @param days repeat days bitmask (see Alarm.getRepeatDayBit)
+     * */
+    private static int getDaysBefore(int days){
+        return (days >> 1) | ((days & 1) << 6);
+    }
+
+
+    /**
+     * An alarm in the sweep, with its minute of day and the days it goes off on
+     * */
+    private static class SweepEntry {
+
+        private final Alarm alarm;
+
+        private final int minuteOfDay;
+
+        private final int days;
+
+
+        SweepEntry(Alarm alarm, int minuteOfDay, int days){
+            this.alarm = alarm;
+            this.minuteOfDay = minuteOfDay;
+            this.days = days;
+        }
+    }
+}
@@ -0,0 +1,254 @@
+package lee.terence.alarmclockapp.helpers;
+
+import android.graphics.Rect;
+import android.view.Choreographer;
+import android.view.ViewTreeObserver;
+import android.widget.TextView;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+
+/**
+ * A Singleton helper class that keeps live "rings in" countdowns on text views, e.g. one per
+ * displayed alarm
+ *
+ * All the countdowns are driven by a single Choreographer frame callback, aligned with the
+ * display's vsync, rather than by a timer each. On every frame, each countdown that is on
+ * screen works out the number of whole seconds left, and only sets its text when that number
+ * has changed, i.e. about once a second. So however many countdowns there are, they cost one
+ * callback per frame, and a text change per countdown per second
+ *
+ * The frame callback stops entirely when none of the countdowns are on screen (e.g. they have
+ * been scrolled out of view), and is started again by the next draw of their windows (e.g. once
+ * they are scrolled back). It also stops once every countdown has been stopped, which the
+ * activities do when they are no longer in the foreground
+ *
+ * All methods must be called on the main thread
+ *
+ * <b>Example Usage:</b>
+ * <pre>
+ *     //in onResume, or once the alarm has been read
+ *     AlarmClockCountdownHelper.startCountdown(countdownTextView,
+ *              alarm.getAlarmTimeInMillisecondsSinceEpoch(), R.string.activity_main_rings_in_text);
+ *
+ *     //in onPause
+ *     AlarmClockCountdownHelper.stopCountdown(countdownTextView);
+ * </pre>
+ *
+ * @author Terence Lee
+ * */
+public class AlarmClockCountdownHelper {
+
+    /**
+     * The running countdowns, in the order they were started
+     * */
+    private static final List<Countdown> countdowns = new ArrayList<>();
+
+    /**
+     * Whether the frame callback has been posted to the Choreographer for the next frame
+     * */
+    private static boolean isFrameCallbackPosted = false;
+
+    /**
+     * The view tree observers (of the windows of the countdowns) that the pre-draw listener has
+     * been added to, while the frame callback is stopped because no countdown is on screen
+     * */
+    private static final Set<ViewTreeObserver> observersWaitingForDraw =
+                                        Collections.newSetFromMap(new IdentityHashMap<>());
+
+    private static final Choreographer.FrameCallback FRAME_CALLBACK =
+                                                    frameTimeNanos -> tickCountdowns();
+
+    /**
+     * Restarts the frame callback on the next draw of a window, once a countdown may have
+     * come back on screen
+     * */
+    private static final ViewTreeObserver.OnPreDrawListener PRE_DRAW_LISTENER = () -> {
+        stopWaitingForDraw();
+        postFrameCallbackIfNotPosted();
+        return true;
+    };
+
+    private static final long ONE_SECOND_IN_MILLISECONDS = 1000;
+
+    /**
+     * Reusable rectangle to check whether the text view of a countdown is on screen
+     * */
+    private static final Rect visibleRect = new Rect();
+
+
+    /**
+     * All methods in this class are static, so there is no need for a constructor for this class
+     * */
+    private AlarmClockCountdownHelper(){
+
+    }
+
+
+    /**
+     * Start a countdown on a text view, replacing the countdown already on it if any
+     *
+     * @param textView the text view to display the time left in
+     * @param alarmTimeInMillisecondsSinceEpoch the time to count down to
+     * @param formatResId string resource to format the time left with, taking it as its only
+     *                    argument, e.g. "Rings in %1$s"
+     * */
+    public static void startCountdown(TextView textView, long alarmTimeInMillisecondsSinceEpoch,
+                                      int formatResId){
+
+        stopCountdown(textView);
+
+        countdowns.add(new Countdown(textView, alarmTimeInMillisecondsSinceEpoch, formatResId));
+
+        stopWaitingForDraw();
+        postFrameCallbackIfNotPosted();
+    }
+
+
+    /**
+     * Stop the countdown on a text view, if there is any. Its text is left as it is. The frame
+     * callback stops once no countdown is left
+     *
+     * @param textView the text view of the countdown
+     * */
+    public static void stopCountdown(TextView textView){
+
+        for (int i = 0; i < countdowns.size(); i++){
+
+            if (countdowns.get(i).textView == textView){
+                countdowns.remove(i);
+                break;
+            }
+        }
+
+        if (countdowns.isEmpty()){
+            stopWaitingForDraw();
+            Choreographer.getInstance().removeFrameCallback(FRAME_CALLBACK);
+            isFrameCallbackPosted = false;
+        }
+    }
+
+
+    /**
+     * Update the text of every countdown that is on screen and whose number of whole seconds
+     * left has changed, then post the frame callback again for the next frame, unless none of
+     * the countdowns is on screen (then wait for the next draw of their windows instead) or
+     * none is left. Called once per frame
+     * */
+    private static void tickCountdowns(){
+
+        isFrameCallbackPosted = false;
+
+        if (countdowns.isEmpty()){
+            return;
+        }
+
+        long currentTime = System.currentTimeMillis();
+
+        boolean isAnyCountdownOnScreen = false;
+
+        for (Countdown countdown : countdowns){
+
+            TextView textView = countdown.textView;
+
+            if (!textView.isShown() || !textView.getGlobalVisibleRect(visibleRect)){
+                continue;
+            }
+
+            isAnyCountdownOnScreen = true;
+
+            //rounded up, so that the countdown reads 0 seconds exactly at the alarm time
+            long secondsLeft = Math.max(0, (countdown.alarmTimeInMillisecondsSinceEpoch -
+                    currentTime + ONE_SECOND_IN_MILLISECONDS - 1) / ONE_SECOND_IN_MILLISECONDS);
+
+            if (secondsLeft != countdown.displayedSecondsLeft){
+
+                countdown.displayedSecondsLeft = secondsLeft;
+
+                textView.setText(textView.getContext().getString(countdown.formatResId,
+                        AlarmClockFormattingHelper.formatDuration(textView.getContext(),
+                                secondsLeft * ONE_SECOND_IN_MILLISECONDS)));
+            }
+        }
+
+        if (isAnyCountdownOnScreen){
+            postFrameCallbackIfNotPosted();
+        }
+        else{
+            waitForDraw();
+        }
+    }
+
+
+    /**
+     * Post the frame callback to the Choreographer for the next frame, if it has not been
+     * posted yet
+     * */
+    private static void postFrameCallbackIfNotPosted(){
+
+        if (!isFrameCallbackPosted && !countdowns.isEmpty()){
+            isFrameCallbackPosted = true;
+            Choreographer.getInstance().postFrameCallback(FRAME_CALLBACK);
+        }
+    }
+
+
+    /**
+     * Add the pre-draw listener to the windows of all the countdowns, to restart the frame
+     * callback on their next draw
+     * */
+    private static void waitForDraw(){
+
+        for (Countdown countdown : countdowns){
+
+            ViewTreeObserver viewTreeObserver = countdown.textView.getViewTreeObserver();
+
+            if (viewTreeObserver.isAlive() && observersWaitingForDraw.add(viewTreeObserver)){
+                viewTreeObserver.addOnPreDrawListener(PRE_DRAW_LISTENER);
+            }
+        }
+    }
+
+
+    /**
+     * Remove the pre-draw listener from the windows it has been added to
+     * */
+    private static void stopWaitingForDraw(){
+
+        for (ViewTreeObserver viewTreeObserver : observersWaitingForDraw){
+
+            if (viewTreeObserver.isAlive()){
+                viewTreeObserver.removeOnPreDrawListener(PRE_DRAW_LISTENER);
+            }
+        }
+
+        observersWaitingForDraw.clear();
+    }
+
+
+    /**
+     * A running countdown: the text view it is displayed in, the time it counts down to, and
+     * the number of whole seconds left that the text view currently displays
+     * */
+    private static class Countdown {
+
+        private final TextView textView;
+
+        private final long alarmTimeInMillisecondsSinceEpoch;
+
+        private final int formatResId;
+
+        private long displayedSecondsLeft = -1;
+
+
+        Countdown(TextView textView, long alarmTimeInMillisecondsSinceEpoch, int formatResId){
+            this.textView = textView;
+            this.alarmTimeInMillisecondsSinceEpoch = alarmTimeInMillisecondsSinceEpoch;
+            this.formatResId = formatResId;
+        }
+    }
+}
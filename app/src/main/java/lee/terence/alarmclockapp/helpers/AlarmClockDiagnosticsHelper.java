@@ -0,0 +1,272 @@
+package lee.terence.alarmclockapp.helpers;
+
+import android.content.Context;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+import lee.terence.alarmclockapp.actors.AlarmClockDiagnosticsSnapshot;
+import lee.terence.alarmclockapp.models.Alarm;
+
+
+/**
+ * A Singleton helper class that writes a diagnostics dump of the app's alarm state to a single
+ * JSON file in the app's internal storage, so that a missed alarm can be investigated
+ *
+ * The dump contains:
+ *      (a) the contents of the app's shared preferences storage
+ *      (b) the scheduled alarms, as kept by the scheduler, and the armed alarms
+ *      (c) the cached pending intents of the armed alarms and their warm-up alarms
+ *      (d) the recorded timings, with histograms of the recent fire latencies and drifts
+ *      (e) the most recent events of the alarm path
+ *
+ * The alarm state is snapshotted by the AlarmClockActor (by copying references only), and
+ * everything else, i.e. turning the snapshot into JSON and writing the file, happens on a
+ * background thread of this class, so the AlarmClockActor is only held up for the snapshot
+ *
+ * <b>Example Usage:</b>
+ * <pre>
+ *     AlarmClockActor.getInstance(getApplicationContext()).submit(
+ *              AlarmClockState::getDiagnosticsSnapshot,
+ *              alarmClockDiagnosticsSnapshot -> AlarmClockDiagnosticsHelper.dumpDiagnostics(
+ *                      getApplicationContext(), alarmClockDiagnosticsSnapshot, null));
+ *
+ *     //then, from a computer, for a debug build
+ *     //adb shell run-as lee.terence.alarm_clock_app cat files/alarm_clock_diagnostics.json
+ * </pre>
+ *
+ * @author Terence Lee
+ * */
+public class AlarmClockDiagnosticsHelper {
+
+    /**
+     * Name of the diagnostics file, in the app's internal files directory. Each dump replaces
+     * the previous one
+     * */
+    public static final String DIAGNOSTICS_FILE_NAME = "alarm_clock_diagnostics.json";
+
+    private static final String LOG_TAG = "AlarmClockDiagnostics";
+
+    /**
+     * Number of spaces to indent the JSON of the diagnostics file with, so that it can be read
+     * as is
+     * */
+    private static final int JSON_INDENT_SPACES = 2;
+
+    /**
+     * Single background thread on which the diagnostics dumps are written, one after another
+     * */
+    private static final Executor DIAGNOSTICS_EXECUTOR = Executors.newSingleThreadExecutor();
+
+
+    /**
+     * All methods in this class are static, so there is no need for a constructor for this class
+     * */
+    private AlarmClockDiagnosticsHelper(){
+
+    }
+
+
+    /**
+     * Write the diagnostics dump to the diagnostics file on a background thread
+     *
+     * @param context the context to use. May not be null
+     * @param alarmClockDiagnosticsSnapshot snapshot of the alarm state taken by the
+     *                                      AlarmClockActor
+     * @param onDumped called on the background thread once the dump has been written (or has
+     *                 failed to be written). May be null
+     * */
+    public static void dumpDiagnostics(Context context,
+                                       AlarmClockDiagnosticsSnapshot alarmClockDiagnosticsSnapshot,
+                                       Runnable onDumped){
+
+        Context applicationContext = context.getApplicationContext();
+
+        DIAGNOSTICS_EXECUTOR.execute(() -> {
+
+            try {
+                writeDiagnosticsFile(applicationContext, alarmClockDiagnosticsSnapshot);
+            }
+            catch (IOException | JSONException exception){
+                Log.e(LOG_TAG, "Unable to write the diagnostics dump", exception);
+            }
+            finally {
+                if (onDumped != null){
+                    onDumped.run();
+                }
+            }
+        });
+    }
+
+
+    /**
+     * Turn the diagnostics into JSON and write them to the diagnostics file, replacing it
+     * atomically so that a half written dump is never read. Runs on the diagnostics thread
+     *
+     * @param context the context to use. May not be null
+     * @param alarmClockDiagnosticsSnapshot snapshot of the alarm state
+     * */
+    private static void writeDiagnosticsFile(Context context,
+                                             AlarmClockDiagnosticsSnapshot alarmClockDiagnosticsSnapshot)
+                                                            throws IOException, JSONException {
+
+        JSONObject diagnosticsJsonObject = new JSONObject();
+
+        diagnosticsJsonObject.put("dumpTime", System.currentTimeMillis());
+        diagnosticsJsonObject.put("snapshotDurationInMicroseconds",
+                alarmClockDiagnosticsSnapshot.getSnapshotDurationInNanoseconds() / 1000);
+        diagnosticsJsonObject.put("canScheduleExactAlarms",
+                AlarmClockHelper.canScheduleExactAlarms(context));
+        diagnosticsJsonObject.put("store", getStoreAsJsonObject(context));
+        diagnosticsJsonObject.put("scheduler",
+                getSchedulerAsJsonObject(alarmClockDiagnosticsSnapshot));
+        diagnosticsJsonObject.put("cachedPendingIntents",
+                alarmClockDiagnosticsSnapshot.getCachedPendingIntents());
+        diagnosticsJsonObject.put("timings",
+                AlarmClockTimingsHelper.getAllTimingsAsJsonObject(context));
+        diagnosticsJsonObject.put("recentEvents",
+                AlarmClockEventLogHelper.getRecentEventsAsJsonArray());
+
+        byte[] diagnosticsBytes = diagnosticsJsonObject.toString(JSON_INDENT_SPACES)
+                                                        .getBytes(StandardCharsets.UTF_8);
+
+        AtomicFile diagnosticsFile =
+                new AtomicFile(new File(context.getFilesDir(), DIAGNOSTICS_FILE_NAME));
+
+        FileOutputStream fileOutputStream = diagnosticsFile.startWrite();
+
+        try {
+            fileOutputStream.write(diagnosticsBytes);
+            diagnosticsFile.finishWrite(fileOutputStream);
+        }
+        catch (IOException ioException){
+            diagnosticsFile.failWrite(fileOutputStream);
+            throw ioException;
+        }
+
+        Log.i(LOG_TAG, "Wrote the diagnostics dump to " + diagnosticsFile.getBaseFile());
+    }
+
+
+    /**
+     * Returns everything stored in the app's shared preferences storage as a JSON object, by
+     * key. Stored JSON strings (e.g. alarms) are embedded as JSON rather than as strings
+     *
+     * @param context the context to use. May not be null
+     * */
+    private static JSONObject getStoreAsJsonObject(Context context) throws JSONException {
+
+        JSONObject storeJsonObject = new JSONObject();
+
+        for (Map.Entry<String, ?> entry :
+                AlarmClockSharedPreferencesHelper.getAllStoredEntries(context).entrySet()){
+
+            Object value = entry.getValue();
+
+            if (value instanceof String && ((String) value).startsWith("{")){
+
+                try {
+                    value = new JSONObject((String) value);
+                }
+                catch (JSONException jsonException){
+                    //not JSON after all, so keep it as a string
+                }
+            }
+
+            storeJsonObject.put(entry.getKey(), JSONObject.wrap(value));
+        }
+
+        return storeJsonObject;
+    }
+
+
+    /**
+     * Returns the scheduler part of the snapshot as a JSON object: the bitmask of the enabled
+     * alarm groups, the armed alarms, and the scheduled alarms by alarm group and then by
+     * precision tier, in alarm time order
+     *
+     * @param alarmClockDiagnosticsSnapshot snapshot of the alarm state
+     * */
+    private static JSONObject getSchedulerAsJsonObject(
+                    AlarmClockDiagnosticsSnapshot alarmClockDiagnosticsSnapshot)
+                                                                    throws JSONException {
+
+        JSONObject scheduledAlarmsByGroupJsonObject = new JSONObject();
+
+        for (Alarm alarm : alarmClockDiagnosticsSnapshot.getScheduledAlarms()){
+
+            String groupKey = String.valueOf(alarm.getGroupId());
+            String precisionTierKey = alarm.getPrecisionTier().name();
+
+            JSONObject scheduledAlarmsByPrecisionTierJsonObject =
+                                    scheduledAlarmsByGroupJsonObject.optJSONObject(groupKey);
+
+            if (scheduledAlarmsByPrecisionTierJsonObject == null){
+                scheduledAlarmsByPrecisionTierJsonObject = new JSONObject();
+                scheduledAlarmsByGroupJsonObject.put(groupKey,
+                                                scheduledAlarmsByPrecisionTierJsonObject);
+            }
+
+            JSONArray scheduledAlarmsJsonArray =
+                    scheduledAlarmsByPrecisionTierJsonObject.optJSONArray(precisionTierKey);
+
+            if (scheduledAlarmsJsonArray == null){
+                scheduledAlarmsJsonArray = new JSONArray();
+                scheduledAlarmsByPrecisionTierJsonObject.put(precisionTierKey,
+                                                            scheduledAlarmsJsonArray);
+            }
+
+            scheduledAlarmsJsonArray.put(getAlarmTimeAsJsonObject(alarm));
+        }
+
+        JSONArray armedAlarmsJsonArray = new JSONArray();
+
+        for (Alarm armedAlarm : alarmClockDiagnosticsSnapshot.getArmedAlarms()){
+
+            JSONObject armedAlarmJsonObject = getAlarmTimeAsJsonObject(armedAlarm);
+
+            armedAlarmJsonObject.put("precisionTier", armedAlarm.getPrecisionTier().name());
+
+            armedAlarmsJsonArray.put(armedAlarmJsonObject);
+        }
+
+        JSONObject schedulerJsonObject = new JSONObject();
+
+        schedulerJsonObject.put("numberOfAlarms", alarmClockDiagnosticsSnapshot.getNumberOfAlarms());
+        schedulerJsonObject.put("numberOfScheduledAlarms",
+                                alarmClockDiagnosticsSnapshot.getScheduledAlarms().size());
+        schedulerJsonObject.put("enabledAlarmGroups",
+                Long.toBinaryString(alarmClockDiagnosticsSnapshot.getEnabledAlarmGroups()));
+        schedulerJsonObject.put("armedAlarms", armedAlarmsJsonArray);
+        schedulerJsonObject.put("scheduledAlarmsByGroup", scheduledAlarmsByGroupJsonObject);
+
+        return schedulerJsonObject;
+    }
+
+
+    /**
+     * Returns the id and alarm time of an alarm as a JSON object
+     *
+     * @param alarm the alarm
+     * */
+    private static JSONObject getAlarmTimeAsJsonObject(Alarm alarm) throws JSONException {
+
+        JSONObject alarmJsonObject = new JSONObject();
+
+        alarmJsonObject.put("id", alarm.getId());
+        alarmJsonObject.put("alarmTime", alarm.getAlarmTimeInMillisecondsSinceEpoch());
+
+        return alarmJsonObject;
+    }
+}
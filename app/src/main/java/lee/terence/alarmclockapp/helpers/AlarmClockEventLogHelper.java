@@ -0,0 +1,111 @@
+package lee.terence.alarmclockapp.helpers;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayDeque;
+
+
+/**
+ * A Singleton helper class that keeps the most recent events of the app's alarm path (e.g.
+ * alarms being armed, going off and being dismissed) in memory, so that they can be included
+ * in the diagnostics dump when an alarm has been missed
+ *
+ * Only the last MAXIMUM_NUMBER_OF_EVENTS events are kept, and recording an event only appends
+ * to an in-memory buffer, so events can be recorded on any thread, including the alarm path
+ *
+ * <b>Example Usage:</b>
+ * <pre>
+ *     AlarmClockEventLogHelper.recordEvent("Armed alarm 3 for 1700000000000");
+ *     ....
+ *     JSONArray recentEvents = AlarmClockEventLogHelper.getRecentEventsAsJsonArray();
+ * </pre>
+ *
+ * @author Terence Lee
+ * */
+public class AlarmClockEventLogHelper {
+
+    /**
+     * Number of the most recent events kept
+     * */
+    private static final int MAXIMUM_NUMBER_OF_EVENTS = 100;
+
+    /**
+     * The most recent events, oldest first. Guarded by its own lock
+     * */
+    private static final ArrayDeque<Event> recentEvents = new ArrayDeque<>(MAXIMUM_NUMBER_OF_EVENTS);
+
+
+    /**
+     * All methods in this class are static, so there is no need for a constructor for this class
+     * */
+    private AlarmClockEventLogHelper(){
+
+    }
+
+
+    /**
+     * Record an event, dropping the oldest event if MAXIMUM_NUMBER_OF_EVENTS are already kept
+     *
+     * @param description description of the event, e.g. "Armed alarm 3 for 1700000000000"
+     * */
+    public static void recordEvent(String description){
+
+        Event event = new Event(System.currentTimeMillis(), description);
+
+        synchronized (recentEvents){
+
+            if (recentEvents.size() == MAXIMUM_NUMBER_OF_EVENTS){
+                recentEvents.removeFirst();
+            }
+
+            recentEvents.addLast(event);
+        }
+    }
+
+
+    /**
+     * Returns the most recent events as a JSON array, oldest first. Each event has its time in
+     * milliseconds since epoch and its description
+     * */
+    public static JSONArray getRecentEventsAsJsonArray() throws JSONException {
+
+        Event[] events;
+
+        synchronized (recentEvents){
+            events = recentEvents.toArray(new Event[0]);
+        }
+
+        JSONArray eventsJsonArray = new JSONArray();
+
+        for (Event event : events){
+
+            JSONObject eventJsonObject = new JSONObject();
+
+            eventJsonObject.put("time", event.timeInMillisecondsSinceEpoch);
+            eventJsonObject.put("description", event.description);
+
+            eventsJsonArray.put(eventJsonObject);
+        }
+
+        return eventsJsonArray;
+    }
+
+
+    /**
+     * An event, together with the time it was recorded
+     * */
+    private static class Event {
+
+        private final long timeInMillisecondsSinceEpoch;
+
+        private final String description;
+
+
+        Event(long timeInMillisecondsSinceEpoch, String description){
+            this.timeInMillisecondsSinceEpoch = timeInMillisecondsSinceEpoch;
+            this.description = description;
+        }
+    }
+}
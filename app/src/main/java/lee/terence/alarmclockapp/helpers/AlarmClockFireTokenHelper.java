@@ -0,0 +1,235 @@
+package lee.terence.alarmclockapp.helpers;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.SparseLongArray;
+
+import java.util.Map;
+
+
+/**
+ * A Singleton helper class that issues fire tokens to the armed alarm occurrences, and drops
+ * duplicate deliveries of their alarm broadcasts (e.g. after a reschedule race, or a process
+ * restart)
+ *
+ * Every time an alarm occurrence is armed with a new pending intent, it is issued a fire
+ * token, which its alarm broadcast carries. Fire tokens increase monotonically across all
+ * alarms, and across process restarts: they are reserved in blocks, and each reservation is
+ * committed to disk before any token of the block is handed out, so a token is never issued
+ * twice
+ *
+ * Alarms go off in order of alarm time rather than in the order they were armed, so the
+ * delivered fire tokens are compared per alarm: each alarm has a high-water mark, the highest
+ * fire token of its delivered broadcasts. A broadcast whose token is not above its alarm's
+ * mark has already been delivered, and is dropped. The marks are checked in memory (a single
+ * lookup, before any I/O or audio work), and are also persisted, so that duplicates delivered
+ * after a process restart are dropped too. The persisted marks are only read once per
+ * process, and are usually preloaded at process start (see AlarmClockStartupHelper)
+ *
+ * Fire tokens are issued on the thread of the AlarmClockActor (like the rest of
+ * AlarmClockHelper), and deliveries are recorded on the main thread, so neither needs
+ * synchronization
+ *
+ * <b>Example Usage:</b>
+ * <pre>
+ *     //when creating the pending intent of an alarm occurrence, on the AlarmClockActor's thread
+ *     long fireToken = AlarmClockFireTokenHelper.issueFireToken(context);
+ *
+ *     //when the alarm broadcast is received
+ *     if (!AlarmClockFireTokenHelper.recordDeliveryIfNotDuplicate(context, alarmId, fireToken)){
+ *         return;
+ *     }
+ * </pre>
+ *
+ * @author Terence Lee
+ * */
+public class AlarmClockFireTokenHelper {
+
+    /**
+     * Fire token of alarm broadcasts that carry none (alarms set by older versions of the
+     * app). These are never taken to be duplicates
+     * */
+    public static final long NO_FIRE_TOKEN = 0;
+
+    /**
+     * Number of fire tokens reserved with each commit to disk
+     * */
+    private static final int FIRE_TOKEN_RESERVATION_BLOCK_SIZE = 64;
+
+    /**
+     * Key of the fire token up to which (exclusive) fire tokens have been reserved
+     * */
+    private static final String RESERVED_FIRE_TOKEN_LIMIT_KEY = "RESERVED_FIRE_TOKEN_LIMIT";
+
+    /**
+     * Prefix of the keys of the persisted high-water marks of the delivered fire tokens,
+     * followed by the alarm id
+     * */
+    private static final String DELIVERED_FIRE_TOKEN_KEY_PREFIX = "DELIVERED_FIRE_TOKEN_";
+
+    private static final String SHARED_PREFERENCE_FILE_KEY =
+                                            "lee.terence.simple_alarm_app.fire_tokens";
+
+    private static final long NOT_LOADED = -1;
+
+
+    /**
+     * The next fire token to issue, and the limit (exclusive) of the reserved fire tokens. Only
+     * accessed on the thread of the AlarmClockActor
+     * */
+    private static long nextFireToken = NOT_LOADED;
+
+    private static long reservedFireTokenLimit = NOT_LOADED;
+
+    /**
+     * High-water marks of the delivered fire tokens, by alarm id. Only accessed on the main
+     * thread
+     * */
+    private static final SparseLongArray deliveredFireTokens = new SparseLongArray();
+
+    /**
+     * Whether the persisted high-water marks have been read into deliveredFireTokens. Only
+     * accessed on the main thread
+     * */
+    private static boolean isDeliveredFireTokensLoaded = false;
+
+
+    /**
+     * All methods in this class are static, so there is no need for a constructor for this class
+     * */
+    private AlarmClockFireTokenHelper(){
+
+    }
+
+
+    /**
+     * Returns a new fire token, greater than every fire token issued before, in this process
+     * or any earlier one. Reserves (and commits to disk) a new block of fire tokens first, if
+     * the reserved ones have all been issued
+     *
+     * Must only be called on the thread of the AlarmClockActor
+     *
+     * @param context to be used for accessing the fire tokens storage. May not be null
+     * */
+    public static long issueFireToken(Context context){
+
+        if (nextFireToken == reservedFireTokenLimit){
+
+            SharedPreferences sharedPreferences = getSharedPreferencesInstance(context);
+
+            if (nextFireToken == NOT_LOADED){
+
+                //tokens reserved but not issued by earlier processes are skipped
+                nextFireToken = Math.max(NO_FIRE_TOKEN + 1,
+                        sharedPreferences.getLong(RESERVED_FIRE_TOKEN_LIMIT_KEY, 0));
+            }
+
+            reservedFireTokenLimit = nextFireToken + FIRE_TOKEN_RESERVATION_BLOCK_SIZE;
+
+            //committed rather than applied, so that the block is on disk before it is used
+            sharedPreferences.edit()
+                    .putLong(RESERVED_FIRE_TOKEN_LIMIT_KEY, reservedFireTokenLimit)
+                    .commit();
+        }
+
+        return nextFireToken++;
+    }
+
+
+    /**
+     * Record the delivery of an alarm broadcast, unless it is a duplicate, i.e. its fire token
+     * is not above the high-water mark of its alarm
+     *
+     * Must only be called on the main thread
+     *
+     * @param context to be used for accessing the fire tokens storage. May not be null
+     * @param alarmId id of the alarm of the broadcast
+     * @param fireToken fire token carried by the broadcast, or NO_FIRE_TOKEN if none
+     *
+     * @return true if the delivery has been recorded (it is the first delivery of the alarm
+     * occurrence, or carries no fire token), and false if it is a duplicate to be dropped
+     * */
+    public static boolean recordDeliveryIfNotDuplicate(Context context, int alarmId,
+                                                       long fireToken){
+
+        if (fireToken == NO_FIRE_TOKEN){
+            return true;
+        }
+
+        if (fireToken <= deliveredFireTokens.get(alarmId, NO_FIRE_TOKEN)){
+            return false;
+        }
+
+        SharedPreferences sharedPreferences = getSharedPreferencesInstance(context);
+
+        if (!isDeliveredFireTokensLoaded){
+
+            loadDeliveredFireTokens(sharedPreferences);
+
+            if (fireToken <= deliveredFireTokens.get(alarmId, NO_FIRE_TOKEN)){
+                return false;
+            }
+        }
+
+        deliveredFireTokens.put(alarmId, fireToken);
+
+        sharedPreferences.edit()
+                .putLong(DELIVERED_FIRE_TOKEN_KEY_PREFIX + alarmId, fireToken)
+                .apply();
+
+        return true;
+    }
+
+
+    /**
+     * Load the fire tokens storage from disk, blocking until it has been loaded. Called on a
+     * background thread at process start (see AlarmClockStartupHelper)
+     *
+     * @param context to be used for accessing the fire tokens storage. May not be null
+     * */
+    public static void preloadFireTokens(Context context){
+
+        //any read blocks until the whole file has been loaded
+        getSharedPreferencesInstance(context).contains(RESERVED_FIRE_TOKEN_LIMIT_KEY);
+    }
+
+
+    /**
+     * Read the persisted high-water marks of the delivered fire tokens into memory, keeping
+     * the higher mark of each alarm
+     *
+     * @param sharedPreferences the fire tokens storage
+     * */
+    private static void loadDeliveredFireTokens(SharedPreferences sharedPreferences){
+
+        for (Map.Entry<String, ?> entry : sharedPreferences.getAll().entrySet()){
+
+            String key = entry.getKey();
+
+            if (!key.startsWith(DELIVERED_FIRE_TOKEN_KEY_PREFIX)){
+                continue;
+            }
+
+            int alarmId = Integer.parseInt(
+                            key.substring(DELIVERED_FIRE_TOKEN_KEY_PREFIX.length()));
+
+            long persistedFireToken = (Long) entry.getValue();
+
+            if (persistedFireToken > deliveredFireTokens.get(alarmId, NO_FIRE_TOKEN)){
+                deliveredFireTokens.put(alarmId, persistedFireToken);
+            }
+        }
+
+        isDeliveredFireTokensLoaded = true;
+    }
+
+
+    /**
+     * Returns an instance of SharedPreferences of the fire tokens storage
+     *
+     * @param context to be used for accessing the fire tokens storage. May not be null
+     * */
+    private static SharedPreferences getSharedPreferencesInstance(Context context){
+        return context.getSharedPreferences(SHARED_PREFERENCE_FILE_KEY, Context.MODE_PRIVATE);
+    }
+}
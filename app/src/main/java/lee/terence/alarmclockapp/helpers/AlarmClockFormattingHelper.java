@@ -0,0 +1,198 @@
+package lee.terence.alarmclockapp.helpers;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.icu.text.MeasureFormat;
+import android.icu.util.Measure;
+import android.icu.util.MeasureUnit;
+import android.text.format.DateFormat;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+
+/**
+ * A Singleton helper class that formats alarm times and durations for display, in the user's
+ * locale and with the user's 12 or 24-hour clock setting
+ *
+ * The formatters are created once and cached, so formatting a label costs no more than
+ * formatting with a prebuilt formatter. The cached formatters are only thrown away (and
+ * created again on the next use) when the locale or the 12/24-hour setting changes, which
+ * the helper finds out from the system broadcasts of those changes
+ *
+ * All methods must be called on the main thread, on which the change broadcasts are also
+ * received, so the cache needs no synchronization
+ *
+ * <b>Example Usage:</b>
+ * <pre>
+ *     //e.g. "2:35 PM", "14:35" or "下午2:35", depending on the locale and clock setting
+ *     String alarmTime = AlarmClockFormattingHelper.formatAlarmTime(getApplicationContext(),
+ *                                                  alarmTimeInMillisecondsSinceEpoch);
+ *
+ *     //e.g. "6 hours, 45 minutes, 10 seconds"
+ *     String timeLeft = AlarmClockFormattingHelper.formatDuration(getApplicationContext(),
+ *                                                  durationInMilliseconds);
+ * </pre>
+ *
+ * @author Terence Lee
+ * */
+public class AlarmClockFormattingHelper {
+
+    private static final long ONE_HOUR_IN_MILLISECONDS = 3600000;
+    private static final long ONE_MINUTE_IN_MILLISECONDS = 60000;
+    private static final long ONE_SECOND_IN_MILLISECONDS = 1000;
+
+    /**
+     * Formatter of alarm times, for the cached locale and clock setting, or null if it has not
+     * been created since the last change
+     * */
+    private static DateTimeFormatter alarmTimeFormatter;
+
+    /**
+     * Formatter of durations, for the cached locale, or null if it has not been created since
+     * the last change
+     * */
+    private static MeasureFormat durationFormat;
+
+    /**
+     * Whether the receiver of the locale and 12/24-hour setting change broadcasts has been
+     * registered in this process
+     * */
+    private static boolean isChangeReceiverRegistered = false;
+
+
+    /**
+     * All methods in this class are static, so there is no need for a constructor for this class
+     * */
+    private AlarmClockFormattingHelper(){
+
+    }
+
+
+    /**
+     * Returns an alarm time formatted as a time of day, e.g. "2:35 PM" or "14:35", in the
+     * user's locale and time zone and with the user's 12 or 24-hour clock setting
+     *
+     * @param context The context to use. Usually your Application or Activity object
+     * @param alarmTimeInMillisecondsSinceEpoch the alarm time
+     * */
+    public static String formatAlarmTime(Context context, long alarmTimeInMillisecondsSinceEpoch){
+
+        if (alarmTimeFormatter == null){
+
+            registerChangeReceiverIfNotRegistered(context);
+
+            Locale locale = getLocale(context);
+
+            String skeleton = DateFormat.is24HourFormat(context) ? "Hm" : "hm";
+
+            alarmTimeFormatter = DateTimeFormatter.ofPattern(
+                            DateFormat.getBestDateTimePattern(locale, skeleton), locale);
+        }
+
+        return alarmTimeFormatter.format(Instant.ofEpochMilli(alarmTimeInMillisecondsSinceEpoch)
+                                                .atZone(ZoneId.systemDefault()));
+    }
+
+
+    /**
+     * Returns a duration formatted in hours, minutes and seconds, in the user's locale, e.g.
+     * "6 hours, 45 minutes, 10 seconds". Leading units of zero are left out, e.g.
+     * "45 minutes, 10 seconds"
+     *
+     * @param context The context to use. Usually your Application or Activity object
+     * @param durationInMilliseconds the duration. Negative durations are formatted as zero
+     * */
+    public static String formatDuration(Context context, long durationInMilliseconds){
+
+        if (durationFormat == null){
+
+            registerChangeReceiverIfNotRegistered(context);
+
+            durationFormat = MeasureFormat.getInstance(getLocale(context),
+                                                        MeasureFormat.FormatWidth.WIDE);
+        }
+
+        long remainingTimeInMilliseconds = Math.max(0, durationInMilliseconds);
+
+        long numberOfHours = remainingTimeInMilliseconds / ONE_HOUR_IN_MILLISECONDS;
+        remainingTimeInMilliseconds %= ONE_HOUR_IN_MILLISECONDS;
+
+        long numberOfMinutes = remainingTimeInMilliseconds / ONE_MINUTE_IN_MILLISECONDS;
+        remainingTimeInMilliseconds %= ONE_MINUTE_IN_MILLISECONDS;
+
+        long numberOfSeconds = remainingTimeInMilliseconds / ONE_SECOND_IN_MILLISECONDS;
+
+        List<Measure> measures = new ArrayList<>(3);
+
+        if (numberOfHours > 0){
+            measures.add(new Measure(numberOfHours, MeasureUnit.HOUR));
+        }
+
+        if (numberOfHours > 0 || numberOfMinutes > 0){
+            measures.add(new Measure(numberOfMinutes, MeasureUnit.MINUTE));
+        }
+
+        measures.add(new Measure(numberOfSeconds, MeasureUnit.SECOND));
+
+        return durationFormat.formatMeasures(measures.toArray(new Measure[0]));
+    }
+
+
+    /**
+     * Throw away the cached formatters, so that they are created again, for the new locale or
+     * clock setting, on their next use
+     * */
+    public static void invalidateFormatters(){
+        alarmTimeFormatter = null;
+        durationFormat = null;
+    }
+
+
+    /**
+     * Register a receiver that invalidates the cached formatters when the locale changes, or
+     * when the 12/24-hour setting changes (which the system announces with
+     * ACTION_TIME_CHANGED). Does nothing if it has already been registered in this process
+     *
+     * The receiver is registered with the application context, so it lives as long as the
+     * process, like the cache itself
+     *
+     * @param context The context to use. Usually your Application or Activity object
+     * */
+    private static void registerChangeReceiverIfNotRegistered(Context context){
+
+        if (isChangeReceiverRegistered){
+            return;
+        }
+
+        IntentFilter intentFilter = new IntentFilter();
+        intentFilter.addAction(Intent.ACTION_LOCALE_CHANGED);
+        intentFilter.addAction(Intent.ACTION_TIME_CHANGED);
+
+        context.getApplicationContext().registerReceiver(new BroadcastReceiver() {
+
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                invalidateFormatters();
+            }
+        }, intentFilter);
+
+        isChangeReceiverRegistered = true;
+    }
+
+
+    /**
+     * Returns the user's preferred locale
+     *
+     * @param context The context to use. Usually your Application or Activity object
+     * */
+    private static Locale getLocale(Context context){
+        return context.getResources().getConfiguration().getLocales().get(0);
+    }
+}
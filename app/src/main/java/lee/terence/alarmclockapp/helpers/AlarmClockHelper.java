@@ -4,18 +4,42 @@ import android.app.AlarmManager;
 import android.app.PendingIntent;
 import android.content.Context;
 import android.content.Intent;
+import android.os.Build;
+import android.util.SparseArray;
 
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
 
 import lee.terence.alarmclockapp.broadcastreceivers.AlarmClockBroadcastReceiver;
+import lee.terence.alarmclockapp.controllers.MainActivity;
+import lee.terence.alarmclockapp.models.Alarm;
+import lee.terence.alarmclockapp.models.AlarmOccurrence;
+import lee.terence.alarmclockapp.models.AlarmPrecisionTier;
+import lee.terence.alarmclockapp.models.ExclusionCalendar;
 
 
 /**
  * A Singleton alarm clock helper that allows users to set alarms
- * Only allows the setting of a single alarm time. If attempt to set a second alarm time,
- * will overwrite the existing alarm
  *
- * Internally, this class interacts with the Android system AlarmManager
+ * Each alarm is set with its own pending intent, whose request code is allocated from the
+ * alarm id (so request codes are reused along with the alarm ids of deleted alarms). The
+ * pending intents of the set alarms are cached, so that setting, updating and deleting an
+ * alarm does not have to look its pending intent up again
+ *
+ * Each alarm is set according to its precision tier. If the app does not have the permission
+ * to schedule exact alarms, alarms of the exact tiers are set as windowed alarms instead
+ *
+ * Internally, this class interacts with the Android system AlarmManager. Within the app, it
+ * is only called from the thread of the AlarmClockActor, which owns the alarm state. The
+ * pending intent caches are therefore not synchronized
  *
  * <b>Example Usage:</b>
  * <pre>
@@ -23,18 +47,72 @@ import lee.terence.alarmclockapp.broadcastreceivers.AlarmClockBroadcastReceiver;
  *     int hourOfDay= 17;
  *     int minute = 25;
  *
- *     //set the alarm for 5:25pm, and delete any existing alarm if there is any
- *     AlarmClockHelper.setAlarmTime(getApplicationContext(), hourOfDay, minute);
+ *     Alarm alarm = new Alarm.Builder(alarmId)
+ *                      .setHourOfDay(hourOfDay)
+ *                      .setMinute(minute)
+ *                      .setAlarmTime(AlarmClockHelper.getNextAlarmTime(hourOfDay, minute))
+ *                      .build();
  *
+ *     //set the alarm for 5:25pm, overwriting the alarm of the same id if there is any
+ *     AlarmClockHelper.setAlarmClock(getApplicationContext(), alarm);
  *
- *     //to delete the existing alarm if any
- *     AlarmClockHelper.deleteExistingAlarmIfAny(getApplicationContext());
+ *
+ *     //to delete the alarm if it is set
+ *     AlarmClockHelper.deleteAlarmClockIfAny(getApplicationContext(), alarm.getId());
  * </pre>
  *
  * @author Terence Lee
  * */
 public class AlarmClockHelper {
 
+    /**
+     * Each alarm id is allocated this many request codes: one for the pending intent of the
+     * actual alarm, and one for the pending intent of its pre-fire warm-up alarm
+     * */
+    private static final int REQUEST_CODES_PER_ALARM = 2;
+
+    /**
+     * Number of days ahead within which the next occurrence of an alarm is searched for. Covers
+     * the years that exclusion calendars are compiled for
+     * */
+    private static final int MAXIMUM_DAYS_TO_SEARCH = 12 * 366;
+
+    /**
+     * Number of days back within which missed occurrences of alarms are searched for. Misses
+     * further back than this are not worth ringing or notifying about
+     * */
+    private static final int MAXIMUM_DAYS_TO_CATCH_UP = 31;
+
+    /**
+     * Time after its alarm time by which an exact alarm that has not gone off is taken to have
+     * been missed. WINDOWED alarms are also given their window tolerance
+     * */
+    private static final long MISSED_ALARM_GRACE_PERIOD_IN_MILLISECONDS = 60 * 1000;
+
+    private static final int MINUTES_PER_DAY = 24 * 60;
+
+    private static final long NO_OCCURRENCE_TIME = Long.MIN_VALUE;
+
+    /**
+     * Cached pending intents of the set alarms, by alarm id
+     * */
+    private static final SparseArray<CachedAlarmPendingIntent> alarmPendingIntents =
+                                                                        new SparseArray<>();
+
+    /**
+     * Cached pending intents of the set pre-fire warm-up alarms, by alarm id
+     * */
+    private static final SparseArray<PendingIntent> warmUpPendingIntents = new SparseArray<>();
+
+    /**
+     * Number of seconds before the alarm time at which the app warms up for the alarm (loads
+     * the app state, prepares the alarm sound and preloads the alert layout). Long enough for
+     * a cold process start, and short enough that the prepared alarm sound is not held for
+     * long
+     * */
+    private static final long WARM_UP_LEAD_TIME_IN_SECONDS = 30;
+
+
     /**
      * All methods in this class are static, so there is no need for a constructor for this class
      * */
@@ -44,28 +122,442 @@ public class AlarmClockHelper {
 
 
     /**
-     * Set the alarm clock. If there is any existing alarm used by this app, the alarm will be
-     * overwritten.
+     * Returns the next time (within the next 24 hours) at which an alarm set for the given
+     * hour of day and minute would go off, in milliseconds since epoch
      *
-     * @param context e context to use. Usually your Application or Activity object. May not be null
-     * @param hourOfDay hour of the day to set the alarm (value from 0 (inclusive) to 23 (inclusive))
-     * @param minute minute of the hour to set the alarm (value from 0 (inclusive) to 59 (inclusive))
+     * @param hourOfDay hour of the day of the alarm (value from 0 (inclusive) to 23 (inclusive))
+     * @param minute minute of the hour of the alarm (value from 0 (inclusive) to 59 (inclusive))
+     * */
+    public static long getNextAlarmTime(int hourOfDay, int minute){
+
+        Calendar alarmCalendar = convertHourOfDayAndMinuteToCalendar(hourOfDay, minute);
+
+        addOneDayToCalendarIfCalendarTimeAlreadyLapsed(alarmCalendar);
+
+        return alarmCalendar.getTimeInMillis();
+    }
+
+
+    /**
+     * Returns the next time after the given time at which the given alarm would go off, in
+     * milliseconds since epoch
+     *
+     * An alarm that does not recur goes off on the first day its hour of day and minute come
+     * round. A recurring alarm goes off on the first of its repeat days. Either way, days
+     * excluded by any of the given exclusion calendars are skipped; each day is checked
+     * against a calendar with a single bit test
+     *
+     * Returns Alarm.NO_ALARM_TIME if there is no such day within MAXIMUM_DAYS_TO_SEARCH days
+     *
+     * @param alarm the alarm
+     * @param exclusionCalendars the exclusion calendars that the alarm refers to
+     * @param afterTimeInMillisecondsSinceEpoch the time after which the alarm would go off
+     * */
+    public static long getNextAlarmTime(Alarm alarm, List<ExclusionCalendar> exclusionCalendars,
+                                        long afterTimeInMillisecondsSinceEpoch){
+
+        Calendar alarmCalendar = Calendar.getInstance();
+
+        alarmCalendar.setTimeInMillis(afterTimeInMillisecondsSinceEpoch);
+        alarmCalendar.set(Calendar.HOUR_OF_DAY, alarm.getHourOfDay());
+        alarmCalendar.set(Calendar.MINUTE, alarm.getMinute());
+        alarmCalendar.set(Calendar.SECOND, 0);
+        alarmCalendar.set(Calendar.MILLISECOND, 0);
+
+        if (alarmCalendar.getTimeInMillis() <= afterTimeInMillisecondsSinceEpoch){
+            alarmCalendar.add(Calendar.DAY_OF_YEAR, 1);
+        }
+
+        for (int day = 0; day < MAXIMUM_DAYS_TO_SEARCH; day++){
+
+            if (isAlarmDay(alarm, exclusionCalendars, alarmCalendar)){
+                return alarmCalendar.getTimeInMillis();
+            }
+
+            alarmCalendar.add(Calendar.DAY_OF_YEAR, 1);
+
+            //keep the hour of day and minute across daylight saving time changes
+            alarmCalendar.set(Calendar.HOUR_OF_DAY, alarm.getHourOfDay());
+            alarmCalendar.set(Calendar.MINUTE, alarm.getMinute());
+        }
+
+        return Alarm.NO_ALARM_TIME;
+    }
+
+
+    /**
+     * Returns true if the given alarm goes off on the day of the given calendar, and false
+     * if otherwise
+     *
+     * @param alarm the alarm
+     * @param exclusionCalendars the exclusion calendars that the alarm refers to
+     * @param alarmCalendar calendar on the day to check
+     * */
+    private static boolean isAlarmDay(Alarm alarm, List<ExclusionCalendar> exclusionCalendars,
+                                      Calendar alarmCalendar){
+
+        if (alarm.isRecurring() && !alarm.isRepeatDay(alarmCalendar.get(Calendar.DAY_OF_WEEK))){
+            return false;
+        }
+
+        return !isExcluded(exclusionCalendars, alarmCalendar.get(Calendar.YEAR),
+                            alarmCalendar.get(Calendar.DAY_OF_YEAR));
+    }
+
+
+    /**
+     * Returns all the occurrences of the given due alarms that were missed after the given
+     * time, i.e. that should have gone off (at or after each alarm's stored alarm time, which
+     * is its first occurrence that has not been handled), and are more than their grace period
+     * (see getMissedAlarmGracePeriodInMilliseconds) in the past. Only the last
+     * MAXIMUM_DAYS_TO_CATCH_UP days are searched
+     *
+     * The occurrences of recurring alarms are found in one sweep over the days of the time
+     * window rather than alarm by alarm: everything that depends on the day only (its midnight,
+     * its repeat day bit, its year and day of year, and the times of day it has) is worked
+     * out once per day, so each alarm costs a bit test, a few exclusion calendar bit tests and
+     * an array lookup per day, however many alarms there are
+     *
+     * @param dueAlarms the alarms whose alarm times are at or before the current time
+     * @param exclusionCalendarsOfDueAlarms the exclusion calendars that each due alarm refers
+     *                                      to, in the same order as the due alarms
+     * @param afterTimeInMillisecondsSinceEpoch the time up to which every occurrence has been
+     *                                          handled, either by going off or by an earlier
+     *                                          catch-up
+     * @param currentTimeInMillisecondsSinceEpoch the current time
+     *
+     * @return the missed occurrences, in order of alarm time
+     * */
+    public static List<AlarmOccurrence> getMissedOccurrences(List<Alarm> dueAlarms,
+                                        List<List<ExclusionCalendar>> exclusionCalendarsOfDueAlarms,
+                                        long afterTimeInMillisecondsSinceEpoch,
+                                        long currentTimeInMillisecondsSinceEpoch){
+
+        List<AlarmOccurrence> missedOccurrences = new ArrayList<>();
+
+        List<Alarm> dueRecurringAlarms = new ArrayList<>();
+        List<List<ExclusionCalendar>> exclusionCalendarsOfDueRecurringAlarms = new ArrayList<>();
+
+        long sweepStartTime = currentTimeInMillisecondsSinceEpoch;
+
+        for (int i = 0; i < dueAlarms.size(); i++){
+
+            Alarm dueAlarm = dueAlarms.get(i);
+
+            //the stored alarm time of a non-recurring alarm is its only occurrence
+            if (!dueAlarm.isRecurring()){
+
+                if (isMissedOccurrence(dueAlarm, dueAlarm.getAlarmTimeInMillisecondsSinceEpoch(),
+                        afterTimeInMillisecondsSinceEpoch, currentTimeInMillisecondsSinceEpoch)){
+
+                    missedOccurrences.add(AlarmOccurrence.fromAlarm(dueAlarm,
+                                            dueAlarm.getAlarmTimeInMillisecondsSinceEpoch()));
+                }
+
+                continue;
+            }
+
+            dueRecurringAlarms.add(dueAlarm);
+            exclusionCalendarsOfDueRecurringAlarms.add(exclusionCalendarsOfDueAlarms.get(i));
+
+            sweepStartTime = Math.min(sweepStartTime,
+                                        dueAlarm.getAlarmTimeInMillisecondsSinceEpoch());
+        }
+
+        if (dueRecurringAlarms.isEmpty()){
+            return missedOccurrences;
+        }
+
+        Calendar dayCalendar = Calendar.getInstance();
+
+        dayCalendar.setTimeInMillis(currentTimeInMillisecondsSinceEpoch);
+        dayCalendar.add(Calendar.DAY_OF_YEAR, -MAXIMUM_DAYS_TO_CATCH_UP);
+
+        sweepStartTime = Math.max(sweepStartTime, Math.max(dayCalendar.getTimeInMillis(),
+                                                        afterTimeInMillisecondsSinceEpoch));
+
+        dayCalendar.setTimeInMillis(sweepStartTime);
+        setToStartOfDay(dayCalendar);
+
+        Calendar timeOfDayCalendar = Calendar.getInstance();
+
+        //times of the minutes of the day being swept, worked out on first use
+        long[] occurrenceTimeByMinuteOfDay = new long[MINUTES_PER_DAY];
+
+        while (dayCalendar.getTimeInMillis() <= currentTimeInMillisecondsSinceEpoch){
+
+            long startOfDayTime = dayCalendar.getTimeInMillis();
+            int repeatDayBit = Alarm.getRepeatDayBit(dayCalendar.get(Calendar.DAY_OF_WEEK));
+            int year = dayCalendar.get(Calendar.YEAR);
+            int dayOfYear = dayCalendar.get(Calendar.DAY_OF_YEAR);
+
+            Arrays.fill(occurrenceTimeByMinuteOfDay, NO_OCCURRENCE_TIME);
+
+            for (int i = 0; i < dueRecurringAlarms.size(); i++){
+
+                Alarm dueRecurringAlarm = dueRecurringAlarms.get(i);
+
+                if ((dueRecurringAlarm.getRepeatDays() & repeatDayBit) == 0 ||
+                        isExcluded(exclusionCalendarsOfDueRecurringAlarms.get(i),
+                                    year, dayOfYear)){
+                    continue;
+                }
+
+                int minuteOfDay = dueRecurringAlarm.getHourOfDay() * 60 +
+                                    dueRecurringAlarm.getMinute();
+
+                if (occurrenceTimeByMinuteOfDay[minuteOfDay] == NO_OCCURRENCE_TIME){
+
+                    //set on a calendar, rather than added to midnight, to keep the hour of day
+                    //and minute across daylight saving time changes
+                    timeOfDayCalendar.setTimeInMillis(startOfDayTime);
+                    timeOfDayCalendar.set(Calendar.HOUR_OF_DAY, dueRecurringAlarm.getHourOfDay());
+                    timeOfDayCalendar.set(Calendar.MINUTE, dueRecurringAlarm.getMinute());
+
+                    occurrenceTimeByMinuteOfDay[minuteOfDay] = timeOfDayCalendar.getTimeInMillis();
+                }
+
+                long occurrenceTime = occurrenceTimeByMinuteOfDay[minuteOfDay];
+
+                if (occurrenceTime >= dueRecurringAlarm.getAlarmTimeInMillisecondsSinceEpoch() &&
+                        isMissedOccurrence(dueRecurringAlarm, occurrenceTime,
+                                afterTimeInMillisecondsSinceEpoch,
+                                currentTimeInMillisecondsSinceEpoch)){
+
+                    missedOccurrences.add(AlarmOccurrence.fromAlarm(dueRecurringAlarm,
+                                                                    occurrenceTime));
+                }
+            }
+
+            dayCalendar.add(Calendar.DAY_OF_YEAR, 1);
+            setToStartOfDay(dayCalendar);
+        }
+
+        Collections.sort(missedOccurrences, AlarmOccurrence.ALARM_TIME_COMPARATOR);
+
+        return missedOccurrences;
+    }
+
+
+    /**
+     * Returns the time after its alarm time by which the given alarm, if it has not gone off,
+     * is taken to have been missed
+     *
+     * @param alarm the alarm
      * */
-    public static long setAlarmClock(Context context, int hourOfDay, int minute){
+    public static long getMissedAlarmGracePeriodInMilliseconds(Alarm alarm){
+
+        if (alarm.getPrecisionTier() == AlarmPrecisionTier.WINDOWED){
+            return MISSED_ALARM_GRACE_PERIOD_IN_MILLISECONDS +
+                    alarm.getWindowToleranceInMilliseconds();
+        }
+
+        return MISSED_ALARM_GRACE_PERIOD_IN_MILLISECONDS;
+    }
+
+
+    /**
+     * Returns true if an occurrence of an alarm at the given time has not been handled and is
+     * past its grace period, and false if otherwise
+     *
+     * @param alarm the alarm
+     * @param occurrenceTimeInMillisecondsSinceEpoch the time of the occurrence
+     * @param afterTimeInMillisecondsSinceEpoch the time up to which every occurrence has been
+     *                                          handled
+     * @param currentTimeInMillisecondsSinceEpoch the current time
+     * */
+    private static boolean isMissedOccurrence(Alarm alarm,
+                                              long occurrenceTimeInMillisecondsSinceEpoch,
+                                              long afterTimeInMillisecondsSinceEpoch,
+                                              long currentTimeInMillisecondsSinceEpoch){
+
+        return occurrenceTimeInMillisecondsSinceEpoch > afterTimeInMillisecondsSinceEpoch &&
+                occurrenceTimeInMillisecondsSinceEpoch +
+                        getMissedAlarmGracePeriodInMilliseconds(alarm) <=
+                        currentTimeInMillisecondsSinceEpoch;
+    }
+
+
+    /**
+     * Returns true if the given day is excluded by any of the given exclusion calendars, and
+     * false if otherwise
+     *
+     * @param exclusionCalendars the exclusion calendars
+     * @param year the year of the day
+     * @param dayOfYear the day of the year of the day
+     * */
+    private static boolean isExcluded(List<ExclusionCalendar> exclusionCalendars,
+                                      int year, int dayOfYear){
+
+        for (ExclusionCalendar exclusionCalendar : exclusionCalendars){
+
+            if (exclusionCalendar.isExcluded(year, dayOfYear)){
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+
+    /**
+     * Set a calendar to the start (midnight) of its day
+     *
+     * @param calendar the calendar
+     * */
+    private static void setToStartOfDay(Calendar calendar){
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+    }
+
+
+    /**
+     * Set the alarm clock to go off at the alarm time of the given alarm. If the alarm is
+     * already set, it will be overwritten.
+     *
+     * The alarm is set according to its precision tier, falling back to a windowed alarm if
+     * the app does not have the permission to schedule exact alarms. Only exact alarms have
+     * a pre-fire warm-up alarm
+     *
+     * @param context the context to use. Usually your Application or Activity object. May not be
+     *                null
+     * @param alarm the alarm to set
+     *
+     * @return the precision tier that the alarm was actually set with
+     * */
+    public static AlarmPrecisionTier setAlarmClock(Context context, Alarm alarm){
 
         AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
-        Intent intent = AlarmClockBroadcastReceiver.createIntent(context);
 
-        PendingIntent alarmPendingIntent = createPendingIntent(context, intent);
+        AlarmPrecisionTier precisionTier = getEffectivePrecisionTier(alarmManager, alarm);
 
-        Calendar alarmCalendar = convertHourOfDayAndMinuteToCalendar(hourOfDay, minute);
+        PendingIntent alarmPendingIntent = getAlarmPendingIntent(context, alarm, precisionTier);
 
-        addOneDayToCalendarIfCalendarTimeAlreadyLapsed(alarmCalendar);
+        long alarmTime = alarm.getAlarmTimeInMillisecondsSinceEpoch();
 
-        alarmManager.setExactAndAllowWhileIdle(AlarmManager.RTC_WAKEUP,
-                alarmCalendar.getTimeInMillis(), alarmPendingIntent);
+        switch (precisionTier){
 
-        return alarmCalendar.getTimeInMillis();
+            case EXACT_ALARM_CLOCK:
+                alarmManager.setAlarmClock(new AlarmManager.AlarmClockInfo(alarmTime,
+                        createShowAlarmClockPendingIntent(context)), alarmPendingIntent);
+                break;
+
+            case EXACT_WHILE_IDLE:
+                alarmManager.setExactAndAllowWhileIdle(AlarmManager.RTC_WAKEUP, alarmTime,
+                                                        alarmPendingIntent);
+                break;
+
+            default:
+                alarmManager.setWindow(AlarmManager.RTC_WAKEUP, alarmTime,
+                        alarm.getWindowToleranceInMilliseconds(), alarmPendingIntent);
+                break;
+        }
+
+        if (precisionTier == AlarmPrecisionTier.WINDOWED){
+            deleteWarmUpAlarmIfAny(context, alarm.getId());
+        }
+        else{
+            setWarmUpAlarmIfNotLapsed(context, alarmManager, alarm);
+        }
+
+        return precisionTier;
+    }
+
+
+    /**
+     * Returns true if the app has the permission to schedule exact alarms, and false if
+     * otherwise. Before Android 12, the permission is always granted
+     *
+     * @param context the context to use. May not be null
+     * */
+    public static boolean canScheduleExactAlarms(Context context){
+
+        AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+
+        return canScheduleExactAlarms(alarmManager);
+    }
+
+
+    /**
+     * Returns true if the app has the permission to schedule exact alarms, and false if
+     * otherwise
+     *
+     * @param alarmManager the system alarm manager
+     * */
+    private static boolean canScheduleExactAlarms(AlarmManager alarmManager){
+
+        return Build.VERSION.SDK_INT < Build.VERSION_CODES.S ||
+                alarmManager.canScheduleExactAlarms();
+    }
+
+
+    /**
+     * Returns the precision tier to set an alarm with: the alarm's own precision tier, or
+     * WINDOWED if the alarm is of an exact tier but the app does not have the permission to
+     * schedule exact alarms
+     *
+     * @param alarmManager the system alarm manager
+     * @param alarm the alarm to set
+     * */
+    private static AlarmPrecisionTier getEffectivePrecisionTier(AlarmManager alarmManager,
+                                                                Alarm alarm){
+
+        if (alarm.getPrecisionTier() != AlarmPrecisionTier.WINDOWED &&
+                !canScheduleExactAlarms(alarmManager)){
+            return AlarmPrecisionTier.WINDOWED;
+        }
+
+        return alarm.getPrecisionTier();
+    }
+
+
+    /**
+     * Create the pending intent used by the system to show the app when the user taps on the
+     * upcoming alarm clock (e.g. in the quick settings), for EXACT_ALARM_CLOCK alarms
+     *
+     * @param context the context to use. May not be null
+     * */
+    private static PendingIntent createShowAlarmClockPendingIntent(Context context){
+
+        final int REQUEST_CODE = 0;
+
+        return PendingIntent.getActivity(context, REQUEST_CODE,
+                MainActivity.createIntent(context), PendingIntent.FLAG_IMMUTABLE);
+    }
+
+
+    /**
+     * Set the pre-fire warm-up alarm, which goes off WARM_UP_LEAD_TIME_IN_SECONDS before
+     * the actual alarm so that the app state, alarm sound and alert layout can be loaded ahead
+     * of the ring time
+     *
+     * The warm-up alarm is set with setExact (and not setExactAndAllowWhileIdle), so it does
+     * not use up the while-idle alarm quota of the actual alarm. If the device is idle, the
+     * warm-up is simply deferred, and the actual alarm takes the cold path. It is only called
+     * for alarms set as exact alarms, so the app has the permission to schedule exact alarms
+     *
+     * Does nothing if the warm-up time has already lapsed
+     *
+     * @param context the context to use. May not be null
+     * @param alarmManager the system alarm manager
+     * @param alarm the actual alarm
+     * */
+    private static void setWarmUpAlarmIfNotLapsed(Context context, AlarmManager alarmManager,
+                                                  Alarm alarm){
+
+        long warmUpTimeInMillisecondsSinceEpoch = alarm.getAlarmTimeInMillisecondsSinceEpoch() -
+                                                    WARM_UP_LEAD_TIME_IN_SECONDS * 1000;
+
+        if (warmUpTimeInMillisecondsSinceEpoch <= System.currentTimeMillis()){
+            return;
+        }
+
+        PendingIntent warmUpPendingIntent = getWarmUpPendingIntent(context, alarm.getId());
+
+        alarmManager.setExact(AlarmManager.RTC_WAKEUP, warmUpTimeInMillisecondsSinceEpoch,
+                                warmUpPendingIntent);
     }
 
 
@@ -113,38 +605,314 @@ public class AlarmClockHelper {
 
 
     /**
-     * Delete an existing pending alarm if there is any. Will not throw exception if there
-     * is no existing alarm
+     * Delete an alarm (and its pre-fire warm-up alarm) if it is set. Will not throw exception
+     * if the alarm is not set
      *
      * @param context the context to use. Usually your Application or Activity object. May not be
      *                null
+     * @param alarmId id of the alarm to delete
      * */
-    public static void deleteExistingAlarmIfAny(Context context){
+    public static void deleteAlarmClockIfAny(Context context, int alarmId){
 
         AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
 
-        Intent intent = AlarmClockBroadcastReceiver.createIntent(context);
-        PendingIntent alarmPendingIntent = createPendingIntent(context, intent);
+        CachedAlarmPendingIntent cachedAlarmPendingIntent = alarmPendingIntents.get(alarmId);
+
+        PendingIntent alarmPendingIntent = (cachedAlarmPendingIntent != null) ?
+                cachedAlarmPendingIntent.pendingIntent :
+                findExistingPendingIntent(context,
+                        AlarmClockBroadcastReceiver.createIntent(context),
+                        getAlarmRequestCode(alarmId));
+
+        if (alarmPendingIntent != null){
+            alarmManager.cancel(alarmPendingIntent);
+            alarmPendingIntent.cancel();
+        }
+
+        alarmPendingIntents.remove(alarmId);
+
+        PendingIntent warmUpPendingIntent = findWarmUpPendingIntent(context, alarmId);
+
+        if (warmUpPendingIntent != null){
+            alarmManager.cancel(warmUpPendingIntent);
+            warmUpPendingIntent.cancel();
+        }
+
+        warmUpPendingIntents.remove(alarmId);
+
+        updatePendingIntentsLiveCount();
+    }
+
+
+    /**
+     * Delete the pending warm-up alarm of an alarm if there is any. Will not throw exception
+     * if there is no pending warm-up alarm
+     *
+     * Called when the actual alarm fires, in case the warm-up alarm has been deferred
+     * (e.g. by doze mode) to a time after the actual alarm
+     *
+     * @param context the context to use. Usually your Application or Activity object. May not be
+     *                null
+     * @param alarmId id of the actual alarm
+     * */
+    public static void deleteWarmUpAlarmIfAny(Context context, int alarmId){
+
+        AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+
+        PendingIntent warmUpPendingIntent = findWarmUpPendingIntent(context, alarmId);
+
+        if (warmUpPendingIntent != null){
+            alarmManager.cancel(warmUpPendingIntent);
+        }
+    }
+
+
+    /**
+     * Returns the pending intent of the pre-fire warm-up alarm of an alarm from the cache,
+     * or the existing one if it is not in the cache, or null if there is none
+     *
+     * @param context the context to use. May not be null
+     * @param alarmId id of the actual alarm
+     * */
+    private static PendingIntent findWarmUpPendingIntent(Context context, int alarmId){
+
+        PendingIntent warmUpPendingIntent = warmUpPendingIntents.get(alarmId);
+
+        if (warmUpPendingIntent == null){
+            warmUpPendingIntent = findExistingPendingIntent(context,
+                    AlarmClockBroadcastReceiver.createWarmUpIntent(context, alarmId),
+                    getWarmUpRequestCode(alarmId));
+        }
+
+        return warmUpPendingIntent;
+    }
+
+
+    /**
+     * Returns the pending intent of an alarm, from the cache if possible
+     *
+     * The pending intent carries the alarm time, precision tier and ringtone in its extras, so
+     * it is only created again (updating the extras of the existing pending intent) if any of
+     * them has changed. Each time it is created, it is issued a new fire token (see
+     * AlarmClockFireTokenHelper), so that a duplicate delivery of its broadcast can be told
+     * apart from the next occurrence
+     *
+     * @param context the context to use. May not be null
+     * @param alarm the alarm
+     * @param precisionTier the precision tier that the alarm is set with
+     * */
+    private static PendingIntent getAlarmPendingIntent(Context context, Alarm alarm,
+                                                       AlarmPrecisionTier precisionTier){
+
+        int alarmId = alarm.getId();
+        long alarmTime = alarm.getAlarmTimeInMillisecondsSinceEpoch();
+        String ringtoneUri = alarm.getRingtoneUri();
 
-        alarmManager.cancel(alarmPendingIntent);
+        CachedAlarmPendingIntent cachedAlarmPendingIntent = alarmPendingIntents.get(alarmId);
+
+        if (cachedAlarmPendingIntent == null ||
+                cachedAlarmPendingIntent.alarmTime != alarmTime ||
+                cachedAlarmPendingIntent.precisionTier != precisionTier ||
+                !Objects.equals(cachedAlarmPendingIntent.ringtoneUri, ringtoneUri)){
+
+            long fireToken = AlarmClockFireTokenHelper.issueFireToken(context);
+
+            Intent intent = AlarmClockBroadcastReceiver.createIntent(context, alarmId,
+                                            alarmTime, precisionTier, fireToken, ringtoneUri);
+
+            PendingIntent alarmPendingIntent = createPendingIntent(context, intent,
+                                                        getAlarmRequestCode(alarmId));
+
+            cachedAlarmPendingIntent = new CachedAlarmPendingIntent(alarmPendingIntent,
+                                            alarmTime, precisionTier, fireToken, ringtoneUri);
+
+            alarmPendingIntents.put(alarmId, cachedAlarmPendingIntent);
+
+            updatePendingIntentsLiveCount();
+        }
+
+        return cachedAlarmPendingIntent.pendingIntent;
+    }
+
+
+    /**
+     * Returns the pending intent of the pre-fire warm-up alarm of an alarm, from the cache
+     * if possible
+     *
+     * @param context the context to use. May not be null
+     * @param alarmId id of the actual alarm
+     * */
+    private static PendingIntent getWarmUpPendingIntent(Context context, int alarmId){
+
+        PendingIntent warmUpPendingIntent = warmUpPendingIntents.get(alarmId);
+
+        if (warmUpPendingIntent == null){
+
+            Intent warmUpIntent = AlarmClockBroadcastReceiver.createWarmUpIntent(context, alarmId);
+
+            warmUpPendingIntent = createPendingIntent(context, warmUpIntent,
+                                                        getWarmUpRequestCode(alarmId));
+
+            warmUpPendingIntents.put(alarmId, warmUpPendingIntent);
+
+            updatePendingIntentsLiveCount();
+        }
+
+        return warmUpPendingIntent;
     }
 
 
     /**
-     * A helper method to create a pending intent
+     * Returns the cached pending intents of the set alarms and pre-fire warm-up alarms as a
+     * JSON array, for the diagnostics dump. Each entry has the alarm id and, if the alarm's
+     * own pending intent is cached, the alarm time and precision tier carried in its extras
+     *
+     * Like the rest of the pending intent caches, must only be called on the thread of the
+     * AlarmClockActor
+     * */
+    public static JSONArray getCachedPendingIntentsAsJsonArray(){
+
+        try {
+            JSONArray cachedPendingIntentsJsonArray = new JSONArray();
+
+            for (int i = 0; i < alarmPendingIntents.size(); i++){
+
+                int alarmId = alarmPendingIntents.keyAt(i);
+                CachedAlarmPendingIntent cachedAlarmPendingIntent = alarmPendingIntents.valueAt(i);
+
+                JSONObject cachedPendingIntentJsonObject = new JSONObject();
+
+                cachedPendingIntentJsonObject.put("alarmId", alarmId);
+                cachedPendingIntentJsonObject.put("alarmTime", cachedAlarmPendingIntent.alarmTime);
+                cachedPendingIntentJsonObject.put("precisionTier",
+                                                cachedAlarmPendingIntent.precisionTier.name());
+                cachedPendingIntentJsonObject.put("fireToken", cachedAlarmPendingIntent.fireToken);
+                cachedPendingIntentJsonObject.put("hasWarmUpPendingIntent",
+                                                warmUpPendingIntents.get(alarmId) != null);
+
+                cachedPendingIntentsJsonArray.put(cachedPendingIntentJsonObject);
+            }
+
+            for (int i = 0; i < warmUpPendingIntents.size(); i++){
+
+                int alarmId = warmUpPendingIntents.keyAt(i);
+
+                if (alarmPendingIntents.get(alarmId) != null){
+                    continue;
+                }
+
+                JSONObject cachedPendingIntentJsonObject = new JSONObject();
+
+                cachedPendingIntentJsonObject.put("alarmId", alarmId);
+                cachedPendingIntentJsonObject.put("hasWarmUpPendingIntent", true);
+
+                cachedPendingIntentsJsonArray.put(cachedPendingIntentJsonObject);
+            }
+
+            return cachedPendingIntentsJsonArray;
+        }
+        catch (JSONException jsonException){
+            throw new IllegalStateException("Unable to convert cached pending intents to JSON",
+                                            jsonException);
+        }
+    }
+
+
+    /**
+     * Update the live gauge of pending intents with the number of cached pending intents of
+     * alarms and pre-fire warm-up alarms
+     * */
+    private static void updatePendingIntentsLiveCount(){
+
+        AlarmClockResourceTrackingHelper.setLiveCount(
+                AlarmClockResourceTrackingHelper.ResourceType.PENDING_INTENT,
+                alarmPendingIntents.size() + warmUpPendingIntents.size());
+    }
+
+
+    /**
+     * Returns the request code of the pending intent of an alarm
+     *
+     * @param alarmId id of the alarm
+     * */
+    private static int getAlarmRequestCode(int alarmId){
+        return alarmId * REQUEST_CODES_PER_ALARM;
+    }
+
+
+    /**
+     * Returns the request code of the pending intent of the pre-fire warm-up alarm of an alarm
+     *
+     * @param alarmId id of the actual alarm
+     * */
+    private static int getWarmUpRequestCode(int alarmId){
+        return alarmId * REQUEST_CODES_PER_ALARM + 1;
+    }
+
+
+    /**
+     * A helper method to create a pending intent. If a matching pending intent already exists,
+     * its extras are replaced by those of the given intent
      *
      * @param context the context to use. Usually your Application or Activity object. May not be
      *                null
      * @param intent the intent representing the intent of a broadcast receiver to be run when
      *               the broadcast of the pending intent is fired in the future
+     * @param requestCode the request code of the pending intent
      * */
-    private static PendingIntent createPendingIntent(Context context, Intent intent){
+    private static PendingIntent createPendingIntent(Context context, Intent intent,
+                                                     int requestCode){
 
-        final int REQUEST_CODE = 0;
+        return PendingIntent.getBroadcast(context, requestCode,
+                intent, PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
 
-        return PendingIntent.getBroadcast(context, REQUEST_CODE,
-                intent, PendingIntent.FLAG_IMMUTABLE );
+    }
+
+
+    /**
+     * A helper method to find an existing pending intent, e.g. one created before the app
+     * process was restarted and therefore not in the cache
+     *
+     * @param context the context to use. May not be null
+     * @param intent an intent matching that of the pending intent (extras are not compared)
+     * @param requestCode the request code of the pending intent
+     *
+     * @return the existing pending intent, or null if there is none
+     * */
+    private static PendingIntent findExistingPendingIntent(Context context, Intent intent,
+                                                           int requestCode){
 
+        return PendingIntent.getBroadcast(context, requestCode,
+                intent, PendingIntent.FLAG_NO_CREATE | PendingIntent.FLAG_IMMUTABLE);
     }
 
+
+
+    /**
+     * A cached pending intent of a set alarm, together with the alarm time, precision tier,
+     * fire token and ringtone carried in its extras
+     * */
+    private static class CachedAlarmPendingIntent {
+
+        private final PendingIntent pendingIntent;
+
+        private final long alarmTime;
+
+        private final AlarmPrecisionTier precisionTier;
+
+        private final long fireToken;
+
+        private final String ringtoneUri;
+
+
+        CachedAlarmPendingIntent(PendingIntent pendingIntent, long alarmTime,
+                                 AlarmPrecisionTier precisionTier, long fireToken,
+                                 String ringtoneUri){
+            this.pendingIntent = pendingIntent;
+            this.alarmTime = alarmTime;
+            this.precisionTier = precisionTier;
+            this.fireToken = fireToken;
+            this.ringtoneUri = ringtoneUri;
+        }
+    }
 }
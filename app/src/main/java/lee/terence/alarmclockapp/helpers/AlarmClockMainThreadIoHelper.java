@@ -0,0 +1,455 @@
+package lee.terence.alarmclockapp.helpers;
+
+import android.content.Context;
+import android.os.Build;
+import android.os.Looper;
+import android.os.StrictMode;
+import android.os.SystemClock;
+import android.os.strictmode.Violation;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import lee.terence.alarmclockapp.BuildConfig;
+
+
+/**
+ * A Singleton helper class that detects disk reads and writes on the main thread, in debug
+ * builds only, and writes an aggregated report of them to a single JSON file in the app's
+ * internal storage, so that it can be attached to a ticket
+ *
+ * Two kinds of main thread I/O are recorded:
+ *      (a) StrictMode violations (disk reads and writes), as reported by the StrictMode
+ *          thread policy of the main thread. These are counted only, since StrictMode does
+ *          not tell how long they took. Only aggregated on Android 9 and up, which report
+ *          violations to a listener; on older versions they are only logged
+ *      (b) accesses to the app's shared preferences stores on the main thread, which are
+ *          counted and timed by hooks around the store access (see startTimingStoreAccess),
+ *          whether or not StrictMode catches them, since a store that has already been loaded
+ *          does not touch the disk
+ *
+ * Each recording is de-duplicated by its signature: its kind, and the frames of its stack
+ * that belong to the app (e.g. MainActivity.onResume, then the helper method it called), so
+ * that the same I/O from the same place is counted once, however often it happens
+ *
+ * The report is rewritten on a background thread of this class after new recordings come
+ * in. Recordings that come in while it is being written are coalesced into the next write.
+ * In release builds nothing is detected, and the hooks return straight away
+ *
+ * <b>Example Usage:</b>
+ * <pre>
+ *     //in Application.onCreate
+ *     AlarmClockMainThreadIoHelper.startDetectingIfDebug(this);
+ *
+ *     //around an access to a store
+ *     long startTime = AlarmClockMainThreadIoHelper.startTimingStoreAccess();
+ *     ....
+ *     AlarmClockMainThreadIoHelper.finishTimingStoreAccess(storeName, startTime);
+ *
+ *     //then, from a computer, for a debug build
+ *     //adb shell run-as lee.terence.alarm_clock_app cat files/alarm_clock_main_thread_io.json
+ * </pre>
+ *
+ * @author Terence Lee
+ * */
+public class AlarmClockMainThreadIoHelper {
+
+    /**
+     * Name of the report file, in the app's internal files directory. Each write replaces the
+     * previous one
+     * */
+    public static final String REPORT_FILE_NAME = "alarm_clock_main_thread_io.json";
+
+    /**
+     * Start time returned by startTimingStoreAccess when the store access is not timed,
+     * i.e. when not detecting, or not on the main thread
+     * */
+    public static final long NOT_TIMED = -1;
+
+
+    private static final String LOG_TAG = "AlarmClockMainThreadIo";
+
+    private static final String STORE_ACCESS_KIND_PREFIX = "StoreAccess ";
+
+    /**
+     * Maximum number of the app's stack frames that make up the signature of a recording
+     * */
+    private static final int MAXIMUM_SIGNATURE_FRAMES = 6;
+
+    /**
+     * Maximum number of stack frames kept as the sample stack of a recording
+     * */
+    private static final int MAXIMUM_SAMPLE_STACK_FRAMES = 24;
+
+    private static final String APP_PACKAGE_PREFIX = "lee.terence.alarmclockapp.";
+
+    private static final int JSON_INDENT_SPACES = 2;
+
+    private static final long NANOSECONDS_PER_MICROSECOND = 1000;
+
+    /**
+     * Single background thread on which StrictMode violations are received, and the report
+     * is written
+     * */
+    private static final ExecutorService REPORT_EXECUTOR = Executors.newSingleThreadExecutor();
+
+
+    /**
+     * Whether main thread I/O is being detected, i.e. in a debug build, once
+     * startDetectingIfDebug has been called
+     * */
+    private static volatile boolean isDetecting = false;
+
+    private static Context applicationContext;
+
+    /**
+     * The recordings so far in this process, by signature, in the order they were first seen.
+     * Guarded by the class lock
+     * */
+    private static final Map<String, MainThreadIoRecord> recordsBySignature =
+                                                                    new LinkedHashMap<>();
+
+    /**
+     * Whether a write of the report has been submitted and has not started yet
+     * */
+    private static final AtomicBoolean isReportWritePending = new AtomicBoolean(false);
+
+
+    /**
+     * All methods in this class are static, so there is no need for a constructor for this class
+     * */
+    private AlarmClockMainThreadIoHelper(){
+
+    }
+
+
+    /**
+     * In a debug build, set a StrictMode thread policy on the main thread that detects disk
+     * reads and writes, and start recording them and the store accesses on the main thread.
+     * Does nothing in a release build. Must be called on the main thread
+     *
+     * @param context The context to use. Usually your Application object
+     * */
+    public static void startDetectingIfDebug(Context context){
+
+        if (!BuildConfig.DEBUG){
+            return;
+        }
+
+        applicationContext = context.getApplicationContext();
+
+        StrictMode.ThreadPolicy.Builder threadPolicyBuilder = new StrictMode.ThreadPolicy.Builder()
+                .detectDiskReads()
+                .detectDiskWrites()
+                .penaltyLog();
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P){
+            threadPolicyBuilder.penaltyListener(REPORT_EXECUTOR,
+                    AlarmClockMainThreadIoHelper::onStrictModeViolation);
+        }
+
+        StrictMode.setThreadPolicy(threadPolicyBuilder.build());
+
+        isDetecting = true;
+    }
+
+
+    /**
+     * Returns the time at which a store access starts, to be passed to finishTimingStoreAccess
+     * once it has finished, or NOT_TIMED if main thread I/O is not being detected or the
+     * calling thread is not the main thread
+     * */
+    public static long startTimingStoreAccess(){
+
+        if (!isDetecting || Looper.myLooper() != Looper.getMainLooper()){
+            return NOT_TIMED;
+        }
+
+        return SystemClock.elapsedRealtimeNanos();
+    }
+
+
+    /**
+     * Record a store access on the main thread, timed from the given start time. Does nothing
+     * if the start time is NOT_TIMED
+     *
+     * @param storeName name of the store accessed, e.g. the file name of the shared
+     *                  preferences
+     * @param startTimeInNanoseconds the start time returned by startTimingStoreAccess
+     * */
+    public static void finishTimingStoreAccess(String storeName, long startTimeInNanoseconds){
+
+        if (startTimeInNanoseconds == NOT_TIMED){
+            return;
+        }
+
+        long durationInNanoseconds = SystemClock.elapsedRealtimeNanos() - startTimeInNanoseconds;
+
+        record(STORE_ACCESS_KIND_PREFIX + storeName, new Throwable().getStackTrace(),
+                durationInNanoseconds);
+    }
+
+
+    /**
+     * Record a StrictMode violation of the main thread's policy. Called on the report thread
+     *
+     * @param violation the violation, whose stack trace is the main thread's at the violation
+     * */
+    private static void onStrictModeViolation(Violation violation){
+
+        record(violation.getClass().getSimpleName(), violation.getStackTrace(),
+                MainThreadIoRecord.UNKNOWN_DURATION);
+    }
+
+
+    /**
+     * Add a recording to the record of its signature (creating the record if it is the first
+     * with that signature), then have the report rewritten
+     *
+     * @param kind kind of the main thread I/O, e.g. "DiskReadViolation"
+     * @param stackTrace stack of the main thread at the I/O
+     * @param durationInNanoseconds how long the I/O took, or UNKNOWN_DURATION if not timed
+     * */
+    private static void record(String kind, StackTraceElement[] stackTrace,
+                               long durationInNanoseconds){
+
+        String signature = getSignature(kind, stackTrace);
+
+        synchronized (AlarmClockMainThreadIoHelper.class){
+
+            MainThreadIoRecord mainThreadIoRecord = recordsBySignature.get(signature);
+
+            if (mainThreadIoRecord == null){
+
+                mainThreadIoRecord = new MainThreadIoRecord(kind, signature, stackTrace);
+                recordsBySignature.put(signature, mainThreadIoRecord);
+
+                Log.w(LOG_TAG, "New main thread I/O: " + signature);
+            }
+
+            mainThreadIoRecord.add(durationInNanoseconds);
+        }
+
+        writeReportIfNotPending();
+    }
+
+
+    /**
+     * Returns the signature of a recording: its kind, followed by the frames of its stack
+     * that belong to the app, innermost first (or by the innermost frames, if none do)
+     *
+     * @param kind kind of the main thread I/O
+     * @param stackTrace stack of the main thread at the I/O
+     * */
+    private static String getSignature(String kind, StackTraceElement[] stackTrace){
+
+        List<String> signatureFrames = new ArrayList<>();
+
+        for (StackTraceElement stackTraceElement : stackTrace){
+
+            if (signatureFrames.size() == MAXIMUM_SIGNATURE_FRAMES){
+                break;
+            }
+
+            String className = stackTraceElement.getClassName();
+
+            //the hooks of this class are part of every store access, so they tell nothing apart
+            if (className.startsWith(APP_PACKAGE_PREFIX) &&
+                    !className.equals(AlarmClockMainThreadIoHelper.class.getName())){
+
+                signatureFrames.add(getFrameName(stackTraceElement));
+            }
+        }
+
+        if (signatureFrames.isEmpty()){
+
+            for (int i = 0; i < Math.min(MAXIMUM_SIGNATURE_FRAMES, stackTrace.length); i++){
+                signatureFrames.add(getFrameName(stackTrace[i]));
+            }
+        }
+
+        return kind + " at " + String.join(" < ", signatureFrames);
+    }
+
+
+    /**
+     * Returns the name of a stack frame without its line number (so that a recording keeps its
+     * signature across small code changes), e.g. "MainActivity.onResume"
+     *
+     * @param stackTraceElement the stack frame
+     * */
+    private static String getFrameName(StackTraceElement stackTraceElement){
+
+        String className = stackTraceElement.getClassName();
+
+        return className.substring(className.lastIndexOf('.') + 1) + "." +
+                stackTraceElement.getMethodName();
+    }
+
+
+    /**
+     * Submit a write of the report to the report thread, unless one has been submitted and
+     * has not started yet (it will include the latest recordings anyway)
+     * */
+    private static void writeReportIfNotPending(){
+
+        if (!isReportWritePending.compareAndSet(false, true)){
+            return;
+        }
+
+        REPORT_EXECUTOR.execute(() -> {
+
+            isReportWritePending.set(false);
+
+            try {
+                writeReportFile();
+            }
+            catch (IOException | JSONException exception){
+                Log.e(LOG_TAG, "Unable to write the main thread I/O report", exception);
+            }
+        });
+    }
+
+
+    /**
+     * Turn all the recordings into JSON and write them to the report file, replacing it
+     * atomically so that a half written report is never read. Runs on the report thread
+     * */
+    private static void writeReportFile() throws IOException, JSONException {
+
+        JSONArray recordsJsonArray = new JSONArray();
+
+        synchronized (AlarmClockMainThreadIoHelper.class){
+
+            for (MainThreadIoRecord mainThreadIoRecord : recordsBySignature.values()){
+                recordsJsonArray.put(mainThreadIoRecord.toJsonObject());
+            }
+        }
+
+        JSONObject reportJsonObject = new JSONObject();
+
+        reportJsonObject.put("reportTime", System.currentTimeMillis());
+        reportJsonObject.put("processUptimeInMilliseconds", SystemClock.uptimeMillis());
+        reportJsonObject.put("records", recordsJsonArray);
+
+        byte[] reportBytes = reportJsonObject.toString(JSON_INDENT_SPACES)
+                                                .getBytes(StandardCharsets.UTF_8);
+
+        AtomicFile reportFile =
+                new AtomicFile(new File(applicationContext.getFilesDir(), REPORT_FILE_NAME));
+
+        FileOutputStream fileOutputStream = reportFile.startWrite();
+
+        try {
+            fileOutputStream.write(reportBytes);
+            reportFile.finishWrite(fileOutputStream);
+        }
+        catch (IOException ioException){
+            reportFile.failWrite(fileOutputStream);
+            throw ioException;
+        }
+    }
+
+
+    /**
+     * The aggregate of all the recordings with the same signature: how many there were, how
+     * long the timed ones took in total and at most, when the first and last were seen, and
+     * the stack of the first one
+     * */
+    private static class MainThreadIoRecord {
+
+        /**
+         * Duration of a recording that was not timed (a StrictMode violation)
+         * */
+        private static final long UNKNOWN_DURATION = -1;
+
+        private final String kind;
+
+        private final String signature;
+
+        private final StackTraceElement[] sampleStackTrace;
+
+        private final long firstSeenTime = System.currentTimeMillis();
+
+        private long lastSeenTime;
+
+        private int count = 0;
+
+        private int timedCount = 0;
+
+        private long totalDurationInNanoseconds = 0;
+
+        private long maximumDurationInNanoseconds = 0;
+
+
+        MainThreadIoRecord(String kind, String signature, StackTraceElement[] stackTrace){
+            this.kind = kind;
+            this.signature = signature;
+            this.sampleStackTrace = stackTrace;
+        }
+
+
+        void add(long durationInNanoseconds){
+
+            count++;
+            lastSeenTime = System.currentTimeMillis();
+
+            if (durationInNanoseconds == UNKNOWN_DURATION){
+                return;
+            }
+
+            timedCount++;
+            totalDurationInNanoseconds += durationInNanoseconds;
+            maximumDurationInNanoseconds =
+                    Math.max(maximumDurationInNanoseconds, durationInNanoseconds);
+        }
+
+
+        JSONObject toJsonObject() throws JSONException {
+
+            JSONObject recordJsonObject = new JSONObject();
+
+            recordJsonObject.put("kind", kind);
+            recordJsonObject.put("signature", signature);
+            recordJsonObject.put("count", count);
+            recordJsonObject.put("firstSeenTime", firstSeenTime);
+            recordJsonObject.put("lastSeenTime", lastSeenTime);
+
+            if (timedCount > 0){
+                recordJsonObject.put("timedCount", timedCount);
+                recordJsonObject.put("totalDurationInMicroseconds",
+                        totalDurationInNanoseconds / NANOSECONDS_PER_MICROSECOND);
+                recordJsonObject.put("averageDurationInMicroseconds",
+                        totalDurationInNanoseconds / timedCount / NANOSECONDS_PER_MICROSECOND);
+                recordJsonObject.put("maximumDurationInMicroseconds",
+                        maximumDurationInNanoseconds / NANOSECONDS_PER_MICROSECOND);
+            }
+
+            JSONArray sampleStackJsonArray = new JSONArray();
+
+            for (int i = 0; i < Math.min(MAXIMUM_SAMPLE_STACK_FRAMES, sampleStackTrace.length);
+                 i++){
+                sampleStackJsonArray.put(sampleStackTrace[i].toString());
+            }
+
+            recordJsonObject.put("sampleStack", sampleStackJsonArray);
+
+            return recordJsonObject;
+        }
+    }
+}
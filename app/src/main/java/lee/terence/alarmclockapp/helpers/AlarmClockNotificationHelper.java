@@ -6,31 +6,62 @@ import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.content.Context;
 import android.content.Intent;
+import android.os.Handler;
+import android.os.Looper;
+import android.service.notification.StatusBarNotification;
 
 import androidx.core.app.NotificationCompat;
 
-import java.util.Calendar;
-import java.util.Locale;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import lee.terence.alarmclockapp.helpers.AlarmClockResourceTrackingHelper.ResourceType;
 
 import lee.terence.alarmclockapp.R;
+import lee.terence.alarmclockapp.actors.AlarmClockStateEvent;
+import lee.terence.alarmclockapp.broadcastreceivers.AlarmClockBroadcastReceiver;
 import lee.terence.alarmclockapp.controllers.AlarmClockAlertActivity;
+import lee.terence.alarmclockapp.controllers.MainActivity;
+import lee.terence.alarmclockapp.models.AlarmAlertPayload;
+import lee.terence.alarmclockapp.models.AlarmOccurrence;
 
 
 /**
  * A Singleton notification helper class that allows for posting and deleting alarm clock
  * notifications
  *
+ * Each alarm that goes off gets its own alarm clock notification. The notifications of the
+ * alarms that go off within NOTIFICATION_BATCHING_WINDOW_IN_MILLISECONDS of one another are
+ * posted together, once the window has passed. Once more than one alarm is notified of, the
+ * notifications are grouped under a single summary notification, which lists the alarms and
+ * has the "stop all" and "snooze all" actions, and is the only one of the group that alerts
+ * the user. So when dozens of alarms go off within a minute, the system UI is updated and
+ * the user alerted once per batch, rather than once per alarm
+ *
  * <b>Example Usage:</b>
  * <pre>
- *     long alarmTimeInMillisecondsSinceEpoch = 1234567891011;
+ *     AlarmAlertPayload alarmAlertPayload = AlarmAlertPayload.create(getApplicationContext(), alarmId,
+ *                                                  alarmTimeInMillisecondsSinceEpoch);
  *
- *     //send the alarm clock notification to the android device
+ *     //send the alarm clock notification to the android device, once its batch is posted
  *     AlarmClockNotificationHelper.postAlarmClockNotification(getApplicationContext(),
- *                                                  alarmTimeInMillisecondsSinceEpoch);
+ *                                                  alarmAlertPayload, pendingResult::finish);
  *
  *
  *     //to delete all alarm clock notifications from this app
  *     AlarmClockNotificationHelper.deleteAllAlarmNotifications(getApplicationContext());
+ *
+ *
+ *     //to delete the alarm clock notifications of alarms that have been deleted or disabled
+ *     AlarmClockNotificationHelper.deleteAlarmNotificationsOfAlarmsTurnedOff(
+ *                                                  getApplicationContext(), stateEvents);
+ *
+ *
+ *     //to let the user know of the alarms that were missed while the device was off
+ *     AlarmClockNotificationHelper.postMissedAlarmsNotification(getApplicationContext(),
+ *                                                  missedOccurrences);
  * </pre>
  *
  * @author Terence Lee
@@ -49,6 +80,98 @@ public class AlarmClockNotificationHelper {
     private static final String AlARM_NOTIFICATION_CHANNEL_NAME = "ALARM NOTIFICATION CHANNEL";
 
 
+    /**
+     * Whether the alarm notification channel has already been created in this process, so
+     * that it does not have to be created again each time a notification is posted
+     * */
+    private static volatile boolean isAlarmClockNotificationChannelCreated = false;
+
+
+    /**
+     * Channel Id and user visible name of the missed alarms notification channel. Kept apart
+     * from the alarm notification channel, since missed alarms do not need to interrupt
+     * */
+    private static final String MISSED_ALARMS_NOTIFICATION_CHANNEL_ID =
+                                                        "MISSED_ALARMS_NOTIFICATION_CHANNEL";
+    private static final String MISSED_ALARMS_NOTIFICATION_CHANNEL_NAME =
+                                                        "MISSED ALARMS NOTIFICATION CHANNEL";
+
+
+    /**
+     * Id of the summary notification of the alarm clock notifications (and of the single alarm
+     * clock notification posted by older versions of the app)
+     * */
+    private static final int ALARM_CLOCK_NOTIFICATION_ID = 1;
+
+    /**
+     * Tag of the alarm clock notifications of the alarms, each of which has the id of its
+     * alarm as its notification id, so that they never clash with the other notifications
+     * */
+    private static final String ALARM_CLOCK_NOTIFICATION_TAG = "ALARM_CLOCK_NOTIFICATION";
+
+    /**
+     * Key of the group of the alarm clock notifications
+     * */
+    private static final String ALARM_CLOCK_NOTIFICATION_GROUP =
+                                                "lee.terence.alarmclockapp.ALARM_CLOCK_GROUP";
+
+    /**
+     * Time for which the alarm clock notification of an alarm that has gone off is held
+     * back, so that the alarms going off within it are notified of in one batch
+     * */
+    public static final long NOTIFICATION_BATCHING_WINDOW_IN_MILLISECONDS = 1000;
+
+    /**
+     * Request codes of the pending intents of the "stop all" and "snooze all" actions
+     * */
+    private static final int STOP_ALL_REQUEST_CODE = 1;
+    private static final int SNOOZE_ALL_REQUEST_CODE = 2;
+
+    /**
+     * Request code of the pending intent of the summary notification. The pending intent of
+     * the alarm clock notification of each alarm has the id of its alarm as its request code
+     * */
+    private static final int SUMMARY_REQUEST_CODE = -1;
+
+    /**
+     * Id of the missed alarms notification. Posting it again replaces it
+     * */
+    private static final int MISSED_ALARMS_NOTIFICATION_ID = 2;
+
+    /**
+     * The alarms whose alarm clock notifications have been posted by this process, and not yet
+     * deleted, by alarm id, in the order they went off. Only accessed on the main thread
+     * */
+    private static final Map<Integer, AlarmAlertPayload> notifiedAlarmAlertPayloads =
+                                                                        new LinkedHashMap<>();
+
+    /**
+     * Whether the summary notification has been posted by this process, and not yet deleted.
+     * Only accessed on the main thread
+     * */
+    private static boolean isSummaryNotificationPosted = false;
+
+    /**
+     * The alarms gone off whose alarm clock notifications are held back until the batching
+     * window has passed, by alarm id, and the callbacks to run once they have been posted.
+     * Only accessed on the main thread
+     * */
+    private static final Map<Integer, AlarmAlertPayload> pendingAlarmAlertPayloads =
+                                                                        new LinkedHashMap<>();
+    private static final List<Runnable> pendingPostCallbacks = new ArrayList<>();
+
+    /**
+     * Whether the batch of held back alarm clock notifications is due to be posted. Only
+     * accessed on the main thread
+     * */
+    private static boolean isBatchScheduled = false;
+
+    /**
+     * Handler of the main thread, on which the batches of alarm clock notifications are posted
+     * */
+    private static final Handler mainThreadHandler = new Handler(Looper.getMainLooper());
+
+
 
     /**
      * All methods in this class are static, so there is no need for a constructor
@@ -64,25 +187,94 @@ public class AlarmClockNotificationHelper {
      * The notification, upon clicking, will bring user to the AlarmClockAlertActivity
      * for the user to turn off the alarm
      *
+     * The notification is held back for NOTIFICATION_BATCHING_WINDOW_IN_MILLISECONDS after the
+     * first alarm of its batch went off, and posted together with the notifications of every
+     * other alarm that goes off by then. Must be called on the main thread
+     *
      * @param context  The context to use. Usually your Application or Activity object
+     * @param alarmAlertPayload the alarm that has gone off
+     * @param onNotificationPosted called on the main thread once the notification has been
+     *                             posted (or deleted before it could be), e.g. to finish the
+     *                             alarm broadcast
      * */
     public static void postAlarmClockNotification(Context context,
-                                                  long alarmTimeInMillisecondsSinceEpoch){
+                                                  AlarmAlertPayload alarmAlertPayload,
+                                                  Runnable onNotificationPosted){
 
-        NotificationManager notificationManager = getNotificationManager(context);
+        //the alarm may have gone off again, in which case it is notified of as it is now
+        pendingAlarmAlertPayloads.remove(alarmAlertPayload.getAlarmId());
+        pendingAlarmAlertPayloads.put(alarmAlertPayload.getAlarmId(), alarmAlertPayload);
 
-        createAlarmClockNotificationChannel(notificationManager);
+        pendingPostCallbacks.add(onNotificationPosted);
 
-        String alarmNotificationContentTitle =
-                getAlarmClockNotificationContentTitle(alarmTimeInMillisecondsSinceEpoch);
+        //the window is not extended by later alarms, so no notification is held back longer
+        if (!isBatchScheduled){
+            isBatchScheduled = true;
 
-        PendingIntent alarmAlertActivityPendingIntent =
-                                createAlarmAlertActivityPendingIntent(context);
+            Context applicationContext = context.getApplicationContext();
 
-        postAlarmClockNotification(context, notificationManager, alarmNotificationContentTitle,
-                                    alarmAlertActivityPendingIntent);
+            mainThreadHandler.postDelayed(
+                    () -> postPendingAlarmClockNotifications(applicationContext),
+                    NOTIFICATION_BATCHING_WINDOW_IN_MILLISECONDS);
+        }
     }
 
+
+    /**
+     * Post the alarm clock notifications of the alarms gone off within the batching window,
+     * then the summary notification, if more than one alarm is notified of by then, and run
+     * the callbacks of the batch
+     *
+     * An alarm that is notified of alone gets the "stop" and "snooze" actions on its own
+     * notification. Once it is grouped, its notification no longer alerts the user, and the
+     * actions are taken over by the summary notification
+     *
+     * @param context  The context to use. Usually your Application or Activity object
+     * */
+    private static void postPendingAlarmClockNotifications(Context context){
+
+        isBatchScheduled = false;
+
+        if (!pendingAlarmAlertPayloads.isEmpty()){
+
+            NotificationManager notificationManager = getNotificationManager(context);
+
+            AlarmClockStartupHelper.awaitDependency(context,
+                    AlarmClockStartupHelper.StartupDependency.NOTIFICATION_CHANNEL);
+
+            createAlarmClockNotificationChannelIfNotCreated(notificationManager);
+
+            for (AlarmAlertPayload alarmAlertPayload : pendingAlarmAlertPayloads.values()){
+
+                //posting the notification of an alarm again replaces it, so it is only
+                //tracked once
+                if (notifiedAlarmAlertPayloads.remove(alarmAlertPayload.getAlarmId()) == null){
+                    AlarmClockResourceTrackingHelper.onResourceAllocated(
+                                                                ResourceType.NOTIFICATION);
+                }
+
+                notifiedAlarmAlertPayloads.put(alarmAlertPayload.getAlarmId(),
+                                                alarmAlertPayload);
+            }
+
+            boolean isGrouped = notifiedAlarmAlertPayloads.size() > 1;
+
+            for (AlarmAlertPayload alarmAlertPayload : pendingAlarmAlertPayloads.values()){
+                postAlarmClockNotification(context, notificationManager, alarmAlertPayload,
+                                            isGrouped);
+            }
+
+            if (isGrouped){
+                postSummaryNotification(context, notificationManager, true);
+            }
+
+            pendingAlarmAlertPayloads.clear();
+        }
+
+        runPendingPostCallbacks();
+    }
+
+
     /**
      * Post an alarm clock notification to the user. Will appear as a small notification on
      * top of the screen.
@@ -91,61 +283,248 @@ public class AlarmClockNotificationHelper {
      *
      * @param context  The context to use. Usually your Application or Activity object
      * @param notificationManager the notification manager of the system
+     * @param alarmAlertPayload the alarm that has gone off
+     * @param isGrouped whether the notification is grouped under the summary notification,
+     *                  which alerts the user and has the actions instead
      * */
     private static void postAlarmClockNotification(Context context,
                                                    NotificationManager notificationManager,
-                                                   String alarmNotificationContentTitle,
-                                                   PendingIntent alarmAlertActivityPendingIntent){
+                                                   AlarmAlertPayload alarmAlertPayload,
+                                                   boolean isGrouped){
 
         NotificationCompat.Builder notificationBuilder =
                 new NotificationCompat.Builder(context, ALARM_NOTIFICATION_CHANNEL_ID)
                         .setSmallIcon(R.drawable.icon_alarm_clock)
-                        .setContentTitle(alarmNotificationContentTitle)
+                        .setContentTitle(getAlarmClockNotificationContentTitle(context,
+                                                                    alarmAlertPayload))
                         .setPriority(NotificationCompat.PRIORITY_HIGH)
                         .setCategory(NotificationCompat.CATEGORY_ALARM)
-                        .setContentIntent(alarmAlertActivityPendingIntent);
+                        .setContentIntent(createAlarmAlertActivityPendingIntent(context,
+                                            alarmAlertPayload, alarmAlertPayload.getAlarmId()))
+                        .setWhen(alarmAlertPayload.getScheduledTimeInMillisecondsSinceEpoch())
+                        .setGroup(ALARM_CLOCK_NOTIFICATION_GROUP);
+
+        if (isGrouped){
+            notificationBuilder.setGroupAlertBehavior(NotificationCompat.GROUP_ALERT_SUMMARY);
+        }
+        else{
+            addStopAndSnoozeActions(context, notificationBuilder,
+                    context.getString(R.string.notification_alarm_clock_stop_action_title),
+                    context.getString(R.string.notification_alarm_clock_snooze_action_title));
+        }
 
         Notification alarmNotification = notificationBuilder.build();
 
-        final int NOTIFICATION_ID = 1;
+        notificationManager.notify(ALARM_CLOCK_NOTIFICATION_TAG, alarmAlertPayload.getAlarmId(),
+                                    alarmNotification);
+    }
+
+
+    /**
+     * Post the summary notification of the alarm clock notifications, listing every alarm
+     * notified of, with the "stop all" and "snooze all" actions. It alerts the user once per
+     * batch, rather than once per alarm
+     *
+     * E.g. of notification: "3 alarms now" with the lines "7:00 AM", "7:00 AM" and "7:01 AM"
+     *
+     * @param context  The context to use. Usually your Application or Activity object
+     * @param notificationManager the notification manager of the system
+     * @param isAlertingUser whether to alert the user, i.e. false if the summary is only
+     *                       updated once some of the alarms are no longer notified of
+     * */
+    private static void postSummaryNotification(Context context,
+                                                NotificationManager notificationManager,
+                                                boolean isAlertingUser){
+
+        int numberOfNotifiedAlarms = notifiedAlarmAlertPayloads.size();
+
+        String summaryNotificationContentTitle = context.getResources().getQuantityString(
+                R.plurals.notification_alarm_clock_summary_content_title,
+                numberOfNotifiedAlarms, numberOfNotifiedAlarms);
+
+        NotificationCompat.InboxStyle inboxStyle = new NotificationCompat.InboxStyle()
+                .setBigContentTitle(summaryNotificationContentTitle);
+
+        StringBuilder alarmTimes = new StringBuilder();
+
+        AlarmAlertPayload latestAlarmAlertPayload = null;
+
+        for (AlarmAlertPayload alarmAlertPayload : notifiedAlarmAlertPayloads.values()){
+
+            inboxStyle.addLine(alarmAlertPayload.getLabel());
+
+            if (alarmTimes.length() > 0){
+                alarmTimes.append(", ");
+            }
+
+            alarmTimes.append(alarmAlertPayload.getLabel());
+
+            latestAlarmAlertPayload = alarmAlertPayload;
+        }
 
-        notificationManager.notify(NOTIFICATION_ID, alarmNotification);
+        NotificationCompat.Builder notificationBuilder =
+                new NotificationCompat.Builder(context, ALARM_NOTIFICATION_CHANNEL_ID)
+                        .setSmallIcon(R.drawable.icon_alarm_clock)
+                        .setContentTitle(summaryNotificationContentTitle)
+                        .setContentText(alarmTimes)
+                        .setStyle(inboxStyle)
+                        .setNumber(numberOfNotifiedAlarms)
+                        .setPriority(NotificationCompat.PRIORITY_HIGH)
+                        .setCategory(NotificationCompat.CATEGORY_ALARM)
+                        .setContentIntent(createAlarmAlertActivityPendingIntent(context,
+                                            latestAlarmAlertPayload, SUMMARY_REQUEST_CODE))
+                        .setGroup(ALARM_CLOCK_NOTIFICATION_GROUP)
+                        .setGroupSummary(true)
+                        .setGroupAlertBehavior(NotificationCompat.GROUP_ALERT_SUMMARY)
+                        .setOnlyAlertOnce(!isAlertingUser);
+
+        addStopAndSnoozeActions(context, notificationBuilder,
+                context.getString(R.string.notification_alarm_clock_stop_all_action_title),
+                context.getString(R.string.notification_alarm_clock_snooze_all_action_title));
+
+        notificationManager.notify(ALARM_CLOCK_NOTIFICATION_ID, notificationBuilder.build());
+
+        if (!isSummaryNotificationPosted){
+            isSummaryNotificationPosted = true;
+
+            AlarmClockResourceTrackingHelper.onResourceAllocated(ResourceType.NOTIFICATION);
+        }
     }
 
 
     /**
-     * Return a string containing the alarm time, to be used for alarm clock notification
-     * content title
+     * Add the actions that stop or snooze every alarm notified of to an alarm clock
+     * notification
      *
-     * E.g. of string returned: "Alarm now at 02:35 p.m."
+     * @param context  The context to use. Usually your Application or Activity object
+     * @param notificationBuilder builder of the notification to add the actions to
+     * @param stopActionTitle user visible title of the action that stops the alarms
+     * @param snoozeActionTitle user visible title of the action that snoozes the alarms
      * */
-    private static String getAlarmClockNotificationContentTitle(
-                                    long alarmTimeInMillisecondsSinceEpoch){
+    private static void addStopAndSnoozeActions(Context context,
+                                                NotificationCompat.Builder notificationBuilder,
+                                                String stopActionTitle,
+                                                String snoozeActionTitle){
 
+        int[] notifiedAlarmIds = new int[notifiedAlarmAlertPayloads.size()];
+        long latestAlarmTimeInMillisecondsSinceEpoch = 0;
 
-        Calendar alarmTimeCalendar = Calendar.getInstance();
-        alarmTimeCalendar.setTimeInMillis(alarmTimeInMillisecondsSinceEpoch);
+        int i = 0;
 
-        int hour = alarmTimeCalendar.get(Calendar.HOUR);
-        int minute = alarmTimeCalendar.get(Calendar.MINUTE);
-        int timeOfDay = alarmTimeCalendar.get(Calendar.AM_PM);
+        for (AlarmAlertPayload alarmAlertPayload : notifiedAlarmAlertPayloads.values()){
 
-        String timeOfDayString;
+            notifiedAlarmIds[i++] = alarmAlertPayload.getAlarmId();
 
-        if (hour == 0){
-            hour = 12;
+            latestAlarmTimeInMillisecondsSinceEpoch = Math.max(
+                    latestAlarmTimeInMillisecondsSinceEpoch,
+                    alarmAlertPayload.getScheduledTimeInMillisecondsSinceEpoch());
         }
 
-        if (timeOfDay == Calendar.AM){
-            timeOfDayString = "a.m.";
+        PendingIntent stopAllPendingIntent = PendingIntent.getBroadcast(context,
+                STOP_ALL_REQUEST_CODE,
+                AlarmClockBroadcastReceiver.createStopAllIntent(context, notifiedAlarmIds,
+                                                    latestAlarmTimeInMillisecondsSinceEpoch),
+                PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
+
+        PendingIntent snoozeAllPendingIntent = PendingIntent.getBroadcast(context,
+                SNOOZE_ALL_REQUEST_CODE,
+                AlarmClockBroadcastReceiver.createSnoozeAllIntent(context, notifiedAlarmIds),
+                PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
+
+        notificationBuilder
+                .addAction(R.drawable.icon_alarm_clock, stopActionTitle, stopAllPendingIntent)
+                .addAction(R.drawable.icon_alarm_clock, snoozeActionTitle,
+                            snoozeAllPendingIntent);
+    }
+
+
+    /**
+     * Post a notification listing the given missed alarm occurrences, which, upon clicking,
+     * brings the user to the MainActivity. Does nothing if there are no missed occurrences
+     *
+     * Must be called on the main thread, since the alarm times are formatted with
+     * AlarmClockFormattingHelper
+     *
+     * E.g. of notification: "Missed 2 alarms" with the text "7:00 AM, 7:30 AM"
+     *
+     * @param context  The context to use. Usually your Application or Activity object
+     * @param missedOccurrences the missed alarm occurrences, in order of alarm time
+     * */
+    public static void postMissedAlarmsNotification(Context context,
+                                                    List<AlarmOccurrence> missedOccurrences){
+
+        if (missedOccurrences.isEmpty()){
+            return;
         }
-        else{
-            timeOfDayString = "p.m.";
+
+        NotificationManager notificationManager = getNotificationManager(context);
+
+        notificationManager.createNotificationChannel(new NotificationChannel(
+                MISSED_ALARMS_NOTIFICATION_CHANNEL_ID, MISSED_ALARMS_NOTIFICATION_CHANNEL_NAME,
+                NotificationManager.IMPORTANCE_DEFAULT));
+
+        StringBuilder missedAlarmTimes = new StringBuilder();
+
+        for (AlarmOccurrence missedOccurrence : missedOccurrences){
+
+            if (missedAlarmTimes.length() > 0){
+                missedAlarmTimes.append(", ");
+            }
+
+            missedAlarmTimes.append(AlarmClockFormattingHelper.formatAlarmTime(context,
+                                missedOccurrence.getAlarmTimeInMillisecondsSinceEpoch()));
         }
 
-        return String.format(Locale.ENGLISH,
-                "Alarm now at %02d:%02d %s", hour, minute, timeOfDayString);
+        String missedAlarmsNotificationContentTitle = context.getResources().getQuantityString(
+                R.plurals.notification_missed_alarms_content_title,
+                missedOccurrences.size(), missedOccurrences.size());
+
+        final int REQUEST_CODE = 0;
+
+        PendingIntent mainActivityPendingIntent = PendingIntent.getActivity(context,
+                REQUEST_CODE, MainActivity.createIntent(context),
+                PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
 
+        Notification missedAlarmsNotification =
+                new NotificationCompat.Builder(context, MISSED_ALARMS_NOTIFICATION_CHANNEL_ID)
+                        .setSmallIcon(R.drawable.icon_alarm_clock)
+                        .setContentTitle(missedAlarmsNotificationContentTitle)
+                        .setContentText(missedAlarmTimes)
+                        .setCategory(NotificationCompat.CATEGORY_REMINDER)
+                        .setContentIntent(mainActivityPendingIntent)
+                        .setAutoCancel(true)
+                        .build();
+
+        notificationManager.notify(MISSED_ALARMS_NOTIFICATION_ID, missedAlarmsNotification);
+    }
+
+
+    /**
+     * Return a string containing the alarm time, to be used for alarm clock notification
+     * content title
+     *
+     * E.g. of string returned: "Alarm now at 2:35 PM"
+     *
+     * @param context  The context to use. Usually your Application or Activity object
+     * @param alarmAlertPayload the alarm that has gone off
+     * */
+    private static String getAlarmClockNotificationContentTitle(Context context,
+                                    AlarmAlertPayload alarmAlertPayload){
+
+        return context.getString(R.string.notification_alarm_clock_content_title,
+                                    alarmAlertPayload.getLabel());
+    }
+
+
+    /**
+     * Create the alarm notification channel ahead of time (e.g. during the pre-fire warm-up),
+     * so that posting the alarm clock notification does not have to create it
+     *
+     * @param context  The context to use. Usually your Application or Activity object
+     * */
+    public static void createAlarmClockNotificationChannelIfNotCreated(Context context){
+
+        createAlarmClockNotificationChannelIfNotCreated(getNotificationManager(context));
     }
 
 
@@ -153,9 +532,16 @@ public class AlarmClockNotificationHelper {
      * Create an alarm notification channel. Part of requirements of sending notifications since
      * Android 8 (all notifications must be assigned to a channel)
      *
+     * Does nothing if the channel has already been created in this process
+     *
      * @param notificationManager notification manager of the system
      * */
-    private static void createAlarmClockNotificationChannel(NotificationManager notificationManager){
+    private static void createAlarmClockNotificationChannelIfNotCreated(
+                                                NotificationManager notificationManager){
+
+        if (isAlarmClockNotificationChannelCreated){
+            return;
+        }
 
         NotificationChannel alarmNotificationChannel = new NotificationChannel(
                 ALARM_NOTIFICATION_CHANNEL_ID, AlARM_NOTIFICATION_CHANNEL_NAME,
@@ -163,6 +549,7 @@ public class AlarmClockNotificationHelper {
 
         notificationManager.createNotificationChannel(alarmNotificationChannel);
 
+        isAlarmClockNotificationChannelCreated = true;
     }
 
 
@@ -170,20 +557,32 @@ public class AlarmClockNotificationHelper {
      * Create a PendingIntent to launch the AlarmAlertActivity
      *
      * @param context  The context to use. Usually your Application or Activity object
+     * @param alarmAlertPayload the alarm that has gone off, to be displayed by the activity
+     * @param requestCode request code of the PendingIntent, which tells it apart from the
+     *                    PendingIntents of the other alarm clock notifications
      * */
-    private static PendingIntent createAlarmAlertActivityPendingIntent(Context context){
-
-        Intent alarmAlertActivityIntent = AlarmClockAlertActivity.createIntent(context);
+    private static PendingIntent createAlarmAlertActivityPendingIntent(Context context,
+                                                    AlarmAlertPayload alarmAlertPayload,
+                                                    int requestCode){
 
-        final int REQUEST_CODE = 0;
+        Intent alarmAlertActivityIntent =
+                AlarmClockAlertActivity.createIntent(context, alarmAlertPayload);
 
-        return PendingIntent.getActivity(context, REQUEST_CODE, alarmAlertActivityIntent,
+        return PendingIntent.getActivity(context, requestCode, alarmAlertActivityIntent,
                 PendingIntent.FLAG_CANCEL_CURRENT | PendingIntent.FLAG_IMMUTABLE);
     }
 
 
     /**
-     * Delete all alarm clock app notifications
+     * Delete all alarm clock app notifications, including those still held back in the
+     * batching window, whose callbacks are run straight away
+     *
+     * Only the alarm clock notifications are deleted, rather than every notification of the
+     * app. Deleting the summary notification deletes the whole group with it, so the alarm
+     * clock notifications of the alarms are only deleted one by one if they are not grouped.
+     * They are deleted even if they were posted by an earlier process of the app
+     *
+     * Must be called on the main thread
      *
      * @param context  The context to use. Usually your Application or Activity object
      * */
@@ -191,9 +590,155 @@ public class AlarmClockNotificationHelper {
 
         NotificationManager notificationManager = getNotificationManager(context);
 
-        notificationManager.cancelAll();
+        if (notifiedAlarmAlertPayloads.isEmpty()){
+            deleteAlarmNotificationsOfEarlierProcess(notificationManager);
+        }
+        else if (isSummaryNotificationPosted){
+            notificationManager.cancel(ALARM_CLOCK_NOTIFICATION_ID);
+        }
+        else{
+            for (int notifiedAlarmId : notifiedAlarmAlertPayloads.keySet()){
+                notificationManager.cancel(ALARM_CLOCK_NOTIFICATION_TAG, notifiedAlarmId);
+            }
+        }
+
+        for (int i = 0; i < notifiedAlarmAlertPayloads.size(); i++){
+            AlarmClockResourceTrackingHelper.onResourceReleased(ResourceType.NOTIFICATION);
+        }
+
+        notifiedAlarmAlertPayloads.clear();
+
+        if (isSummaryNotificationPosted){
+            isSummaryNotificationPosted = false;
+
+            AlarmClockResourceTrackingHelper.onResourceReleased(ResourceType.NOTIFICATION);
+        }
+
+        mainThreadHandler.removeCallbacksAndMessages(null);
+        isBatchScheduled = false;
+
+        pendingAlarmAlertPayloads.clear();
+
+        runPendingPostCallbacks();
+    }
+
+
+    /**
+     * Delete the alarm clock notifications that an earlier process of the app posted (e.g.
+     * before it was killed while the alarms were ringing), which this process does not know
+     * the alarm ids of. Also deletes the single alarm clock notification of older versions of
+     * the app, which had the id of the summary notification
+     *
+     * @param notificationManager the notification manager of the system
+     * */
+    private static void deleteAlarmNotificationsOfEarlierProcess(
+                                                NotificationManager notificationManager){
+
+        notificationManager.cancel(ALARM_CLOCK_NOTIFICATION_ID);
+
+        for (StatusBarNotification statusBarNotification :
+                                            notificationManager.getActiveNotifications()){
+
+            if (ALARM_CLOCK_NOTIFICATION_TAG.equals(statusBarNotification.getTag())){
+                notificationManager.cancel(ALARM_CLOCK_NOTIFICATION_TAG,
+                                            statusBarNotification.getId());
+            }
+        }
+    }
+
+
+    /**
+     * Delete the alarm clock notifications of the alarms that have been deleted or disabled
+     * (e.g. from another process, through AlarmClockContentProvider), since the notifications
+     * would otherwise keep showing alarms that no longer ring. The summary notification is
+     * updated to list the alarms still notified of, without alerting the user again, or
+     * deleted once there are none. Does nothing if no notified alarm has been turned off, so
+     * it is cheap to call with every change of the alarm state
+     *
+     * Must be called on the main thread, e.g. from an AlarmClockActor.Observer
+     *
+     * @param context  The context to use. Usually your Application or Activity object
+     * @param stateEvents the changes to the alarm state
+     * */
+    public static void deleteAlarmNotificationsOfAlarmsTurnedOff(Context context,
+                                                    List<AlarmClockStateEvent> stateEvents){
+
+        if (notifiedAlarmAlertPayloads.isEmpty() && pendingAlarmAlertPayloads.isEmpty()){
+            return;
+        }
+
+        NotificationManager notificationManager = null;
+
+        for (AlarmClockStateEvent stateEvent : stateEvents){
+
+            if (stateEvent.getType() != AlarmClockStateEvent.Type.REMOVED &&
+                    stateEvent.getAlarm().isEnabled()){
+                continue;
+            }
+
+            pendingAlarmAlertPayloads.remove(stateEvent.getAlarmId());
+
+            if (notifiedAlarmAlertPayloads.remove(stateEvent.getAlarmId()) == null){
+                continue;
+            }
+
+            if (notificationManager == null){
+                notificationManager = getNotificationManager(context);
+            }
+
+            notificationManager.cancel(ALARM_CLOCK_NOTIFICATION_TAG, stateEvent.getAlarmId());
+
+            AlarmClockResourceTrackingHelper.onResourceReleased(ResourceType.NOTIFICATION);
+        }
+
+        if (notificationManager == null || !isSummaryNotificationPosted){
+            return;
+        }
+
+        if (notifiedAlarmAlertPayloads.isEmpty()){
+            notificationManager.cancel(ALARM_CLOCK_NOTIFICATION_ID);
+
+            isSummaryNotificationPosted = false;
+
+            AlarmClockResourceTrackingHelper.onResourceReleased(ResourceType.NOTIFICATION);
+        }
+        else{
+            postSummaryNotification(context, notificationManager, false);
+        }
     }
 
+
+    /**
+     * Returns whether a notification of this app is one of the alarm clock notifications
+     * (including the summary notification), rather than e.g. the missed alarms notification
+     *
+     * @param statusBarNotification an active notification of this app
+     * */
+    static boolean isAlarmClockNotification(StatusBarNotification statusBarNotification){
+
+        if (statusBarNotification.getTag() == null){
+            return statusBarNotification.getId() == ALARM_CLOCK_NOTIFICATION_ID;
+        }
+
+        return ALARM_CLOCK_NOTIFICATION_TAG.equals(statusBarNotification.getTag());
+    }
+
+
+    /**
+     * Run, and forget, the callbacks of the alarm clock notifications that were held back
+     * */
+    private static void runPendingPostCallbacks(){
+
+        List<Runnable> postCallbacks = new ArrayList<>(pendingPostCallbacks);
+
+        pendingPostCallbacks.clear();
+
+        for (Runnable postCallback : postCallbacks){
+            postCallback.run();
+        }
+    }
+
+
     /**
      * Returns an instance of the system notification manager
      *
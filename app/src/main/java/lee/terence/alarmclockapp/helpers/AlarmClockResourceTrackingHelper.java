@@ -0,0 +1,325 @@
+package lee.terence.alarmclockapp.helpers;
+
+import android.app.Activity;
+import android.app.NotificationManager;
+import android.content.Context;
+import android.service.notification.StatusBarNotification;
+import android.util.Log;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import lee.terence.alarmclockapp.BuildConfig;
+
+
+/**
+ * A Singleton helper class that keeps live gauges of the resources that the app allocates and
+ * has to release (media players, posted notifications, cached alarm pending intents and
+ * activities), together with the highest number of each resource ever live at once
+ * (the high-water mark)
+ *
+ * Activities are also tracked after they are destroyed, through weak references, so that
+ * destroyed activities which are still retained in memory (leaked) can be counted
+ *
+ * In debug builds, the gauges are checked for imbalances after each alarm completes (e.g. a
+ * media player that is still allocated after the alarm sound has been stopped), and any
+ * imbalance is reported in the log
+ *
+ * <b>Example Usage:</b>
+ * <pre>
+ *     mediaPlayer = MediaPlayer.create(context, R.raw.alarm_sound);
+ *     AlarmClockResourceTrackingHelper.onResourceAllocated(
+ *                      AlarmClockResourceTrackingHelper.ResourceType.MEDIA_PLAYER);
+ *     ....
+ *     mediaPlayer.release();
+ *     AlarmClockResourceTrackingHelper.onResourceReleased(
+ *                      AlarmClockResourceTrackingHelper.ResourceType.MEDIA_PLAYER);
+ *
+ *     //after the alarm has completed
+ *     AlarmClockResourceTrackingHelper.reportImbalancesIfDebug(getApplicationContext(),
+ *                                                              numberOfArmedAlarms);
+ * </pre>
+ *
+ * @author Terence Lee
+ * */
+public class AlarmClockResourceTrackingHelper {
+
+    /**
+     * The types of resources that are tracked
+     * */
+    public enum ResourceType {
+
+        /**
+         * Media players that have been created and not yet released
+         * */
+        MEDIA_PLAYER,
+
+        /**
+         * Alarm notifications that have been posted and not yet deleted
+         * */
+        NOTIFICATION,
+
+        /**
+         * Pending intents of alarms and pre-fire warm-up alarms that are cached
+         * */
+        PENDING_INTENT,
+
+        /**
+         * Activities that have been created and not yet destroyed
+         * */
+        ACTIVITY
+    }
+
+
+    /**
+     * Maximum number of cached pending intents per armed alarm: the alarm's own pending intent
+     * and the pending intent of its pre-fire warm-up alarm
+     * */
+    private static final int MAXIMUM_PENDING_INTENTS_PER_ARMED_ALARM = 2;
+
+    private static final String LOG_TAG = "AlarmClockResources";
+
+
+    /**
+     * Number of live resources of each type, indexed by the ordinal of the resource type
+     * */
+    private static final AtomicIntegerArray liveCounts =
+                                    new AtomicIntegerArray(ResourceType.values().length);
+
+    /**
+     * Highest number of live resources of each type so far, indexed by the ordinal of the
+     * resource type
+     * */
+    private static final AtomicIntegerArray highWaterMarks =
+                                    new AtomicIntegerArray(ResourceType.values().length);
+
+    /**
+     * Weak references to the activities that have been destroyed, so that those which are
+     * still retained in memory can be counted. Only accessed on the main thread
+     * */
+    private static final List<WeakReference<Activity>> destroyedActivities = new ArrayList<>();
+
+
+    /**
+     * All methods in this class are static, so there is no need for a constructor for this class
+     * */
+    private AlarmClockResourceTrackingHelper(){
+
+    }
+
+
+    /**
+     * Record that a resource has been allocated
+     *
+     * @param resourceType type of the resource
+     * */
+    public static void onResourceAllocated(ResourceType resourceType){
+
+        int liveCount = liveCounts.incrementAndGet(resourceType.ordinal());
+
+        updateHighWaterMark(resourceType, liveCount);
+    }
+
+
+    /**
+     * Record that a resource has been released
+     *
+     * @param resourceType type of the resource
+     * */
+    public static void onResourceReleased(ResourceType resourceType){
+        liveCounts.decrementAndGet(resourceType.ordinal());
+    }
+
+
+    /**
+     * Set the number of live resources of a type, for resources that are kept in a collection
+     * whose size is known (e.g. a cache), rather than allocated and released one at a time
+     *
+     * @param resourceType type of the resource
+     * @param liveCount the number of live resources of the type
+     * */
+    public static void setLiveCount(ResourceType resourceType, int liveCount){
+
+        liveCounts.set(resourceType.ordinal(), liveCount);
+
+        updateHighWaterMark(resourceType, liveCount);
+    }
+
+
+    /**
+     * Returns the number of live resources of a type
+     *
+     * @param resourceType type of the resource
+     * */
+    public static int getLiveCount(ResourceType resourceType){
+        return liveCounts.get(resourceType.ordinal());
+    }
+
+
+    /**
+     * Returns the highest number of live resources of a type so far
+     *
+     * @param resourceType type of the resource
+     * */
+    public static int getHighWaterMark(ResourceType resourceType){
+        return highWaterMarks.get(resourceType.ordinal());
+    }
+
+
+    /**
+     * Record that an activity has been created. Called in the activity's onCreate
+     *
+     * @param activity the activity
+     * */
+    public static void onActivityCreated(Activity activity){
+        onResourceAllocated(ResourceType.ACTIVITY);
+    }
+
+
+    /**
+     * Record that an activity has been destroyed. Called in the activity's onDestroy
+     *
+     * The activity is then tracked with a weak reference, until it is garbage collected
+     *
+     * @param activity the activity
+     * */
+    public static void onActivityDestroyed(Activity activity){
+
+        onResourceReleased(ResourceType.ACTIVITY);
+
+        destroyedActivities.add(new WeakReference<>(activity));
+    }
+
+
+    /**
+     * Returns the number of destroyed activities that are still retained in memory, i.e. that
+     * have not been garbage collected. Must be called on the main thread
+     *
+     * Only meaningful right after a garbage collection, so called by reportImbalancesIfDebug
+     * */
+    public static int getNumberOfRetainedActivities(){
+
+        Iterator<WeakReference<Activity>> iterator = destroyedActivities.iterator();
+
+        while (iterator.hasNext()){
+
+            if (iterator.next().get() == null){
+                iterator.remove();
+            }
+        }
+
+        return destroyedActivities.size();
+    }
+
+
+    /**
+     * In debug builds, check the gauges for imbalances and report them in the log. Called on
+     * the main thread after an alarm has completed (the alarm sound has been stopped and the
+     * alarm notifications deleted). Does nothing in release builds
+     *
+     * The following are reported as imbalances:
+     *      (a) any media player still allocated
+     *      (b) any tracked notification still posted, or any notification of the app posted
+     *          but not tracked
+     *      (c) more cached pending intents than the armed alarms and their warm-up alarms
+     *      (d) any destroyed activity still retained in memory after a garbage collection
+     *
+     * @param context the context to use. May not be null
+     * @param numberOfArmedAlarms number of alarms currently set with the AlarmManager
+     * */
+    public static void reportImbalancesIfDebug(Context context, int numberOfArmedAlarms){
+
+        if (!BuildConfig.DEBUG){
+            return;
+        }
+
+        int numberOfMediaPlayers = getLiveCount(ResourceType.MEDIA_PLAYER);
+
+        if (numberOfMediaPlayers != 0){
+            reportImbalance(ResourceType.MEDIA_PLAYER, numberOfMediaPlayers, 0);
+        }
+
+        NotificationManager notificationManager =
+                (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+
+        int numberOfTrackedNotifications = getLiveCount(ResourceType.NOTIFICATION);
+        int numberOfActiveNotifications = 0;
+
+        //other notifications (e.g. of missed alarms) are meant to outlive the alarm
+        for (StatusBarNotification statusBarNotification :
+                                            notificationManager.getActiveNotifications()){
+
+            if (AlarmClockNotificationHelper.isAlarmClockNotification(statusBarNotification)){
+                numberOfActiveNotifications++;
+            }
+        }
+
+        if (numberOfTrackedNotifications != 0 || numberOfActiveNotifications != 0){
+            reportImbalance(ResourceType.NOTIFICATION,
+                    Math.max(numberOfTrackedNotifications, numberOfActiveNotifications), 0);
+        }
+
+        int numberOfPendingIntents = getLiveCount(ResourceType.PENDING_INTENT);
+        int maximumNumberOfPendingIntents =
+                        numberOfArmedAlarms * MAXIMUM_PENDING_INTENTS_PER_ARMED_ALARM;
+
+        if (numberOfPendingIntents > maximumNumberOfPendingIntents){
+            reportImbalance(ResourceType.PENDING_INTENT, numberOfPendingIntents,
+                            maximumNumberOfPendingIntents);
+        }
+
+        //let the destroyed activities that are no longer referenced be collected, so that
+        //only those still retained (leaked) are counted
+        Runtime.getRuntime().gc();
+
+        int numberOfRetainedActivities = getNumberOfRetainedActivities();
+
+        if (numberOfRetainedActivities != 0){
+            Log.w(LOG_TAG, numberOfRetainedActivities + " destroyed activities are still " +
+                    "retained in memory");
+        }
+
+        for (ResourceType resourceType : ResourceType.values()){
+            Log.d(LOG_TAG, resourceType + ": " + getLiveCount(resourceType) + " live, " +
+                    getHighWaterMark(resourceType) + " at most");
+        }
+    }
+
+
+    /**
+     * Log an imbalance of a resource type
+     *
+     * @param resourceType type of the resource
+     * @param liveCount the number of live resources of the type
+     * @param expectedMaximumLiveCount the number of live resources of the type expected at most
+     * */
+    private static void reportImbalance(ResourceType resourceType, int liveCount,
+                                        int expectedMaximumLiveCount){
+
+        Log.w(LOG_TAG, "Imbalance after alarm completed: " + liveCount + " " + resourceType +
+                " live, expected at most " + expectedMaximumLiveCount);
+    }
+
+
+    /**
+     * Raise the high-water mark of a resource type to the given live count, if it is higher
+     *
+     * @param resourceType type of the resource
+     * @param liveCount the number of live resources of the type
+     * */
+    private static void updateHighWaterMark(ResourceType resourceType, int liveCount){
+
+        int index = resourceType.ordinal();
+
+        int highWaterMark = highWaterMarks.get(index);
+
+        while (liveCount > highWaterMark &&
+                !highWaterMarks.compareAndSet(index, highWaterMark, liveCount)){
+
+            highWaterMark = highWaterMarks.get(index);
+        }
+    }
+}
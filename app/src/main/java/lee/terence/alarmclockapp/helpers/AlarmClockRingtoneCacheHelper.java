@@ -0,0 +1,410 @@
+package lee.terence.alarmclockapp.helpers;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.SystemClock;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+import lee.terence.alarmclockapp.models.RingtoneCacheEvictionPolicy;
+
+
+/**
+ * A Singleton helper class that keeps local copies of the ringtones picked for the alarms, in
+ * a disk cache bounded by a byte budget, so that firing an alarm never reads its ringtone from
+ * a content provider, which may be slow to respond, or may have revoked the app's access
+ *
+ * A ringtone is copied into the cache in the background whenever an alarm that rings with it
+ * is saved, replacing any older copy. If it cannot be read then, the older copy is kept. When
+ * the cache is over its budget, cached ringtones are evicted in the order of
+ * RINGTONE_CACHE_EVICTION_POLICY, except that the ringtones of existing alarms are evicted last.
+ * An alarm whose ringtone is not cached rings with the alarm sound bundled with the app
+ *
+ * The ringtones are copied as they are (rather than decoded), since the media player plays
+ * the copy just as it would the original. The cache is kept in the app's no-backup files
+ * directory rather than in its cache directory, which the system may clear at any time when
+ * storage runs low
+ *
+ * Ringtones are cached and evicted on a single background thread, so that the cache is never
+ * changed by two threads at once. Looking up a cached ringtone only checks that its file
+ * exists, so it may be called on any thread, including the alarm path
+ *
+ * <b>Example Usage:</b>
+ * <pre>
+ *     //once an alarm has been saved
+ *     AlarmClockRingtoneCacheHelper.refillRingtoneCacheInBackground(getApplicationContext(),
+ *                                  alarm.getRingtoneUri(), ringtoneUrisOfAllAlarms);
+ *
+ *     //when the alarm goes off
+ *     File cachedRingtoneFile = AlarmClockRingtoneCacheHelper.getCachedRingtoneFile(
+ *                                  getApplicationContext(), alarm.getRingtoneUri());
+ *
+ *     if (cachedRingtoneFile == null){
+ *         //ring with the alarm sound bundled with the app
+ *     }
+ * </pre>
+ *
+ * @author Terence Lee
+ * */
+public class AlarmClockRingtoneCacheHelper {
+
+    /**
+     * Name of the ringtone cache directory, in the app's no-backup files directory
+     * */
+    private static final String RINGTONE_CACHE_DIRECTORY_NAME = "ringtone_cache";
+
+    /**
+     * Suffix of the file a ringtone is copied into, before it replaces the cached copy
+     * */
+    private static final String TEMPORARY_FILE_SUFFIX = ".tmp";
+
+    private static final int COPY_BUFFER_SIZE = 16 * 1024;
+
+    /**
+     * Number of bytes the cached ringtones may take up on disk in total. A ringtone larger
+     * than this is not cached at all
+     * */
+    private static final long RINGTONE_CACHE_BUDGET_IN_BYTES = 32 * 1024 * 1024;
+
+    /**
+     * Which cached ringtones to evict first when the cache is over its budget. The ringtone
+     * of an alarm that has not rung for a long time is the cheapest to lose
+     * */
+    private static final RingtoneCacheEvictionPolicy RINGTONE_CACHE_EVICTION_POLICY =
+                                                RingtoneCacheEvictionPolicy.LEAST_RECENTLY_USED;
+
+    /**
+     * Caches and evicts the ringtones, one at a time
+     * */
+    private static final Executor RINGTONE_CACHE_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    private static final Comparator<CachedRingtone> LEAST_RECENTLY_USED_COMPARATOR =
+            (cachedRingtone, otherCachedRingtone) ->
+                    Long.compare(cachedRingtone.lastUsedTime, otherCachedRingtone.lastUsedTime);
+
+    private static final Comparator<CachedRingtone> LARGEST_FIRST_COMPARATOR =
+            (cachedRingtone, otherCachedRingtone) ->
+                    Long.compare(otherCachedRingtone.sizeInBytes, cachedRingtone.sizeInBytes);
+
+
+    /**
+     * All methods in this class are static, so there is no need for a constructor for this class
+     * */
+    private AlarmClockRingtoneCacheHelper(){
+
+    }
+
+
+    /**
+     * Returns the cached copy of a ringtone, or null if it is not cached (or is the alarm sound
+     * bundled with the app). Marks the ringtone as used, for the LEAST_RECENTLY_USED eviction
+     * policy
+     *
+     * Never reads the ringtone's content provider, so may be called on the alarm path
+     *
+     * @param context The context to use
+     * @param ringtoneUri the ringtone's content uri, or Alarm.DEFAULT_RINGTONE_URI
+     * */
+    public static File getCachedRingtoneFile(Context context, String ringtoneUri){
+
+        if (ringtoneUri == null){
+            return null;
+        }
+
+        File cachedRingtoneFile = new File(getRingtoneCacheDirectory(context),
+                                            getCachedRingtoneFileName(ringtoneUri));
+
+        if (!cachedRingtoneFile.isFile()){
+            return null;
+        }
+
+        long lastUsedTime = System.currentTimeMillis();
+
+        RINGTONE_CACHE_EXECUTOR.execute(() -> cachedRingtoneFile.setLastModified(lastUsedTime));
+
+        return cachedRingtoneFile;
+    }
+
+
+    /**
+     * Copy a ringtone into the cache on a background thread, replacing any older copy, then
+     * evict cached ringtones until the cache is within its budget. Returns immediately
+     *
+     * If the ringtone cannot be read (e.g. access to it has been revoked) or is larger than
+     * the whole budget, any older copy is kept as it is. Does nothing for the alarm sound
+     * bundled with the app
+     *
+     * @param context The context to use
+     * @param ringtoneUri the content uri of the ringtone of the alarm that has been saved, or
+     *                    Alarm.DEFAULT_RINGTONE_URI
+     * @param ringtoneUrisInUse the ringtone uris of all the existing alarms, whose cached
+     *                          ringtones are evicted last
+     * */
+    public static void refillRingtoneCacheInBackground(Context context, String ringtoneUri,
+                                                       Set<String> ringtoneUrisInUse){
+
+        if (ringtoneUri == null){
+            return;
+        }
+
+        Context applicationContext = context.getApplicationContext();
+
+        RINGTONE_CACHE_EXECUTOR.execute(() ->
+                refillRingtoneCache(applicationContext, ringtoneUri, ringtoneUrisInUse));
+    }
+
+
+    /**
+     * Copy a ringtone into the cache, then evict cached ringtones until the cache is within
+     * its budget. Called on the ringtone cache thread
+     *
+     * @param context The context to use
+     * @param ringtoneUri the content uri of the ringtone to copy
+     * @param ringtoneUrisInUse the ringtone uris of all the existing alarms
+     * */
+    private static void refillRingtoneCache(Context context, String ringtoneUri,
+                                            Set<String> ringtoneUrisInUse){
+
+        long fillStartTime = SystemClock.elapsedRealtime();
+
+        File ringtoneCacheDirectory = getRingtoneCacheDirectory(context);
+
+        if (!ringtoneCacheDirectory.isDirectory() && !ringtoneCacheDirectory.mkdirs()){
+            return;
+        }
+
+        String cachedRingtoneFileName = getCachedRingtoneFileName(ringtoneUri);
+
+        File cachedRingtoneFile = new File(ringtoneCacheDirectory, cachedRingtoneFileName);
+        File temporaryFile = new File(ringtoneCacheDirectory,
+                                        cachedRingtoneFileName + TEMPORARY_FILE_SUFFIX);
+
+        //the older copy is only replaced once the new one has been copied in full
+        if (copyRingtone(context, Uri.parse(ringtoneUri), temporaryFile,
+                            RINGTONE_CACHE_BUDGET_IN_BYTES) &&
+                temporaryFile.renameTo(cachedRingtoneFile)){
+
+            AlarmClockTimingsHelper.recordTiming(context,
+                    AlarmClockTimingsHelper.RINGTONE_CACHE_FILL,
+                    SystemClock.elapsedRealtime() - fillStartTime);
+        }
+        else{
+            temporaryFile.delete();
+
+            AlarmClockEventLogHelper.recordEvent("Unable to cache ringtone " + ringtoneUri +
+                    (cachedRingtoneFile.isFile() ? ", keeping the older copy" : ""));
+        }
+
+        cachedRingtoneFile.setLastModified(System.currentTimeMillis());
+
+        Set<String> cachedRingtoneFileNamesInUse = new HashSet<>();
+
+        for (String ringtoneUriInUse : ringtoneUrisInUse){
+            cachedRingtoneFileNamesInUse.add(getCachedRingtoneFileName(ringtoneUriInUse));
+        }
+
+        evictRingtonesOverBudget(context, ringtoneCacheDirectory, RINGTONE_CACHE_BUDGET_IN_BYTES,
+                                    cachedRingtoneFileName, cachedRingtoneFileNamesInUse);
+    }
+
+
+    /**
+     * Copy a ringtone from its content provider into a file
+     *
+     * @param context The context to use
+     * @param ringtoneUri the content uri of the ringtone
+     * @param file the file to copy the ringtone into. Overwritten
+     * @param maximumSizeInBytes the size beyond which the copy is abandoned
+     *
+     * @return true if the ringtone has been copied in full, and false if it could not be read
+     * or is larger than maximumSizeInBytes
+     * */
+    private static boolean copyRingtone(Context context, Uri ringtoneUri, File file,
+                                        long maximumSizeInBytes){
+
+        try (InputStream inputStream = context.getContentResolver().openInputStream(ringtoneUri);
+             FileOutputStream fileOutputStream = new FileOutputStream(file)){
+
+            if (inputStream == null){
+                return false;
+            }
+
+            byte[] buffer = new byte[COPY_BUFFER_SIZE];
+
+            long sizeInBytes = 0;
+
+            int bytesRead;
+
+            while ((bytesRead = inputStream.read(buffer)) >= 0){
+
+                sizeInBytes += bytesRead;
+
+                if (sizeInBytes > maximumSizeInBytes){
+                    return false;
+                }
+
+                fileOutputStream.write(buffer, 0, bytesRead);
+            }
+
+            //on disk before it replaces the older copy, so that a crash leaves one or the other
+            fileOutputStream.getFD().sync();
+
+            return true;
+        }
+        catch (IOException | SecurityException | IllegalArgumentException exception){
+            return false;
+        }
+    }
+
+
+    /**
+     * Evict cached ringtones, in the order of RINGTONE_CACHE_EVICTION_POLICY, until the cache
+     * is within its budget. The ringtones of existing alarms are evicted after every other
+     * ringtone, and the ringtone just cached is never evicted. Leftover temporary files (e.g.
+     * of a copy interrupted by the process being killed) are deleted
+     *
+     * @param context The context to use
+     * @param ringtoneCacheDirectory the ringtone cache directory
+     * @param ringtoneCacheBudgetInBytes number of bytes the cached ringtones may take up
+     * @param protectedFileName file name of the ringtone just cached
+     * @param fileNamesInUse file names of the ringtones of the existing alarms
+     * */
+    private static void evictRingtonesOverBudget(Context context, File ringtoneCacheDirectory,
+                                                 long ringtoneCacheBudgetInBytes,
+                                                 String protectedFileName,
+                                                 Set<String> fileNamesInUse){
+
+        File[] files = ringtoneCacheDirectory.listFiles();
+
+        if (files == null){
+            return;
+        }
+
+        List<CachedRingtone> cachedRingtones = new ArrayList<>(files.length);
+
+        long totalSizeInBytes = 0;
+
+        for (File file : files){
+
+            if (file.getName().endsWith(TEMPORARY_FILE_SUFFIX)){
+                file.delete();
+                continue;
+            }
+
+            CachedRingtone cachedRingtone = new CachedRingtone(file,
+                                                fileNamesInUse.contains(file.getName()));
+
+            cachedRingtones.add(cachedRingtone);
+
+            totalSizeInBytes += cachedRingtone.sizeInBytes;
+        }
+
+        if (totalSizeInBytes <= ringtoneCacheBudgetInBytes){
+            return;
+        }
+
+        Comparator<CachedRingtone> evictionPolicyComparator =
+                RINGTONE_CACHE_EVICTION_POLICY == RingtoneCacheEvictionPolicy.LARGEST_FIRST ?
+                        LARGEST_FIRST_COMPARATOR : LEAST_RECENTLY_USED_COMPARATOR;
+
+        cachedRingtones.sort((cachedRingtone, otherCachedRingtone) -> {
+
+            if (cachedRingtone.isInUse != otherCachedRingtone.isInUse){
+                return cachedRingtone.isInUse ? 1 : -1;
+            }
+
+            return evictionPolicyComparator.compare(cachedRingtone, otherCachedRingtone);
+        });
+
+        for (CachedRingtone cachedRingtone : cachedRingtones){
+
+            if (totalSizeInBytes <= ringtoneCacheBudgetInBytes){
+                break;
+            }
+
+            if (cachedRingtone.file.getName().equals(protectedFileName) ||
+                    !cachedRingtone.file.delete()){
+                continue;
+            }
+
+            totalSizeInBytes -= cachedRingtone.sizeInBytes;
+
+            AlarmClockEventLogHelper.recordEvent("Evicted cached ringtone " +
+                    cachedRingtone.file.getName() + (cachedRingtone.isInUse ? " (in use)" : ""));
+        }
+    }
+
+
+    /**
+     * Returns the ringtone cache directory. It may not exist yet
+     *
+     * @param context The context to use
+     * */
+    private static File getRingtoneCacheDirectory(Context context){
+        return new File(context.getNoBackupFilesDir(), RINGTONE_CACHE_DIRECTORY_NAME);
+    }
+
+
+    /**
+     * Returns the name of the file a ringtone is cached in: the SHA-256 hash of its uri, in
+     * hexadecimal, so that two ringtones never share a file
+     *
+     * @param ringtoneUri the ringtone's content uri
+     * */
+    private static String getCachedRingtoneFileName(String ringtoneUri){
+
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256")
+                            .digest(ringtoneUri.getBytes(StandardCharsets.UTF_8));
+
+            StringBuilder fileNameBuilder = new StringBuilder(hash.length * 2);
+
+            for (byte hashByte : hash){
+                fileNameBuilder.append(String.format("%02x", hashByte));
+            }
+
+            return fileNameBuilder.toString();
+        }
+        catch (NoSuchAlgorithmException noSuchAlgorithmException){
+            throw new IllegalStateException("SHA-256 is not available",
+                                                noSuchAlgorithmException);
+        }
+    }
+
+
+    /**
+     * A cached ringtone's file, with its size, the time it was last used (played or cached)
+     * and whether an existing alarm rings with it
+     * */
+    private static class CachedRingtone {
+
+        private final File file;
+
+        private final long sizeInBytes;
+
+        private final long lastUsedTime;
+
+        private final boolean isInUse;
+
+
+        CachedRingtone(File file, boolean isInUse){
+            this.file = file;
+            this.sizeInBytes = file.length();
+            this.lastUsedTime = file.lastModified();
+            this.isInUse = isInUse;
+        }
+    }
+}
@@ -3,29 +3,60 @@ package lee.terence.alarmclockapp.helpers;
 import android.content.Context;
 import android.content.SharedPreferences;
 
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import lee.terence.alarmclockapp.models.Alarm;
+import lee.terence.alarmclockapp.models.AlarmGroup;
+import lee.terence.alarmclockapp.models.AlarmOccurrence;
+import lee.terence.alarmclockapp.models.CrescendoCurve;
+import lee.terence.alarmclockapp.models.ExclusionCalendar;
+import lee.terence.alarmclockapp.models.VibrationPattern;
+
 
 /**
  * A Singleton helper class that allows user to access the app's shared preference
- * storage, for storage of alarm time
+ * storage, for storage of alarms, of the compiled exclusion calendars they refer to, and of
+ * the alarm groups they belong to
  *
- * Allows for storage of only single alarm time
+ * Each alarm is stored under its own key, so that changing one alarm does not require
+ * rewriting the others. All the changes of a batch are written with a single commit
  *
- * <pre>
- *     //to store the alarm time
- *     long alarmTimeInMillisecondsSinceEpoch = 1234567891011;
- *     AlarmClockSharedPreferencesHelper.setNextAlarmTime(getApplicationContext(),
- *                                                      alarmTimeInMillisecondsSinceEpoch);
+ * Every commit of changes also increments a store version counter, and may store a checkpoint
+ * of the next upcoming alarm occurrences, tagged with the store version it was computed for.
+ * The checkpoint is only valid while the two versions match, which is checked by comparing
+ * two numbers, before the checkpoint itself is parsed
  *
- *     //to get the stored alarm time
+ * Within the app, this class is only called from the thread of the AlarmClockActor,
+ * which owns the alarm state
  *
- *     if (AlarmClockSharedPreferencesHelper.hasNextAlarmTime(getApplicationContext()){
- *         long storedAlarmTimeInMillisecondsSinceEpoch =
- *                  AlarmClockSharedPreferencesHelper.getNextAlarmTime(getApplicationContext());
- *     }
+ * <pre>
+ *     //to load all the stored alarms
+ *     List&lt;Alarm&gt; alarms = AlarmClockSharedPreferencesHelper.getAllAlarms(
+ *                                                          getApplicationContext());
+ *
+ *     //to store a new/changed alarm, and delete the alarm of id 3, in a single commit
+ *     AlarmClockSharedPreferencesHelper.storeAlarmChanges(getApplicationContext(),
+ *                      Collections.singletonList(alarm), Collections.singletonList(3));
  *
+ *     //to store changes of different kinds in a single commit
+ *     AlarmClockSharedPreferencesHelper.editAlarmChanges(getApplicationContext())
+ *                      .putAlarm(alarm)
+ *                      .putAlarmGroup(alarmGroup)
+ *                      .setEnabledAlarmGroups(enabledAlarmGroups)
+ *                      .setUpcomingOccurrences(upcomingOccurrences)
+ *                      .apply();
  *
- *     //to delete an existing stored alarm time
- *     AlarmClockSharedPreferencesHelper.deleteNextAlarmTimeIfAny(getApplicationContext());
+ *     //to read the checkpoint of the next upcoming alarm occurrences, if it is still valid
+ *     List&lt;AlarmOccurrence&gt; upcomingOccurrences = AlarmClockSharedPreferencesHelper
+ *                      .getUpcomingOccurrences(getApplicationContext());
  * </pre>
  *
  * @author Terence Lee
@@ -33,8 +64,68 @@ import android.content.SharedPreferences;
 public class AlarmClockSharedPreferencesHelper {
 
 
+    /**
+     * Key of the single alarm time stored by older versions of the app. Only read to
+     * migrate it to a stored alarm
+     * */
     private static final String NEXT_ALARM_CLOCK_TIME_KEY = "NEXT_ALARM_CLOCK_TIME";
 
+    /**
+     * Prefix of the keys of the stored alarms, followed by the alarm id
+     * */
+    private static final String ALARM_KEY_PREFIX = "ALARM_";
+
+    /**
+     * Prefix of the keys of the stored exclusion calendars, followed by the calendar name
+     * */
+    private static final String EXCLUSION_CALENDAR_KEY_PREFIX = "EXCLUSION_CALENDAR_";
+
+    /**
+     * Key of the ids of the alarms that are set with the AlarmManager
+     * */
+    private static final String ARMED_ALARM_IDS_KEY = "ARMED_ALARM_IDS";
+
+    /**
+     * Prefix of the keys of the stored alarm group names, followed by the alarm group id
+     * */
+    private static final String ALARM_GROUP_KEY_PREFIX = "ALARM_GROUP_";
+
+    /**
+     * Key of the bitmask of the enabled alarm groups
+     * */
+    private static final String ENABLED_ALARM_GROUPS_KEY = "ENABLED_ALARM_GROUPS";
+
+    /**
+     * Key of the time up to which every alarm occurrence has been handled, by going off or by
+     * being caught up on as missed
+     * */
+    private static final String CAUGHT_UP_TIME_KEY = "CAUGHT_UP_TIME";
+
+    /**
+     * Key of the store version counter, incremented by every commit of changes
+     * */
+    private static final String STORE_VERSION_KEY = "STORE_VERSION";
+
+    /**
+     * Key of the checkpoint of the next upcoming alarm occurrences, and key of the store
+     * version that the checkpoint was computed for
+     * */
+    private static final String UPCOMING_OCCURRENCES_KEY = "UPCOMING_OCCURRENCES";
+    private static final String UPCOMING_OCCURRENCES_STORE_VERSION_KEY =
+                                                        "UPCOMING_OCCURRENCES_STORE_VERSION";
+
+    private static final String CRESCENDO_CURVE_KEY = "CRESCENDO_CURVE";
+
+    private static final String CRESCENDO_DURATION_IN_SECONDS_KEY =
+                                                        "CRESCENDO_DURATION_IN_SECONDS";
+
+    /**
+     * Default number of seconds over which the alarm sound rises to full volume
+     * */
+    private static final long DEFAULT_CRESCENDO_DURATION_IN_SECONDS = 30;
+
+    private static final String VIBRATION_PATTERN_KEY = "VIBRATION_PATTERN";
+
     private static final String SHARED_PREFERENCE_FILE_KEY =
                                             "lee.terence.simple_alarm_app.shared_preferences";
 
@@ -48,82 +139,553 @@ public class AlarmClockSharedPreferencesHelper {
 
 
     /**
-     * Store the next alarm time in the app's shared preferences
+     * Retrieve all the alarms stored in the app's shared preferences storage
+     *
+     * If an alarm time stored by an older version of the app is found, it is returned as
+     * an alarm of id 0, and migrated at the next call to storeAlarmChanges
+     *
+     * @param context to be used for accessing the app's shared preferences. May not be null
+     * */
+    public static List<Alarm> getAllAlarms(Context context){
+
+        SharedPreferences sharedPreferences = getSharedPreferencesInstance(context);
+
+        List<Alarm> alarms = new ArrayList<>();
+
+        for (Map.Entry<String, ?> entry : sharedPreferences.getAll().entrySet()){
+
+            if (entry.getKey().startsWith(ALARM_KEY_PREFIX) && entry.getValue() instanceof String){
+
+                Alarm alarm = Alarm.fromJsonString((String) entry.getValue());
+
+                if (alarm != null){
+                    alarms.add(alarm);
+                }
+            }
+        }
+
+        long legacyAlarmTime = sharedPreferences.getLong(NEXT_ALARM_CLOCK_TIME_KEY, -1);
+
+        if (alarms.isEmpty() && legacyAlarmTime != -1){
+            alarms.add(convertLegacyAlarmTimeToAlarm(legacyAlarmTime));
+        }
+
+        return alarms;
+    }
+
+
+    /**
+     * Retrieve all the exclusion calendars stored in the app's shared preferences storage
+     *
+     * @param context to be used for accessing the app's shared preferences. May not be null
+     * */
+    public static List<ExclusionCalendar> getAllExclusionCalendars(Context context){
+
+        SharedPreferences sharedPreferences = getSharedPreferencesInstance(context);
+
+        List<ExclusionCalendar> exclusionCalendars = new ArrayList<>();
+
+        for (Map.Entry<String, ?> entry : sharedPreferences.getAll().entrySet()){
+
+            if (entry.getKey().startsWith(EXCLUSION_CALENDAR_KEY_PREFIX) &&
+                    entry.getValue() instanceof String){
+
+                ExclusionCalendar exclusionCalendar =
+                                ExclusionCalendar.fromJsonString((String) entry.getValue());
+
+                if (exclusionCalendar != null){
+                    exclusionCalendars.add(exclusionCalendar);
+                }
+            }
+        }
+
+        return exclusionCalendars;
+    }
+
+
+    /**
+     * Retrieve the ids of the alarms that were set with the AlarmManager when the app last
+     * stored them, or null if the app has never stored them (i.e. every stored alarm was set
+     * with the AlarmManager by an older version of the app)
+     *
+     * @param context to be used for accessing the app's shared preferences. May not be null
+     * */
+    public static List<Integer> getArmedAlarmIds(Context context){
+
+        SharedPreferences sharedPreferences = getSharedPreferencesInstance(context);
+
+        String armedAlarmIdsJsonString = sharedPreferences.getString(ARMED_ALARM_IDS_KEY, null);
+
+        if (armedAlarmIdsJsonString == null){
+            return null;
+        }
+
+        List<Integer> armedAlarmIds = new ArrayList<>();
+
+        try {
+            JSONArray armedAlarmIdsJsonArray = new JSONArray(armedAlarmIdsJsonString);
+
+            for (int i = 0; i < armedAlarmIdsJsonArray.length(); i++){
+                armedAlarmIds.add(armedAlarmIdsJsonArray.getInt(i));
+            }
+        }
+        catch (JSONException jsonException){
+            return null;
+        }
+
+        return armedAlarmIds;
+    }
+
+
+    /**
+     * Retrieve all the alarm groups stored in the app's shared preferences storage, in order
+     * of id
+     *
+     * @param context to be used for accessing the app's shared preferences. May not be null
+     * */
+    public static List<AlarmGroup> getAllAlarmGroups(Context context){
+
+        SharedPreferences sharedPreferences = getSharedPreferencesInstance(context);
+
+        List<AlarmGroup> alarmGroups = new ArrayList<>();
+
+        for (int alarmGroupId = 0; alarmGroupId < AlarmGroup.MAXIMUM_NUMBER_OF_ALARM_GROUPS;
+                                                                            alarmGroupId++){
+
+            String alarmGroupName = sharedPreferences.getString(
+                                            ALARM_GROUP_KEY_PREFIX + alarmGroupId, null);
+
+            if (alarmGroupName != null){
+                alarmGroups.add(new AlarmGroup(alarmGroupId, alarmGroupName));
+            }
+        }
+
+        return alarmGroups;
+    }
+
+
+    /**
+     * Retrieve the bitmask of the enabled alarm groups (bit n is set if the alarm group of
+     * id n is enabled). If no bitmask has been stored, no alarm group is enabled
+     *
+     * @param context to be used for accessing the app's shared preferences. May not be null
+     * */
+    public static long getEnabledAlarmGroups(Context context){
+
+        SharedPreferences sharedPreferences = getSharedPreferencesInstance(context);
+
+        return sharedPreferences.getLong(ENABLED_ALARM_GROUPS_KEY, 0);
+    }
+
+
+    /**
+     * Retrieve the time up to which every alarm occurrence has been handled, by going off or
+     * by being caught up on as missed. If no time has been stored, no occurrence has been
+     * handled
      *
      * @param context to be used for accessing the app's shared preferences. May not be null
-     * @param nextAlarmTimeInMillisecondsSinceEpoch next alarm time in milliseconds since epoch,
-     *                                                  which is 1 January 1970 12:00:00 am
      * */
-    public static void setNextAlarmTime(Context context, long nextAlarmTimeInMillisecondsSinceEpoch){
+    public static long getCaughtUpTime(Context context){
 
         SharedPreferences sharedPreferences = getSharedPreferencesInstance(context);
 
-        SharedPreferences.Editor sharedPreferencesEditor =
-                sharedPreferences.edit();
+        return sharedPreferences.getLong(CAUGHT_UP_TIME_KEY, 0);
+    }
+
+
+    /**
+     * Retrieve the checkpoint of the next upcoming alarm occurrences across all the enabled
+     * alarms, in order of alarm time, or null if there is no valid checkpoint (none has been
+     * stored, or the alarms have been changed since without storing a new one)
+     *
+     * The occurrences were upcoming when the checkpoint was stored, so some of them may have
+     * lapsed since. Unlike the other methods of this class, may be called outside the
+     * AlarmClockActor, since it only reads
+     *
+     * @param context to be used for accessing the app's shared preferences. May not be null
+     * */
+    public static List<AlarmOccurrence> getUpcomingOccurrences(Context context){
+
+        SharedPreferences sharedPreferences = getSharedPreferencesInstance(context);
+
+        long storeVersion = sharedPreferences.getLong(STORE_VERSION_KEY, 0);
+        long upcomingOccurrencesStoreVersion =
+                sharedPreferences.getLong(UPCOMING_OCCURRENCES_STORE_VERSION_KEY, -1);
+
+        if (storeVersion != upcomingOccurrencesStoreVersion){
+            return null;
+        }
+
+        String upcomingOccurrencesJsonString =
+                sharedPreferences.getString(UPCOMING_OCCURRENCES_KEY, null);
+
+        if (upcomingOccurrencesJsonString == null){
+            return null;
+        }
+
+        List<AlarmOccurrence> upcomingOccurrences = new ArrayList<>();
+
+        try {
+            JSONArray upcomingOccurrencesJsonArray = new JSONArray(upcomingOccurrencesJsonString);
+
+            for (int i = 0; i < upcomingOccurrencesJsonArray.length(); i++){
+
+                AlarmOccurrence alarmOccurrence = AlarmOccurrence.fromJsonObject(
+                                        upcomingOccurrencesJsonArray.getJSONObject(i));
+
+                if (alarmOccurrence == null){
+                    return null;
+                }
+
+                upcomingOccurrences.add(alarmOccurrence);
+            }
+        }
+        catch (JSONException jsonException){
+            return null;
+        }
+
+        return upcomingOccurrences;
+    }
 
-        sharedPreferencesEditor.putLong(NEXT_ALARM_CLOCK_TIME_KEY, nextAlarmTimeInMillisecondsSinceEpoch);
+
+    /**
+     * Store new or changed alarms, and delete stored alarms, in the app's shared preferences
+     * storage with a single commit
+     *
+     * @param context to be used for accessing the app's shared preferences. May not be null
+     * @param alarmsToStore the new or changed alarms to store
+     * @param alarmIdsToDelete the ids of the stored alarms to delete
+     * */
+    public static void storeAlarmChanges(Context context, Collection<Alarm> alarmsToStore,
+                                         Collection<Integer> alarmIdsToDelete){
+
+        AlarmChangesEditor alarmChangesEditor = editAlarmChanges(context);
+
+        for (Alarm alarm : alarmsToStore){
+            alarmChangesEditor.putAlarm(alarm);
+        }
+
+        for (int alarmId : alarmIdsToDelete){
+            alarmChangesEditor.removeAlarm(alarmId);
+        }
+
+        alarmChangesEditor.apply();
+    }
+
+
+    /**
+     * Returns an editor to store changes of alarms, exclusion calendars and alarm groups in
+     * the app's shared preferences storage, with a single commit once apply is called
+     *
+     * @param context to be used for accessing the app's shared preferences. May not be null
+     * */
+    public static AlarmChangesEditor editAlarmChanges(Context context){
+        return new AlarmChangesEditor(getSharedPreferencesInstance(context));
+    }
+
+
+    /**
+     * Store how the volume of the alarm sound rises once an alarm starts ringing, and over how
+     * many seconds it rises to full volume
+     *
+     * Takes effect from the next time the alarm sound is prepared
+     *
+     * @param context to be used for accessing the app's shared preferences. May not be null
+     * @param crescendoCurve how the volume rises. CrescendoCurve.NONE plays the alarm sound at
+     *                       full volume straight away
+     * @param crescendoDurationInSeconds number of seconds until the alarm sound is at full
+     *                                   volume
+     * */
+    public static void setCrescendo(Context context, CrescendoCurve crescendoCurve,
+                                    long crescendoDurationInSeconds){
+
+        SharedPreferences sharedPreferences = getSharedPreferencesInstance(context);
+
+        SharedPreferences.Editor sharedPreferencesEditor = sharedPreferences.edit();
+
+        sharedPreferencesEditor.putString(CRESCENDO_CURVE_KEY, crescendoCurve.name());
+        sharedPreferencesEditor.putLong(CRESCENDO_DURATION_IN_SECONDS_KEY,
+                                            crescendoDurationInSeconds);
 
         sharedPreferencesEditor.apply();
     }
 
 
     /**
-     * Delete the stored next alarm time in the app's shared preferences storage, if
-     * there is next alarm time stored in the shared preferences
+     * Retrieve how the volume of the alarm sound rises once an alarm starts ringing
+     *
+     * If no valid value has been stored, returns NONE, so that the alarm sound plays at full
+     * volume straight away, as it did before the crescendo was added. May be called outside
+     * the AlarmClockActor, since it only reads
+     *
+     * @param context to be used for accessing the app's shared preferences. May not be null
+     * */
+    public static CrescendoCurve getCrescendoCurve(Context context){
+
+        SharedPreferences sharedPreferences = getSharedPreferencesInstance(context);
+
+        String crescendoCurveName = sharedPreferences.getString(CRESCENDO_CURVE_KEY,
+                                                        CrescendoCurve.NONE.name());
+
+        try {
+            return CrescendoCurve.valueOf(crescendoCurveName);
+        }
+        catch (IllegalArgumentException illegalArgumentException){
+            return CrescendoCurve.NONE;
+        }
+    }
+
+
+    /**
+     * Retrieve the number of seconds over which the alarm sound rises to full volume
+     *
+     * If no value has been stored, returns the default of 30 seconds. May be called outside
+     * the AlarmClockActor, since it only reads
+     *
+     * @param context to be used for accessing the app's shared preferences. May not be null
+     * */
+    public static long getCrescendoDurationInSeconds(Context context){
+
+        SharedPreferences sharedPreferences = getSharedPreferencesInstance(context);
+
+        return sharedPreferences.getLong(CRESCENDO_DURATION_IN_SECONDS_KEY,
+                                            DEFAULT_CRESCENDO_DURATION_IN_SECONDS);
+    }
+
+
+    /**
+     * Store how the device vibrates while an alarm is ringing
+     *
+     * Takes effect from the next alarm that rings
      *
      * @param context to be used for accessing the app's shared preferences. May not be null
+     * @param vibrationPattern the vibration pattern. VibrationPattern.NONE does not vibrate
      * */
-    public static void deleteNextAlarmTimeIfAny(Context context){
+    public static void setVibrationPattern(Context context, VibrationPattern vibrationPattern){
+
         SharedPreferences sharedPreferences = getSharedPreferencesInstance(context);
 
         SharedPreferences.Editor sharedPreferencesEditor = sharedPreferences.edit();
 
-        sharedPreferencesEditor.remove(NEXT_ALARM_CLOCK_TIME_KEY);
+        sharedPreferencesEditor.putString(VIBRATION_PATTERN_KEY, vibrationPattern.name());
 
         sharedPreferencesEditor.apply();
     }
 
 
     /**
-     * Retrieve the stored next alarm time in the app's shared preferences storage. The next
-     * alarm time is returned in milliseconds from the epoch (1 January 1970 12:00:00a.m.)
+     * Retrieve how the device vibrates while an alarm is ringing
      *
-     * If there is no stored next alarm time, returns
+     * If no valid value has been stored, returns NONE. May be called outside the
+     * AlarmClockActor, since it only reads
      *
      * @param context to be used for accessing the app's shared preferences. May not be null
      * */
-    public static long getNextAlarmTime(Context context){
+    public static VibrationPattern getVibrationPattern(Context context){
 
         SharedPreferences sharedPreferences = getSharedPreferencesInstance(context);
 
-        long DEFAULT_VALUE = -1;
+        String vibrationPatternName = sharedPreferences.getString(VIBRATION_PATTERN_KEY,
+                                                        VibrationPattern.NONE.name());
 
-        return sharedPreferences.getLong(NEXT_ALARM_CLOCK_TIME_KEY, DEFAULT_VALUE);
+        try {
+            return VibrationPattern.valueOf(vibrationPatternName);
+        }
+        catch (IllegalArgumentException illegalArgumentException){
+            return VibrationPattern.NONE;
+        }
     }
 
 
     /**
-     * Checks if there is a next alarm time stored in the shared preference storage.
-     * If there is a next alarm time stored, returns true. Otherwise returns false.
+     * Returns a copy of everything stored in the app's shared preferences storage, by key,
+     * e.g. for the diagnostics dump
      *
      * @param context to be used for accessing the app's shared preferences. May not be null
      * */
-    public static boolean hasNextAlarmTime(Context context){
+    public static Map<String, ?> getAllStoredEntries(Context context){
+        return getSharedPreferencesInstance(context).getAll();
+    }
+
 
-        long DEFAULT_VALUE = -1;
+    /**
+     * Convert the single alarm time stored by older versions of the app to an alarm of id 0
+     *
+     * @param legacyAlarmTime the stored alarm time in milliseconds since epoch
+     * */
+    private static Alarm convertLegacyAlarmTimeToAlarm(long legacyAlarmTime){
 
-        long nextAlarmTime = getNextAlarmTime(context);
+        Calendar alarmTimeCalendar = Calendar.getInstance();
+        alarmTimeCalendar.setTimeInMillis(legacyAlarmTime);
+
+        return new Alarm.Builder()
+                .setId(0)
+                .setHourOfDay(alarmTimeCalendar.get(Calendar.HOUR_OF_DAY))
+                .setMinute(alarmTimeCalendar.get(Calendar.MINUTE))
+                .setAlarmTime(legacyAlarmTime)
+                .build();
+    }
+
+
+    /**
+     * Load the app's shared preferences storage from disk, blocking until it has been loaded.
+     * Called on a background thread at process start (see AlarmClockStartupHelper), so that
+     * the first access on the main thread or the AlarmClockActor's thread does not have to
+     * wait on the disk. May be called outside the AlarmClockActor, since it only reads
+     *
+     * @param context to be used for accessing the app's shared preferences. May not be null
+     * */
+    public static void preloadSharedPreferences(Context context){
 
-        return nextAlarmTime != DEFAULT_VALUE;
+        //any read blocks until the whole file has been loaded
+        context.getSharedPreferences(SHARED_PREFERENCE_FILE_KEY, Context.MODE_PRIVATE)
+                .contains(STORE_VERSION_KEY);
     }
 
 
     /**
-     * Returns an instance of SharedPreferences
+     * Returns an instance of SharedPreferences, once it has been loaded if it is still being
+     * preloaded at process start
+     *
+     * In debug builds, an access on the main thread is timed and recorded (see
+     * AlarmClockMainThreadIoHelper)
      *
      * @param context to be used for accessing the app's shared preferences. May not be null
      * */
     private static SharedPreferences getSharedPreferencesInstance(Context context){
-        return context.getSharedPreferences(SHARED_PREFERENCE_FILE_KEY, Context.MODE_PRIVATE);
+
+        long startTime = AlarmClockMainThreadIoHelper.startTimingStoreAccess();
+
+        AlarmClockStartupHelper.awaitDependency(context,
+                AlarmClockStartupHelper.StartupDependency.SHARED_PREFERENCES);
+
+        SharedPreferences sharedPreferences =
+                context.getSharedPreferences(SHARED_PREFERENCE_FILE_KEY, Context.MODE_PRIVATE);
+
+        AlarmClockMainThreadIoHelper.finishTimingStoreAccess(SHARED_PREFERENCE_FILE_KEY,
+                                                                startTime);
+
+        return sharedPreferences;
+    }
+
+
+    /**
+     * Collects changes of alarms, exclusion calendars and alarm groups, to be stored in the
+     * app's shared preferences storage with a single commit
+     * */
+    public static class AlarmChangesEditor {
+
+        private final SharedPreferences sharedPreferences;
+
+        private final SharedPreferences.Editor sharedPreferencesEditor;
+
+        private List<AlarmOccurrence> upcomingOccurrences;
+
+
+        private AlarmChangesEditor(SharedPreferences sharedPreferences){
+            this.sharedPreferences = sharedPreferences;
+            this.sharedPreferencesEditor = sharedPreferences.edit();
+        }
+
+
+        public AlarmChangesEditor putAlarm(Alarm alarm){
+            sharedPreferencesEditor.putString(ALARM_KEY_PREFIX + alarm.getId(),
+                                                alarm.toJsonString());
+            return this;
+        }
+
+        public AlarmChangesEditor removeAlarm(int alarmId){
+            sharedPreferencesEditor.remove(ALARM_KEY_PREFIX + alarmId);
+            return this;
+        }
+
+        public AlarmChangesEditor putExclusionCalendar(ExclusionCalendar exclusionCalendar){
+            sharedPreferencesEditor.putString(
+                    EXCLUSION_CALENDAR_KEY_PREFIX + exclusionCalendar.getName(),
+                    exclusionCalendar.toJsonString());
+            return this;
+        }
+
+        public AlarmChangesEditor putAlarmGroup(AlarmGroup alarmGroup){
+            sharedPreferencesEditor.putString(ALARM_GROUP_KEY_PREFIX + alarmGroup.getId(),
+                                                alarmGroup.getName());
+            return this;
+        }
+
+        public AlarmChangesEditor removeAlarmGroup(int alarmGroupId){
+            sharedPreferencesEditor.remove(ALARM_GROUP_KEY_PREFIX + alarmGroupId);
+            return this;
+        }
+
+        /**
+         * @param enabledAlarmGroups bitmask of the enabled alarm groups
+         * */
+        public AlarmChangesEditor setEnabledAlarmGroups(long enabledAlarmGroups){
+            sharedPreferencesEditor.putLong(ENABLED_ALARM_GROUPS_KEY, enabledAlarmGroups);
+            return this;
+        }
+
+        /**
+         * @param caughtUpTimeInMillisecondsSinceEpoch the time up to which every alarm
+         *                                             occurrence has been handled
+         * */
+        public AlarmChangesEditor setCaughtUpTime(long caughtUpTimeInMillisecondsSinceEpoch){
+            sharedPreferencesEditor.putLong(CAUGHT_UP_TIME_KEY,
+                                            caughtUpTimeInMillisecondsSinceEpoch);
+            return this;
+        }
+
+        /**
+         * @param armedAlarmIds the ids of the alarms that are set with the AlarmManager
+         * */
+        public AlarmChangesEditor setArmedAlarmIds(Collection<Integer> armedAlarmIds){
+            sharedPreferencesEditor.putString(ARMED_ALARM_IDS_KEY,
+                                                new JSONArray(armedAlarmIds).toString());
+            return this;
+        }
+
+        /**
+         * @param upcomingOccurrences the checkpoint of the next upcoming alarm occurrences,
+         *                            in order of alarm time, as of these changes
+         * */
+        public AlarmChangesEditor setUpcomingOccurrences(
+                                                List<AlarmOccurrence> upcomingOccurrences){
+            this.upcomingOccurrences = upcomingOccurrences;
+            return this;
+        }
+
+        /**
+         * Store all the changes with a single commit, incrementing the store version, and
+         * tagging the checkpoint of upcoming occurrences (if set) with the new store version.
+         * A checkpoint stored by an earlier commit is no longer valid after a commit without
+         * one
+         *
+         * Also removes the single alarm time stored by older versions of the app, which has
+         * been migrated by then
+         * */
+        public void apply(){
+
+            long storeVersion = sharedPreferences.getLong(STORE_VERSION_KEY, 0) + 1;
+
+            sharedPreferencesEditor.putLong(STORE_VERSION_KEY, storeVersion);
+
+            if (upcomingOccurrences != null){
+
+                JSONArray upcomingOccurrencesJsonArray = new JSONArray();
+
+                for (AlarmOccurrence alarmOccurrence : upcomingOccurrences){
+                    upcomingOccurrencesJsonArray.put(alarmOccurrence.toJsonObject());
+                }
+
+                sharedPreferencesEditor.putString(UPCOMING_OCCURRENCES_KEY,
+                                                    upcomingOccurrencesJsonArray.toString());
+                sharedPreferencesEditor.putLong(UPCOMING_OCCURRENCES_STORE_VERSION_KEY,
+                                                    storeVersion);
+            }
+
+            sharedPreferencesEditor.remove(NEXT_ALARM_CLOCK_TIME_KEY);
+
+            sharedPreferencesEditor.apply();
+        }
     }
 }
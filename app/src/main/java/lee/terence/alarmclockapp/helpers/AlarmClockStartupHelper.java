@@ -0,0 +1,238 @@
+package lee.terence.alarmclockapp.helpers;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import lee.terence.alarmclockapp.R;
+
+
+/**
+ * A Singleton helper class that warms up the app's startup dependencies (the app's shared
+ * preferences storage, the alarm notification channel and the alarm sound) in parallel on
+ * background threads, as soon as the process starts
+ *
+ * Without it, each dependency is first touched lazily, one after another, on the main thread
+ * (e.g. by MainActivity.onCreate, or by the alarm broadcast). With it, by the time a caller
+ * needs a dependency it is usually ready, so the caller does not wait at all. A caller that
+ * does need a dependency before it is ready waits for it with awaitDependency, and only for
+ * that dependency
+ *
+ * The time taken to warm up each dependency, and the time any caller spent waiting for one,
+ * are recorded with AlarmClockTimingsHelper
+ *
+ * <b>Example Usage:</b>
+ * <pre>
+ *     //in Application.onCreate
+ *     AlarmClockStartupHelper.startWarmingUp(this);
+ *
+ *     //before the first use of a dependency
+ *     AlarmClockStartupHelper.awaitDependency(getApplicationContext(),
+ *                  AlarmClockStartupHelper.StartupDependency.NOTIFICATION_CHANNEL);
+ * </pre>
+ *
+ * @author Terence Lee
+ * */
+public class AlarmClockStartupHelper {
+
+    /**
+     * The dependencies that are warmed up at process start
+     * */
+    public enum StartupDependency {
+
+        /**
+         * The app's shared preferences storage (and the fire tokens storage), read from disk
+         * in full on first access
+         * */
+        SHARED_PREFERENCES,
+
+        /**
+         * The alarm notification channel, created with a call to the system
+         * */
+        NOTIFICATION_CHANNEL,
+
+        /**
+         * The alarm sound, read from the app's resources into the page cache, so that
+         * decoding it later does not have to wait on the disk
+         * */
+        ALARM_SOUND
+    }
+
+
+    private static final String LOG_TAG = "AlarmClockStartup";
+
+    /**
+     * Time an idle warm-up thread is kept alive for, after which it ends, so that no thread is
+     * left behind once the warm-up is done
+     * */
+    private static final long WARM_UP_THREAD_KEEP_ALIVE_IN_SECONDS = 1;
+
+    /**
+     * Size of the buffer the alarm sound is read into (and discarded)
+     * */
+    private static final int ALARM_SOUND_READ_BUFFER_SIZE = 16 * 1024;
+
+    /**
+     * The result of warming up each dependency. Empty until startWarmingUp is called
+     * */
+    private static final Map<StartupDependency, Future<?>> warmUpFutures =
+                                                    new EnumMap<>(StartupDependency.class);
+
+
+    /**
+     * All methods in this class are static, so there is no need for a constructor for this class
+     * */
+    private AlarmClockStartupHelper(){
+
+    }
+
+
+    /**
+     * Start warming up all the dependencies in parallel, one background thread each. Returns
+     * immediately. Does nothing if they have already been started
+     *
+     * @param context The context to use. Usually your Application object
+     * */
+    public static synchronized void startWarmingUp(Context context){
+
+        if (!warmUpFutures.isEmpty()){
+            return;
+        }
+
+        Context applicationContext = context.getApplicationContext();
+
+        int numberOfDependencies = StartupDependency.values().length;
+
+        ThreadPoolExecutor warmUpExecutor = new ThreadPoolExecutor(
+                numberOfDependencies, numberOfDependencies,
+                WARM_UP_THREAD_KEEP_ALIVE_IN_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>());
+
+        warmUpExecutor.allowCoreThreadTimeOut(true);
+
+        for (StartupDependency startupDependency : StartupDependency.values()){
+
+            warmUpFutures.put(startupDependency, warmUpExecutor.submit(() -> {
+                warmUpDependency(applicationContext, startupDependency);
+                return null;
+            }));
+        }
+    }
+
+
+    /**
+     * Wait until the given dependency has been warmed up, if it is still being warmed up.
+     * Returns immediately if it is ready, or if the warm-up has not been started at all (the
+     * caller then loads it itself, as it would without the warm-up)
+     *
+     * Must not be called from the warm-up of the same dependency. If the calling thread had
+     * to wait, the time spent waiting is recorded
+     *
+     * @param context to be used for recording the time spent waiting. May not be null
+     * @param startupDependency the dependency about to be used
+     * */
+    public static void awaitDependency(Context context, StartupDependency startupDependency){
+
+        Future<?> warmUpFuture;
+
+        synchronized (AlarmClockStartupHelper.class){
+            warmUpFuture = warmUpFutures.get(startupDependency);
+        }
+
+        if (warmUpFuture == null || warmUpFuture.isDone()){
+            return;
+        }
+
+        long waitStartTime = SystemClock.elapsedRealtime();
+
+        try {
+            warmUpFuture.get();
+        }
+        catch (ExecutionException e){
+            Log.w(LOG_TAG, "Warming up " + startupDependency + " failed", e.getCause());
+        }
+        catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+
+        AlarmClockTimingsHelper.recordTiming(context,
+                AlarmClockTimingsHelper.getStartupWaitTimingName(startupDependency),
+                SystemClock.elapsedRealtime() - waitStartTime);
+    }
+
+
+    /**
+     * Warm up the given dependency, and record the time taken. Called on a warm-up thread
+     *
+     * @param context The context to use
+     * @param startupDependency the dependency to warm up
+     * */
+    private static void warmUpDependency(Context context, StartupDependency startupDependency)
+                                                                            throws IOException {
+
+        long warmUpStartTime = SystemClock.elapsedRealtime();
+
+        switch (startupDependency){
+
+            case SHARED_PREFERENCES:
+                AlarmClockSharedPreferencesHelper.preloadSharedPreferences(context);
+                AlarmClockFireTokenHelper.preloadFireTokens(context);
+                break;
+
+            case NOTIFICATION_CHANNEL:
+                AlarmClockNotificationHelper.createAlarmClockNotificationChannelIfNotCreated(
+                                                                                    context);
+                break;
+
+            case ALARM_SOUND:
+                readAlarmSound(context);
+                break;
+        }
+
+        AlarmClockTimingsHelper.recordTiming(context,
+                AlarmClockTimingsHelper.getStartupTimingName(startupDependency),
+                SystemClock.elapsedRealtime() - warmUpStartTime);
+    }
+
+
+    /**
+     * Read the alarm sound from the app's resources through to the end, and discard it, so
+     * that it is in the page cache when the media player decodes it
+     *
+     * @param context The context to use
+     * */
+    private static void readAlarmSound(Context context) throws IOException {
+
+        try (AssetFileDescriptor assetFileDescriptor =
+                     context.getResources().openRawResourceFd(R.raw.alarm_sound);
+             FileInputStream fileInputStream = assetFileDescriptor.createInputStream()){
+
+            byte[] buffer = new byte[ALARM_SOUND_READ_BUFFER_SIZE];
+
+            long bytesLeft = assetFileDescriptor.getLength();
+
+            while (bytesLeft > 0){
+
+                int bytesRead = fileInputStream.read(buffer, 0,
+                                            (int) Math.min(buffer.length, bytesLeft));
+
+                if (bytesRead < 0){
+                    break;
+                }
+
+                bytesLeft -= bytesRead;
+            }
+        }
+    }
+}
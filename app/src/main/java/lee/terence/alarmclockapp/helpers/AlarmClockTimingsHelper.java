@@ -0,0 +1,517 @@
+package lee.terence.alarmclockapp.helpers;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+import lee.terence.alarmclockapp.helpers.AlarmClockStartupHelper.StartupDependency;
+import lee.terence.alarmclockapp.models.AlarmPrecisionTier;
+
+
+/**
+ * A Singleton helper class that records timings of the app's alarm path (e.g. the cost of the
+ * pre-fire warm-up, and the latency between the alarm time and the alarm sound starting to
+ * play) in the app's shared preferences storage
+ *
+ * For each named timing, the number of recordings, their total and their maximum are kept,
+ * so that averages can be compared, e.g. warm alarm fires against cold alarm fires. The most
+ * recent recordings of each timing are also kept, so that their distribution can be
+ * inspected as a histogram
+ *
+ * Daily counts (e.g. of widget updates) are kept the same way, with one recording per day:
+ * the count of each day is recorded once the first count of a later day comes in
+ *
+ * Timings are stored on a background thread, so recording a timing never reads or writes
+ * the disk on the calling thread (usually the main thread, on the alarm path)
+ *
+ * <b>Example Usage:</b>
+ * <pre>
+ *     long startTime = SystemClock.elapsedRealtime();
+ *     ....
+ *     long duration = SystemClock.elapsedRealtime() - startTime;
+ *
+ *     //record the timing
+ *     AlarmClockTimingsHelper.recordTiming(getApplicationContext(),
+ *                                          AlarmClockTimingsHelper.WARM_UP_COST, duration);
+ *
+ *     //to get the average of all the recorded timings of the same name
+ *     long averageWarmUpCost = AlarmClockTimingsHelper.getAverageTiming(getApplicationContext(),
+ *                                                      AlarmClockTimingsHelper.WARM_UP_COST);
+ * </pre>
+ *
+ * @author Terence Lee
+ * */
+public class AlarmClockTimingsHelper {
+
+    /**
+     * Time taken to warm up the app ahead of an alarm
+     * */
+    public static final String WARM_UP_COST = "WARM_UP_COST";
+
+    /**
+     * Latency between the alarm time and the alarm sound starting to play, when the app has
+     * been warmed up ahead of the alarm
+     * */
+    public static final String WARM_FIRE_LATENCY = "WARM_FIRE_LATENCY";
+
+    /**
+     * Latency between the alarm time and the alarm sound starting to play, when the app has
+     * not been warmed up ahead of the alarm
+     * */
+    public static final String COLD_FIRE_LATENCY = "COLD_FIRE_LATENCY";
+
+    /**
+     * Time between the creation of the alarm clock alert activity and its first frame
+     * */
+    public static final String ALERT_TIME_TO_FIRST_FRAME = "ALERT_TIME_TO_FIRST_FRAME";
+
+    /**
+     * Time taken to copy a ringtone from its content provider into the ringtone cache
+     * */
+    public static final String RINGTONE_CACHE_FILL = "RINGTONE_CACHE_FILL";
+
+    /**
+     * Number of updates pushed to the next alarm widgets per day. A daily count rather than a
+     * timing
+     *
+     * @see AlarmClockTimingsHelper#recordDailyCount(Context, String)
+     * */
+    public static final String WIDGET_UPDATES_PER_DAY = "WIDGET_UPDATES_PER_DAY";
+
+
+    /**
+     * Prefix of the names of the timings of the drift between the alarm time and the time the
+     * alarm broadcast is received, followed by the precision tier the alarm was set with
+     *
+     * @see AlarmClockTimingsHelper#getFireDriftTimingName(AlarmPrecisionTier)
+     * */
+    private static final String FIRE_DRIFT_PREFIX = "FIRE_DRIFT_";
+
+    /**
+     * Prefix of the names of the timings of warming up a startup dependency at process start,
+     * followed by the dependency
+     *
+     * @see AlarmClockTimingsHelper#getStartupTimingName(StartupDependency)
+     * */
+    private static final String STARTUP_PREFIX = "STARTUP_";
+
+    /**
+     * Prefix of the names of the timings of a caller waiting for a startup dependency that was
+     * still being warmed up, followed by the dependency
+     *
+     * @see AlarmClockTimingsHelper#getStartupWaitTimingName(StartupDependency)
+     * */
+    private static final String STARTUP_WAIT_PREFIX = "STARTUP_WAIT_";
+
+
+    private static final String LOG_TAG = "AlarmClockTimings";
+
+    private static final String COUNT_KEY_SUFFIX = "_COUNT";
+    private static final String TOTAL_KEY_SUFFIX = "_TOTAL";
+    private static final String MAXIMUM_KEY_SUFFIX = "_MAXIMUM";
+    private static final String RECENT_KEY_SUFFIX = "_RECENT";
+    private static final String DAY_KEY_SUFFIX = "_DAY";
+    private static final String TODAY_COUNT_KEY_SUFFIX = "_TODAY";
+
+    /**
+     * Number of the most recent recordings kept of each timing
+     * */
+    private static final int NUMBER_OF_RECENT_TIMINGS = 64;
+
+    /**
+     * Upper bounds (inclusive) of the buckets of the histograms of recent timings. Timings
+     * longer than the last bound fall in an extra, unbounded bucket
+     * */
+    private static final long[] HISTOGRAM_BUCKET_UPPER_BOUNDS_IN_MILLISECONDS = new long[]{
+            10, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 60000
+    };
+
+    private static final String SHARED_PREFERENCE_FILE_KEY =
+                                            "lee.terence.simple_alarm_app.timings";
+
+    /**
+     * Single background thread on which the timings are stored, one after another
+     * */
+    private static final Executor TIMINGS_EXECUTOR = Executors.newSingleThreadExecutor();
+
+
+    /**
+     * All methods in this class are static, so there is no need for a constructor for this class
+     * */
+    private AlarmClockTimingsHelper(){
+
+    }
+
+
+    /**
+     * Returns the name of the timing of the drift between the alarm time and the time the
+     * alarm broadcast is received, for alarms set with the given precision tier
+     *
+     * @param precisionTier the precision tier the alarm was set with
+     * */
+    public static String getFireDriftTimingName(AlarmPrecisionTier precisionTier){
+        return FIRE_DRIFT_PREFIX + precisionTier.name();
+    }
+
+
+    /**
+     * Returns the name of the timing of warming up the given startup dependency at process
+     * start
+     *
+     * @param startupDependency the dependency warmed up
+     * */
+    public static String getStartupTimingName(StartupDependency startupDependency){
+        return STARTUP_PREFIX + startupDependency.name();
+    }
+
+
+    /**
+     * Returns the name of the timing of a caller waiting for the given startup dependency,
+     * while it was still being warmed up
+     *
+     * @param startupDependency the dependency waited for
+     * */
+    public static String getStartupWaitTimingName(StartupDependency startupDependency){
+        return STARTUP_WAIT_PREFIX + startupDependency.name();
+    }
+
+
+    /**
+     * Record a timing, and log it together with the running average of timings of the
+     * same name
+     *
+     * @param context to be used for accessing the app's shared preferences. May not be null
+     * @param timingName name of the timing, e.g. AlarmClockTimingsHelper.WARM_UP_COST
+     * @param durationInMilliseconds the duration that was timed
+     * */
+    public static void recordTiming(Context context, String timingName,
+                                    long durationInMilliseconds){
+
+        Context applicationContext = context.getApplicationContext();
+
+        TIMINGS_EXECUTOR.execute(() ->
+                storeTiming(applicationContext, timingName, durationInMilliseconds));
+    }
+
+
+    /**
+     * Count one more of a daily count for today. Once the first count of a later day comes in,
+     * the count of the previous day (and a count of zero for each day in between, up to
+     * NUMBER_OF_RECENT_TIMINGS of them) is recorded like a timing, so that its average per day
+     * and maximum per day can be read like those of a timing
+     *
+     * @param context to be used for accessing the app's shared preferences. May not be null
+     * @param countName name of the daily count, e.g. AlarmClockTimingsHelper.WIDGET_UPDATES_PER_DAY
+     * */
+    public static void recordDailyCount(Context context, String countName){
+
+        Context applicationContext = context.getApplicationContext();
+
+        long today = LocalDate.now().toEpochDay();
+
+        TIMINGS_EXECUTOR.execute(() -> storeDailyCount(applicationContext, countName, today));
+    }
+
+
+    /**
+     * Store one more of a daily count, recording the counts of the previous days if today is
+     * a later day than that of the stored count. Runs on the timings thread
+     *
+     * @param context to be used for accessing the app's shared preferences. May not be null
+     * @param countName name of the daily count
+     * @param today today, in days since epoch
+     * */
+    private static void storeDailyCount(Context context, String countName, long today){
+
+        SharedPreferences sharedPreferences = getSharedPreferencesInstance(context);
+
+        long day = sharedPreferences.getLong(countName + DAY_KEY_SUFFIX, today);
+        long todayCount = sharedPreferences.getLong(countName + TODAY_COUNT_KEY_SUFFIX, 0);
+
+        if (day < today){
+
+            storeTiming(context, countName, todayCount);
+
+            long numberOfDaysInBetween = Math.min(today - day - 1, NUMBER_OF_RECENT_TIMINGS);
+
+            for (long i = 0; i < numberOfDaysInBetween; i++){
+                storeTiming(context, countName, 0);
+            }
+
+            todayCount = 0;
+        }
+
+        sharedPreferences.edit()
+                .putLong(countName + DAY_KEY_SUFFIX, today)
+                .putLong(countName + TODAY_COUNT_KEY_SUFFIX, todayCount + 1)
+                .apply();
+    }
+
+
+    /**
+     * Store a timing in the app's shared preferences storage. Runs on the timings thread
+     *
+     * @param context to be used for accessing the app's shared preferences. May not be null
+     * @param timingName name of the timing
+     * @param durationInMilliseconds the duration that was timed
+     * */
+    private static void storeTiming(Context context, String timingName,
+                                    long durationInMilliseconds){
+
+        SharedPreferences sharedPreferences = getSharedPreferencesInstance(context);
+
+        long count = sharedPreferences.getLong(timingName + COUNT_KEY_SUFFIX, 0) + 1;
+        long total = sharedPreferences.getLong(timingName + TOTAL_KEY_SUFFIX, 0)
+                        + durationInMilliseconds;
+        long maximum = Math.max(durationInMilliseconds,
+                        sharedPreferences.getLong(timingName + MAXIMUM_KEY_SUFFIX, 0));
+
+        SharedPreferences.Editor sharedPreferencesEditor = sharedPreferences.edit();
+
+        sharedPreferencesEditor.putLong(timingName + COUNT_KEY_SUFFIX, count);
+        sharedPreferencesEditor.putLong(timingName + TOTAL_KEY_SUFFIX, total);
+        sharedPreferencesEditor.putLong(timingName + MAXIMUM_KEY_SUFFIX, maximum);
+        sharedPreferencesEditor.putString(timingName + RECENT_KEY_SUFFIX,
+                appendRecentTiming(sharedPreferences.getString(timingName + RECENT_KEY_SUFFIX,
+                                                                ""), durationInMilliseconds));
+
+        sharedPreferencesEditor.apply();
+
+        Log.i(LOG_TAG, timingName + ": " + durationInMilliseconds + " ms (average "
+                + (total / count) + " ms over " + count + ")");
+    }
+
+
+    /**
+     * Returns the given comma separated recent timings, with the given timing appended and
+     * the oldest timings dropped so that at most NUMBER_OF_RECENT_TIMINGS are kept
+     *
+     * @param recentTimings comma separated recent timings, oldest first. May be empty
+     * @param durationInMilliseconds the timing to append
+     * */
+    private static String appendRecentTiming(String recentTimings, long durationInMilliseconds){
+
+        List<Long> timings = parseRecentTimings(recentTimings);
+
+        timings.add(durationInMilliseconds);
+
+        int firstIndex = Math.max(0, timings.size() - NUMBER_OF_RECENT_TIMINGS);
+
+        StringBuilder stringBuilder = new StringBuilder();
+
+        for (int i = firstIndex; i < timings.size(); i++){
+
+            if (i > firstIndex){
+                stringBuilder.append(',');
+            }
+
+            stringBuilder.append(timings.get(i));
+        }
+
+        return stringBuilder.toString();
+    }
+
+
+    /**
+     * Returns the timings of a comma separated string of recent timings, oldest first.
+     * Malformed timings are skipped
+     *
+     * @param recentTimings comma separated recent timings. May be empty
+     * */
+    private static List<Long> parseRecentTimings(String recentTimings){
+
+        List<Long> timings = new ArrayList<>();
+
+        for (String timing : recentTimings.split(",")){
+
+            try {
+                timings.add(Long.parseLong(timing));
+            }
+            catch (NumberFormatException numberFormatException){
+                //skip empty or malformed timings
+            }
+        }
+
+        return timings;
+    }
+
+
+    /**
+     * Returns all the recorded timings as a JSON object, by timing name. Each timing has its
+     * count, average and maximum, and a histogram of its most recent recordings, keyed by
+     * the upper bound of each bucket in milliseconds ("+" for the unbounded bucket)
+     *
+     * Reads the app's shared preferences, so should not be called on the main thread
+     *
+     * <b>Example Output:</b>
+     * <pre>
+     *     {"WARM_FIRE_LATENCY": {"count": 12, "average": 85, "maximum": 240,
+     *                            "recentHistogram": {"10": 0, "50": 3, "100": 6, "250": 3, ...}}}
+     * </pre>
+     *
+     * @param context to be used for accessing the app's shared preferences. May not be null
+     * */
+    public static JSONObject getAllTimingsAsJsonObject(Context context) throws JSONException {
+
+        SharedPreferences sharedPreferences = getSharedPreferencesInstance(context);
+
+        JSONObject timingsJsonObject = new JSONObject();
+
+        for (Map.Entry<String, ?> entry : sharedPreferences.getAll().entrySet()){
+
+            String key = entry.getKey();
+
+            if (!key.endsWith(COUNT_KEY_SUFFIX)){
+                continue;
+            }
+
+            String timingName = key.substring(0, key.length() - COUNT_KEY_SUFFIX.length());
+
+            long[] histogram = getHistogram(parseRecentTimings(sharedPreferences.getString(
+                                                        timingName + RECENT_KEY_SUFFIX, "")));
+
+            JSONObject histogramJsonObject = new JSONObject();
+
+            for (int i = 0; i < histogram.length; i++){
+
+                String bucketName = (i < HISTOGRAM_BUCKET_UPPER_BOUNDS_IN_MILLISECONDS.length) ?
+                        String.valueOf(HISTOGRAM_BUCKET_UPPER_BOUNDS_IN_MILLISECONDS[i]) : "+";
+
+                histogramJsonObject.put(bucketName, histogram[i]);
+            }
+
+            JSONObject timingJsonObject = new JSONObject();
+
+            timingJsonObject.put("count", sharedPreferences.getLong(key, 0));
+            timingJsonObject.put("average", getAverageTiming(context, timingName));
+            timingJsonObject.put("maximum", getMaximumTiming(context, timingName));
+            timingJsonObject.put("recentHistogram", histogramJsonObject);
+
+            timingsJsonObject.put(timingName, timingJsonObject);
+        }
+
+        return timingsJsonObject;
+    }
+
+
+    /**
+     * Returns the number of the given timings in each histogram bucket, followed by the number
+     * of timings longer than the last bucket's upper bound
+     *
+     * @param timings the timings, in milliseconds
+     * */
+    private static long[] getHistogram(List<Long> timings){
+
+        long[] histogram = new long[HISTOGRAM_BUCKET_UPPER_BOUNDS_IN_MILLISECONDS.length + 1];
+
+        for (long timing : timings){
+
+            int bucketIndex = 0;
+
+            while (bucketIndex < HISTOGRAM_BUCKET_UPPER_BOUNDS_IN_MILLISECONDS.length &&
+                    timing > HISTOGRAM_BUCKET_UPPER_BOUNDS_IN_MILLISECONDS[bucketIndex]){
+                bucketIndex++;
+            }
+
+            histogram[bucketIndex]++;
+        }
+
+        return histogram;
+    }
+
+
+    /**
+     * Returns the average of all the recorded timings of the given name, or -1 if no timing
+     * of the given name has been recorded
+     *
+     * @param context to be used for accessing the app's shared preferences. May not be null
+     * @param timingName name of the timing, e.g. AlarmClockTimingsHelper.WARM_UP_COST
+     * */
+    public static long getAverageTiming(Context context, String timingName){
+
+        SharedPreferences sharedPreferences = getSharedPreferencesInstance(context);
+
+        long count = sharedPreferences.getLong(timingName + COUNT_KEY_SUFFIX, 0);
+
+        if (count == 0){
+            return -1;
+        }
+
+        return sharedPreferences.getLong(timingName + TOTAL_KEY_SUFFIX, 0) / count;
+    }
+
+
+    /**
+     * Returns the maximum of all the recorded timings of the given name, or -1 if no timing
+     * of the given name has been recorded
+     *
+     * @param context to be used for accessing the app's shared preferences. May not be null
+     * @param timingName name of the timing, e.g. AlarmClockTimingsHelper.WARM_UP_COST
+     * */
+    public static long getMaximumTiming(Context context, String timingName){
+
+        SharedPreferences sharedPreferences = getSharedPreferencesInstance(context);
+
+        return sharedPreferences.getLong(timingName + MAXIMUM_KEY_SUFFIX, -1);
+    }
+
+
+    /**
+     * Returns the average fire latency saved by warming up the app ahead of the alarm, i.e.
+     * the average cold fire latency minus the average warm fire latency
+     *
+     * Returns 0 if there are not yet both warm and cold alarm fires recorded to compare
+     *
+     * @param context to be used for accessing the app's shared preferences. May not be null
+     * */
+    public static long getAverageFireLatencySavedByWarmUp(Context context){
+
+        long averageWarmFireLatency = getAverageTiming(context, WARM_FIRE_LATENCY);
+        long averageColdFireLatency = getAverageTiming(context, COLD_FIRE_LATENCY);
+
+        if (averageWarmFireLatency == -1 || averageColdFireLatency == -1){
+            return 0;
+        }
+
+        return averageColdFireLatency - averageWarmFireLatency;
+    }
+
+
+    /**
+     * Returns an instance of SharedPreferences
+     *
+     * In debug builds, an access on the main thread (e.g. reading an average timing) is timed
+     * and recorded, including the wait for the timings to be loaded from disk (see
+     * AlarmClockMainThreadIoHelper)
+     *
+     * @param context to be used for accessing the app's shared preferences. May not be null
+     * */
+    private static SharedPreferences getSharedPreferencesInstance(Context context){
+
+        long startTime = AlarmClockMainThreadIoHelper.startTimingStoreAccess();
+
+        SharedPreferences sharedPreferences =
+                context.getSharedPreferences(SHARED_PREFERENCE_FILE_KEY, Context.MODE_PRIVATE);
+
+        if (startTime != AlarmClockMainThreadIoHelper.NOT_TIMED){
+
+            //blocks until loaded, as the caller's first read would, so that the load is timed
+            sharedPreferences.contains(WARM_UP_COST + COUNT_KEY_SUFFIX);
+
+            AlarmClockMainThreadIoHelper.finishTimingStoreAccess(SHARED_PREFERENCE_FILE_KEY,
+                                                                    startTime);
+        }
+
+        return sharedPreferences;
+    }
+}
@@ -0,0 +1,212 @@
+package lee.terence.alarmclockapp.helpers;
+
+import android.app.PendingIntent;
+import android.appwidget.AppWidgetManager;
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.SystemClock;
+import android.view.View;
+import android.widget.RemoteViews;
+
+import lee.terence.alarmclockapp.R;
+import lee.terence.alarmclockapp.broadcastreceivers.NextAlarmWidgetProvider;
+import lee.terence.alarmclockapp.controllers.MainActivity;
+import lee.terence.alarmclockapp.models.Alarm;
+
+
+/**
+ * A Singleton helper class that keeps the next alarm widgets on the home screen up to date
+ *
+ * The widgets are never polled (their update period is 0), and the app never wakes up to
+ * tick their countdowns. Instead, each countdown is a Chronometer counting down to the alarm
+ * time, which the home screen ticks by itself while it is visible. The app only pushes an
+ * update, a partial one that changes the alarm time and the countdown, when the next alarm
+ * changes (i.e. another alarm is next, or the next alarm's alarm time changes)
+ *
+ * The cost of the widgets is measured as the number of updates pushed per day (see
+ * AlarmClockTimingsHelper.WIDGET_UPDATES_PER_DAY)
+ *
+ * All methods must be called on the main thread, since the alarm times are formatted with
+ * AlarmClockFormattingHelper. The last pushed next alarm needs no synchronization either way
+ *
+ * <b>Example Usage:</b>
+ * <pre>
+ *     //from an AlarmClockActor.Observer, whenever the alarm state changes
+ *     AlarmClockWidgetHelper.updateWidgetsIfNextAlarmChanged(getApplicationContext(),
+ *                                                              nextAlarm);
+ *
+ *     //when the home screen asks for the widgets to be (re)drawn in full
+ *     AlarmClockWidgetHelper.updateWidgets(getApplicationContext(), appWidgetIds, nextAlarm);
+ * </pre>
+ *
+ * @author Terence Lee
+ * */
+public class AlarmClockWidgetHelper {
+
+    /**
+     * Last pushed alarm id if nothing has been pushed yet in this process
+     * */
+    private static final int NO_PUSHED_ALARM_ID = Integer.MIN_VALUE;
+
+    /**
+     * Last pushed alarm id if "No alarm" was pushed
+     * */
+    private static final int NO_NEXT_ALARM_ID = -1;
+
+    /**
+     * Id and alarm time of the next alarm that was last pushed to the widgets
+     * */
+    private static int lastPushedAlarmId = NO_PUSHED_ALARM_ID;
+
+    private static long lastPushedAlarmTime = Alarm.NO_ALARM_TIME;
+
+
+    /**
+     * All methods in this class are static, so there is no need for a constructor for this class
+     * */
+    private AlarmClockWidgetHelper(){
+
+    }
+
+
+    /**
+     * Push a partial update of the alarm time and the countdown to all the next alarm
+     * widgets, if the next alarm differs from the one that was last pushed. Does nothing
+     * otherwise, or if there are no widgets on the home screen
+     *
+     * @param context The context to use. Usually your Application or Activity object
+     * @param nextAlarm the alarm that goes off next, or null if there is none
+     * */
+    public static void updateWidgetsIfNextAlarmChanged(Context context, Alarm nextAlarm){
+
+        if (!hasNextAlarmChanged(nextAlarm)){
+            return;
+        }
+
+        AppWidgetManager appWidgetManager = AppWidgetManager.getInstance(context);
+
+        int[] appWidgetIds = appWidgetManager.getAppWidgetIds(
+                                    new ComponentName(context, NextAlarmWidgetProvider.class));
+
+        rememberPushedAlarm(nextAlarm);
+
+        if (appWidgetIds.length == 0){
+            return;
+        }
+
+        RemoteViews remoteViews = new RemoteViews(context.getPackageName(),
+                                                    R.layout.widget_next_alarm);
+
+        setNextAlarm(context, remoteViews, nextAlarm);
+
+        appWidgetManager.partiallyUpdateAppWidget(appWidgetIds, remoteViews);
+
+        AlarmClockTimingsHelper.recordDailyCount(context,
+                                        AlarmClockTimingsHelper.WIDGET_UPDATES_PER_DAY);
+    }
+
+
+    /**
+     * Push a full update to the given next alarm widgets, e.g. when a widget has been added
+     * to the home screen, or the home screen has been restarted
+     *
+     * @param context The context to use. Usually your Application or Activity object
+     * @param appWidgetIds ids of the widgets to update
+     * @param nextAlarm the alarm that goes off next, or null if there is none
+     * */
+    public static void updateWidgets(Context context, int[] appWidgetIds, Alarm nextAlarm){
+
+        RemoteViews remoteViews = new RemoteViews(context.getPackageName(),
+                                                    R.layout.widget_next_alarm);
+
+        final int REQUEST_CODE = 0;
+
+        remoteViews.setOnClickPendingIntent(R.id.next_alarm_widget_layout,
+                PendingIntent.getActivity(context, REQUEST_CODE,
+                        MainActivity.createIntent(context),
+                        PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE));
+
+        setNextAlarm(context, remoteViews, nextAlarm);
+
+        AppWidgetManager.getInstance(context).updateAppWidget(appWidgetIds, remoteViews);
+
+        rememberPushedAlarm(nextAlarm);
+
+        AlarmClockTimingsHelper.recordDailyCount(context,
+                                        AlarmClockTimingsHelper.WIDGET_UPDATES_PER_DAY);
+    }
+
+
+    /**
+     * Set the alarm time and the countdown of the given alarm on the given remote views, or
+     * "No alarm" (and no countdown) if there is no alarm
+     *
+     * The Chronometer counts down to a base on the elapsed realtime clock, so the alarm time
+     * (on the wall clock) is converted to it
+     *
+     * @param context The context to use. Usually your Application or Activity object
+     * @param remoteViews remote views of the widget layout
+     * @param nextAlarm the alarm that goes off next, or null if there is none
+     * */
+    private static void setNextAlarm(Context context, RemoteViews remoteViews, Alarm nextAlarm){
+
+        if (nextAlarm == null){
+
+            remoteViews.setTextViewText(R.id.next_alarm_widget_alarm_time_text_view,
+                    context.getString(R.string.widget_next_alarm_no_alarm_text));
+            remoteViews.setChronometer(R.id.next_alarm_widget_countdown_chronometer,
+                    SystemClock.elapsedRealtime(), null, false);
+            remoteViews.setViewVisibility(R.id.next_alarm_widget_countdown_chronometer,
+                    View.GONE);
+            return;
+        }
+
+        long alarmTime = nextAlarm.getAlarmTimeInMillisecondsSinceEpoch();
+
+        long countdownBase = SystemClock.elapsedRealtime() +
+                                (alarmTime - System.currentTimeMillis());
+
+        remoteViews.setTextViewText(R.id.next_alarm_widget_alarm_time_text_view,
+                AlarmClockFormattingHelper.formatAlarmTime(context, alarmTime));
+        remoteViews.setChronometerCountDown(R.id.next_alarm_widget_countdown_chronometer, true);
+        remoteViews.setChronometer(R.id.next_alarm_widget_countdown_chronometer,
+                countdownBase, null, true);
+        remoteViews.setViewVisibility(R.id.next_alarm_widget_countdown_chronometer,
+                View.VISIBLE);
+    }
+
+
+    /**
+     * Returns true if the given next alarm differs from the one that was last pushed to the
+     * widgets, and false if otherwise
+     *
+     * @param nextAlarm the alarm that goes off next, or null if there is none
+     * */
+    private static boolean hasNextAlarmChanged(Alarm nextAlarm){
+
+        if (nextAlarm == null){
+            return lastPushedAlarmId != NO_NEXT_ALARM_ID;
+        }
+
+        return nextAlarm.getId() != lastPushedAlarmId ||
+                nextAlarm.getAlarmTimeInMillisecondsSinceEpoch() != lastPushedAlarmTime;
+    }
+
+
+    /**
+     * Remember the given next alarm as the one last pushed to the widgets
+     *
+     * @param nextAlarm the alarm that goes off next, or null if there is none
+     * */
+    private static void rememberPushedAlarm(Alarm nextAlarm){
+
+        if (nextAlarm == null){
+            lastPushedAlarmId = NO_NEXT_ALARM_ID;
+            lastPushedAlarmTime = Alarm.NO_ALARM_TIME;
+        }
+        else{
+            lastPushedAlarmId = nextAlarm.getId();
+            lastPushedAlarmTime = nextAlarm.getAlarmTimeInMillisecondsSinceEpoch();
+        }
+    }
+}
@@ -0,0 +1,356 @@
+package lee.terence.alarmclockapp.helpers;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import lee.terence.alarmclockapp.models.ExclusionCalendar;
+
+
+/**
+ * A Singleton helper class that compiles ICS (iCalendar) files, e.g. exported public holiday
+ * calendars, into exclusion calendars
+ *
+ * Every day covered by an event of the ICS file is excluded. Only the parts of the format that
+ * holiday and exclusion calendars use are supported:
+ *      (a) DTSTART and DTEND of each VEVENT, as dates or date-times (the time is ignored)
+ *      (b) RRULE:FREQ=YEARLY, with optional INTERVAL, COUNT and UNTIL, expanded up to
+ *          COMPILED_YEARS_AHEAD years after the current year
+ * Other recurrence rules are ignored, so the event only excludes its first occurrence
+ *
+ * <b>Example Usage:</b>
+ * <pre>
+ *     try (InputStream inputStream = getContentResolver().openInputStream(icsFileUri)){
+ *
+ *         ExclusionCalendar exclusionCalendar = ExclusionCalendarIcsHelper
+ *                                  .compileIcsFile("Public holidays", inputStream);
+ *     }
+ * </pre>
+ *
+ * @author Terence Lee
+ * */
+public class ExclusionCalendarIcsHelper {
+
+    /**
+     * Number of years after the current year up to which yearly recurring events are expanded
+     * */
+    private static final int COMPILED_YEARS_AHEAD = 10;
+
+    /**
+     * Maximum number of days excluded by a single event, to guard against malformed files
+     * */
+    private static final int MAXIMUM_DAYS_PER_EVENT = ExclusionCalendar.MAXIMUM_DAYS_IN_YEAR;
+
+    private static final String BEGIN_EVENT_LINE = "BEGIN:VEVENT";
+    private static final String END_EVENT_LINE = "END:VEVENT";
+
+    private static final String START_DATE_PROPERTY = "DTSTART";
+    private static final String END_DATE_PROPERTY = "DTEND";
+    private static final String RECURRENCE_RULE_PROPERTY = "RRULE";
+
+    private static final String DATE_VALUE_PARAMETER = "VALUE=DATE";
+
+
+    /**
+     * All methods in this class are static, so there is no need for a constructor for this class
+     * */
+    private ExclusionCalendarIcsHelper(){
+
+    }
+
+
+    /**
+     * Compile an ICS file into an exclusion calendar that excludes every day covered by the
+     * file's events
+     *
+     * Events that cannot be parsed are skipped. The input stream is not closed
+     *
+     * @param name the name to give the exclusion calendar
+     * @param icsInputStream input stream of the ICS file
+     *
+     * @throws IOException if the ICS file cannot be read
+     * */
+    public static ExclusionCalendar compileIcsFile(String name, InputStream icsInputStream)
+                                                                        throws IOException {
+
+        ExclusionCalendar.Builder exclusionCalendarBuilder = new ExclusionCalendar.Builder(name);
+
+        int lastCompiledYear = LocalDate.now().getYear() + COMPILED_YEARS_AHEAD;
+
+        List<String> eventLines = null;
+
+        for (String line : readUnfoldedLines(icsInputStream)){
+
+            if (line.equalsIgnoreCase(BEGIN_EVENT_LINE)){
+                eventLines = new ArrayList<>();
+            }
+            else if (line.equalsIgnoreCase(END_EVENT_LINE) && eventLines != null){
+                compileEvent(eventLines, lastCompiledYear, exclusionCalendarBuilder);
+                eventLines = null;
+            }
+            else if (eventLines != null){
+                eventLines.add(line);
+            }
+        }
+
+        return exclusionCalendarBuilder.build();
+    }
+
+
+    /**
+     * Read the lines of an ICS file, joining folded lines (continuation lines starting with
+     * a space or tab) back into single lines
+     *
+     * @param icsInputStream input stream of the ICS file
+     * */
+    private static List<String> readUnfoldedLines(InputStream icsInputStream) throws IOException {
+
+        BufferedReader bufferedReader = new BufferedReader(
+                new InputStreamReader(icsInputStream, StandardCharsets.UTF_8));
+
+        List<String> unfoldedLines = new ArrayList<>();
+
+        String line;
+
+        while ((line = bufferedReader.readLine()) != null){
+
+            boolean isContinuationLine = !line.isEmpty() &&
+                    (line.charAt(0) == ' ' || line.charAt(0) == '\t');
+
+            if (isContinuationLine && !unfoldedLines.isEmpty()){
+
+                int lastIndex = unfoldedLines.size() - 1;
+
+                unfoldedLines.set(lastIndex, unfoldedLines.get(lastIndex) + line.substring(1));
+            }
+            else{
+                unfoldedLines.add(line.trim());
+            }
+        }
+
+        return unfoldedLines;
+    }
+
+
+    /**
+     * Exclude every day covered by an event, and by its yearly recurrences if any
+     *
+     * @param eventLines the lines between BEGIN:VEVENT and END:VEVENT
+     * @param lastCompiledYear the last year up to which yearly recurrences are expanded
+     * @param exclusionCalendarBuilder builder of the exclusion calendar
+     * */
+    private static void compileEvent(List<String> eventLines, int lastCompiledYear,
+                                     ExclusionCalendar.Builder exclusionCalendarBuilder){
+
+        LocalDate startDate = null;
+        LocalDate endDate = null;
+        String recurrenceRule = null;
+
+        try {
+            for (String eventLine : eventLines){
+
+                String propertyName = getPropertyName(eventLine);
+
+                if (propertyName.equalsIgnoreCase(START_DATE_PROPERTY)){
+                    startDate = parseDate(eventLine);
+                }
+                else if (propertyName.equalsIgnoreCase(END_DATE_PROPERTY)){
+                    endDate = parseEndDate(eventLine);
+                }
+                else if (propertyName.equalsIgnoreCase(RECURRENCE_RULE_PROPERTY)){
+                    recurrenceRule = getPropertyValue(eventLine);
+                }
+            }
+        }
+        catch (DateTimeException | IllegalArgumentException | IndexOutOfBoundsException exception){
+            return;
+        }
+
+        if (startDate == null){
+            return;
+        }
+
+        //an event without an end date covers its start date only
+        long numberOfDays = (endDate == null) ? 1 :
+                Math.max(1, endDate.toEpochDay() - startDate.toEpochDay() + 1);
+
+        numberOfDays = Math.min(numberOfDays, MAXIMUM_DAYS_PER_EVENT);
+
+        List<LocalDate> occurrenceStartDates =
+                expandYearlyRecurrence(startDate, recurrenceRule, lastCompiledYear);
+
+        for (LocalDate occurrenceStartDate : occurrenceStartDates){
+
+            for (int i = 0; i < numberOfDays; i++){
+
+                LocalDate excludedDate = occurrenceStartDate.plusDays(i);
+
+                exclusionCalendarBuilder.excludeDay(excludedDate.getYear(),
+                                                    excludedDate.getDayOfYear());
+            }
+        }
+    }
+
+
+    /**
+     * Returns the start dates of all the occurrences of an event: the start date itself and,
+     * if the event recurs yearly, its recurrences up to the last compiled year
+     *
+     * @param startDate start date of the event
+     * @param recurrenceRule value of the RRULE property of the event, or null if none
+     * @param lastCompiledYear the last year up to which yearly recurrences are expanded
+     * */
+    private static List<LocalDate> expandYearlyRecurrence(LocalDate startDate,
+                                                          String recurrenceRule,
+                                                          int lastCompiledYear){
+
+        List<LocalDate> occurrenceStartDates = new ArrayList<>();
+
+        occurrenceStartDates.add(startDate);
+
+        if (recurrenceRule == null || !recurrenceRule.toUpperCase().contains("FREQ=YEARLY")){
+            return occurrenceStartDates;
+        }
+
+        int interval = 1;
+        int count = Integer.MAX_VALUE;
+        LocalDate untilDate = LocalDate.of(lastCompiledYear, 12, 31);
+
+        try {
+            for (String rulePart : recurrenceRule.split(";")){
+
+                String[] rulePartNameAndValue = rulePart.split("=", 2);
+
+                if (rulePartNameAndValue.length != 2){
+                    continue;
+                }
+
+                String rulePartName = rulePartNameAndValue[0].toUpperCase();
+                String rulePartValue = rulePartNameAndValue[1];
+
+                if (rulePartName.equals("INTERVAL")){
+                    interval = Math.max(1, Integer.parseInt(rulePartValue));
+                }
+                else if (rulePartName.equals("COUNT")){
+                    count = Integer.parseInt(rulePartValue);
+                }
+                else if (rulePartName.equals("UNTIL")){
+                    LocalDate ruleUntilDate = parseBasicDate(rulePartValue);
+
+                    if (ruleUntilDate.isBefore(untilDate)){
+                        untilDate = ruleUntilDate;
+                    }
+                }
+            }
+        }
+        catch (DateTimeException | IllegalArgumentException | IndexOutOfBoundsException exception){
+            return occurrenceStartDates;
+        }
+
+        for (int occurrence = 1; occurrence < count; occurrence++){
+
+            LocalDate occurrenceStartDate = startDate.plusYears((long) occurrence * interval);
+
+            if (occurrenceStartDate.isAfter(untilDate)){
+                break;
+            }
+
+            occurrenceStartDates.add(occurrenceStartDate);
+        }
+
+        return occurrenceStartDates;
+    }
+
+
+    /**
+     * Returns the last day covered by an event, from its DTEND line
+     *
+     * The DTEND of an all-day event (a date value) is exclusive, so the event ends the day
+     * before. The DTEND of a timed event is inclusive, unless it is exactly midnight
+     *
+     * @param endDateLine the DTEND line of the event
+     * */
+    private static LocalDate parseEndDate(String endDateLine){
+
+        LocalDate endDate = parseDate(endDateLine);
+
+        String endDateValue = getPropertyValue(endDateLine);
+
+        boolean isDateValue = endDateLine.toUpperCase().contains(DATE_VALUE_PARAMETER)
+                                || endDateValue.length() == 8;
+
+        boolean isMidnight = endDateValue.length() >= 15 &&
+                                endDateValue.substring(9, 15).equals("000000");
+
+        if (isDateValue || isMidnight){
+            return endDate.minusDays(1);
+        }
+
+        return endDate;
+    }
+
+
+    /**
+     * Returns the date of a DTSTART or DTEND line, ignoring the time if any
+     *
+     * @param dateLine e.g. "DTSTART;VALUE=DATE:20241225" or "DTSTART:20241225T090000Z"
+     * */
+    private static LocalDate parseDate(String dateLine){
+        return parseBasicDate(getPropertyValue(dateLine));
+    }
+
+
+    /**
+     * Returns the date of an ICS date or date-time value, ignoring the time if any
+     *
+     * @param dateValue e.g. "20241225" or "20241225T090000Z"
+     * */
+    private static LocalDate parseBasicDate(String dateValue){
+
+        return LocalDate.of(Integer.parseInt(dateValue.substring(0, 4)),
+                            Integer.parseInt(dateValue.substring(4, 6)),
+                            Integer.parseInt(dateValue.substring(6, 8)));
+    }
+
+
+    /**
+     * Returns the name of the property of an ICS line, e.g. "DTSTART" for
+     * "DTSTART;VALUE=DATE:20241225"
+     *
+     * @param line the ICS line
+     * */
+    private static String getPropertyName(String line){
+
+        int endIndex = line.length();
+
+        int colonIndex = line.indexOf(':');
+        int semicolonIndex = line.indexOf(';');
+
+        if (colonIndex != -1){
+            endIndex = colonIndex;
+        }
+
+        if (semicolonIndex != -1 && semicolonIndex < endIndex){
+            endIndex = semicolonIndex;
+        }
+
+        return line.substring(0, endIndex);
+    }
+
+
+    /**
+     * Returns the value of the property of an ICS line, e.g. "20241225" for
+     * "DTSTART;VALUE=DATE:20241225"
+     *
+     * @param line the ICS line
+     * */
+    private static String getPropertyValue(String line){
+        return line.substring(line.indexOf(':') + 1).trim();
+    }
+}
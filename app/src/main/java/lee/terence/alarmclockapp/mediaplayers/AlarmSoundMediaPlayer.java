@@ -1,19 +1,63 @@
 package lee.terence.alarmclockapp.mediaplayers;
 
 import android.content.Context;
+import android.media.AudioAttributes;
 import android.media.MediaPlayer;
+import android.media.VolumeShaper;
+import android.net.Uri;
+import android.os.Build;
+import android.os.VibrationAttributes;
+import android.os.VibrationEffect;
+import android.os.Vibrator;
+
+import java.io.File;
+import java.util.Objects;
 
 import lee.terence.alarmclockapp.R;
+import lee.terence.alarmclockapp.helpers.AlarmClockResourceTrackingHelper;
+import lee.terence.alarmclockapp.helpers.AlarmClockRingtoneCacheHelper;
+import lee.terence.alarmclockapp.helpers.AlarmClockSharedPreferencesHelper;
+import lee.terence.alarmclockapp.helpers.AlarmClockStartupHelper;
+import lee.terence.alarmclockapp.helpers.AlarmClockStartupHelper.StartupDependency;
+import lee.terence.alarmclockapp.helpers.AlarmClockResourceTrackingHelper.ResourceType;
+import lee.terence.alarmclockapp.models.Alarm;
+import lee.terence.alarmclockapp.models.CrescendoCurve;
+import lee.terence.alarmclockapp.models.VibrationPattern;
 
 
 /**
  * A Singleton simple media player that allows the playing of a simple alarm ringing sound
  *
+ * An alarm rings with its ringtone if one has been picked for it, played from the copy in the
+ * ringtone cache (see AlarmClockRingtoneCacheHelper) rather than from its content provider.
+ * If the alarm has no ringtone, or its ringtone is not cached or cannot be played, the alarm
+ * sound bundled with the app is played instead
+ *
+ * The alarm sound rises to full volume along the configured CrescendoCurve, and the device
+ * vibrates in the configured VibrationPattern while it plays. Neither is stepped by the app:
+ * the crescendo is handed to the system's audio mixer as a VolumeShaper, which applies the
+ * gain at every buffer it mixes, on the mixer's own thread, for however many players there
+ * are, and the vibration pattern is handed to the system vibrator as a single repeating
+ * waveform. Once the alarm sound has started, ringing it costs the app no thread, timer,
+ * message or allocation at all
+ *
  * <b>Example Usage:</b>
  * <pre>
  *     //Start playing the alarm ring sound
  *     //assuming currently in an activity
- *     AlarmSoundMediaPlayer.playAlarmRingingSound(getApplicationContext())
+ *     AlarmSoundMediaPlayer.playAlarmRingingSound(getApplicationContext(),
+ *                                                  alarm.getRingtoneUri())
+ *
+ *     //or, prepare the alarm ring sound ahead of time, so that playing it later
+ *     //only starts the playback
+ *     AlarmSoundMediaPlayer.prepareAlarmRingingSound(getApplicationContext(), alarm.getId(),
+ *                                                  alarm.getRingtoneUri())
+ *     ....
+ *     AlarmSoundMediaPlayer.playAlarmRingingSound(getApplicationContext(),
+ *                                                  alarm.getRingtoneUri())
+ *     ....
+ *     //or release it, if the alarm is deleted before it goes off
+ *     AlarmSoundMediaPlayer.releasePreparedAlarmRingingSound(alarm.getId());
  *     ....
  *     //stop alarm ringing sound if no longer needed
  *     AlarmSoundMediaPlayer.stopAlarmRingingSoundIfPlaying();
@@ -25,6 +69,45 @@ public class AlarmSoundMediaPlayer {
 
     private static MediaPlayer mediaPlayer;
 
+    /**
+     * Whether the media player has been prepared, but has not yet started playing
+     * */
+    private static boolean isMediaPlayerPreparedButNotStarted = false;
+
+    /**
+     * The ringtone uri that the media player has been prepared for (Alarm.DEFAULT_RINGTONE_URI
+     * for the alarm sound bundled with the app)
+     * */
+    private static String preparedRingtoneUri;
+
+    /**
+     * Id of the alarm that the media player has been prepared ahead of (by its pre-fire
+     * warm-up), or Alarm.NO_ALARM_ID if it has not been prepared ahead of any alarm, or has
+     * started playing
+     * */
+    private static int preparedAlarmId = Alarm.NO_ALARM_ID;
+
+    /**
+     * The crescendo applied to the media player, or null if none
+     * */
+    private static VolumeShaper crescendoVolumeShaper;
+
+    /**
+     * The vibrator vibrating while the alarm sound plays, or null if the device is not
+     * vibrating
+     * */
+    private static Vibrator vibrator;
+
+    /**
+     * Number of points the crescendo curve is sampled at, for the curve of the VolumeShaper
+     * */
+    private static final int NUMBER_OF_CRESCENDO_CURVE_POINTS = 16;
+
+    private static final AudioAttributes ALARM_AUDIO_ATTRIBUTES = new AudioAttributes.Builder()
+            .setUsage(AudioAttributes.USAGE_ALARM)
+            .setContentType(AudioAttributes.CONTENT_TYPE_SONIFICATION)
+            .build();
+
 
     /**
      * All methods in this class are static, so there is no need for a constructor for this class
@@ -35,33 +118,266 @@ public class AlarmSoundMediaPlayer {
 
 
     /**
-     * Play the alarm ringing sound indefinitely.
+     * Decode and prepare the alarm ringing sound without playing it, so that a later call
+     * to playAlarmRingingSound only has to start the playback
+     *
+     * Does nothing if the alarm ringing sound is already playing, or has already been prepared
+     * for the same ringtone. If it has been prepared for another ringtone, it is prepared again.
+     * Only one media player is ever allocated, so none is orphaned by preparing the sound more
+     * than once
+     *
+     * If the alarm sound bundled with the app is still being read in at process start, waits
+     * for it first, so that it is not read from disk twice at the same time
+     *
+     * @param context The context to use
+     * @param alarmId id of the alarm the sound is prepared ahead of, so that it can be
+     *                released if the alarm is deleted before it goes off
+     * @param ringtoneUri the ringtone of the alarm, or Alarm.DEFAULT_RINGTONE_URI
+     *
+     * @see AlarmSoundMediaPlayer#playAlarmRingingSound(Context, String)
+     * @see AlarmSoundMediaPlayer#releasePreparedAlarmRingingSound(int)
+     * */
+    public static void prepareAlarmRingingSound(Context context, int alarmId,
+                                                String ringtoneUri){
+
+        prepareMediaPlayer(context, ringtoneUri);
+
+        if (isMediaPlayerPreparedButNotStarted){
+            preparedAlarmId = alarmId;
+        }
+    }
+
+
+    /**
+     * Decode and prepare the media player for a ringtone without playing it. Does nothing if
+     * it is already playing, or has already been prepared for the same ringtone
+     *
+     * @param context The context to use
+     * @param ringtoneUri the ringtone of the alarm, or Alarm.DEFAULT_RINGTONE_URI
+     * */
+    private static void prepareMediaPlayer(Context context, String ringtoneUri){
+
+        if (mediaPlayer != null){
+
+            if (!isMediaPlayerPreparedButNotStarted ||
+                    Objects.equals(preparedRingtoneUri, ringtoneUri)){
+                return;
+            }
+
+            stopAlarmRingingSoundIfPlaying();
+        }
+
+        File cachedRingtoneFile =
+                AlarmClockRingtoneCacheHelper.getCachedRingtoneFile(context, ringtoneUri);
+
+        if (cachedRingtoneFile != null){
+            mediaPlayer = MediaPlayer.create(context, Uri.fromFile(cachedRingtoneFile));
+        }
+
+        if (mediaPlayer == null){
+
+            AlarmClockStartupHelper.awaitDependency(context, StartupDependency.ALARM_SOUND);
+
+            mediaPlayer = MediaPlayer.create(context, R.raw.alarm_sound);
+        }
+
+        if (mediaPlayer == null){
+            return;
+        }
+
+        preparedRingtoneUri = ringtoneUri;
+
+        applyCrescendo(context);
+
+        AlarmClockResourceTrackingHelper.onResourceAllocated(ResourceType.MEDIA_PLAYER);
+
+        mediaPlayer.setLooping(true);
+
+        isMediaPlayerPreparedButNotStarted = true;
+    }
+
+
+    /**
+     * Apply the configured crescendo to the media player before it starts, so that the alarm
+     * sound starts at the bottom of the crescendo rather than at full volume. The crescendo
+     * curve is sampled once, here; the system's audio mixer interpolates between the samples
+     * at every buffer it mixes
+     *
+     * @param context to be used for reading the configured crescendo
+     * */
+    private static void applyCrescendo(Context context){
+
+        CrescendoCurve crescendoCurve =
+                AlarmClockSharedPreferencesHelper.getCrescendoCurve(context);
+
+        long crescendoDurationInSeconds =
+                AlarmClockSharedPreferencesHelper.getCrescendoDurationInSeconds(context);
+
+        if (crescendoCurve == CrescendoCurve.NONE || crescendoDurationInSeconds <= 0){
+            return;
+        }
+
+        float[] times = new float[NUMBER_OF_CRESCENDO_CURVE_POINTS];
+        float[] volumes = new float[NUMBER_OF_CRESCENDO_CURVE_POINTS];
+
+        for (int i = 0; i < NUMBER_OF_CRESCENDO_CURVE_POINTS; i++){
+            times[i] = (float) i / (NUMBER_OF_CRESCENDO_CURVE_POINTS - 1);
+            volumes[i] = crescendoCurve.getGain(times[i]);
+        }
+
+        VolumeShaper.Configuration crescendoConfiguration = new VolumeShaper.Configuration.Builder()
+                .setCurve(times, volumes)
+                .setInterpolatorType(VolumeShaper.Configuration.INTERPOLATOR_TYPE_CUBIC_MONOTONIC)
+                .setDuration(crescendoDurationInSeconds * 1000)
+                .build();
+
+        try {
+            crescendoVolumeShaper = mediaPlayer.createVolumeShaper(crescendoConfiguration);
+
+            //runs from when the media player starts playing
+            crescendoVolumeShaper.apply(VolumeShaper.Operation.PLAY);
+        }
+        catch (IllegalStateException illegalStateException){
+            //the alarm sound plays at full volume
+            crescendoVolumeShaper = null;
+        }
+    }
+
+
+    /**
+     * Start vibrating in the configured vibration pattern, repeating until the alarm sound is
+     * stopped. Does nothing if the device is already vibrating, or has no vibrator
+     *
+     * @param context to be used for reading the configured vibration pattern
+     * */
+    private static void startVibratingIfNotVibrating(Context context){
+
+        if (vibrator != null){
+            return;
+        }
+
+        VibrationPattern vibrationPattern =
+                AlarmClockSharedPreferencesHelper.getVibrationPattern(context);
+
+        Vibrator deviceVibrator = context.getSystemService(Vibrator.class);
+
+        if (!vibrationPattern.isVibrating() || deviceVibrator == null ||
+                !deviceVibrator.hasVibrator()){
+            return;
+        }
+
+        //repeats from the first segment
+        VibrationEffect vibrationEffect = VibrationEffect.createWaveform(
+                vibrationPattern.getSegmentDurationsInMilliseconds(),
+                vibrationPattern.getSegmentAmplitudes(), 0);
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU){
+            deviceVibrator.vibrate(vibrationEffect,
+                    VibrationAttributes.createForUsage(VibrationAttributes.USAGE_ALARM));
+        }
+        else{
+            vibrateWithAudioAttributes(deviceVibrator, vibrationEffect);
+        }
+
+        vibrator = deviceVibrator;
+    }
+
+
+    /**
+     * Vibrate with the audio attributes of an alarm, the only way to mark the vibration as an
+     * alarm's before VibrationAttributes were added in API level 33
+     *
+     * @param deviceVibrator the vibrator of the device
+     * @param vibrationEffect the vibration to play
+     * */
+    @SuppressWarnings("deprecation")
+    private static void vibrateWithAudioAttributes(Vibrator deviceVibrator,
+                                                   VibrationEffect vibrationEffect){
+
+        deviceVibrator.vibrate(vibrationEffect, ALARM_AUDIO_ATTRIBUTES);
+    }
+
+
+    /**
+     * Play the alarm ringing sound indefinitely. If the alarm ringing sound has been
+     * prepared ahead of time, only starts the playback
      *
      * To stop the alarm ring sound, call stopAlarmRingingSoundIfPlaying
      *
+     * @param context The context to use
+     * @param ringtoneUri the ringtone of the alarm, or Alarm.DEFAULT_RINGTONE_URI
+     *
+     * @return true if the alarm ringing sound had been prepared ahead of time, and false
+     * if it had to be decoded and prepared in this call
+     *
      * @see AlarmSoundMediaPlayer#stopAlarmRingingSoundIfPlaying()
+     * @see AlarmSoundMediaPlayer#prepareAlarmRingingSound(Context, int, String)
      * */
-    public static void playAlarmRingingSound(Context context){
+    public static boolean playAlarmRingingSound(Context context, String ringtoneUri){
 
-        mediaPlayer = MediaPlayer.create(context, R.raw.alarm_sound);
-        mediaPlayer.setLooping(true);
+        boolean wasPreparedAheadOfTime = isMediaPlayerPreparedButNotStarted &&
+                                            Objects.equals(preparedRingtoneUri, ringtoneUri);
+
+        prepareMediaPlayer(context, ringtoneUri);
+
+        isMediaPlayerPreparedButNotStarted = false;
+        preparedAlarmId = Alarm.NO_ALARM_ID;
+
+        if (mediaPlayer != null){
+            mediaPlayer.start();
+        }
 
-        mediaPlayer.start();
+        startVibratingIfNotVibrating(context);
+
+        return wasPreparedAheadOfTime;
     }
 
 
     /**
-     * Stop the alarm sound from playing, and release relevant system resources,
-     * if it is playing.
+     * Stop the alarm sound from playing (and the device from vibrating), and release relevant
+     * system resources, if it is playing or has been prepared.
      *
      * Otherwise do nothing if the alarm sound is not playing
      * */
     public static void stopAlarmRingingSoundIfPlaying(){
 
+        if (vibrator != null){
+            vibrator.cancel();
+            vibrator = null;
+        }
+
+        if (crescendoVolumeShaper != null){
+            crescendoVolumeShaper.close();
+            crescendoVolumeShaper = null;
+        }
+
         if (mediaPlayer != null){
             mediaPlayer.stop();
             mediaPlayer.release();
             mediaPlayer = null;
+            preparedRingtoneUri = null;
+
+            AlarmClockResourceTrackingHelper.onResourceReleased(ResourceType.MEDIA_PLAYER);
+        }
+
+        isMediaPlayerPreparedButNotStarted = false;
+        preparedAlarmId = Alarm.NO_ALARM_ID;
+    }
+
+
+    /**
+     * Release the alarm sound if it has been prepared ahead of the given alarm, and has not
+     * started playing, e.g. once the alarm has been deleted
+     *
+     * Does nothing otherwise, so that an alarm sound that is ringing (for any alarm) is
+     * never stopped by it
+     *
+     * @param alarmId id of the alarm the sound may have been prepared ahead of
+     * */
+    public static void releasePreparedAlarmRingingSound(int alarmId){
+
+        if (isMediaPlayerPreparedButNotStarted && preparedAlarmId == alarmId){
+            stopAlarmRingingSoundIfPlaying();
         }
     }
 }
@@ -0,0 +1,560 @@
+package lee.terence.alarmclockapp.models;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * An immutable alarm: the hour of day and minute it is set for, the time it is next set
+ * to go off, and how precisely it is to go off
+ *
+ * An alarm may recur on some days of the week, skipping the dates excluded by the exclusion
+ * calendars it refers to (by name). An alarm that does not recur goes off once
+ *
+ * A disabled alarm is kept, but does not go off until it is enabled again. An alarm may also
+ * belong to an alarm group, and then only goes off while its alarm group is enabled
+ *
+ * An alarm that is missed (e.g. while the device is off) is rung late, notified or skipped
+ * according to its missed alarm policy, once the app finds out about it
+ *
+ * Each alarm has an id, allocated by the AlarmClockState, which also identifies the
+ * alarm's pending intents with the Android system AlarmManager
+ *
+ * <b>Example Usage:</b>
+ * <pre>
+ *     Alarm alarm = new Alarm.Builder()
+ *                          .setId(alarmId)
+ *                          .setHourOfDay(17)
+ *                          .setMinute(25)
+ *                          .setAlarmTime(alarmTimeInMillisecondsSinceEpoch)
+ *                          .setPrecisionTier(AlarmPrecisionTier.WINDOWED)
+ *                          .build();
+ *
+ *     //an alarm for every weekday, except on public holidays
+ *     Alarm weekdayAlarm = new Alarm.Builder()
+ *                          .setHourOfDay(7)
+ *                          .setMinute(0)
+ *                          .setRepeatDays(Alarm.WEEKDAYS)
+ *                          .setExclusionCalendarNames(Collections.singletonList("Holidays"))
+ *                          .build();
+ *
+ *     //to change the alarm, build a modified copy
+ *     Alarm editedAlarm = alarm.toBuilder().setMinute(30).build();
+ * </pre>
+ *
+ * @author Terence Lee
+ * */
+public class Alarm {
+
+    private static final String ID_KEY = "id";
+    private static final String HOUR_OF_DAY_KEY = "hourOfDay";
+    private static final String MINUTE_KEY = "minute";
+    private static final String ALARM_TIME_KEY = "alarmTime";
+    private static final String PRECISION_TIER_KEY = "precisionTier";
+    private static final String WINDOW_TOLERANCE_KEY = "windowTolerance";
+    private static final String REPEAT_DAYS_KEY = "repeatDays";
+    private static final String EXCLUSION_CALENDAR_NAMES_KEY = "exclusionCalendarNames";
+    private static final String ENABLED_KEY = "enabled";
+    private static final String GROUP_ID_KEY = "groupId";
+    private static final String MISSED_ALARM_POLICY_KEY = "missedAlarmPolicy";
+    private static final String RINGTONE_URI_KEY = "ringtoneUri";
+
+    /**
+     * Default window within which a WINDOWED alarm goes off. This is also the minimum window
+     * that the system allows since Android 12
+     * */
+    public static final long DEFAULT_WINDOW_TOLERANCE_IN_MILLISECONDS = 10 * 60 * 1000;
+
+    /**
+     * Widest window within which a WINDOWED alarm may be set to go off
+     * */
+    public static final long MAXIMUM_WINDOW_TOLERANCE_IN_MILLISECONDS = 60 * 60 * 1000;
+
+    /**
+     * Repeat days of an alarm that does not recur
+     * */
+    public static final int NO_REPEAT_DAYS = 0;
+
+    /**
+     * Repeat days of an alarm that recurs from Monday to Friday
+     * */
+    public static final int WEEKDAYS = getRepeatDayBit(Calendar.MONDAY) |
+            getRepeatDayBit(Calendar.TUESDAY) | getRepeatDayBit(Calendar.WEDNESDAY) |
+            getRepeatDayBit(Calendar.THURSDAY) | getRepeatDayBit(Calendar.FRIDAY);
+
+    /**
+     * Alarm time of an alarm that has no next occurrence (e.g. a recurring alarm whose
+     * every repeat day is excluded), and so is not set to go off
+     * */
+    public static final long NO_ALARM_TIME = -1;
+
+    /**
+     * Alarm group id of an alarm that belongs to no alarm group
+     * */
+    public static final int NO_GROUP = -1;
+
+    /**
+     * Id of an alarm that has not been allocated an id yet, e.g. a new alarm about to be added
+     * */
+    public static final int NO_ALARM_ID = -1;
+
+    /**
+     * Ringtone uri of an alarm that rings with the alarm sound bundled with the app
+     * */
+    public static final String DEFAULT_RINGTONE_URI = null;
+
+
+    private final int id;
+
+    private final int hourOfDay;
+
+    private final int minute;
+
+    private final long alarmTimeInMillisecondsSinceEpoch;
+
+    private final AlarmPrecisionTier precisionTier;
+
+    private final long windowToleranceInMilliseconds;
+
+    private final int repeatDays;
+
+    private final List<String> exclusionCalendarNames;
+
+    private final boolean enabled;
+
+    private final int groupId;
+
+    private final MissedAlarmPolicy missedAlarmPolicy;
+
+    private final String ringtoneUri;
+
+
+    private Alarm(Builder builder){
+        this.id = builder.id;
+        this.hourOfDay = builder.hourOfDay;
+        this.minute = builder.minute;
+        this.alarmTimeInMillisecondsSinceEpoch = builder.alarmTimeInMillisecondsSinceEpoch;
+        this.precisionTier = builder.precisionTier;
+        this.windowToleranceInMilliseconds = builder.windowToleranceInMilliseconds;
+        this.repeatDays = builder.repeatDays;
+        this.exclusionCalendarNames = Collections.unmodifiableList(
+                                            new ArrayList<>(builder.exclusionCalendarNames));
+        this.enabled = builder.enabled;
+        this.groupId = builder.groupId;
+        this.missedAlarmPolicy = builder.missedAlarmPolicy;
+        this.ringtoneUri = builder.ringtoneUri;
+    }
+
+
+    /**
+     * Returns the bit of a day of the week in the repeat days of an alarm
+     *
+     * @param dayOfWeek the day of the week, e.g. Calendar.MONDAY
+     * */
+    public static int getRepeatDayBit(int dayOfWeek){
+        return 1 << (dayOfWeek - Calendar.SUNDAY);
+    }
+
+
+    public int getId(){
+        return id;
+    }
+
+    /**
+     * Returns the hour of the day the alarm is set for (value from 0 (inclusive) to
+     * 23 (inclusive))
+     * */
+    public int getHourOfDay(){
+        return hourOfDay;
+    }
+
+    /**
+     * Returns the minute of the hour the alarm is set for (value from 0 (inclusive) to
+     * 59 (inclusive))
+     * */
+    public int getMinute(){
+        return minute;
+    }
+
+    /**
+     * Returns the time the alarm is next set to go off, in milliseconds since epoch
+     * */
+    public long getAlarmTimeInMillisecondsSinceEpoch(){
+        return alarmTimeInMillisecondsSinceEpoch;
+    }
+
+    /**
+     * Returns how precisely the alarm is to go off
+     * */
+    public AlarmPrecisionTier getPrecisionTier(){
+        return precisionTier;
+    }
+
+    /**
+     * Returns the window after the alarm time within which the alarm goes off, if it is set
+     * as a WINDOWED alarm
+     * */
+    public long getWindowToleranceInMilliseconds(){
+        return windowToleranceInMilliseconds;
+    }
+
+    /**
+     * Returns the days of the week the alarm recurs on, one bit per day
+     * (see Alarm.getRepeatDayBit), or NO_REPEAT_DAYS if the alarm does not recur
+     * */
+    public int getRepeatDays(){
+        return repeatDays;
+    }
+
+    /**
+     * Returns true if the alarm recurs on some days of the week, and false if it goes off once
+     * */
+    public boolean isRecurring(){
+        return repeatDays != NO_REPEAT_DAYS;
+    }
+
+    /**
+     * Returns true if the alarm recurs on the given day of the week, and false if otherwise
+     *
+     * @param dayOfWeek the day of the week, e.g. Calendar.MONDAY
+     * */
+    public boolean isRepeatDay(int dayOfWeek){
+        return (repeatDays & getRepeatDayBit(dayOfWeek)) != 0;
+    }
+
+    /**
+     * Returns the names of the exclusion calendars whose dates the alarm skips
+     * */
+    public List<String> getExclusionCalendarNames(){
+        return exclusionCalendarNames;
+    }
+
+    /**
+     * Returns true if the alarm is to go off, and false if it has been disabled
+     * */
+    public boolean isEnabled(){
+        return enabled;
+    }
+
+    /**
+     * Returns the id of the alarm group the alarm belongs to, or NO_GROUP if it belongs to
+     * no alarm group
+     * */
+    public int getGroupId(){
+        return groupId;
+    }
+
+    /**
+     * Returns what to do about the alarm if it is missed
+     * */
+    public MissedAlarmPolicy getMissedAlarmPolicy(){
+        return missedAlarmPolicy;
+    }
+
+    /**
+     * Returns the content uri of the audio the alarm rings with (as a string), or
+     * DEFAULT_RINGTONE_URI if it rings with the alarm sound bundled with the app
+     * */
+    public String getRingtoneUri(){
+        return ringtoneUri;
+    }
+
+    /**
+     * Returns true if the alarm rings with audio picked by the user, and false if it rings
+     * with the alarm sound bundled with the app
+     * */
+    public boolean hasCustomRingtone(){
+        return ringtoneUri != null;
+    }
+
+
+    /**
+     * Returns a canonical hash of the alarm's recurrence and time, i.e. of everything that
+     * decides when it goes off: its hour of day and minute, its repeat days, its exclusion
+     * calendars (in any order) and its alarm group. Its id, alarm time, precision, missed
+     * alarm policy, ringtone and whether it is enabled are left out
+     *
+     * Alarms with the same recurrence and time always have the same canonical hash. Alarms
+     * with the same canonical hash almost always have the same recurrence and time, which is
+     * then confirmed with hasSameRecurrenceAndTime
+     *
+     * The hour of day, minute and repeat days are packed as they are into the high bits, so
+     * alarms that differ in them never share a canonical hash
+     * */
+    public long getCanonicalHash(){
+
+        long minuteOfDay = hourOfDay * 60L + minute;
+
+        long canonicalHash = (minuteOfDay << 8 | repeatDays) << 32;
+
+        return canonicalHash | ((31 * groupId + getSortedExclusionCalendarNames().hashCode())
+                                                                            & 0xFFFFFFFFL);
+    }
+
+
+    /**
+     * Returns true if the given alarm has the same recurrence and time as this alarm (see
+     * getCanonicalHash), i.e. the two would always go off together, and false if otherwise
+     *
+     * @param otherAlarm the alarm to compare with
+     * */
+    public boolean hasSameRecurrenceAndTime(Alarm otherAlarm){
+
+        return hourOfDay == otherAlarm.hourOfDay && minute == otherAlarm.minute &&
+                repeatDays == otherAlarm.repeatDays && groupId == otherAlarm.groupId &&
+                getSortedExclusionCalendarNames().equals(
+                        otherAlarm.getSortedExclusionCalendarNames());
+    }
+
+
+    /**
+     * Returns true if the two alarms are the same alarm set to go off at the same time (or
+     * are both null, e.g. when there is no next alarm), and false if otherwise. Used to tell
+     * whether the next alarm has changed, and with it what is displayed of it
+     *
+     * @param alarm an alarm, or null
+     * @param otherAlarm the alarm to compare with, or null
+     * */
+    public static boolean isSameOccurrence(Alarm alarm, Alarm otherAlarm){
+
+        if (alarm == null || otherAlarm == null){
+            return alarm == otherAlarm;
+        }
+
+        return alarm.id == otherAlarm.id && alarm.alarmTimeInMillisecondsSinceEpoch ==
+                                            otherAlarm.alarmTimeInMillisecondsSinceEpoch;
+    }
+
+
+    /**
+     * Returns the names of the exclusion calendars of the alarm in alphabetical order, so
+     * that the order they were selected in makes no difference
+     * */
+    private List<String> getSortedExclusionCalendarNames(){
+
+        if (exclusionCalendarNames.size() < 2){
+            return exclusionCalendarNames;
+        }
+
+        List<String> sortedExclusionCalendarNames = new ArrayList<>(exclusionCalendarNames);
+
+        Collections.sort(sortedExclusionCalendarNames);
+
+        return sortedExclusionCalendarNames;
+    }
+
+
+    /**
+     * Returns a builder initialized with the values of this alarm, to build a modified copy
+     * of this alarm
+     * */
+    public Builder toBuilder(){
+
+        return new Builder()
+                .setId(id)
+                .setHourOfDay(hourOfDay)
+                .setMinute(minute)
+                .setAlarmTime(alarmTimeInMillisecondsSinceEpoch)
+                .setPrecisionTier(precisionTier)
+                .setWindowTolerance(windowToleranceInMilliseconds)
+                .setRepeatDays(repeatDays)
+                .setExclusionCalendarNames(exclusionCalendarNames)
+                .setEnabled(enabled)
+                .setGroupId(groupId)
+                .setMissedAlarmPolicy(missedAlarmPolicy)
+                .setRingtoneUri(ringtoneUri);
+    }
+
+
+    /**
+     * Returns this alarm as a JSON string, to be stored in the app's shared preferences storage
+     *
+     * @see Alarm#fromJsonString(String)
+     * */
+    public String toJsonString(){
+
+        try {
+            JSONObject jsonObject = new JSONObject();
+
+            jsonObject.put(ID_KEY, id);
+            jsonObject.put(HOUR_OF_DAY_KEY, hourOfDay);
+            jsonObject.put(MINUTE_KEY, minute);
+            jsonObject.put(ALARM_TIME_KEY, alarmTimeInMillisecondsSinceEpoch);
+            jsonObject.put(PRECISION_TIER_KEY, precisionTier.name());
+            jsonObject.put(WINDOW_TOLERANCE_KEY, windowToleranceInMilliseconds);
+            jsonObject.put(REPEAT_DAYS_KEY, repeatDays);
+            jsonObject.put(EXCLUSION_CALENDAR_NAMES_KEY, new JSONArray(exclusionCalendarNames));
+            jsonObject.put(ENABLED_KEY, enabled);
+            jsonObject.put(GROUP_ID_KEY, groupId);
+            jsonObject.put(MISSED_ALARM_POLICY_KEY, missedAlarmPolicy.name());
+
+            if (ringtoneUri != null){
+                jsonObject.put(RINGTONE_URI_KEY, ringtoneUri);
+            }
+
+            return jsonObject.toString();
+        }
+        catch (JSONException jsonException){
+            throw new IllegalStateException("Unable to convert alarm to JSON", jsonException);
+        }
+    }
+
+
+    /**
+     * Returns the alarm represented by a JSON string, or null if the JSON string does not
+     * represent an alarm
+     *
+     * Values missing from the JSON string (e.g. of an alarm stored by an older version of the
+     * app) take their default values
+     *
+     * @param jsonString a JSON string returned by toJsonString
+     *
+     * @see Alarm#toJsonString()
+     * */
+    public static Alarm fromJsonString(String jsonString){
+
+        try {
+            JSONObject jsonObject = new JSONObject(jsonString);
+
+            List<String> exclusionCalendarNames = new ArrayList<>();
+
+            JSONArray exclusionCalendarNamesJsonArray =
+                                    jsonObject.optJSONArray(EXCLUSION_CALENDAR_NAMES_KEY);
+
+            if (exclusionCalendarNamesJsonArray != null){
+
+                for (int i = 0; i < exclusionCalendarNamesJsonArray.length(); i++){
+                    exclusionCalendarNames.add(exclusionCalendarNamesJsonArray.getString(i));
+                }
+            }
+
+            return new Builder()
+                    .setId(jsonObject.getInt(ID_KEY))
+                    .setHourOfDay(jsonObject.getInt(HOUR_OF_DAY_KEY))
+                    .setMinute(jsonObject.getInt(MINUTE_KEY))
+                    .setAlarmTime(jsonObject.getLong(ALARM_TIME_KEY))
+                    .setPrecisionTier(AlarmPrecisionTier.valueOf(jsonObject.optString(
+                            PRECISION_TIER_KEY, AlarmPrecisionTier.EXACT_WHILE_IDLE.name())))
+                    .setWindowTolerance(jsonObject.optLong(WINDOW_TOLERANCE_KEY,
+                            DEFAULT_WINDOW_TOLERANCE_IN_MILLISECONDS))
+                    .setRepeatDays(jsonObject.optInt(REPEAT_DAYS_KEY, NO_REPEAT_DAYS))
+                    .setExclusionCalendarNames(exclusionCalendarNames)
+                    .setEnabled(jsonObject.optBoolean(ENABLED_KEY, true))
+                    .setGroupId(jsonObject.optInt(GROUP_ID_KEY, NO_GROUP))
+                    .setMissedAlarmPolicy(MissedAlarmPolicy.valueOf(jsonObject.optString(
+                            MISSED_ALARM_POLICY_KEY, MissedAlarmPolicy.NOTIFY.name())))
+                    .setRingtoneUri(jsonObject.isNull(RINGTONE_URI_KEY) ? DEFAULT_RINGTONE_URI :
+                            jsonObject.getString(RINGTONE_URI_KEY))
+                    .build();
+        }
+        catch (JSONException | IllegalArgumentException exception){
+            return null;
+        }
+    }
+
+
+    /**
+     * A builder of alarms
+     *
+     * Unless set otherwise, alarms are enabled EXACT_WHILE_IDLE alarms that do not recur, skip
+     * no dates, belong to no alarm group, are notified if missed and ring with the alarm sound
+     * bundled with the app
+     * */
+    public static class Builder {
+
+        private int id;
+
+        private int hourOfDay;
+
+        private int minute;
+
+        private long alarmTimeInMillisecondsSinceEpoch;
+
+        private AlarmPrecisionTier precisionTier = AlarmPrecisionTier.EXACT_WHILE_IDLE;
+
+        private long windowToleranceInMilliseconds = DEFAULT_WINDOW_TOLERANCE_IN_MILLISECONDS;
+
+        private int repeatDays = NO_REPEAT_DAYS;
+
+        private List<String> exclusionCalendarNames = Collections.emptyList();
+
+        private boolean enabled = true;
+
+        private int groupId = NO_GROUP;
+
+        private MissedAlarmPolicy missedAlarmPolicy = MissedAlarmPolicy.NOTIFY;
+
+        private String ringtoneUri = DEFAULT_RINGTONE_URI;
+
+
+        public Builder setId(int id){
+            this.id = id;
+            return this;
+        }
+
+        public Builder setHourOfDay(int hourOfDay){
+            this.hourOfDay = hourOfDay;
+            return this;
+        }
+
+        public Builder setMinute(int minute){
+            this.minute = minute;
+            return this;
+        }
+
+        public Builder setAlarmTime(long alarmTimeInMillisecondsSinceEpoch){
+            this.alarmTimeInMillisecondsSinceEpoch = alarmTimeInMillisecondsSinceEpoch;
+            return this;
+        }
+
+        public Builder setPrecisionTier(AlarmPrecisionTier precisionTier){
+            this.precisionTier = precisionTier;
+            return this;
+        }
+
+        public Builder setWindowTolerance(long windowToleranceInMilliseconds){
+            this.windowToleranceInMilliseconds = windowToleranceInMilliseconds;
+            return this;
+        }
+
+        public Builder setRepeatDays(int repeatDays){
+            this.repeatDays = repeatDays;
+            return this;
+        }
+
+        public Builder setExclusionCalendarNames(List<String> exclusionCalendarNames){
+            this.exclusionCalendarNames = exclusionCalendarNames;
+            return this;
+        }
+
+        public Builder setEnabled(boolean enabled){
+            this.enabled = enabled;
+            return this;
+        }
+
+        public Builder setGroupId(int groupId){
+            this.groupId = groupId;
+            return this;
+        }
+
+        public Builder setMissedAlarmPolicy(MissedAlarmPolicy missedAlarmPolicy){
+            this.missedAlarmPolicy = missedAlarmPolicy;
+            return this;
+        }
+
+        public Builder setRingtoneUri(String ringtoneUri){
+            this.ringtoneUri = ringtoneUri;
+            return this;
+        }
+
+        public Alarm build(){
+            return new Alarm(this);
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package lee.terence.alarmclockapp.models;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.Build;
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import lee.terence.alarmclockapp.helpers.AlarmClockFormattingHelper;
+
+
+/**
+ * A compact, parcelable description of an alarm that has gone off, passed in the extras of
+ * the intents of the fire path (e.g. to AlarmClockAlertActivity), so that the alarm can be
+ * displayed without reading the app's shared preferences storage
+ *
+ * <b>Example Usage:</b>
+ * <pre>
+ *     AlarmAlertPayload payload = AlarmAlertPayload.create(getApplicationContext(), alarmId,
+ *                                              alarmTimeInMillisecondsSinceEpoch);
+ *
+ *     Intent intent = AlarmClockAlertActivity.createIntent(getApplicationContext(), payload);
+ *     ....
+ *     //in AlarmClockAlertActivity
+ *     AlarmAlertPayload payload = AlarmAlertPayload.fromIntent(getIntent());
+ * </pre>
+ *
+ * @author Terence Lee
+ * */
+public class AlarmAlertPayload implements Parcelable {
+
+    private static final String EXTRA_ALARM_ALERT_PAYLOAD =
+                                    "lee.terence.alarmclockapp.extra.ALARM_ALERT_PAYLOAD";
+
+    private final int alarmId;
+
+    private final String label;
+
+    private final long scheduledTimeInMillisecondsSinceEpoch;
+
+
+    /**
+     * @param alarmId id of the alarm that has gone off
+     * @param label preformatted alarm time to display, e.g. "2:35 PM"
+     * @param scheduledTimeInMillisecondsSinceEpoch the time the alarm was scheduled to go off
+     * */
+    public AlarmAlertPayload(int alarmId, String label,
+                             long scheduledTimeInMillisecondsSinceEpoch){
+
+        this.alarmId = alarmId;
+        this.label = label;
+        this.scheduledTimeInMillisecondsSinceEpoch = scheduledTimeInMillisecondsSinceEpoch;
+    }
+
+
+    /**
+     * Create a payload for an alarm, formatting its label from its scheduled time in the
+     * user's locale and clock setting. Must be called on the main thread
+     *
+     * E.g. of label: "2:35 PM" or "14:35"
+     *
+     * @param context The context to use. Usually your Application or Activity object
+     * @param alarmId id of the alarm that has gone off
+     * @param scheduledTimeInMillisecondsSinceEpoch the time the alarm was scheduled to go off
+     *
+     * @see AlarmClockFormattingHelper#formatAlarmTime(Context, long)
+     * */
+    public static AlarmAlertPayload create(Context context, int alarmId,
+                                           long scheduledTimeInMillisecondsSinceEpoch){
+
+        String label = AlarmClockFormattingHelper.formatAlarmTime(context,
+                                                    scheduledTimeInMillisecondsSinceEpoch);
+
+        return new AlarmAlertPayload(alarmId, label, scheduledTimeInMillisecondsSinceEpoch);
+    }
+
+
+    /**
+     * Put this payload into the extras of an intent
+     *
+     * @param intent the intent to put this payload into. Will be modified
+     * */
+    public void putInto(Intent intent){
+
+        intent.putExtra(EXTRA_ALARM_ALERT_PAYLOAD, this);
+    }
+
+
+    /**
+     * Returns the payload in the extras of an intent, or null if the intent carries no payload
+     *
+     * @param intent the intent to read the payload from
+     * */
+    public static AlarmAlertPayload fromIntent(Intent intent){
+
+        if (intent == null){
+            return null;
+        }
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU){
+            return intent.getParcelableExtra(EXTRA_ALARM_ALERT_PAYLOAD, AlarmAlertPayload.class);
+        }
+
+        return getUntypedParcelableExtra(intent);
+    }
+
+
+    /**
+     * Returns the payload in the extras of an intent, or null if there is none, the only way
+     * to read it before the typed getParcelableExtra was added in API level 33
+     *
+     * @param intent the intent to read the payload from
+     * */
+    @SuppressWarnings("deprecation")
+    private static AlarmAlertPayload getUntypedParcelableExtra(Intent intent){
+
+        return intent.getParcelableExtra(EXTRA_ALARM_ALERT_PAYLOAD);
+    }
+
+
+    public int getAlarmId(){
+        return alarmId;
+    }
+
+    public String getLabel(){
+        return label;
+    }
+
+    public long getScheduledTimeInMillisecondsSinceEpoch(){
+        return scheduledTimeInMillisecondsSinceEpoch;
+    }
+
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel parcel, int flags) {
+        parcel.writeInt(alarmId);
+        parcel.writeString(label);
+        parcel.writeLong(scheduledTimeInMillisecondsSinceEpoch);
+    }
+
+
+    public static final Creator<AlarmAlertPayload> CREATOR = new Creator<AlarmAlertPayload>() {
+
+        @Override
+        public AlarmAlertPayload createFromParcel(Parcel parcel) {
+            return new AlarmAlertPayload(parcel.readInt(), parcel.readString(),
+                                            parcel.readLong());
+        }
+
+        @Override
+        public AlarmAlertPayload[] newArray(int size) {
+            return new AlarmAlertPayload[size];
+        }
+    };
+}
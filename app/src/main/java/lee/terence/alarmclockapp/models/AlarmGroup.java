@@ -0,0 +1,61 @@
+package lee.terence.alarmclockapp.models;
+
+
+/**
+ * An immutable named alarm group (a profile), e.g. "Workdays" or "Night shift"
+ *
+ * The alarms of an alarm group only go off while the group is enabled. Whether each group is
+ * enabled is kept as one bit of a bitmask (bit n for the group of id n), rather than on each
+ * alarm, so a whole group is switched on or off without changing any of its alarms
+ *
+ * <b>Example Usage:</b>
+ * <pre>
+ *     AlarmGroup workdays = new AlarmGroup(0, "Workdays");
+ *
+ *     long enabledAlarmGroups = 0;
+ *
+ *     //enable the group
+ *     enabledAlarmGroups |= workdays.getBit();
+ * </pre>
+ *
+ * @author Terence Lee
+ * */
+public class AlarmGroup {
+
+    /**
+     * Maximum number of alarm groups, one per bit of the bitmask of enabled alarm groups
+     * */
+    public static final int MAXIMUM_NUMBER_OF_ALARM_GROUPS = Long.SIZE;
+
+
+    private final int id;
+
+    private final String name;
+
+
+    /**
+     * @param id id of the alarm group (value from 0 (inclusive) to
+     *           MAXIMUM_NUMBER_OF_ALARM_GROUPS (exclusive))
+     * @param name user visible name of the alarm group
+     * */
+    public AlarmGroup(int id, String name){
+        this.id = id;
+        this.name = name;
+    }
+
+
+    public int getId(){
+        return id;
+    }
+
+    public String getName(){
+        return name;
+    }
+
+    /**
+     * Returns the bit of this alarm group in the bitmask of enabled alarm groups
+     * */
+    public long getBit(){
+        return 1L << id;
+    }
+}
@@ -0,0 +1,169 @@
+package lee.terence.alarmclockapp.models;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Comparator;
+
+
+/**
+ * An immutable upcoming occurrence of an alarm: the alarm's id, a time at which it goes off,
+ * how precisely it is to go off then, and what it rings with
+ *
+ * A recurring alarm has many occurrences, one per day that it goes off on. Occurrences are
+ * kept in the checkpoint of upcoming occurrences, so that the next alarms can be displayed
+ * and set with the AlarmManager without loading the alarms or working out their recurrences
+ *
+ * <b>Example Usage:</b>
+ * <pre>
+ *     AlarmOccurrence alarmOccurrence = AlarmOccurrence.fromAlarm(alarm,
+ *                                              alarm.getAlarmTimeInMillisecondsSinceEpoch());
+ *
+ *     //the alarm as far as the AlarmManager needs to know, to set it
+ *     AlarmClockHelper.setAlarmClock(getApplicationContext(), alarmOccurrence.toAlarm());
+ * </pre>
+ *
+ * @author Terence Lee
+ * */
+public class AlarmOccurrence {
+
+    /**
+     * Orders occurrences by alarm time, and occurrences of the same alarm time by alarm id
+     * */
+    public static final Comparator<AlarmOccurrence> ALARM_TIME_COMPARATOR =
+            (alarmOccurrence, otherAlarmOccurrence) -> {
+
+        int alarmTimeComparison = Long.compare(alarmOccurrence.alarmTimeInMillisecondsSinceEpoch,
+                otherAlarmOccurrence.alarmTimeInMillisecondsSinceEpoch);
+
+        if (alarmTimeComparison != 0){
+            return alarmTimeComparison;
+        }
+
+        return Integer.compare(alarmOccurrence.alarmId, otherAlarmOccurrence.alarmId);
+    };
+
+    private static final String ALARM_ID_KEY = "id";
+    private static final String ALARM_TIME_KEY = "alarmTime";
+    private static final String PRECISION_TIER_KEY = "precisionTier";
+    private static final String WINDOW_TOLERANCE_KEY = "windowTolerance";
+    private static final String RINGTONE_URI_KEY = "ringtoneUri";
+
+
+    private final int alarmId;
+
+    private final long alarmTimeInMillisecondsSinceEpoch;
+
+    private final AlarmPrecisionTier precisionTier;
+
+    private final long windowToleranceInMilliseconds;
+
+    private final String ringtoneUri;
+
+
+    private AlarmOccurrence(int alarmId, long alarmTimeInMillisecondsSinceEpoch,
+                            AlarmPrecisionTier precisionTier, long windowToleranceInMilliseconds,
+                            String ringtoneUri){
+        this.alarmId = alarmId;
+        this.alarmTimeInMillisecondsSinceEpoch = alarmTimeInMillisecondsSinceEpoch;
+        this.precisionTier = precisionTier;
+        this.windowToleranceInMilliseconds = windowToleranceInMilliseconds;
+        this.ringtoneUri = ringtoneUri;
+    }
+
+
+    /**
+     * Returns the occurrence of an alarm at the given time
+     *
+     * @param alarm the alarm
+     * @param alarmTimeInMillisecondsSinceEpoch the time at which the alarm goes off
+     * */
+    public static AlarmOccurrence fromAlarm(Alarm alarm, long alarmTimeInMillisecondsSinceEpoch){
+
+        return new AlarmOccurrence(alarm.getId(), alarmTimeInMillisecondsSinceEpoch,
+                        alarm.getPrecisionTier(), alarm.getWindowToleranceInMilliseconds(),
+                        alarm.getRingtoneUri());
+    }
+
+
+    public int getAlarmId(){
+        return alarmId;
+    }
+
+    public long getAlarmTimeInMillisecondsSinceEpoch(){
+        return alarmTimeInMillisecondsSinceEpoch;
+    }
+
+    public AlarmPrecisionTier getPrecisionTier(){
+        return precisionTier;
+    }
+
+
+    /**
+     * Returns an alarm with the id, alarm time, precision tier, window tolerance and ringtone of
+     * this occurrence, which is all that is needed to set it with the AlarmManager. The other
+     * properties of the alarm (e.g. its hour of day and repeat days) are left unset
+     * */
+    public Alarm toAlarm(){
+
+        return new Alarm.Builder()
+                .setId(alarmId)
+                .setAlarmTime(alarmTimeInMillisecondsSinceEpoch)
+                .setPrecisionTier(precisionTier)
+                .setWindowTolerance(windowToleranceInMilliseconds)
+                .setRingtoneUri(ringtoneUri)
+                .build();
+    }
+
+
+    /**
+     * Returns this occurrence as a JSON object
+     *
+     * @see AlarmOccurrence#fromJsonObject(JSONObject)
+     * */
+    public JSONObject toJsonObject(){
+
+        try {
+            JSONObject jsonObject = new JSONObject();
+
+            jsonObject.put(ALARM_ID_KEY, alarmId);
+            jsonObject.put(ALARM_TIME_KEY, alarmTimeInMillisecondsSinceEpoch);
+            jsonObject.put(PRECISION_TIER_KEY, precisionTier.name());
+            jsonObject.put(WINDOW_TOLERANCE_KEY, windowToleranceInMilliseconds);
+
+            if (ringtoneUri != null){
+                jsonObject.put(RINGTONE_URI_KEY, ringtoneUri);
+            }
+
+            return jsonObject;
+        }
+        catch (JSONException jsonException){
+            throw new IllegalStateException("Unable to convert alarm occurrence to JSON",
+                                            jsonException);
+        }
+    }
+
+
+    /**
+     * Returns the occurrence represented by a JSON object, or null if the JSON object does not
+     * represent an occurrence
+     *
+     * @param jsonObject a JSON object returned by toJsonObject
+     *
+     * @see AlarmOccurrence#toJsonObject()
+     * */
+    public static AlarmOccurrence fromJsonObject(JSONObject jsonObject){
+
+        try {
+            return new AlarmOccurrence(jsonObject.getInt(ALARM_ID_KEY),
+                    jsonObject.getLong(ALARM_TIME_KEY),
+                    AlarmPrecisionTier.valueOf(jsonObject.getString(PRECISION_TIER_KEY)),
+                    jsonObject.getLong(WINDOW_TOLERANCE_KEY),
+                    jsonObject.isNull(RINGTONE_URI_KEY) ? Alarm.DEFAULT_RINGTONE_URI :
+                            jsonObject.getString(RINGTONE_URI_KEY));
+        }
+        catch (JSONException | IllegalArgumentException exception){
+            return null;
+        }
+    }
+}
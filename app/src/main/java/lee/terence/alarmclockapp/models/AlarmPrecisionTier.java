@@ -0,0 +1,33 @@
+package lee.terence.alarmclockapp.models;
+
+
+/**
+ * How precisely an alarm is set to go off, from the most to the least expensive for the
+ * device
+ *
+ * Both exact tiers require the SCHEDULE_EXACT_ALARM permission. Without it, alarms of the
+ * exact tiers are set as WINDOWED alarms instead
+ *
+ * @author Terence Lee
+ * */
+public enum AlarmPrecisionTier {
+
+    /**
+     * Goes off exactly on time, even in doze mode, and is shown to the user as the upcoming
+     * alarm clock by the system (set with AlarmManager.setAlarmClock)
+     * */
+    EXACT_ALARM_CLOCK,
+
+    /**
+     * Goes off exactly on time, even in doze mode, subject to the system's limit on how often
+     * an app's alarms may go off in doze mode (set with AlarmManager.setExactAndAllowWhileIdle)
+     * */
+    EXACT_WHILE_IDLE,
+
+    /**
+     * Goes off at some point within a window after the alarm time, so that the system can
+     * batch it with other alarms (set with AlarmManager.setWindow). Does not go off in doze
+     * mode until the device leaves doze mode
+     * */
+    WINDOWED
+}
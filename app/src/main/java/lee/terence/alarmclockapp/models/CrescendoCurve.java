@@ -0,0 +1,57 @@
+package lee.terence.alarmclockapp.models;
+
+
+/**
+ * How the volume of the alarm sound rises from the moment the alarm starts ringing until the
+ * end of the crescendo, after which the alarm sound plays at full volume
+ *
+ * The gain of each curve is computed from the progress through the crescendo alone. The curve
+ * is sampled once, when the alarm sound is prepared, into the curve of a VolumeShaper, which
+ * the system's audio mixer then applies at every buffer it mixes (see AlarmSoundMediaPlayer)
+ *
+ * @author Terence Lee
+ * */
+public enum CrescendoCurve {
+
+    /**
+     * No crescendo: the alarm sound plays at full volume straight away
+     * */
+    NONE {
+        @Override
+        public float getGain(float progress){
+            return 1;
+        }
+    },
+
+    /**
+     * The gain rises in a straight line from silence to full volume. Most of the rise in
+     * loudness is heard near the start
+     * */
+    LINEAR {
+        @Override
+        public float getGain(float progress){
+            return progress;
+        }
+    },
+
+    /**
+     * The gain rises by the same number of decibels every second, from 40 dB below full volume
+     * to full volume, so that the loudness is heard to rise evenly
+     * */
+    LOGARITHMIC {
+        @Override
+        public float getGain(float progress){
+            return (float) Math.pow(10, (progress - 1) * 2);
+        }
+    };
+
+
+    /**
+     * Returns the gain of the alarm sound (value from 0 (silent) to 1 (full volume)) at the
+     * given progress through the crescendo
+     *
+     * @param progress progress through the crescendo, from 0 (the alarm has just started
+     *                 ringing) to 1 (the end of the crescendo)
+     * */
+    public abstract float getGain(float progress);
+}
@@ -0,0 +1,209 @@
+package lee.terence.alarmclockapp.models;
+
+import android.util.Base64;
+import android.util.SparseArray;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.BitSet;
+import java.util.Iterator;
+
+
+/**
+ * An immutable calendar of dates on which recurring alarms do not go off, e.g. public
+ * holidays or custom exclusion dates, imported from an ICS file
+ *
+ * The excluded dates are compiled into one 366-bit set per year, indexed by the day of the
+ * year, so checking whether a date is excluded is a lookup of the year's set plus a single
+ * bit test
+ *
+ * Alarms refer to exclusion calendars by name, so one calendar is shared by all the alarms
+ * that skip its dates, without being copied into each alarm
+ *
+ * <b>Example Usage:</b>
+ * <pre>
+ *     ExclusionCalendar.Builder builder = new ExclusionCalendar.Builder("Public holidays");
+ *
+ *     //exclude 25 Dec 2024 (day 360 of the leap year 2024)
+ *     builder.excludeDay(2024, 360);
+ *
+ *     ExclusionCalendar exclusionCalendar = builder.build();
+ *
+ *     boolean isExcluded = exclusionCalendar.isExcluded(2024, 360); //true
+ * </pre>
+ *
+ * @author Terence Lee
+ * */
+public class ExclusionCalendar {
+
+    /**
+     * Number of days in the longest (leap) year, and so the number of bits in each year's set
+     * */
+    public static final int MAXIMUM_DAYS_IN_YEAR = 366;
+
+    private static final String NAME_KEY = "name";
+    private static final String EXCLUDED_DAYS_BY_YEAR_KEY = "excludedDaysByYear";
+
+
+    private final String name;
+
+    /**
+     * The excluded days of each year, by year. Bit (day of year - 1) is set if that day is
+     * excluded
+     * */
+    private final SparseArray<BitSet> excludedDaysByYear;
+
+
+    private ExclusionCalendar(Builder builder){
+        this.name = builder.name;
+        this.excludedDaysByYear = new SparseArray<>(builder.excludedDaysByYear.size());
+
+        for (int i = 0; i < builder.excludedDaysByYear.size(); i++){
+            this.excludedDaysByYear.append(builder.excludedDaysByYear.keyAt(i),
+                    (BitSet) builder.excludedDaysByYear.valueAt(i).clone());
+        }
+    }
+
+
+    public String getName(){
+        return name;
+    }
+
+
+    /**
+     * Returns true if the given day is excluded, and false if otherwise
+     *
+     * @param year the year, e.g. 2024
+     * @param dayOfYear the day of the year (value from 1 (inclusive) to 366 (inclusive))
+     * */
+    public boolean isExcluded(int year, int dayOfYear){
+
+        BitSet excludedDays = excludedDaysByYear.get(year);
+
+        return excludedDays != null && excludedDays.get(dayOfYear - 1);
+    }
+
+
+    /**
+     * Returns the number of years that the calendar has excluded days in
+     * */
+    public int getNumberOfYears(){
+        return excludedDaysByYear.size();
+    }
+
+
+    /**
+     * Returns this calendar as a JSON string, to be stored in the app's shared preferences
+     * storage. Each year's set is stored as a Base64 string of its bytes
+     *
+     * @see ExclusionCalendar#fromJsonString(String)
+     * */
+    public String toJsonString(){
+
+        try {
+            JSONObject excludedDaysByYearJsonObject = new JSONObject();
+
+            for (int i = 0; i < excludedDaysByYear.size(); i++){
+                excludedDaysByYearJsonObject.put(String.valueOf(excludedDaysByYear.keyAt(i)),
+                        Base64.encodeToString(excludedDaysByYear.valueAt(i).toByteArray(),
+                                                Base64.NO_WRAP));
+            }
+
+            JSONObject jsonObject = new JSONObject();
+
+            jsonObject.put(NAME_KEY, name);
+            jsonObject.put(EXCLUDED_DAYS_BY_YEAR_KEY, excludedDaysByYearJsonObject);
+
+            return jsonObject.toString();
+        }
+        catch (JSONException jsonException){
+            throw new IllegalStateException("Unable to convert exclusion calendar to JSON",
+                                            jsonException);
+        }
+    }
+
+
+    /**
+     * Returns the exclusion calendar represented by a JSON string, or null if the JSON string
+     * does not represent an exclusion calendar
+     *
+     * @param jsonString a JSON string returned by toJsonString
+     *
+     * @see ExclusionCalendar#toJsonString()
+     * */
+    public static ExclusionCalendar fromJsonString(String jsonString){
+
+        try {
+            JSONObject jsonObject = new JSONObject(jsonString);
+
+            Builder builder = new Builder(jsonObject.getString(NAME_KEY));
+
+            JSONObject excludedDaysByYearJsonObject =
+                                    jsonObject.getJSONObject(EXCLUDED_DAYS_BY_YEAR_KEY);
+
+            Iterator<String> years = excludedDaysByYearJsonObject.keys();
+
+            while (years.hasNext()){
+
+                String year = years.next();
+
+                byte[] excludedDaysBytes = Base64.decode(
+                        excludedDaysByYearJsonObject.getString(year), Base64.NO_WRAP);
+
+                builder.excludedDaysByYear.put(Integer.parseInt(year),
+                                                BitSet.valueOf(excludedDaysBytes));
+            }
+
+            return builder.build();
+        }
+        catch (JSONException | IllegalArgumentException exception){
+            return null;
+        }
+    }
+
+
+    /**
+     * A builder of exclusion calendars, to which excluded days are added one at a time
+     * */
+    public static class Builder {
+
+        private final String name;
+
+        private final SparseArray<BitSet> excludedDaysByYear = new SparseArray<>();
+
+
+        /**
+         * @param name the name of the calendar, which identifies it to the alarms that skip
+         *             its dates
+         * */
+        public Builder(String name){
+            this.name = name;
+        }
+
+
+        /**
+         * Exclude the given day
+         *
+         * @param year the year, e.g. 2024
+         * @param dayOfYear the day of the year (value from 1 (inclusive) to 366 (inclusive))
+         * */
+        public Builder excludeDay(int year, int dayOfYear){
+
+            BitSet excludedDays = excludedDaysByYear.get(year);
+
+            if (excludedDays == null){
+                excludedDays = new BitSet(MAXIMUM_DAYS_IN_YEAR);
+                excludedDaysByYear.put(year, excludedDays);
+            }
+
+            excludedDays.set(dayOfYear - 1);
+
+            return this;
+        }
+
+        public ExclusionCalendar build(){
+            return new ExclusionCalendar(this);
+        }
+    }
+}
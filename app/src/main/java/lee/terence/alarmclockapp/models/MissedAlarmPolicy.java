@@ -0,0 +1,30 @@
+package lee.terence.alarmclockapp.models;
+
+
+/**
+ * What to do about an alarm that was missed, i.e. that did not go off at its alarm time
+ * because the device was off or the app was force-stopped, once the app finds out about it
+ *
+ * Every missed occurrence of an alarm is recorded, whatever the alarm's policy
+ *
+ * @author Terence Lee
+ * */
+public enum MissedAlarmPolicy {
+
+    /**
+     * Ring the alarm as soon as the miss is found out about, late. Only rings once, however
+     * many occurrences of the alarm were missed
+     * */
+    RING_LATE,
+
+    /**
+     * Post a notification listing the missed occurrences, without ringing
+     * */
+    NOTIFY,
+
+    /**
+     * Neither ring nor notify. The alarm is set to go off at its next occurrence, or deleted
+     * if it does not recur
+     * */
+    SKIP
+}
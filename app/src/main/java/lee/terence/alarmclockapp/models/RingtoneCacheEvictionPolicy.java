@@ -0,0 +1,24 @@
+package lee.terence.alarmclockapp.models;
+
+
+/**
+ * Which cached ringtones to evict first when the ringtone cache is over its byte budget (see
+ * AlarmClockRingtoneCacheHelper)
+ *
+ * Whatever the policy, the ringtones of existing alarms are only evicted once every other
+ * cached ringtone has been, and the ringtone just cached is never evicted
+ *
+ * @author Terence Lee
+ * */
+public enum RingtoneCacheEvictionPolicy {
+
+    /**
+     * Evict the ringtones that were played or cached the longest time ago first
+     * */
+    LEAST_RECENTLY_USED,
+
+    /**
+     * Evict the largest ringtones first, so that as many ringtones as possible stay cached
+     * */
+    LARGEST_FIRST
+}
@@ -0,0 +1,69 @@
+package lee.terence.alarmclockapp.models;
+
+
+/**
+ * How the device vibrates while an alarm is ringing, as a repeating sequence of segments, each
+ * with a duration and a vibration amplitude (0 for no vibration)
+ *
+ * On devices without amplitude control, every segment of a non-zero amplitude vibrates at the
+ * default amplitude
+ *
+ * @author Terence Lee
+ * */
+public enum VibrationPattern {
+
+    /**
+     * No vibration
+     * */
+    NONE(new long[0], new int[0]),
+
+    /**
+     * Vibrates for half a second, every second
+     * */
+    PULSE(new long[]{500, 500}, new int[]{255, 0}),
+
+    /**
+     * Two short beats, like a heartbeat, every second
+     * */
+    HEARTBEAT(new long[]{100, 100, 100, 700}, new int[]{255, 0, 255, 0}),
+
+    /**
+     * Three vibrations of rising amplitude, then a pause
+     * */
+    ESCALATING(new long[]{300, 200, 300, 200, 300, 700}, new int[]{85, 0, 170, 0, 255, 0});
+
+
+    private final long[] segmentDurationsInMilliseconds;
+
+    private final int[] segmentAmplitudes;
+
+
+    VibrationPattern(long[] segmentDurationsInMilliseconds, int[] segmentAmplitudes){
+        this.segmentDurationsInMilliseconds = segmentDurationsInMilliseconds;
+        this.segmentAmplitudes = segmentAmplitudes;
+    }
+
+
+    /**
+     * Returns the duration of each segment of the pattern, in milliseconds. Must not be
+     * modified
+     * */
+    public long[] getSegmentDurationsInMilliseconds(){
+        return segmentDurationsInMilliseconds;
+    }
+
+    /**
+     * Returns the vibration amplitude of each segment of the pattern (value from 0 (no
+     * vibration) to 255). Must not be modified
+     * */
+    public int[] getSegmentAmplitudes(){
+        return segmentAmplitudes;
+    }
+
+    /**
+     * Returns true if the pattern vibrates at all, and false if it is NONE
+     * */
+    public boolean isVibrating(){
+        return segmentDurationsInMilliseconds.length > 0;
+    }
+}
@@ -0,0 +1,663 @@
+package lee.terence.alarmclockapp.providers;
+
+import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.content.UriMatcher;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.os.Build;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import lee.terence.alarmclockapp.actors.AlarmClockActor;
+import lee.terence.alarmclockapp.actors.AlarmClockCommand;
+import lee.terence.alarmclockapp.actors.AlarmClockState;
+import lee.terence.alarmclockapp.actors.AlarmClockTransaction;
+import lee.terence.alarmclockapp.models.Alarm;
+import lee.terence.alarmclockapp.models.AlarmGroup;
+import lee.terence.alarmclockapp.models.AlarmPrecisionTier;
+import lee.terence.alarmclockapp.models.MissedAlarmPolicy;
+
+
+/**
+ * A content provider over the app's alarms, so that clients in other processes (e.g. a widget
+ * host, another process of the app or an automation app) can read and change the alarms
+ * consistently with the app itself
+ *
+ * The app's shared preferences storage is only safe to use from a single process, so the
+ * provider never reads or writes it directly. Every call is submitted to the AlarmClockActor
+ * of the app's main process (the one process the provider runs in), which is the only reader
+ * and writer of the alarm state, and waits until the changes have been committed. Calls from
+ * other processes are therefore serialized with the app's own changes, exactly like the app's
+ * own commands
+ *
+ * bulkInsert adds all its alarms in a single command, and applyBatch applies all its
+ * operations in a single command, so each is stored with a single commit and re-armed once,
+ * and no other command sees it half way through. If an operation of applyBatch fails, the
+ * alarms are rolled back to how they were before the batch, so that the batch is committed
+ * either in full or not at all
+ *
+ * Whenever alarms are changed (by the provider or by the app), the observers are notified of
+ * each changed alarm by its own uri (see AlarmClockContract.getAlarmUri), so that they only
+ * reload the rows that changed
+ *
+ * Alarms are only looked up by uri: selections and sort orders are not supported, and the
+ * alarms are returned in order of id
+ *
+ * @author Terence Lee
+ * */
+public class AlarmClockContentProvider extends ContentProvider {
+
+    private static final int ALARMS_URI_MATCH = 1;
+
+    private static final int ALARM_URI_MATCH = 2;
+
+    private static final UriMatcher URI_MATCHER = new UriMatcher(UriMatcher.NO_MATCH);
+
+    static {
+        URI_MATCHER.addURI(AlarmClockContract.AUTHORITY, "alarms", ALARMS_URI_MATCH);
+        URI_MATCHER.addURI(AlarmClockContract.AUTHORITY, "alarms/#", ALARM_URI_MATCH);
+    }
+
+    /**
+     * The alarm state, on the thread of the AlarmClockActor, while applyBatch applies its
+     * operations, so that the operations run against it directly rather than each being
+     * submitted to the actor
+     * */
+    private final ThreadLocal<AlarmClockState> batchAlarmClockState = new ThreadLocal<>();
+
+
+    /**
+     * Notify the observers of the provider that alarms have been changed, added or deleted,
+     * each by its own uri. Called by the AlarmClockActor once the changes have been committed
+     *
+     * @param context The context to use
+     * @param alarmIds ids of the changed, added or deleted alarms
+     * */
+    public static void notifyAlarmsChanged(Context context, Collection<Integer> alarmIds){
+
+        ContentResolver contentResolver = context.getContentResolver();
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R){
+
+            List<Uri> alarmUris = new ArrayList<>(alarmIds.size());
+
+            for (int alarmId : alarmIds){
+                alarmUris.add(AlarmClockContract.getAlarmUri(alarmId));
+            }
+
+            contentResolver.notifyChange(alarmUris, null, 0);
+
+            return;
+        }
+
+        for (int alarmId : alarmIds){
+            contentResolver.notifyChange(AlarmClockContract.getAlarmUri(alarmId), null);
+        }
+    }
+
+
+    @Override
+    public boolean onCreate() {
+        return true;
+    }
+
+
+    @Override
+    public String getType(Uri uri) {
+
+        switch (URI_MATCHER.match(uri)){
+
+            case ALARMS_URI_MATCH:
+                return AlarmClockContract.ALARMS_CONTENT_TYPE;
+
+            case ALARM_URI_MATCH:
+                return AlarmClockContract.ALARM_CONTENT_ITEM_TYPE;
+
+            default:
+                return null;
+        }
+    }
+
+
+    /**
+     * Returns all the alarms, or a single alarm, with the given columns (all the columns if
+     * null). The cursor is notified when any of its alarms changes
+     * */
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                        String sortOrder) {
+
+        rejectSelectionAndSortOrder(selection, sortOrder);
+
+        String[] columns = projection == null ? AlarmClockContract.ALL_COLUMNS : projection;
+
+        List<Alarm> alarms;
+
+        if (matchUri(uri) == ALARM_URI_MATCH){
+
+            int alarmId = getAlarmId(uri);
+
+            Alarm alarm = runCommand(alarmClockState -> alarmClockState.getAlarm(alarmId));
+
+            alarms = alarm == null ? Collections.emptyList() : Collections.singletonList(alarm);
+        }
+        else{
+            alarms = runCommand(AlarmClockState::getAllAlarms);
+        }
+
+        MatrixCursor matrixCursor = new MatrixCursor(columns, alarms.size());
+
+        for (Alarm alarm : alarms){
+
+            Object[] columnValues = new Object[columns.length];
+
+            for (int i = 0; i < columns.length; i++){
+                columnValues[i] = getColumnValue(alarm, columns[i]);
+            }
+
+            matrixCursor.addRow(columnValues);
+        }
+
+        matrixCursor.setNotificationUri(getContext().getContentResolver(), uri);
+
+        return matrixCursor;
+    }
+
+
+    /**
+     * Add an alarm, with at least its hour of day and minute given
+     *
+     * @return the uri of the added alarm, or null if it was rejected as an exact duplicate of
+     * another alarm (see AlarmClockState#addAlarm)
+     * */
+    @Override
+    public Uri insert(Uri uri, ContentValues values) {
+
+        if (matchUri(uri) != ALARMS_URI_MATCH){
+            throw new IllegalArgumentException("Cannot insert into " + uri);
+        }
+
+        Alarm.Builder alarmBuilder = createAlarmBuilder(values);
+
+        Alarm alarm = runCommand(alarmClockState -> {
+
+            checkAlarmGroupExists(alarmClockState, values);
+
+            return alarmClockState.addAlarm(alarmBuilder);
+        });
+
+        return alarm == null ? null : AlarmClockContract.getAlarmUri(alarm.getId());
+    }
+
+
+    /**
+     * Add many alarms in a single transaction. Alarms rejected as exact duplicates of other
+     * alarms are skipped
+     *
+     * @return the number of alarms added
+     * */
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] valuesArray) {
+
+        if (matchUri(uri) != ALARMS_URI_MATCH){
+            throw new IllegalArgumentException("Cannot insert into " + uri);
+        }
+
+        AlarmClockTransaction alarmClockTransaction = new AlarmClockTransaction();
+
+        for (ContentValues values : valuesArray){
+            alarmClockTransaction.addAlarm(createAlarmBuilder(values));
+        }
+
+        return runCommand(alarmClockState -> {
+
+            for (ContentValues values : valuesArray){
+                checkAlarmGroupExists(alarmClockState, values);
+            }
+
+            return alarmClockTransaction.execute(alarmClockState);
+        }).size();
+    }
+
+
+    /**
+     * Change the given columns of a single alarm, keeping the others as they are
+     *
+     * @return 1 if the alarm has been changed, and 0 if there is no such alarm, or the change
+     * was rejected as it would make the alarm an exact duplicate of another alarm
+     * */
+    @Override
+    public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+
+        rejectSelectionAndSortOrder(selection, null);
+
+        if (matchUri(uri) != ALARM_URI_MATCH){
+            throw new IllegalArgumentException("Can only update a single alarm, not " + uri);
+        }
+
+        int alarmId = getAlarmId(uri);
+
+        //validated before it is submitted, so that invalid values are rejected straight away
+        applyColumnValues(values, new Alarm.Builder());
+
+        return runCommand(alarmClockState -> {
+
+            checkAlarmGroupExists(alarmClockState, values);
+
+            Alarm alarm = alarmClockState.getAlarm(alarmId);
+
+            if (alarm == null){
+                return 0;
+            }
+
+            Alarm.Builder alarmBuilder = alarm.toBuilder();
+
+            applyColumnValues(values, alarmBuilder);
+
+            return alarmClockState.updateAlarm(alarmId, alarmBuilder) == null ? 0 : 1;
+        });
+    }
+
+
+    /**
+     * Delete a single alarm
+     *
+     * @return 1 if the alarm has been deleted, and 0 if there is no such alarm
+     * */
+    @Override
+    public int delete(Uri uri, String selection, String[] selectionArgs) {
+
+        rejectSelectionAndSortOrder(selection, null);
+
+        if (matchUri(uri) != ALARM_URI_MATCH){
+            throw new IllegalArgumentException("Can only delete a single alarm, not " + uri);
+        }
+
+        int alarmId = getAlarmId(uri);
+
+        return runCommand(alarmClockState -> {
+
+            if (!alarmClockState.hasAlarm(alarmId)){
+                return 0;
+            }
+
+            alarmClockState.deleteAlarm(alarmId);
+
+            return 1;
+        });
+    }
+
+
+    /**
+     * Apply all the operations in a single transaction: they are run one after another as a
+     * single command of the AlarmClockActor, and committed together. If an operation fails,
+     * the alarms are rolled back to how they were before the first operation, and nothing is
+     * committed
+     * */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+                                                        throws OperationApplicationException {
+
+        BatchOutcome batchOutcome = AlarmClockActor.getInstance(getContext()).submitAndWait(
+                alarmClockState -> applyBatch(alarmClockState, operations));
+
+        if (batchOutcome.exception instanceof OperationApplicationException){
+            throw (OperationApplicationException) batchOutcome.exception;
+        }
+
+        if (batchOutcome.exception != null){
+            throw (RuntimeException) batchOutcome.exception;
+        }
+
+        return batchOutcome.results;
+    }
+
+
+    /**
+     * Apply the operations against the alarm state, rolling the alarms back if any of them
+     * fails. Called on the thread of the AlarmClockActor
+     *
+     * @param alarmClockState the app's alarm state
+     * @param operations the operations to apply
+     *
+     * @return the results of the operations, or the exception of the operation that failed
+     * */
+    private BatchOutcome applyBatch(AlarmClockState alarmClockState,
+                                    ArrayList<ContentProviderOperation> operations){
+
+        ContentProviderResult[] results = new ContentProviderResult[operations.size()];
+
+        batchAlarmClockState.set(alarmClockState);
+
+        alarmClockState.setSavepoint();
+
+        try {
+            for (int i = 0; i < operations.size(); i++){
+                results[i] = operations.get(i).apply(this, results, i);
+            }
+
+            alarmClockState.releaseSavepoint();
+
+            return new BatchOutcome(results, null);
+        }
+        catch (OperationApplicationException | RuntimeException exception){
+
+            alarmClockState.rollbackToSavepoint();
+
+            return new BatchOutcome(null, exception);
+        }
+        finally {
+            batchAlarmClockState.remove();
+        }
+    }
+
+
+    /**
+     * Run a command against the alarm state: straight away if it is part of a batch being
+     * applied by applyBatch, and otherwise by submitting it to the AlarmClockActor and waiting
+     * until it has been committed
+     *
+     * @param command the command to run
+     *
+     * @throws RuntimeException the exception that the command threw, if it did
+     * */
+    private <T> T runCommand(AlarmClockCommand<T> command){
+
+        AlarmClockState alarmClockState = batchAlarmClockState.get();
+
+        if (alarmClockState != null){
+            return command.execute(alarmClockState);
+        }
+
+        return AlarmClockActor.getInstance(getContext()).submitAndWait(command);
+    }
+
+
+    /**
+     * Returns the match of a uri of the provider
+     *
+     * @param uri the uri
+     *
+     * @throws IllegalArgumentException if the uri is not a uri of the provider
+     * */
+    private int matchUri(Uri uri){
+
+        int uriMatch = URI_MATCHER.match(uri);
+
+        if (uriMatch == UriMatcher.NO_MATCH){
+            throw new IllegalArgumentException("Unknown uri " + uri);
+        }
+
+        return uriMatch;
+    }
+
+
+    /**
+     * Returns the id of the alarm of a single alarm uri
+     *
+     * @param uri the uri of a single alarm
+     * */
+    private int getAlarmId(Uri uri){
+        return (int) ContentUris.parseId(uri);
+    }
+
+
+    /**
+     * Reject a selection or sort order, since alarms are only looked up by uri
+     *
+     * @throws UnsupportedOperationException if either is given
+     * */
+    private void rejectSelectionAndSortOrder(String selection, String sortOrder){
+
+        if (selection != null || sortOrder != null){
+            throw new UnsupportedOperationException(
+                    "Selections and sort orders are not supported; query by uri instead");
+        }
+    }
+
+
+    /**
+     * Returns a builder of a new alarm, from column values that have at least the hour of day
+     * and minute
+     *
+     * @param values the column values of the alarm
+     *
+     * @throws IllegalArgumentException if the values are not valid
+     * */
+    private Alarm.Builder createAlarmBuilder(ContentValues values){
+
+        if (!values.containsKey(AlarmClockContract.COLUMN_HOUR_OF_DAY) ||
+                !values.containsKey(AlarmClockContract.COLUMN_MINUTE)){
+            throw new IllegalArgumentException("The hour of day and minute are required");
+        }
+
+        Alarm.Builder alarmBuilder = new Alarm.Builder();
+
+        applyColumnValues(values, alarmBuilder);
+
+        return alarmBuilder;
+    }
+
+
+    /**
+     * Set the given column values on an alarm builder
+     *
+     * @param values the column values to set
+     * @param alarmBuilder the alarm builder. Will be modified
+     *
+     * @throws IllegalArgumentException if a column is unknown or read-only, or its value is
+     * not valid
+     * */
+    private static void applyColumnValues(ContentValues values, Alarm.Builder alarmBuilder){
+
+        for (String column : values.keySet()){
+
+            switch (column){
+
+                case AlarmClockContract.COLUMN_HOUR_OF_DAY:
+                    alarmBuilder.setHourOfDay(getIntegerInRange(values, column, 0, 23));
+                    break;
+
+                case AlarmClockContract.COLUMN_MINUTE:
+                    alarmBuilder.setMinute(getIntegerInRange(values, column, 0, 59));
+                    break;
+
+                case AlarmClockContract.COLUMN_PRECISION_TIER:
+                    alarmBuilder.setPrecisionTier(
+                            AlarmPrecisionTier.valueOf(getRequiredString(values, column)));
+                    break;
+
+                case AlarmClockContract.COLUMN_WINDOW_TOLERANCE:
+                    alarmBuilder.setWindowTolerance(getLongInRange(values, column, 0,
+                            Alarm.MAXIMUM_WINDOW_TOLERANCE_IN_MILLISECONDS));
+                    break;
+
+                case AlarmClockContract.COLUMN_REPEAT_DAYS:
+                    alarmBuilder.setRepeatDays(getIntegerInRange(values, column,
+                            Alarm.NO_REPEAT_DAYS, Alarm.getRepeatDayBit(Calendar.SATURDAY + 1) - 1));
+                    break;
+
+                case AlarmClockContract.COLUMN_EXCLUSION_CALENDAR_NAMES:
+                    String exclusionCalendarNames = values.getAsString(column);
+                    alarmBuilder.setExclusionCalendarNames(
+                            exclusionCalendarNames == null || exclusionCalendarNames.isEmpty() ?
+                            Collections.emptyList() : Arrays.asList(exclusionCalendarNames.split(
+                                    AlarmClockContract.EXCLUSION_CALENDAR_NAME_SEPARATOR)));
+                    break;
+
+                case AlarmClockContract.COLUMN_ENABLED:
+                    Boolean isEnabled = values.getAsBoolean(column);
+                    if (isEnabled == null){
+                        throw new IllegalArgumentException(column + " must be a boolean");
+                    }
+                    alarmBuilder.setEnabled(isEnabled);
+                    break;
+
+                case AlarmClockContract.COLUMN_GROUP_ID:
+                    alarmBuilder.setGroupId(getIntegerInRange(values, column, Alarm.NO_GROUP,
+                            AlarmGroup.MAXIMUM_NUMBER_OF_ALARM_GROUPS - 1));
+                    break;
+
+                case AlarmClockContract.COLUMN_MISSED_ALARM_POLICY:
+                    alarmBuilder.setMissedAlarmPolicy(
+                            MissedAlarmPolicy.valueOf(getRequiredString(values, column)));
+                    break;
+
+                case AlarmClockContract.COLUMN_RINGTONE_URI:
+                    alarmBuilder.setRingtoneUri(values.getAsString(column));
+                    break;
+
+                default:
+                    throw new IllegalArgumentException("Unknown or read-only column " + column);
+            }
+        }
+    }
+
+
+    /**
+     * Check that the alarm group that the given column values put an alarm in (if any) exists,
+     * since an alarm of an alarm group that does not exist is stored but never goes off.
+     * Called on the thread of the AlarmClockActor
+     *
+     * @param alarmClockState the app's alarm state
+     * @param values the column values of the alarm
+     *
+     * @throws IllegalArgumentException if there is no such alarm group
+     * */
+    private static void checkAlarmGroupExists(AlarmClockState alarmClockState,
+                                              ContentValues values){
+
+        Integer groupId = values.getAsInteger(AlarmClockContract.COLUMN_GROUP_ID);
+
+        if (groupId != null && groupId != Alarm.NO_GROUP &&
+                !alarmClockState.hasAlarmGroup(groupId)){
+            throw new IllegalArgumentException("There is no alarm group of id " + groupId);
+        }
+    }
+
+
+    /**
+     * Returns the value of a column of an alarm row
+     *
+     * @param alarm the alarm
+     * @param column the column
+     *
+     * @throws IllegalArgumentException if the column is unknown
+     * */
+    private static Object getColumnValue(Alarm alarm, String column){
+
+        switch (column){
+
+            case AlarmClockContract.COLUMN_ID:
+                return alarm.getId();
+
+            case AlarmClockContract.COLUMN_HOUR_OF_DAY:
+                return alarm.getHourOfDay();
+
+            case AlarmClockContract.COLUMN_MINUTE:
+                return alarm.getMinute();
+
+            case AlarmClockContract.COLUMN_ALARM_TIME:
+                return alarm.getAlarmTimeInMillisecondsSinceEpoch();
+
+            case AlarmClockContract.COLUMN_PRECISION_TIER:
+                return alarm.getPrecisionTier().name();
+
+            case AlarmClockContract.COLUMN_WINDOW_TOLERANCE:
+                return alarm.getWindowToleranceInMilliseconds();
+
+            case AlarmClockContract.COLUMN_REPEAT_DAYS:
+                return alarm.getRepeatDays();
+
+            case AlarmClockContract.COLUMN_EXCLUSION_CALENDAR_NAMES:
+                return String.join(AlarmClockContract.EXCLUSION_CALENDAR_NAME_SEPARATOR,
+                                    alarm.getExclusionCalendarNames());
+
+            case AlarmClockContract.COLUMN_ENABLED:
+                return alarm.isEnabled() ? 1 : 0;
+
+            case AlarmClockContract.COLUMN_GROUP_ID:
+                return alarm.getGroupId();
+
+            case AlarmClockContract.COLUMN_MISSED_ALARM_POLICY:
+                return alarm.getMissedAlarmPolicy().name();
+
+            case AlarmClockContract.COLUMN_RINGTONE_URI:
+                return alarm.getRingtoneUri();
+
+            default:
+                throw new IllegalArgumentException("Unknown column " + column);
+        }
+    }
+
+
+    private static int getIntegerInRange(ContentValues values, String column, int minimum,
+                                         int maximum){
+
+        Integer value = values.getAsInteger(column);
+
+        if (value == null || value < minimum || value > maximum){
+            throw new IllegalArgumentException(column + " must be an integer from " + minimum +
+                                                " to " + maximum);
+        }
+
+        return value;
+    }
+
+
+    private static long getLongInRange(ContentValues values, String column, long minimum,
+                                       long maximum){
+
+        Long value = values.getAsLong(column);
+
+        if (value == null || value < minimum || value > maximum){
+            throw new IllegalArgumentException(column + " must be an integer from " + minimum +
+                                                " to " + maximum);
+        }
+
+        return value;
+    }
+
+
+    private static String getRequiredString(ContentValues values, String column){
+
+        String value = values.getAsString(column);
+
+        if (value == null){
+            throw new IllegalArgumentException(column + " must not be null");
+        }
+
+        return value;
+    }
+
+
+    /**
+     * The outcome of applyBatch on the thread of the AlarmClockActor: either the results of
+     * all the operations, or the exception of the operation that failed
+     * */
+    private static class BatchOutcome {
+
+        private final ContentProviderResult[] results;
+
+        private final Exception exception;
+
+
+        BatchOutcome(ContentProviderResult[] results, Exception exception){
+            this.results = results;
+            this.exception = exception;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package lee.terence.alarmclockapp.providers;
+
+import android.content.ContentUris;
+import android.net.Uri;
+import android.provider.BaseColumns;
+
+
+/**
+ * The contract between AlarmClockContentProvider and its clients (e.g. a widget, another
+ * process of the app or an automation app): the uris of the alarms, and the columns of the
+ * alarm rows
+ *
+ * <b>Example Usage:</b>
+ * <pre>
+ *     //read alarm 3
+ *     Cursor cursor = getContentResolver().query(AlarmClockContract.getAlarmUri(3),
+ *                          null, null, null, null);
+ *
+ *     //add an alarm for 7:00am on weekdays
+ *     ContentValues alarmValues = new ContentValues();
+ *     alarmValues.put(AlarmClockContract.COLUMN_HOUR_OF_DAY, 7);
+ *     alarmValues.put(AlarmClockContract.COLUMN_MINUTE, 0);
+ *     alarmValues.put(AlarmClockContract.COLUMN_REPEAT_DAYS, Alarm.WEEKDAYS);
+ *
+ *     Uri alarmUri = getContentResolver().insert(AlarmClockContract.ALARMS_URI, alarmValues);
+ * </pre>
+ *
+ * @author Terence Lee
+ * */
+public class AlarmClockContract {
+
+    public static final String AUTHORITY = "lee.terence.alarmclockapp.provider";
+
+    /**
+     * Uri of all the alarms. Observers of it (with notifyForDescendants) are notified of each
+     * changed alarm by the alarm's own uri
+     * */
+    public static final Uri ALARMS_URI = Uri.parse("content://" + AUTHORITY + "/alarms");
+
+    /**
+     * MIME types of the alarms, and of a single alarm
+     * */
+    public static final String ALARMS_CONTENT_TYPE =
+                                    "vnd.android.cursor.dir/vnd.lee.terence.alarmclockapp.alarm";
+    public static final String ALARM_CONTENT_ITEM_TYPE =
+                                    "vnd.android.cursor.item/vnd.lee.terence.alarmclockapp.alarm";
+
+    /**
+     * Columns of the alarm rows. See the getters of Alarm for what each holds. The alarm time
+     * is worked out from the others, so it is read-only
+     *
+     * The window tolerance must be from 0 to Alarm.MAXIMUM_WINDOW_TOLERANCE_IN_MILLISECONDS,
+     * and the group id either Alarm.NO_GROUP or the id of an existing alarm group
+     * */
+    public static final String COLUMN_ID = BaseColumns._ID;
+    public static final String COLUMN_HOUR_OF_DAY = "hour_of_day";
+    public static final String COLUMN_MINUTE = "minute";
+    public static final String COLUMN_ALARM_TIME = "alarm_time";
+    public static final String COLUMN_PRECISION_TIER = "precision_tier";
+    public static final String COLUMN_WINDOW_TOLERANCE = "window_tolerance";
+    public static final String COLUMN_REPEAT_DAYS = "repeat_days";
+    public static final String COLUMN_ENABLED = "enabled";
+    public static final String COLUMN_GROUP_ID = "group_id";
+    public static final String COLUMN_MISSED_ALARM_POLICY = "missed_alarm_policy";
+    public static final String COLUMN_RINGTONE_URI = "ringtone_uri";
+
+    /**
+     * Names of the exclusion calendars of the alarm, separated by EXCLUSION_CALENDAR_NAME_SEPARATOR
+     * */
+    public static final String COLUMN_EXCLUSION_CALENDAR_NAMES = "exclusion_calendar_names";
+
+    public static final String EXCLUSION_CALENDAR_NAME_SEPARATOR = "\n";
+
+    /**
+     * All the columns of the alarm rows, in the order they are returned by default
+     * */
+    public static final String[] ALL_COLUMNS = new String[]{
+            COLUMN_ID,
+            COLUMN_HOUR_OF_DAY,
+            COLUMN_MINUTE,
+            COLUMN_ALARM_TIME,
+            COLUMN_PRECISION_TIER,
+            COLUMN_WINDOW_TOLERANCE,
+            COLUMN_REPEAT_DAYS,
+            COLUMN_EXCLUSION_CALENDAR_NAMES,
+            COLUMN_ENABLED,
+            COLUMN_GROUP_ID,
+            COLUMN_MISSED_ALARM_POLICY,
+            COLUMN_RINGTONE_URI
+    };
+
+
+    /**
+     * All methods in this class are static, so there is no need for a constructor for this class
+     * */
+    private AlarmClockContract(){
+
+    }
+
+
+    /**
+     * Returns the uri of a single alarm
+     *
+     * @param alarmId id of the alarm
+     * */
+    public static Uri getAlarmUri(int alarmId){
+        return ContentUris.withAppendedId(ALARMS_URI, alarmId);
+    }
+}
@@ -0,0 +1,412 @@
+package lee.terence.alarmclockapp.loadtests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.app.Application;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Build;
+import android.os.Looper;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowAlarmManager;
+import org.robolectric.shadows.ShadowBroadcastPendingResult;
+import org.robolectric.shadows.ShadowMediaPlayer;
+import org.robolectric.util.ReflectionHelpers;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import lee.terence.alarmclockapp.actors.AlarmClockActor;
+import lee.terence.alarmclockapp.actors.AlarmClockState;
+import lee.terence.alarmclockapp.actors.AlarmClockTransaction;
+import lee.terence.alarmclockapp.broadcastreceivers.AlarmClockBroadcastReceiver;
+import lee.terence.alarmclockapp.helpers.AlarmClockFireTokenHelper;
+import lee.terence.alarmclockapp.helpers.AlarmClockHelper;
+import lee.terence.alarmclockapp.helpers.AlarmClockNotificationHelper;
+import lee.terence.alarmclockapp.mediaplayers.AlarmSoundMediaPlayer;
+import lee.terence.alarmclockapp.models.Alarm;
+import lee.terence.alarmclockapp.models.AlarmPrecisionTier;
+
+
+/**
+ * A load test of the alarm store, the scheduler and the fire path, run on the JVM under
+ * Robolectric, with the AlarmManager and NotificationManager shadowed
+ *
+ * Takes many alarms (100,000 by default) through their whole life, through the same entry
+ * points the app uses, measuring each phase (see LoadTestPhaseResult):
+ *      (a) create:   add the alarms through the AlarmClockActor, in transactions of
+ *                    TRANSACTION_SIZE alarms
+ *      (b) schedule: set and cancel every alarm with AlarmClockHelper, on the thread of the
+ *                    AlarmClockActor, then re-arm the alarm state
+ *      (c) edit:     change every alarm through the AlarmClockActor, in transactions
+ *      (d) fire:     deliver the alarm broadcast of every alarm to
+ *                    AlarmClockBroadcastReceiver.onReceive, on the main thread
+ *      (e) delete:   delete the alarms through the AlarmClockActor, in transactions
+ *
+ * The results are printed, written to the report directory, and compared with the stored
+ * baseline (see LoadTestBaseline). The test fails if any of them has regressed beyond its
+ * tolerance, or has no baseline
+ *
+ * Being slow, the load test is left out of the ordinary unit test runs, and only run when
+ * the Gradle build is given -PrunLoadTests
+ *
+ * Configured with system properties, which the Gradle build sets from project properties:
+ *      (a) alarmclock.loadTest.alarmCount: the number of alarms (-PloadTestAlarmCount)
+ *      (b) alarmclock.loadTest.updateBaseline: store the results as the new baseline instead
+ *          of comparing them with it (-PupdateLoadTestBaseline)
+ *      (c) alarmclock.loadTest.baselineFile and alarmclock.loadTest.reportDir
+ *
+ * The AlarmClockActor and the helpers are Singletons that outlive a single test, so the
+ * whole life of the alarms is a single test
+ *
+ * @author Terence Lee
+ * */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = Build.VERSION_CODES.TIRAMISU,
+        shadows = {CountingShadowAlarmManager.class, CountingShadowNotificationManager.class})
+public class AlarmClockLoadTest {
+
+    private static final int DEFAULT_NUMBER_OF_ALARMS = 100_000;
+
+    /**
+     * The largest number of alarms that can be told apart by their time and repeat days,
+     * so that none of them is rejected as a duplicate of another
+     * */
+    private static final int MAXIMUM_NUMBER_OF_ALARMS = 24 * 60 * (1 << 7);
+
+    /**
+     * Number of alarms created, edited or deleted with each transaction
+     * */
+    private static final int TRANSACTION_SIZE = 1_000;
+
+    /**
+     * Number of alarm broadcasts delivered before the main thread's queue is run, like the
+     * system's main thread would in between broadcasts
+     * */
+    private static final int BROADCASTS_PER_MAIN_LOOPER_IDLE = 1_000;
+
+    private static final String DEFAULT_BASELINE_FILE_PATH =
+                                        "src/test/resources/load_test_baseline.properties";
+
+    private static final String DEFAULT_REPORT_DIRECTORY_PATH = "build/reports/loadTests";
+
+    private Context context;
+
+    private AlarmClockActor alarmClockActor;
+
+
+    @Before
+    public void setUp(){
+
+        context = ApplicationProvider.getApplicationContext();
+
+        alarmClockActor = AlarmClockActor.getInstance(context);
+
+        ShadowAlarmManager.setCanScheduleExactAlarms(true);
+
+        //every alarm sound can be prepared, and plays for a minute
+        ShadowMediaPlayer.setMediaInfoProvider(
+                dataSource -> new ShadowMediaPlayer.MediaInfo(60 * 1000, 0));
+    }
+
+
+    @Test
+    public void alarmLifecycle_doesNotRegressBeyondBaseline() throws IOException {
+
+        int numberOfAlarms = Integer.getInteger("alarmclock.loadTest.alarmCount",
+                                                DEFAULT_NUMBER_OF_ALARMS);
+
+        if (numberOfAlarms <= 0 || numberOfAlarms > MAXIMUM_NUMBER_OF_ALARMS){
+            throw new IllegalArgumentException("The number of alarms must be from 1 to " +
+                                                MAXIMUM_NUMBER_OF_ALARMS);
+        }
+
+        List<LoadTestPhaseResult> phaseResults = new ArrayList<>();
+
+        phaseResults.add(LoadTestPhaseResult.measure("create", numberOfAlarms,
+                () -> assertEquals(numberOfAlarms, createAlarms(numberOfAlarms))));
+
+        List<Alarm> createdAlarms = alarmClockActor.submitAndWait(AlarmClockState::getAllAlarms);
+
+        phaseResults.add(LoadTestPhaseResult.measure("schedule", numberOfAlarms,
+                () -> setAndCancelAlarmClocks(createdAlarms)));
+
+        phaseResults.add(LoadTestPhaseResult.measure("edit", numberOfAlarms,
+                () -> assertEquals(numberOfAlarms, editAlarms(createdAlarms))));
+
+        List<Alarm> editedAlarms = alarmClockActor.submitAndWait(AlarmClockState::getAllAlarms);
+
+        List<Long> fireTokens = issueFireTokens(numberOfAlarms);
+
+        phaseResults.add(LoadTestPhaseResult.measure("fire", numberOfAlarms,
+                () -> fireAlarms(editedAlarms, fireTokens)));
+
+        phaseResults.add(LoadTestPhaseResult.measure("delete", numberOfAlarms,
+                () -> deleteAlarms(editedAlarms)));
+
+        assertEquals(0, (int) alarmClockActor.submitAndWait(
+                alarmClockState -> alarmClockState.getAllAlarms().size()));
+
+        reportPhaseResults(numberOfAlarms, phaseResults);
+
+        File baselineFile = new File(System.getProperty("alarmclock.loadTest.baselineFile",
+                                                        DEFAULT_BASELINE_FILE_PATH));
+
+        if (Boolean.getBoolean("alarmclock.loadTest.updateBaseline")){
+
+            LoadTestBaseline.store(baselineFile, phaseResults,
+                    "Load test baseline, recorded with " + numberOfAlarms + " alarms on " +
+                    System.getProperty("os.name") + ", Java " +
+                    System.getProperty("java.version"));
+            return;
+        }
+
+        List<String> regressions = LoadTestBaseline.load(baselineFile)
+                                                    .findRegressions(phaseResults);
+
+        assertTrue("Regressed beyond the baseline in " + baselineFile + ":\n" +
+                    String.join("\n", regressions), regressions.isEmpty());
+    }
+
+
+    /**
+     * Add the given number of alarms, each at a different time or on different repeat days,
+     * in transactions of TRANSACTION_SIZE alarms, waiting until each has been committed. The
+     * alarms are spread over all the precision tiers
+     *
+     * @param numberOfAlarms number of alarms to add
+     *
+     * @return the number of alarms added
+     * */
+    private int createAlarms(int numberOfAlarms){
+
+        AlarmPrecisionTier[] precisionTiers = AlarmPrecisionTier.values();
+
+        int numberOfAlarmsAdded = 0;
+
+        for (int start = 0; start < numberOfAlarms; start += TRANSACTION_SIZE){
+
+            AlarmClockTransaction alarmClockTransaction = new AlarmClockTransaction();
+
+            for (int i = start; i < Math.min(start + TRANSACTION_SIZE, numberOfAlarms); i++){
+
+                alarmClockTransaction.addAlarm(new Alarm.Builder()
+                        .setHourOfDay(i / 60 % 24)
+                        .setMinute(i % 60)
+                        .setRepeatDays(i / (24 * 60))
+                        .setPrecisionTier(precisionTiers[i % precisionTiers.length]));
+            }
+
+            numberOfAlarmsAdded += alarmClockActor.submitAndWait(alarmClockTransaction).size();
+        }
+
+        waitUntilMainThreadIsIdle();
+
+        return numberOfAlarmsAdded;
+    }
+
+
+    /**
+     * Set every alarm with the AlarmManager and then cancel it again, through AlarmClockHelper
+     * on the thread of the AlarmClockActor (where the app always calls it), then re-arm the
+     * alarm state so that the alarms it had armed are set again
+     *
+     * @param alarms the alarms to set and cancel
+     * */
+    private void setAndCancelAlarmClocks(List<Alarm> alarms){
+
+        alarmClockActor.submitAndWait(alarmClockState -> {
+
+            for (Alarm alarm : alarms){
+                AlarmClockHelper.setAlarmClock(context, alarm);
+                AlarmClockHelper.deleteAlarmClockIfAny(context, alarm.getId());
+            }
+
+            alarmClockState.rearmAllAlarms();
+
+            return null;
+        });
+
+        waitUntilMainThreadIsIdle();
+    }
+
+
+    /**
+     * Widen the window tolerance of every alarm, in transactions of TRANSACTION_SIZE alarms,
+     * waiting until each has been committed
+     *
+     * @param alarms the alarms to change
+     *
+     * @return the number of alarms changed
+     * */
+    private int editAlarms(List<Alarm> alarms){
+
+        int numberOfAlarmsChanged = 0;
+
+        for (int start = 0; start < alarms.size(); start += TRANSACTION_SIZE){
+
+            AlarmClockTransaction alarmClockTransaction = new AlarmClockTransaction();
+
+            for (Alarm alarm : alarms.subList(start,
+                                        Math.min(start + TRANSACTION_SIZE, alarms.size()))){
+
+                long widenedWindowToleranceInMilliseconds =
+                        alarm.getWindowToleranceInMilliseconds() + 60 * 1000;
+
+                alarmClockTransaction.updateAlarm(alarm.getId(), alarm.toBuilder()
+                        .setWindowTolerance(widenedWindowToleranceInMilliseconds));
+            }
+
+            numberOfAlarmsChanged +=
+                            alarmClockActor.submitAndWait(alarmClockTransaction).size();
+        }
+
+        waitUntilMainThreadIsIdle();
+
+        return numberOfAlarmsChanged;
+    }
+
+
+    /**
+     * Returns the given number of fire tokens, issued on the thread of the AlarmClockActor
+     * (where the app always issues them)
+     *
+     * @param numberOfFireTokens number of fire tokens to issue
+     * */
+    private List<Long> issueFireTokens(int numberOfFireTokens){
+
+        return alarmClockActor.submitAndWait(alarmClockState -> {
+
+            List<Long> fireTokens = new ArrayList<>(numberOfFireTokens);
+
+            for (int i = 0; i < numberOfFireTokens; i++){
+                fireTokens.add(AlarmClockFireTokenHelper.issueFireToken(context));
+            }
+
+            return fireTokens;
+        });
+    }
+
+
+    /**
+     * Deliver the alarm broadcast of every alarm to a broadcast receiver on the main thread,
+     * as the system would when the alarm goes off, then wait until the AlarmClockActor has
+     * handled all the alarms that have gone off, and the batching window of their alarm clock
+     * notifications has passed
+     *
+     * Each broadcast is given a pending result, as the system would, since the fire path
+     * keeps the broadcast alive with goAsync until the alarm clock notification is posted
+     *
+     * @param alarms the alarms to fire
+     * @param fireTokens the fire token of each alarm's broadcast
+     * */
+    private void fireAlarms(List<Alarm> alarms, List<Long> fireTokens){
+
+        AlarmClockBroadcastReceiver alarmClockBroadcastReceiver =
+                                                    new AlarmClockBroadcastReceiver();
+
+        for (int i = 0; i < alarms.size(); i++){
+
+            Alarm alarm = alarms.get(i);
+
+            Intent alarmIntent = AlarmClockBroadcastReceiver.createIntent(context,
+                    alarm.getId(), alarm.getAlarmTimeInMillisecondsSinceEpoch(),
+                    alarm.getPrecisionTier(), fireTokens.get(i), alarm.getRingtoneUri());
+
+            ReflectionHelpers.callInstanceMethod(alarmClockBroadcastReceiver, "setPendingResult",
+                    ReflectionHelpers.ClassParameter.from(BroadcastReceiver.PendingResult.class,
+                            ShadowBroadcastPendingResult.create(0, null, null, false)));
+
+            alarmClockBroadcastReceiver.onReceive(context, alarmIntent);
+
+            if ((i + 1) % BROADCASTS_PER_MAIN_LOOPER_IDLE == 0){
+                waitUntilMainThreadIsIdle();
+            }
+        }
+
+        AlarmSoundMediaPlayer.stopAlarmRingingSoundIfPlaying();
+
+        alarmClockActor.submitAndWait(alarmClockState -> null);
+
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(
+                AlarmClockNotificationHelper.NOTIFICATION_BATCHING_WINDOW_IN_MILLISECONDS));
+
+        waitUntilMainThreadIsIdle();
+    }
+
+
+    /**
+     * Delete the alarms, in transactions of TRANSACTION_SIZE alarms, waiting until each has
+     * been committed
+     *
+     * @param alarms the alarms to delete
+     * */
+    private void deleteAlarms(List<Alarm> alarms){
+
+        for (int start = 0; start < alarms.size(); start += TRANSACTION_SIZE){
+
+            List<Integer> alarmIds = new ArrayList<>(TRANSACTION_SIZE);
+
+            for (Alarm alarm : alarms.subList(start,
+                                        Math.min(start + TRANSACTION_SIZE, alarms.size()))){
+                alarmIds.add(alarm.getId());
+            }
+
+            alarmClockActor.submitAndWait(new AlarmClockTransaction().deleteAlarms(alarmIds));
+        }
+
+        waitUntilMainThreadIsIdle();
+    }
+
+
+    /**
+     * Run everything posted to the main thread so far (e.g. the callbacks of the
+     * AlarmClockActor and the widget updates), and drop the activities started so far (the
+     * alarm clock alert activities of the fired alarms), which Robolectric would otherwise
+     * keep for the rest of the test
+     * */
+    private void waitUntilMainThreadIsIdle(){
+
+        shadowOf(Looper.getMainLooper()).idle();
+
+        while (shadowOf((Application) context).getNextStartedActivity() != null){
+            //dropped
+        }
+    }
+
+
+    /**
+     * Print the results of every phase, and write them to the report directory
+     *
+     * @param numberOfAlarms number of alarms of the run
+     * @param phaseResults the results of each phase of the run
+     * */
+    private void reportPhaseResults(int numberOfAlarms, List<LoadTestPhaseResult> phaseResults)
+                                                                        throws IOException {
+
+        System.out.println("Load test of " + numberOfAlarms + " alarms:");
+
+        for (LoadTestPhaseResult phaseResult : phaseResults){
+            System.out.println(phaseResult);
+        }
+
+        File reportDirectory = new File(System.getProperty("alarmclock.loadTest.reportDir",
+                                                            DEFAULT_REPORT_DIRECTORY_PATH));
+
+        LoadTestBaseline.store(new File(reportDirectory, "load_test_report.properties"),
+                phaseResults, "Load test report of " + numberOfAlarms + " alarms");
+    }
+}
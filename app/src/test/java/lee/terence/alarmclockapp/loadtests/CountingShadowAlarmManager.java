@@ -0,0 +1,112 @@
+package lee.terence.alarmclockapp.loadtests;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.os.Build;
+
+import org.robolectric.annotation.Implementation;
+import org.robolectric.annotation.Implements;
+import org.robolectric.shadows.ShadowAlarmManager;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * A Robolectric shadow of the AlarmManager that counts the calls made to it (each of which
+ * is a binder call to the system on a device), and otherwise behaves like ShadowAlarmManager
+ *
+ * Calls are made from the thread of the AlarmClockActor, so the count is atomic
+ *
+ * <b>Example Usage:</b>
+ * <pre>
+ *     &#64;Config(shadows = CountingShadowAlarmManager.class)
+ *     public class SomeTest {
+ *
+ *         ...
+ *         CountingShadowAlarmManager.resetNumberOfCalls();
+ *         addManyAlarms();
+ *         int numberOfAlarmManagerCalls = CountingShadowAlarmManager.getNumberOfCalls();
+ *     }
+ * </pre>
+ *
+ * @author Terence Lee
+ * */
+@Implements(AlarmManager.class)
+public class CountingShadowAlarmManager extends ShadowAlarmManager {
+
+    private static final AtomicInteger numberOfCalls = new AtomicInteger();
+
+
+    /**
+     * Returns the number of calls made to any AlarmManager since the last reset
+     * */
+    public static int getNumberOfCalls(){
+        return numberOfCalls.get();
+    }
+
+
+    /**
+     * Start counting the calls made to the AlarmManager from zero
+     * */
+    public static void resetNumberOfCalls(){
+        numberOfCalls.set(0);
+    }
+
+
+    @Override
+    @Implementation
+    protected void set(int type, long triggerAtTime, PendingIntent operation){
+        numberOfCalls.incrementAndGet();
+        super.set(type, triggerAtTime, operation);
+    }
+
+
+    @Override
+    @Implementation
+    protected void setExact(int type, long triggerAtTime, PendingIntent operation){
+        numberOfCalls.incrementAndGet();
+        super.setExact(type, triggerAtTime, operation);
+    }
+
+
+    @Override
+    @Implementation
+    protected void setWindow(int type, long windowStartMillis, long windowLengthMillis,
+                             PendingIntent operation){
+        numberOfCalls.incrementAndGet();
+        super.setWindow(type, windowStartMillis, windowLengthMillis, operation);
+    }
+
+
+    @Override
+    @Implementation
+    protected void setExactAndAllowWhileIdle(int type, long triggerAtTime,
+                                             PendingIntent operation){
+        numberOfCalls.incrementAndGet();
+        super.setExactAndAllowWhileIdle(type, triggerAtTime, operation);
+    }
+
+
+    @Override
+    @Implementation
+    protected void setAlarmClock(AlarmManager.AlarmClockInfo info, PendingIntent operation){
+        numberOfCalls.incrementAndGet();
+        super.setAlarmClock(info, operation);
+    }
+
+
+    @Override
+    @Implementation
+    protected void cancel(PendingIntent operation){
+        numberOfCalls.incrementAndGet();
+        super.cancel(operation);
+    }
+
+
+    @Override
+    @Implementation(minSdk = Build.VERSION_CODES.S)
+    protected boolean canScheduleExactAlarms(){
+        numberOfCalls.incrementAndGet();
+        return super.canScheduleExactAlarms();
+    }
+}
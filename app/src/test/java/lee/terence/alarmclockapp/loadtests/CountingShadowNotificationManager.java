@@ -0,0 +1,72 @@
+package lee.terence.alarmclockapp.loadtests;
+
+import android.app.Notification;
+import android.app.NotificationManager;
+
+import org.robolectric.annotation.Implementation;
+import org.robolectric.annotation.Implements;
+import org.robolectric.shadows.ShadowNotificationManager;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * A Robolectric shadow of the NotificationManager that counts the notifications posted and
+ * cancelled (each of which is a binder call to the system, and a redraw of the system UI, on
+ * a device), and otherwise behaves like ShadowNotificationManager
+ *
+ * notify(int, Notification) and cancel(int) are implemented by ShadowNotificationManager in
+ * terms of their tagged overloads, so only the tagged overloads are counted
+ *
+ * <b>Example Usage:</b>
+ * <pre>
+ *     &#64;Config(shadows = CountingShadowNotificationManager.class)
+ *     public class SomeTest {
+ *
+ *         ...
+ *         CountingShadowNotificationManager.resetNumberOfCalls();
+ *         fireManyAlarms();
+ *         int numberOfNotificationManagerCalls =
+ *                              CountingShadowNotificationManager.getNumberOfCalls();
+ *     }
+ * </pre>
+ *
+ * @author Terence Lee
+ * */
+@Implements(NotificationManager.class)
+public class CountingShadowNotificationManager extends ShadowNotificationManager {
+
+    private static final AtomicInteger numberOfCalls = new AtomicInteger();
+
+
+    /**
+     * Returns the number of notifications posted and cancelled since the last reset
+     * */
+    public static int getNumberOfCalls(){
+        return numberOfCalls.get();
+    }
+
+
+    /**
+     * Start counting the notifications posted and cancelled from zero
+     * */
+    public static void resetNumberOfCalls(){
+        numberOfCalls.set(0);
+    }
+
+
+    @Override
+    @Implementation
+    protected void notify(String tag, int id, Notification notification){
+        numberOfCalls.incrementAndGet();
+        super.notify(tag, id, notification);
+    }
+
+
+    @Override
+    @Implementation
+    protected void cancel(String tag, int id){
+        numberOfCalls.incrementAndGet();
+        super.cancel(tag, id);
+    }
+}
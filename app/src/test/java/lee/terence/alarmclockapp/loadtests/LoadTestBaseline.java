@@ -0,0 +1,187 @@
+package lee.terence.alarmclockapp.loadtests;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+
+
+/**
+ * The stored baseline of the load tests: the metrics of each phase of a reference run, under
+ * the keys "phaseName.metricName" of a properties file, against which every run is compared
+ *
+ * A metric has regressed if it is worse than its baseline by more than its tolerance:
+ *      (a) Throughput (operations per second) may be up to 30% lower, since it depends on
+ *          the machine and its load
+ *      (b) Memory allocated per operation may be up to 30% higher, since the JVM's
+ *          allocations vary between runs (e.g. with JIT compilation)
+ *      (c) AlarmManager and NotificationManager calls per operation may be up to 10%
+ *          higher, since they are nearly deterministic (they only vary with the time of
+ *          day at which the alarms are armed)
+ *
+ * A metric with no baseline (e.g. of a new phase, or before a baseline has been recorded)
+ * counts as a regression, so that a missing or empty baseline fails the run rather than
+ * letting every result through
+ *
+ * <b>Example Usage:</b>
+ * <pre>
+ *     LoadTestBaseline loadTestBaseline = LoadTestBaseline.load(baselineFile);
+ *
+ *     List&lt;String&gt; regressions = loadTestBaseline.findRegressions(phaseResults);
+ *
+ *     //record the results of a reference run as the new baseline
+ *     LoadTestBaseline.store(baselineFile, phaseResults, "Recorded on the CI machine");
+ * </pre>
+ *
+ * @author Terence Lee
+ * */
+public class LoadTestBaseline {
+
+    static final List<String> METRIC_NAMES = Arrays.asList(
+            LoadTestPhaseResult.OPERATIONS_PER_SECOND,
+            LoadTestPhaseResult.ALLOCATED_BYTES_PER_OPERATION,
+            LoadTestPhaseResult.ALARM_MANAGER_CALLS_PER_OPERATION,
+            LoadTestPhaseResult.NOTIFICATION_MANAGER_CALLS_PER_OPERATION);
+
+    private static final double THROUGHPUT_TOLERANCE = 0.30;
+
+    private static final double ALLOCATION_TOLERANCE = 0.30;
+
+    private static final double SYSTEM_CALL_TOLERANCE = 0.10;
+
+    /**
+     * Slack allowed on top of the tolerance of calls per operation, so that a baseline of
+     * (nearly) zero calls does not fail on a single extra call
+     * */
+    private static final double SYSTEM_CALLS_PER_OPERATION_SLACK = 0.001;
+
+    private final Properties baselineMetrics;
+
+
+    private LoadTestBaseline(Properties baselineMetrics){
+        this.baselineMetrics = baselineMetrics;
+    }
+
+
+    /**
+     * Load the baseline from a properties file. The baseline is empty if the file does
+     * not exist
+     *
+     * @param baselineFile the properties file of the baseline
+     * */
+    public static LoadTestBaseline load(File baselineFile) throws IOException {
+
+        Properties baselineMetrics = new Properties();
+
+        if (baselineFile.exists()){
+
+            try (InputStream inputStream = new FileInputStream(baselineFile)){
+                baselineMetrics.load(inputStream);
+            }
+        }
+
+        return new LoadTestBaseline(baselineMetrics);
+    }
+
+
+    /**
+     * Store the results of a run as the baseline, replacing the baseline in the file
+     *
+     * @param baselineFile the properties file of the baseline
+     * @param phaseResults the results of each phase of the run
+     * @param comments comments written at the top of the file, e.g. how the run was made
+     * */
+    public static void store(File baselineFile, List<LoadTestPhaseResult> phaseResults,
+                             String comments) throws IOException {
+
+        Properties baselineMetrics = new Properties();
+
+        for (LoadTestPhaseResult phaseResult : phaseResults){
+            phaseResult.putMetrics(baselineMetrics);
+        }
+
+        File parentDirectory = baselineFile.getParentFile();
+
+        if (parentDirectory != null && !parentDirectory.isDirectory() &&
+                !parentDirectory.mkdirs()){
+            throw new IOException("Could not create " + parentDirectory);
+        }
+
+        try (OutputStream outputStream = new FileOutputStream(baselineFile)){
+            baselineMetrics.store(outputStream, comments);
+        }
+    }
+
+
+    /**
+     * Returns a description of each metric of the run that has regressed beyond its
+     * tolerance, or that has no baseline, or an empty list if there is none
+     *
+     * @param phaseResults the results of each phase of the run
+     * */
+    public List<String> findRegressions(List<LoadTestPhaseResult> phaseResults){
+
+        List<String> regressions = new ArrayList<>();
+
+        for (LoadTestPhaseResult phaseResult : phaseResults){
+
+            for (String metricName : METRIC_NAMES){
+
+                String key = phaseResult.getPhaseName() + "." + metricName;
+
+                String baselineValue = baselineMetrics.getProperty(key);
+
+                if (baselineValue == null){
+                    regressions.add(key + " has no baseline; record one with " +
+                                    "-PupdateLoadTestBaseline");
+                    continue;
+                }
+
+                double baseline = Double.parseDouble(baselineValue);
+                double measured = phaseResult.getMetric(metricName);
+                double limit = getLimit(metricName, baseline);
+
+                boolean isHigherBetter =
+                        metricName.equals(LoadTestPhaseResult.OPERATIONS_PER_SECOND);
+
+                if (isHigherBetter ? measured < limit : measured > limit){
+                    regressions.add(String.format(Locale.ROOT,
+                            "%s regressed to %.4f (baseline %.4f, limit %.4f)",
+                            key, measured, baseline, limit));
+                }
+            }
+        }
+
+        return regressions;
+    }
+
+
+    /**
+     * Returns the worst value a metric may have before it has regressed
+     *
+     * @param metricName the name of the metric
+     * @param baseline the baseline value of the metric
+     * */
+    private static double getLimit(String metricName, double baseline){
+
+        switch (metricName){
+
+            case LoadTestPhaseResult.OPERATIONS_PER_SECOND:
+                return baseline * (1 - THROUGHPUT_TOLERANCE);
+
+            case LoadTestPhaseResult.ALLOCATED_BYTES_PER_OPERATION:
+                return baseline * (1 + ALLOCATION_TOLERANCE);
+
+            default:
+                return baseline * (1 + SYSTEM_CALL_TOLERANCE) +
+                        SYSTEM_CALLS_PER_OPERATION_SLACK;
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package lee.terence.alarmclockapp.loadtests;
+
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.Properties;
+
+
+/**
+ * The measurements of one phase of a load test (e.g. creating all the alarms): its
+ * throughput, the memory allocated by it, and the AlarmManager and NotificationManager calls
+ * made by it
+ *
+ * Memory allocated is the total of the bytes allocated by all the live threads (the test's
+ * main thread, the AlarmClockActor's thread and the helpers' background threads), as reported
+ * by the JVM. The allocations of threads that start and finish within the phase are not
+ * counted, which none of the app's threads do
+ *
+ * Everything is measured per operation (e.g. per alarm created), so that runs with different
+ * numbers of alarms can be compared with the same baseline
+ *
+ * <b>Example Usage:</b>
+ * <pre>
+ *     LoadTestPhaseResult createResult = LoadTestPhaseResult.measure("create", numberOfAlarms,
+ *              () -> createAlarms(numberOfAlarms));
+ *
+ *     System.out.println(createResult);
+ * </pre>
+ *
+ * @author Terence Lee
+ * */
+public class LoadTestPhaseResult {
+
+    static final String OPERATIONS_PER_SECOND = "operationsPerSecond";
+    static final String ALLOCATED_BYTES_PER_OPERATION = "allocatedBytesPerOperation";
+    static final String ALARM_MANAGER_CALLS_PER_OPERATION = "alarmManagerCallsPerOperation";
+    static final String NOTIFICATION_MANAGER_CALLS_PER_OPERATION =
+                                                        "notificationManagerCallsPerOperation";
+
+    private final String phaseName;
+
+    private final int numberOfOperations;
+
+    private final long elapsedTimeInNanoseconds;
+
+    private final long allocatedBytes;
+
+    private final int numberOfAlarmManagerCalls;
+
+    private final int numberOfNotificationManagerCalls;
+
+
+    private LoadTestPhaseResult(String phaseName, int numberOfOperations,
+                                long elapsedTimeInNanoseconds, long allocatedBytes,
+                                int numberOfAlarmManagerCalls,
+                                int numberOfNotificationManagerCalls){
+        this.phaseName = phaseName;
+        this.numberOfOperations = numberOfOperations;
+        this.elapsedTimeInNanoseconds = elapsedTimeInNanoseconds;
+        this.allocatedBytes = allocatedBytes;
+        this.numberOfAlarmManagerCalls = numberOfAlarmManagerCalls;
+        this.numberOfNotificationManagerCalls = numberOfNotificationManagerCalls;
+    }
+
+
+    /**
+     * Run a phase of a load test, and measure it
+     *
+     * @param phaseName name of the phase, e.g. "create"
+     * @param numberOfOperations number of operations the phase performs, e.g. the number of
+     *                           alarms it creates
+     * @param phase the phase. Must only return once all of its work has finished, including
+     *              the work it has handed over to other threads
+     * */
+    public static LoadTestPhaseResult measure(String phaseName, int numberOfOperations,
+                                              Runnable phase){
+
+        CountingShadowAlarmManager.resetNumberOfCalls();
+        CountingShadowNotificationManager.resetNumberOfCalls();
+
+        long allocatedBytesAtStart = getTotalAllocatedBytes();
+        long startTime = System.nanoTime();
+
+        phase.run();
+
+        long elapsedTimeInNanoseconds = System.nanoTime() - startTime;
+        long allocatedBytes = getTotalAllocatedBytes() - allocatedBytesAtStart;
+
+        return new LoadTestPhaseResult(phaseName, numberOfOperations, elapsedTimeInNanoseconds,
+                allocatedBytes, CountingShadowAlarmManager.getNumberOfCalls(),
+                CountingShadowNotificationManager.getNumberOfCalls());
+    }
+
+
+    /**
+     * Returns the total of the bytes allocated so far by all the live threads
+     * */
+    private static long getTotalAllocatedBytes(){
+
+        com.sun.management.ThreadMXBean threadMXBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        long totalAllocatedBytes = 0;
+
+        for (long allocatedBytes :
+                threadMXBean.getThreadAllocatedBytes(threadMXBean.getAllThreadIds())){
+
+            //-1 for a thread that has finished since its id was read
+            if (allocatedBytes > 0){
+                totalAllocatedBytes += allocatedBytes;
+            }
+        }
+
+        return totalAllocatedBytes;
+    }
+
+
+    public String getPhaseName(){
+        return phaseName;
+    }
+
+
+    /**
+     * Returns the value of a metric of the phase, by its name (e.g. OPERATIONS_PER_SECOND)
+     *
+     * @param metricName the name of the metric
+     * */
+    double getMetric(String metricName){
+
+        switch (metricName){
+
+            case OPERATIONS_PER_SECOND:
+                return numberOfOperations * 1e9 / Math.max(elapsedTimeInNanoseconds, 1);
+
+            case ALLOCATED_BYTES_PER_OPERATION:
+                return (double) allocatedBytes / numberOfOperations;
+
+            case ALARM_MANAGER_CALLS_PER_OPERATION:
+                return (double) numberOfAlarmManagerCalls / numberOfOperations;
+
+            case NOTIFICATION_MANAGER_CALLS_PER_OPERATION:
+                return (double) numberOfNotificationManagerCalls / numberOfOperations;
+
+            default:
+                throw new IllegalArgumentException("Unknown metric " + metricName);
+        }
+    }
+
+
+    /**
+     * Put all the metrics of the phase into properties, each under the key
+     * "phaseName.metricName"
+     *
+     * @param properties the properties to put the metrics into. Will be modified
+     * */
+    void putMetrics(Properties properties){
+
+        for (String metricName : LoadTestBaseline.METRIC_NAMES){
+            properties.setProperty(phaseName + "." + metricName,
+                                    String.format(Locale.ROOT, "%.4f", getMetric(metricName)));
+        }
+    }
+
+
+    @Override
+    public String toString(){
+
+        return String.format(Locale.ROOT,
+                "%-10s %9d ops %10.0f ops/s %10.0f B/op %7d AlarmManager calls " +
+                "%7d NotificationManager calls", phaseName, numberOfOperations,
+                getMetric(OPERATIONS_PER_SECOND), getMetric(ALLOCATED_BYTES_PER_OPERATION),
+                numberOfAlarmManagerCalls, numberOfNotificationManagerCalls);
+    }
+}